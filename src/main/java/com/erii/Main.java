@@ -1,28 +1,71 @@
 package com.erii;
-import java.util.List;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.erii.core.ArchivePolicy;
 import com.erii.core.Erii;
+import com.erii.core.TaskHistory;
 import com.erii.core.TaskManager;
 import com.erii.user.UserDetails;
 import com.erii.data.DataStorage;
+import com.erii.data.DescriptionSpill;
+import com.erii.data.KeyValueTaskRepository;
+import com.erii.data.TaskRepository;
+import com.erii.data.TaskSync;
+import com.erii.data.TextTaskRepository;
+import com.erii.data.UserStore;
+import com.erii.data.UserStores;
+import com.erii.metrics.Metrics;
+import com.erii.server.TaskServer;
 import com.erii.ui.ControlPanel;
+import com.erii.util.LineReader;
 
 /**
  * The main class of the program.
  * It initializes the necessary objects and starts the program execution.
  */
 public class Main {
+    private static final int DEFAULT_ARCHIVE_DAYS = 30;
+
     public static void main(String[] args) {
-        DataStorage storage = new DataStorage();
-        TaskManager taskManager = new TaskManager();
-        UserDetails userDetails = storage.loadUserDetails();
-        ControlPanel controlPanel = new ControlPanel(taskManager, storage, userDetails);
+        Metrics.registerMBean();
+        UserStores stores = new UserStores(DataStorage.DATA_DIRECTORY, Integer.getInteger("erii.users.open", 4),
+                Main::createRepository, Main::createTaskManager, isShared());
+        UserStore store = stores.open(System.getProperty("erii.user", UserStores.DEFAULT_USER));
+
+        String syncDirectory = System.getProperty("erii.sync");
+        if (syncDirectory != null) {
+            sync(store.getStorage(), syncDirectory);
+        }
+
+        Integer serverPort = Integer.getInteger("erii.server.port");
+        if (serverPort != null) {
+            startServer(stores, store, serverPort);
+            return;
+        }
+
+        run(stores, store, LineReader.standardInput());
+    }
+
+    /**
+     * Greets the user of a profile, registering them first if the profile is new, and runs
+     * the control panel on the given input until the user exits or the input ends.
+     *
+     * @param stores the open user stores
+     * @param store  the store of the profile to start with
+     * @param input  the reader of the commands
+     */
+    public static void run(UserStores stores, UserStore store, LineReader input) {
+        DataStorage storage = store.getStorage();
+        UserDetails userDetails = store.getUserDetails();
 
-        Erii.main(args);
+        Erii.main(new String[0]);
 
         System.out.println("Initializing Kassel Academy...");
 
-        if (userDetails == null || userDetails.getUserName() == null || userDetails.getUserName().isEmpty()) {
-            userDetails = new UserDetails();
+        if (userDetails.getUserName() == null || userDetails.getUserName().isEmpty()) {
+            userDetails.setReader(input);
             userDetails.inputName();
             userDetails.inputBirthday();
             userDetails.inputGender();
@@ -39,12 +82,130 @@ public class Main {
             System.out.println(message);
         }
 
-        List<TaskManager.Task> loadedTasks = storage.loadTasks(taskManager);
-        for (TaskManager.Task task : loadedTasks) {
-            taskManager.loadTask(task);
-        }
+        TaskManager taskManager = store.getTaskManager();
         taskManager.listTasks();
 
+        ControlPanel controlPanel = new ControlPanel(stores, store, input);
         controlPanel.start();
     }
-}
\ No newline at end of file
+
+    /**
+     * Serves the tasks of a profile over HTTP on the loopback address instead of starting
+     * the control panel. The server runs until the process is stopped, and the open stores
+     * are written back when it is.
+     *
+     * @param stores the open user stores
+     * @param store  the store of the profile to serve
+     * @param port   the port to listen on, or 0 for any free port
+     */
+    private static void startServer(UserStores stores, UserStore store, int port) {
+        try {
+            TaskServer server = new TaskServer(store.getTaskManager(), store.getPersister(),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    Integer.getInteger("erii.server.threads", TaskServer.defaultThreads()));
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                stores.closeAll();
+            }));
+            InetSocketAddress address = server.getAddress();
+            System.out.println("Erii is serving tasks at http://" + address.getHostString() + ":"
+                    + address.getPort() + "/tasks");
+        } catch (IOException e) {
+            System.out.println("An error occurred while starting the server: " + e.getMessage());
+            stores.closeAll();
+        }
+    }
+
+    /**
+     * Brings the tasks of a profile and of another data directory, such as a copy kept on
+     * another computer, up to date with each other. It runs before the tasks of the profile
+     * are loaded, so the profile starts with the synced tasks.
+     *
+     * @param storage   the storage of the profile
+     * @param directory the other data directory, as given by the erii.sync system property
+     */
+    private static void sync(DataStorage storage, String directory) {
+        DataStorage other = new DataStorage(directory, createRepository(directory));
+        TaskSync.Result result = new TaskSync(storage, other).sync();
+        other.close();
+        System.out.println("Synced with " + directory + ": " + result.sent + " changes sent, "
+                + result.received + " received, " + result.conflicts
+                + " conflicts settled in favour of the later change.");
+        if (result.renumbered > 0) {
+            System.out.println(result.renumbered + " tasks added on both sides with the same number were both kept.");
+        }
+    }
+
+    /**
+     * Returns whether the profiles are shared with other processes, as selected by the
+     * erii.shared system property. Sharing needs the text task file, so it is turned off
+     * with the key-value store.
+     *
+     * @return true if changes are shared through a journal
+     */
+    private static boolean isShared() {
+        if (!Boolean.getBoolean("erii.shared")) {
+            return false;
+        }
+        if ("kv".equals(System.getProperty("erii.storage"))) {
+            System.out.println("Sharing tasks with other windows needs the text task file. It is turned off.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the task repository of a profile directory, as selected by the
+     * erii.storage, erii.storage.compress and erii.storage.lazy system properties.
+     * Descriptions are not loaded lazily when profiles are shared, since another process
+     * may rewrite the task file they would be read from.
+     *
+     * @param directory the profile directory
+     * @return the task repository
+     */
+    public static TaskRepository createRepository(String directory) {
+        if ("kv".equals(System.getProperty("erii.storage"))) {
+            return new KeyValueTaskRepository(directory + "/" + DataStorage.TASKS_DB_FILE_NAME);
+        }
+        return new TextTaskRepository(directory + "/" + DataStorage.TASKS_FILE_NAME,
+                Boolean.getBoolean("erii.storage.compress"),
+                Boolean.getBoolean("erii.storage.lazy") && !Boolean.getBoolean("erii.shared"));
+    }
+
+    /**
+     * Creates an empty task manager with the history settings from the
+     * erii.history.depth and erii.history.persist system properties, the duplicate
+     * policy from the erii.dedup system property (allow, reject or merge), and the archive
+     * policy from the erii.archive.days system property: the number of days deadlines and
+     * events stay in the list past their date, or a negative number to never archive tasks.
+     * If the erii.memory.budget system property is set, descriptions are spilled to disk and
+     * at most that many megabytes of them are kept on the heap.
+     *
+     * @return the task manager
+     */
+    public static TaskManager createTaskManager() {
+        TaskManager taskManager = new TaskManager(Integer.getInteger("erii.history.depth", TaskHistory.DEFAULT_DEPTH));
+        taskManager.getHistory().setPersistent(Boolean.getBoolean("erii.history.persist"));
+        String dedup = System.getProperty("erii.dedup", "allow");
+        try {
+            taskManager.setDuplicatePolicy(TaskManager.DuplicatePolicy.valueOf(dedup.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown duplicate policy " + dedup + ", duplicates are allowed.");
+        }
+        int archiveDays = Integer.getInteger("erii.archive.days", DEFAULT_ARCHIVE_DAYS);
+        if (archiveDays >= 0) {
+            taskManager.setArchivePolicy(new ArchivePolicy(archiveDays));
+        }
+        Integer budget = Integer.getInteger("erii.memory.budget");
+        if (budget != null) {
+            try {
+                taskManager.setDescriptionStore(new DescriptionSpill(budget * 1024L * 1024L));
+            } catch (IOException e) {
+                System.out.println("An error occurred while creating the spill file: " + e.getMessage()
+                        + ". Descriptions are kept in memory.");
+            }
+        }
+        return taskManager;
+    }
+}
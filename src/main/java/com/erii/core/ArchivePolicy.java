@@ -0,0 +1,58 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.Task;
+import com.erii.core.TaskManager.Todo;
+
+/**
+ * The ArchivePolicy class decides which tasks leave the task list for the archive.
+ * <p>
+ * A task is archived once it is finished with: a done todo, a done deadline that was due more
+ * than a number of days ago, or an event that ended more than that many days ago, done or not.
+ * Deadlines that are overdue but not done stay in the list, since they are still work to do.
+ * Done todos have no date to age by, so they are archived at the next run.
+ */
+public class ArchivePolicy {
+    private final int days;
+
+    /**
+     * Constructs an ArchivePolicy that keeps dated tasks in the list for some days after their date.
+     *
+     * @param days the number of days past their date deadlines and events are kept
+     */
+    public ArchivePolicy(int days) {
+        if (days < 0) {
+            throw new IllegalArgumentException("Tasks cannot be kept a negative number of days.");
+        }
+        this.days = days;
+    }
+
+    /**
+     * Returns the number of days past their date deadlines and events are kept.
+     *
+     * @return the number of days
+     */
+    public int getDays() {
+        return days;
+    }
+
+    /**
+     * Returns whether a task should be archived.
+     *
+     * @param task  the task
+     * @param today the current day
+     * @return true if the task belongs in the archive
+     */
+    public boolean isArchived(Task task, LocalDate today) {
+        LocalDate cutoff = today.minusDays(days);
+        if (task instanceof Event) {
+            return ((Event) task).getEnd().isBefore(cutoff);
+        } else if (task instanceof Deadline) {
+            return ((Deadline) task).isDone() && ((Deadline) task).getBy().toLocalDate().isBefore(cutoff);
+        }
+        return task instanceof Todo && ((Todo) task).isDone();
+    }
+}
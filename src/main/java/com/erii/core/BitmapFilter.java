@@ -0,0 +1,180 @@
+package com.erii.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.erii.core.TaskManager.Priority;
+
+/**
+ * The BitmapFilter class evaluates a filter expression against a bitmap index.
+ * <p>
+ * An expression combines conditions with AND, OR, NOT and parentheses; conditions written
+ * next to each other without an operator are joined by AND. The conditions are
+ * {@code tag:ops} or {@code #ops}, {@code type:todo}, {@code type:deadline} or {@code type:event},
+ * {@code priority:S} or a comparison such as {@code priority<=S}, and {@code done}.
+ * Priorities compare in the order they are declared, so {@code priority<=S} selects SS and S.
+ * Each condition is a bitmap of the index and each operator a bitmap operation,
+ * so no task is looked at until the result is materialized.
+ */
+class BitmapFilter {
+    private final BitmapIndex index;
+    private final List<String> tokens;
+    private int position;
+
+    private BitmapFilter(BitmapIndex index, String expression) {
+        this.index = index;
+        this.tokens = tokenize(expression);
+    }
+
+    /**
+     * Evaluates a filter expression. Must be called with the read lock of the task manager held.
+     *
+     * @param index      the bitmap index of the task list
+     * @param expression the filter expression
+     * @return the ids of the tasks selected by the expression; the bitmap must not be changed
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    static IdBitmap evaluate(BitmapIndex index, String expression) {
+        BitmapFilter filter = new BitmapFilter(index, expression);
+        if (filter.tokens.isEmpty()) {
+            throw new IllegalArgumentException("the filter is empty");
+        }
+        IdBitmap result = filter.parseOr();
+        if (filter.position < filter.tokens.size()) {
+            throw new IllegalArgumentException("unexpected '" + filter.tokens.get(filter.position) + "'");
+        }
+        return result;
+    }
+
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c) || c == '(' || c == ')') {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                if (!Character.isWhitespace(c)) {
+                    tokens.add(String.valueOf(c));
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private IdBitmap parseOr() {
+        IdBitmap result = parseAnd();
+        while (accept("OR")) {
+            result = IdBitmap.or(result, parseAnd());
+        }
+        return result;
+    }
+
+    private IdBitmap parseAnd() {
+        IdBitmap result = parseNot();
+        while (position < tokens.size() && !peekIs("OR") && !peekIs(")")) {
+            accept("AND");
+            result = IdBitmap.and(result, parseNot());
+        }
+        return result;
+    }
+
+    private IdBitmap parseNot() {
+        if (accept("NOT")) {
+            return IdBitmap.andNot(index.all(), parseNot());
+        }
+        if (accept("(")) {
+            IdBitmap result = parseOr();
+            if (!accept(")")) {
+                throw new IllegalArgumentException("missing ')'");
+            }
+            return result;
+        }
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("the filter ends too early");
+        }
+        return condition(tokens.get(position++));
+    }
+
+    private IdBitmap condition(String token) {
+        String lower = token.toLowerCase(Locale.ROOT);
+        if (lower.equals("done")) {
+            return index.done();
+        } else if (lower.startsWith("#")) {
+            return index.tagged(TaskManager.normalizeTag(token));
+        } else if (lower.startsWith("tag:")) {
+            return index.tagged(TaskManager.normalizeTag(token.substring(4)));
+        } else if (lower.startsWith("type:")) {
+            String type = lower.substring(5);
+            for (int i = 0; i < BitmapIndex.TYPES.length; i++) {
+                if (BitmapIndex.TYPES[i].equals(type)) {
+                    return index.ofType(i);
+                }
+            }
+            throw new IllegalArgumentException("unknown type '" + token.substring(5) + "'");
+        } else if (lower.startsWith("priority")) {
+            return priority(token.substring(8));
+        }
+        throw new IllegalArgumentException("unknown condition '" + token + "'");
+    }
+
+    private IdBitmap priority(String comparison) {
+        String operator = comparison.startsWith("<=") || comparison.startsWith(">=")
+                ? comparison.substring(0, 2) : comparison.isEmpty() ? "" : comparison.substring(0, 1);
+        if (!List.of("<=", ">=", "<", ">", "=", ":").contains(operator)) {
+            throw new IllegalArgumentException("expected a comparison after 'priority'");
+        }
+        Priority priority;
+        try {
+            priority = Priority.valueOf(comparison.substring(operator.length()).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown priority '" + comparison.substring(operator.length()) + "'");
+        }
+        IdBitmap result = new IdBitmap();
+        for (Priority p : Priority.values()) {
+            int order = Integer.compare(p.ordinal(), priority.ordinal());
+            boolean isSelected;
+            switch (operator) {
+                case "<=":
+                    isSelected = order <= 0;
+                    break;
+                case ">=":
+                    isSelected = order >= 0;
+                    break;
+                case "<":
+                    isSelected = order < 0;
+                    break;
+                case ">":
+                    isSelected = order > 0;
+                    break;
+                default:
+                    isSelected = order == 0;
+                    break;
+            }
+            if (isSelected) {
+                result = IdBitmap.or(result, index.withPriority(p));
+            }
+        }
+        return result;
+    }
+
+    private boolean peekIs(String keyword) {
+        return position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword);
+    }
+
+    private boolean accept(String keyword) {
+        if (peekIs(keyword)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,194 @@
+package com.erii.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.Priority;
+import com.erii.core.TaskManager.Task;
+import com.erii.core.TaskManager.Todo;
+
+/**
+ * The BitmapIndex class keeps the ids of the tasks with each tag, priority, type and done
+ * status in compressed bitmaps, so that filters combining them are answered with bitmap
+ * operations and only the matching tasks are looked up.
+ * It is kept up to date by the task manager under its write lock, and read under its read lock.
+ */
+class BitmapIndex {
+    static final String[] TYPES = {"todo", "deadline", "event"};
+
+    private final IdBitmap all = new IdBitmap();
+    private final IdBitmap done = new IdBitmap();
+    private final IdBitmap[] byPriority = new IdBitmap[Priority.values().length];
+    private final IdBitmap[] byType = new IdBitmap[TYPES.length];
+    private final Map<String, IdBitmap> byTag = new HashMap<>();
+    private final Map<Integer, Task> tasksById = new HashMap<>();
+
+    /**
+     * Constructs an empty BitmapIndex.
+     */
+    BitmapIndex() {
+        for (int i = 0; i < byPriority.length; i++) {
+            byPriority[i] = new IdBitmap();
+        }
+        for (int i = 0; i < byType.length; i++) {
+            byType[i] = new IdBitmap();
+        }
+    }
+
+    /**
+     * Indexes a task added to the task list.
+     *
+     * @param task the task
+     */
+    void added(Task task) {
+        int id = task.getId();
+        tasksById.put(id, task);
+        all.add(id);
+        byPriority[task.getPriority().ordinal()].add(id);
+        byType[typeOf(task)].add(id);
+        if (task instanceof Todo && ((Todo) task).isDone()) {
+            done.add(id);
+        }
+        for (String tag : task.getTags()) {
+            byTag.computeIfAbsent(tag, key -> new IdBitmap()).add(id);
+        }
+    }
+
+    /**
+     * Removes a task deleted from the task list.
+     *
+     * @param task the task
+     */
+    void removed(Task task) {
+        int id = task.getId();
+        tasksById.remove(id);
+        all.remove(id);
+        byPriority[task.getPriority().ordinal()].remove(id);
+        byType[typeOf(task)].remove(id);
+        done.remove(id);
+        removeTags(id, task.getTags());
+    }
+
+    /**
+     * Moves a task to its new done status.
+     *
+     * @param task   the task
+     * @param isDone the new done status
+     */
+    void doneChanged(Task task, boolean isDone) {
+        if (isDone) {
+            done.add(task.getId());
+        } else {
+            done.remove(task.getId());
+        }
+    }
+
+    /**
+     * Moves a task from its old tags to its new ones.
+     *
+     * @param task    the task
+     * @param oldTags the tags the task had
+     */
+    void tagsChanged(Task task, List<String> oldTags) {
+        removeTags(task.getId(), oldTags);
+        for (String tag : task.getTags()) {
+            byTag.computeIfAbsent(tag, key -> new IdBitmap()).add(task.getId());
+        }
+    }
+
+    private void removeTags(int id, List<String> tags) {
+        for (String tag : tags) {
+            IdBitmap tagged = byTag.get(tag);
+            if (tagged != null) {
+                tagged.remove(id);
+                if (tagged.isEmpty()) {
+                    byTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of all tasks. The bitmap must not be changed.
+     *
+     * @return the ids of all tasks
+     */
+    IdBitmap all() {
+        return all;
+    }
+
+    /**
+     * Returns the ids of the tasks that are done. The bitmap must not be changed.
+     *
+     * @return the ids of the done tasks
+     */
+    IdBitmap done() {
+        return done;
+    }
+
+    /**
+     * Returns the ids of the tasks with a tag. The bitmap must not be changed.
+     *
+     * @param tag the tag
+     * @return the ids of the tagged tasks
+     */
+    IdBitmap tagged(String tag) {
+        IdBitmap tagged = byTag.get(tag);
+        return tagged == null ? new IdBitmap() : tagged;
+    }
+
+    /**
+     * Returns the ids of the tasks with a priority. The bitmap must not be changed.
+     *
+     * @param priority the priority
+     * @return the ids of the tasks with the priority
+     */
+    IdBitmap withPriority(Priority priority) {
+        return byPriority[priority.ordinal()];
+    }
+
+    /**
+     * Returns the ids of the tasks of a type. The bitmap must not be changed.
+     *
+     * @param type the index of the type in TYPES
+     * @return the ids of the tasks of the type
+     */
+    IdBitmap ofType(int type) {
+        return byType[type];
+    }
+
+    /**
+     * Returns the tasks with the given ids, in id order.
+     *
+     * @param ids the ids
+     * @return the tasks
+     */
+    List<Task> tasks(IdBitmap ids) {
+        List<Task> tasks = new ArrayList<>(ids.cardinality());
+        ids.forEach(id -> tasks.add(tasksById.get(id)));
+        return tasks;
+    }
+
+    /**
+     * Returns the task with an id.
+     *
+     * @param id the id
+     * @return the task, or null if there is none
+     */
+    Task task(int id) {
+        return tasksById.get(id);
+    }
+
+    static int typeOf(Task task) {
+        if (task instanceof Deadline) {
+            return 1;
+        } else if (task instanceof Event) {
+            return 2;
+        }
+        return 0;
+    }
+}
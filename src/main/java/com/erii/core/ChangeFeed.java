@@ -0,0 +1,176 @@
+package com.erii.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The ChangeFeed class publishes the changes of a TaskManager to any number of subscribers
+ * through a bounded ring buffer. Each subscription has its own read position, so consumers
+ * read at their own pace in batches without locks and without copying the task list.
+ * <p>
+ * Events are published by one thread at a time, under the TaskManager's write lock. When the
+ * buffer is full the publisher waits for the slowest subscription to catch up. A subscription
+ * that has not caught up after MAX_WAIT_MILLIS is marked as overrun and dropped, so a stalled
+ * consumer cannot block the task list forever; it has to start again from a snapshot.
+ * Lossy subscriptions, meant for consumers that can cheaply rebuild from a snapshot, are
+ * dropped as soon as they would hold the publisher back.
+ */
+public class ChangeFeed {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long MAX_WAIT_MILLIS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AtomicReferenceArray<TaskEvent> ring;
+    private final int mask;
+    private final AtomicLong published = new AtomicLong(-1);
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * The Subscription class is one consumer's position in the feed.
+     * A subscription must only be polled by one thread at a time.
+     */
+    public final class Subscription {
+        private final AtomicLong next;
+        private final boolean isLossy;
+        private volatile boolean isOverrun;
+
+        private Subscription(long next, boolean isLossy) {
+            this.next = new AtomicLong(next);
+            this.isLossy = isLossy;
+        }
+
+        /**
+         * Takes up to maxEvents published events that this subscription has not seen yet.
+         *
+         * @param maxEvents the largest number of events to take
+         * @return the events in the order they were published, or an empty list if there are none
+         *         or the subscription is overrun
+         */
+        public List<TaskEvent> poll(int maxEvents) {
+            long from = next.get();
+            long to = Math.min(published.get(), from + maxEvents - 1);
+            if (isOverrun || to < from) {
+                return new ArrayList<>(0);
+            }
+            List<TaskEvent> batch = new ArrayList<>((int) (to - from + 1));
+            for (long sequence = from; sequence <= to; sequence++) {
+                batch.add(ring.get((int) sequence & mask));
+            }
+            if (isOverrun) {
+                // The publisher may have reused slots while they were being read
+                return new ArrayList<>(0);
+            }
+            next.set(to + 1);
+            return batch;
+        }
+
+        /**
+         * Returns the number of published events this subscription has not taken yet.
+         *
+         * @return the number of pending events
+         */
+        public long getLag() {
+            return published.get() + 1 - next.get();
+        }
+
+        /**
+         * Returns whether the subscription fell too far behind and was dropped.
+         * An overrun subscription receives no more events.
+         *
+         * @return true if the subscription is overrun
+         */
+        public boolean isOverrun() {
+            return isOverrun;
+        }
+
+        /**
+         * Stops the subscription, so that it no longer holds back the publisher.
+         */
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+
+    /**
+     * Constructs a ChangeFeed holding up to the given number of unread events,
+     * rounded up to a power of two.
+     *
+     * @param capacity the number of events the buffer holds
+     */
+    public ChangeFeed(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the number of events the buffer holds.
+     *
+     * @return the capacity of the buffer
+     */
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    /**
+     * Starts a subscription at the next event to be published.
+     * Must not run concurrently with publish; TaskManager.subscribe ensures that.
+     *
+     * @param isLossy true to drop the subscription instead of waiting for it when the buffer is full
+     * @return the new subscription
+     */
+    Subscription subscribe(boolean isLossy) {
+        Subscription subscription = new Subscription(published.get() + 1, isLossy);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Publishes an event, waiting for room in the buffer if a subscription is behind.
+     * Must only be called by one thread at a time.
+     *
+     * @param event the event to be published
+     */
+    void publish(TaskEvent event) {
+        long sequence = published.get() + 1;
+        long deadline = 0;
+        Subscription slowest;
+        while ((slowest = findBlocking(sequence)) != null) {
+            long now = System.nanoTime();
+            if (deadline == 0 && !slowest.isLossy) {
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+            } else if (slowest.isLossy || now - deadline > 0) {
+                slowest.isOverrun = true;
+                subscriptions.remove(slowest);
+                Metrics.count("feed.overruns", 1);
+                continue;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        ring.set((int) sequence & mask, event);
+        published.set(sequence);
+        Metrics.count("feed.published", 1);
+    }
+
+    /**
+     * Returns a subscription that has not yet read the event in the slot a sequence will reuse.
+     *
+     * @param sequence the sequence about to be published
+     * @return the blocking subscription, or null if the slot is free
+     */
+    private Subscription findBlocking(long sequence) {
+        for (Subscription subscription : subscriptions) {
+            if (sequence - subscription.next.get() >= ring.length()) {
+                return subscription;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,424 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+/**
+ * The DateIndex class keeps deadlines sorted by due time and events sorted by start date,
+ * so that a query over a range of dates only visits the tasks dated in or near that range.
+ * <p>
+ * An event overlaps a range if it starts no later than the range ends and ends no earlier than
+ * it starts. Since the index is sorted by start date, the scan begins the length of the longest
+ * event before the range. That length only grows while the index is in use, which keeps the
+ * scan correct after long events are deleted, and is recomputed whenever the index is rebuilt.
+ */
+class DateIndex extends FeedIndex {
+    private final NavigableMap<LocalDateTime, List<Task>> deadlinesByTime = new TreeMap<>();
+    private final NavigableMap<LocalDate, List<Task>> eventsByStart = new TreeMap<>();
+    private long longestEventDays;
+    private int deadlineCount;
+    private int eventCount;
+
+    /**
+     * The Range class holds the deadlines and events of a range of dates, each sorted by date.
+     */
+    private static final class Range {
+        private final List<Task> deadlines = new ArrayList<>();
+        private final List<Task> events = new ArrayList<>();
+    }
+
+    /**
+     * Constructs a DateIndex over the tasks of a task manager.
+     * The index is built on the first query.
+     *
+     * @param taskManager the task manager to index
+     */
+    DateIndex(TaskManager taskManager) {
+        super(taskManager, "query.dates");
+    }
+
+    /**
+     * Returns the deadlines due at exactly the given time.
+     *
+     * @param datetime the due time
+     * @return the matching deadlines
+     */
+    List<Task> deadlinesAt(LocalDateTime datetime) {
+        long start = Metrics.start();
+        catchUp();
+        List<Task> found;
+        synchronized (this) {
+            found = new ArrayList<>(deadlinesByTime.getOrDefault(datetime, new ArrayList<>(0)));
+        }
+        record("query.deadlines-on", start, found.size(), found.size());
+        return found;
+    }
+
+    /**
+     * Estimates how many deadlines and events a range of days holds, assuming they are spread
+     * evenly between the earliest and the latest date in the index. The estimate takes constant
+     * time, so a query planner can compare it with other access paths before visiting any task.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @return the estimated number of tasks in the range
+     */
+    long estimateBetween(LocalDate from, LocalDate to) {
+        catchUp();
+        synchronized (this) {
+            long estimate = 0;
+            if (!deadlinesByTime.isEmpty()) {
+                estimate += spread(deadlineCount, deadlinesByTime.firstKey().toLocalDate(),
+                        deadlinesByTime.lastKey().toLocalDate(), from, to);
+            }
+            if (!eventsByStart.isEmpty()) {
+                estimate += spread(eventCount, eventsByStart.firstKey(), eventsByStart.lastKey(),
+                        from.minusDays(longestEventDays), to);
+            }
+            return estimate;
+        }
+    }
+
+    /**
+     * Returns the share of a number of tasks dated evenly from first to last that falls in a range.
+     */
+    private static long spread(int count, LocalDate first, LocalDate last, LocalDate from, LocalDate to) {
+        LocalDate start = from.isAfter(first) ? from : first;
+        LocalDate end = to.isBefore(last) ? to : last;
+        if (end.isBefore(start)) {
+            return 0;
+        }
+        long span = ChronoUnit.DAYS.between(first, last) + 1;
+        long days = ChronoUnit.DAYS.between(start, end) + 1;
+        return (count * days + span - 1) / span;
+    }
+
+    /**
+     * Returns the events that take place on at least one day of a range.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @return the matching events, sorted by start date
+     */
+    List<Task> eventsBetween(LocalDate from, LocalDate to) {
+        return collect(from, to, "query.events-on").events;
+    }
+
+    /**
+     * Returns the deadlines due and the events taking place within a range of days,
+     * sorted by due time or start date.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @return the matching tasks
+     */
+    List<Task> tasksBetween(LocalDate from, LocalDate to) {
+        Range range = collect(from, to, "query.range");
+        List<Task> merged = new ArrayList<>(range.deadlines.size() + range.events.size());
+        int d = 0;
+        int e = 0;
+        while (d < range.deadlines.size() || e < range.events.size()) {
+            if (e == range.events.size() || (d < range.deadlines.size()
+                    && byOf(range.deadlines.get(d)).isBefore(startOf(range.events.get(e)).atStartOfDay()))) {
+                merged.add(range.deadlines.get(d++));
+            } else {
+                merged.add(range.events.get(e++));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Returns an iterator over the deadlines due and the events taking place within a range of
+     * days, in the order of tasksBetween. The iterator reads the index one date at a time as it
+     * is advanced, so tasks added or deleted meanwhile on dates it has not reached yet are seen.
+     *
+     * @param from         the first day of the range
+     * @param to           the last day of the range
+     * @param hasDeadlines whether to include deadlines
+     * @param hasEvents    whether to include events
+     * @return the iterator
+     */
+    Iterator<Task> iterateBetween(LocalDate from, LocalDate to, boolean hasDeadlines, boolean hasEvents) {
+        return new RangeIterator(from, to, hasDeadlines, hasEvents);
+    }
+
+    /**
+     * The RangeIterator class merges the deadlines and events of a range of days, reading the
+     * tasks of one date from the index whenever those of the previous date have been returned.
+     */
+    private final class RangeIterator implements Iterator<Task> {
+        private final LocalDate from;
+        private final LocalDateTime deadlinesEnd;
+        private final LocalDate to;
+        private LocalDateTime deadlineKey;
+        private LocalDate eventKey;
+        private List<Task> deadlines;
+        private List<Task> events;
+        private int d;
+        private int e;
+
+        private RangeIterator(LocalDate from, LocalDate to, boolean hasDeadlines, boolean hasEvents) {
+            this.from = from;
+            this.to = to;
+            this.deadlinesEnd = to.plusDays(1).atStartOfDay();
+            this.deadlines = hasDeadlines ? null : new ArrayList<>(0);
+            this.events = hasEvents ? null : new ArrayList<>(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return headDeadline() != null || headEvent() != null;
+        }
+
+        @Override
+        public Task next() {
+            Task deadline = headDeadline();
+            Task event = headEvent();
+            if (deadline == null && event == null) {
+                throw new NoSuchElementException();
+            }
+            if (event == null || (deadline != null && byOf(deadline).isBefore(startOf(event).atStartOfDay()))) {
+                d++;
+                return deadline;
+            }
+            e++;
+            return event;
+        }
+
+        private Task headDeadline() {
+            while (deadlines == null || (d == deadlines.size() && deadlineKey != null)) {
+                d = 0;
+                deadlines = nextDeadlines(this);
+            }
+            return d < deadlines.size() ? deadlines.get(d) : null;
+        }
+
+        private Task headEvent() {
+            while (events == null || (e == events.size() && eventKey != null)) {
+                e = 0;
+                events = nextEvents(this);
+            }
+            return e < events.size() ? events.get(e) : null;
+        }
+    }
+
+    /**
+     * Reads the deadlines of the date after the last one an iterator read,
+     * leaving its key null once the range is exhausted.
+     */
+    private List<Task> nextDeadlines(RangeIterator range) {
+        catchUp();
+        synchronized (this) {
+            Map.Entry<LocalDateTime, List<Task>> entry = range.deadlineKey == null && range.deadlines == null
+                    ? deadlinesByTime.ceilingEntry(range.from.atStartOfDay())
+                    : deadlinesByTime.higherEntry(range.deadlineKey);
+            if (entry == null || !entry.getKey().isBefore(range.deadlinesEnd)) {
+                range.deadlineKey = null;
+                return new ArrayList<>(0);
+            }
+            range.deadlineKey = entry.getKey();
+            return new ArrayList<>(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads the events starting on the date after the last one an iterator read that overlap its
+     * range, leaving its key null once the range is exhausted.
+     */
+    private List<Task> nextEvents(RangeIterator range) {
+        catchUp();
+        synchronized (this) {
+            Map.Entry<LocalDate, List<Task>> entry = range.eventKey == null && range.events == null
+                    ? eventsByStart.ceilingEntry(range.from.minusDays(longestEventDays))
+                    : eventsByStart.higherEntry(range.eventKey);
+            if (entry == null || entry.getKey().isAfter(range.to)) {
+                range.eventKey = null;
+                return new ArrayList<>(0);
+            }
+            range.eventKey = entry.getKey();
+            List<Task> found = new ArrayList<>(entry.getValue().size());
+            for (Task event : entry.getValue()) {
+                if (!endOf(event).isBefore(range.from)) {
+                    found.add(event);
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Hands the tasks of each day of a range to a consumer, one day at a time and in date order.
+     * A day's tasks are its deadlines, by due time, followed by the events taking place that day.
+     * Days without tasks are skipped. The consumer runs after the index has been released.
+     *
+     * @param from     the first day of the range
+     * @param to       the last day of the range
+     * @param consumer the function receiving each day and its tasks
+     */
+    void forEachDay(LocalDate from, LocalDate to, BiConsumer<LocalDate, List<Task>> consumer) {
+        Range range = collect(from, to, "query.agenda");
+        List<Task> active = new ArrayList<>();
+        int d = 0;
+        int e = 0;
+        LocalDate day = from;
+        while (!day.isAfter(to)) {
+            while (e < range.events.size() && !startOf(range.events.get(e)).isAfter(day)) {
+                active.add(range.events.get(e++));
+            }
+            LocalDate today = day;
+            active.removeIf(event -> endOf(event).isBefore(today));
+            List<Task> dayTasks = new ArrayList<>();
+            while (d < range.deadlines.size() && byOf(range.deadlines.get(d)).toLocalDate().equals(day)) {
+                dayTasks.add(range.deadlines.get(d++));
+            }
+            dayTasks.addAll(active);
+            if (!dayTasks.isEmpty()) {
+                consumer.accept(day, dayTasks);
+            }
+            day = day.plusDays(1);
+            if (active.isEmpty()) {
+                // Jump over the days before the next deadline or event
+                LocalDate next = to.plusDays(1);
+                if (d < range.deadlines.size()) {
+                    next = byOf(range.deadlines.get(d)).toLocalDate();
+                }
+                if (e < range.events.size() && startOf(range.events.get(e)).isBefore(next)) {
+                    next = startOf(range.events.get(e));
+                }
+                if (next.isAfter(day)) {
+                    day = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the deadlines and events of a range of days from the index.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @param name the timer name of the query
+     * @return the deadlines and events of the range
+     */
+    private Range collect(LocalDate from, LocalDate to, String name) {
+        long start = Metrics.start();
+        catchUp();
+        Range range = new Range();
+        int scanned = 0;
+        if (to.isBefore(from)) {
+            // Date conditions that contradict each other, as in date>2026-02-01 date<2026-01-05
+            record(name, start, scanned, 0);
+            return range;
+        }
+        synchronized (this) {
+            for (List<Task> deadlines : deadlinesByTime.subMap(from.atStartOfDay(), true,
+                    to.plusDays(1).atStartOfDay(), false).values()) {
+                range.deadlines.addAll(deadlines);
+                scanned += deadlines.size();
+            }
+            for (List<Task> events : eventsByStart.subMap(from.minusDays(longestEventDays), true, to, true)
+                    .values()) {
+                for (Task event : events) {
+                    if (!endOf(event).isBefore(from)) {
+                        range.events.add(event);
+                    }
+                }
+                scanned += events.size();
+            }
+        }
+        record(name, start, scanned, range.deadlines.size() + range.events.size());
+        return range;
+    }
+
+    @Override
+    void clear() {
+        deadlinesByTime.clear();
+        eventsByStart.clear();
+        longestEventDays = 0;
+        deadlineCount = 0;
+        eventCount = 0;
+    }
+
+    @Override
+    void add(Task task) {
+        if (task instanceof Deadline) {
+            if (addOnce(deadlinesByTime.computeIfAbsent(byOf(task), key -> new ArrayList<>(1)), task)) {
+                deadlineCount++;
+            }
+        } else if (task instanceof Event) {
+            if (addOnce(eventsByStart.computeIfAbsent(startOf(task), key -> new ArrayList<>(1)), task)) {
+                eventCount++;
+            }
+            longestEventDays = Math.max(longestEventDays, ChronoUnit.DAYS.between(startOf(task), endOf(task)));
+        }
+    }
+
+    @Override
+    void remove(Task task) {
+        if (task instanceof Deadline) {
+            if (removeFrom(deadlinesByTime, byOf(task), task)) {
+                deadlineCount--;
+            }
+        } else if (task instanceof Event) {
+            if (removeFrom(eventsByStart, startOf(task), task)) {
+                eventCount--;
+            }
+        }
+    }
+
+    private static boolean addOnce(Collection<Task> tasks, Task task) {
+        for (Task indexed : tasks) {
+            if (indexed == task) {
+                return false;
+            }
+        }
+        tasks.add(task);
+        return true;
+    }
+
+    private static <K> boolean removeFrom(NavigableMap<K, List<Task>> index, K key, Task task) {
+        List<Task> tasks = index.get(key);
+        if (tasks == null) {
+            return false;
+        }
+        boolean isRemoved = tasks.removeIf(indexed -> indexed == task);
+        if (tasks.isEmpty()) {
+            index.remove(key);
+        }
+        return isRemoved;
+    }
+
+    private static LocalDateTime byOf(Task task) {
+        return ((Deadline) task).getBy();
+    }
+
+    private static LocalDate startOf(Task task) {
+        return ((Event) task).getStart();
+    }
+
+    private static LocalDate endOf(Task task) {
+        return ((Event) task).getEnd();
+    }
+
+    private static void record(String name, long start, int scanned, int returned) {
+        Metrics.time(name, start);
+        Metrics.count(name + ".scanned", scanned);
+        Metrics.count(name + ".returned", returned);
+    }
+}
@@ -0,0 +1,313 @@
+package com.erii.core;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.core.TaskManager.Todo;
+
+/**
+ * The DependencyGraph class keeps the tasks that must be done before others can start,
+ * and the set of tasks that are ready: not done, and not waiting for any task that is not done.
+ * <p>
+ * Each task counts the blockers it is still waiting for. When a task is done, only the counters
+ * of the tasks it blocks are decremented, and those reaching zero join the ready set; when it is
+ * undone, the same counters go back up. The ready set is a bitmap of task ids, so listing it costs
+ * the number of ready tasks, whatever the number of edges. Cycles are refused when an edge is
+ * added, by searching the tasks the new dependent blocks for the new blocker.
+ * It is kept up to date by the task manager under its write lock, and read under its read lock.
+ */
+class DependencyGraph {
+    private final Map<Integer, IdList> blockersById = new HashMap<>();
+    private final Map<Integer, IdList> dependentsById = new HashMap<>();
+    private final Map<Integer, Integer> waiting = new HashMap<>();
+    private final IdBitmap open = new IdBitmap();
+    private final IdBitmap ready = new IdBitmap();
+    private int edgeCount;
+    private long version;
+
+    /**
+     * The IdList class is a growable list of task ids, which keeps the edges of a task
+     * without boxing each id.
+     */
+    private static final class IdList {
+        private int[] ids = new int[2];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        private boolean remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean contains(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    /**
+     * Tracks a task added to the task list.
+     *
+     * @param task the task
+     */
+    void added(Task task) {
+        if (!isDone(task)) {
+            open.add(task.getId());
+            if (!waiting.containsKey(task.getId())) {
+                ready.add(task.getId());
+            }
+        }
+    }
+
+    /**
+     * Forgets a task deleted from the task list, together with its edges.
+     *
+     * @param task the task
+     */
+    void removed(Task task) {
+        int id = task.getId();
+        for (int blocker : blockersOf(id)) {
+            removeEdge(id, blocker);
+        }
+        for (int dependent : dependentsOf(id)) {
+            removeEdge(dependent, id);
+        }
+        open.remove(id);
+        ready.remove(id);
+    }
+
+    /**
+     * Moves a task to its new done status and updates the tasks it blocks.
+     *
+     * @param task   the task
+     * @param isDone the new done status
+     */
+    void doneChanged(Task task, boolean isDone) {
+        int id = task.getId();
+        if (isDone == !open.contains(id)) {
+            return;
+        }
+        IdList dependents = dependentsById.get(id);
+        if (isDone) {
+            open.remove(id);
+            ready.remove(id);
+            for (int i = 0; dependents != null && i < dependents.size; i++) {
+                release(dependents.ids[i]);
+            }
+        } else {
+            open.add(id);
+            if (!waiting.containsKey(id)) {
+                ready.add(id);
+            }
+            for (int i = 0; dependents != null && i < dependents.size; i++) {
+                hold(dependents.ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Makes a task wait for another.
+     *
+     * @param dependent the task that waits
+     * @param blocker   the task it waits for
+     * @return false if the task already waits for the other
+     * @throws IllegalArgumentException if the blocker already waits for the task, directly or not
+     */
+    boolean addEdge(Task dependent, Task blocker) {
+        int id = dependent.getId();
+        int blockerId = blocker.getId();
+        if (id == blockerId) {
+            throw new IllegalArgumentException("a task cannot wait for itself");
+        }
+        IdList blockers = blockersById.get(id);
+        if (blockers != null && blockers.contains(blockerId)) {
+            return false;
+        }
+        if (reaches(id, blockerId)) {
+            throw new IllegalArgumentException("the task it would wait for already waits for it");
+        }
+        blockersById.computeIfAbsent(id, key -> new IdList()).add(blockerId);
+        dependentsById.computeIfAbsent(blockerId, key -> new IdList()).add(id);
+        edgeCount++;
+        version++;
+        if (open.contains(blockerId)) {
+            hold(id);
+        }
+        return true;
+    }
+
+    /**
+     * Stops a task from waiting for another.
+     *
+     * @param dependent the id of the task that waits
+     * @param blocker   the id of the task it waits for
+     * @return false if the task did not wait for the other
+     */
+    boolean removeEdge(int dependent, int blocker) {
+        if (!removeFrom(blockersById, dependent, blocker)) {
+            return false;
+        }
+        removeFrom(dependentsById, blocker, dependent);
+        edgeCount--;
+        version++;
+        if (open.contains(blocker)) {
+            release(dependent);
+        }
+        return true;
+    }
+
+    private static boolean removeFrom(Map<Integer, IdList> edges, int from, int to) {
+        IdList list = edges.get(from);
+        if (list == null || !list.remove(to)) {
+            return false;
+        }
+        if (list.size == 0) {
+            edges.remove(from);
+        }
+        return true;
+    }
+
+    /**
+     * Counts one more blocker that is not done for a task.
+     */
+    private void hold(int id) {
+        if (waiting.merge(id, 1, Integer::sum) == 1) {
+            ready.remove(id);
+        }
+    }
+
+    /**
+     * Counts one blocker less for a task, which is ready once none are left.
+     */
+    private void release(int id) {
+        Integer count = waiting.get(id);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            waiting.put(id, count - 1);
+            return;
+        }
+        waiting.remove(id);
+        if (open.contains(id)) {
+            ready.add(id);
+        }
+    }
+
+    /**
+     * Returns whether a task blocks another, directly or through other tasks.
+     */
+    private boolean reaches(int from, int to) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        Set<Integer> visited = new HashSet<>();
+        pending.push(from);
+        visited.add(from);
+        while (!pending.isEmpty()) {
+            IdList dependents = dependentsById.get(pending.pop());
+            for (int i = 0; dependents != null && i < dependents.size; i++) {
+                int next = dependents.ids[i];
+                if (next == to) {
+                    return true;
+                }
+                if (visited.add(next)) {
+                    pending.push(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ids of the tasks a task waits for.
+     *
+     * @param id the id of the task
+     * @return the ids of its blockers
+     */
+    int[] blockersOf(int id) {
+        IdList blockers = blockersById.get(id);
+        return blockers == null ? new int[0] : blockers.toArray();
+    }
+
+    /**
+     * Returns the ids of the tasks waiting for a task.
+     *
+     * @param id the id of the task
+     * @return the ids of its dependents
+     */
+    int[] dependentsOf(int id) {
+        IdList dependents = dependentsById.get(id);
+        return dependents == null ? new int[0] : dependents.toArray();
+    }
+
+    /**
+     * Returns whether a task is waited for by a task that is not done.
+     *
+     * @param id the id of the task
+     * @return true if an open task depends on it
+     */
+    boolean isBlocking(int id) {
+        IdList dependents = dependentsById.get(id);
+        for (int i = 0; dependents != null && i < dependents.size; i++) {
+            if (open.contains(dependents.ids[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ids of the tasks that are ready. The bitmap must not be changed.
+     *
+     * @return the ids of the ready tasks
+     */
+    IdBitmap ready() {
+        return ready;
+    }
+
+    /**
+     * Returns the number of edges.
+     *
+     * @return the number of dependencies
+     */
+    int size() {
+        return edgeCount;
+    }
+
+    /**
+     * Returns a number that changes whenever an edge is added or removed.
+     *
+     * @return the version of the edges
+     */
+    long getVersion() {
+        return version;
+    }
+
+    private static boolean isDone(Task task) {
+        return task instanceof Todo && ((Todo) task).isDone();
+    }
+}
@@ -0,0 +1,16 @@
+package com.erii.core;
+
+/**
+ * The DescriptionSource interface supplies task descriptions that are kept outside the tasks,
+ * so that a task can be loaded without decoding its description until it is needed.
+ */
+public interface DescriptionSource {
+
+    /**
+     * Returns the description stored under a handle.
+     *
+     * @param handle the handle given to the task when it was loaded
+     * @return the description
+     */
+    String getDescription(long handle);
+}
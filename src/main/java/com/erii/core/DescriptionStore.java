@@ -0,0 +1,16 @@
+package com.erii.core;
+
+/**
+ * The DescriptionStore interface is a DescriptionSource that tasks can also move their
+ * descriptions to, so that the descriptions of a task list are not all held on the heap.
+ */
+public interface DescriptionStore extends DescriptionSource {
+
+    /**
+     * Stores a description.
+     *
+     * @param description the description
+     * @return the handle the description can be read back with
+     */
+    long store(String description);
+}
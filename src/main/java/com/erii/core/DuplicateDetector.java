@@ -0,0 +1,98 @@
+package com.erii.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.Task;
+
+/**
+ * The DuplicateDetector class finds a task with the same content as another in constant time.
+ * Two tasks have the same content if they are of the same type and have the same priority,
+ * description and dates; whether they are done does not matter.
+ */
+class DuplicateDetector {
+    private final Map<ContentKey, Task> tasksByContent = new HashMap<>();
+
+    /**
+     * The ContentKey class is the content of a task, used as a hash key.
+     */
+    private static final class ContentKey {
+        private final Task task;
+        private final int hash;
+
+        private ContentKey(Task task) {
+            this.task = task;
+            this.hash = Objects.hash(task.getClass(), task.getPriority(), task.getDescription(), dateOf(task),
+                    task instanceof Event ? ((Event) task).getEnd() : null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ContentKey)) {
+                return false;
+            }
+            Task that = ((ContentKey) other).task;
+            return hash == ((ContentKey) other).hash
+                    && task.getClass() == that.getClass()
+                    && task.getPriority() == that.getPriority()
+                    && task.getDescription().equals(that.getDescription())
+                    && Objects.equals(dateOf(task), dateOf(that))
+                    && (!(task instanceof Event) || ((Event) task).getEnd().equals(((Event) that).getEnd()));
+        }
+
+        private static Object dateOf(Task task) {
+            if (task instanceof Deadline) {
+                return ((Deadline) task).getBy();
+            } else if (task instanceof Event) {
+                return ((Event) task).getStart();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the task with the same content as a given task.
+     *
+     * @param task the task to look up
+     * @return the task with the same content, or null if there is none
+     */
+    Task find(Task task) {
+        return tasksByContent.get(new ContentKey(task));
+    }
+
+    /**
+     * Adds a task, unless a task with the same content is already present.
+     *
+     * @param task the task to be added
+     */
+    void add(Task task) {
+        tasksByContent.putIfAbsent(new ContentKey(task), task);
+    }
+
+    /**
+     * Removes a task if it is the one held for its content.
+     *
+     * @param task the task to be removed
+     */
+    void remove(Task task) {
+        ContentKey key = new ContentKey(task);
+        if (tasksByContent.get(key) == task) {
+            tasksByContent.remove(key);
+        }
+    }
+
+    /**
+     * Removes all tasks.
+     */
+    void clear() {
+        tasksByContent.clear();
+    }
+}
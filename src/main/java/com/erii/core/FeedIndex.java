@@ -0,0 +1,109 @@
+package com.erii.core;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+/**
+ * The FeedIndex class is the base of the secondary indexes over a task list. An index is built
+ * from a snapshot the first time it is used and then follows the task list through a lossy
+ * change feed subscription, applying only the tasks that were added or deleted since it was
+ * last used. If it falls a full buffer behind, it is rebuilt from a new snapshot.
+ * Subclasses call catchUp() first and then synchronize their queries on the index. Queries may
+ * run with the task manager's read lock held.
+ */
+abstract class FeedIndex {
+    private final TaskManager taskManager;
+    private final String name;
+    private ChangeFeed.Subscription subscription;
+    private long indexedVersion;
+
+    /**
+     * Constructs a FeedIndex over the tasks of a task manager.
+     *
+     * @param taskManager the task manager to index
+     * @param name        the name the index reports its rebuilds under
+     */
+    FeedIndex(TaskManager taskManager, String name) {
+        this.taskManager = taskManager;
+        this.name = name;
+    }
+
+    /**
+     * Applies the changes published since the last call, or rebuilds the index
+     * if it has not been built yet or fell behind the change feed.
+     * Must be called while not synchronized on the index: a rebuild subscribes and takes its
+     * snapshot before synchronizing, so the index is never held while waiting for the task
+     * manager's lock, which a query may hold while it waits for the index.
+     */
+    final void catchUp() {
+        ChangeFeed.Subscription fresh = null;
+        TaskManager.Snapshot snapshot = null;
+        while (true) {
+            synchronized (this) {
+                if (subscription != null && !subscription.isOverrun()) {
+                    if (fresh != null) {
+                        // Another caller rebuilt the index first
+                        fresh.close();
+                    }
+                    apply();
+                    return;
+                }
+                if (fresh != null && !fresh.isOverrun()) {
+                    rebuild(fresh, snapshot);
+                    apply();
+                    return;
+                }
+            }
+            if (fresh != null) {
+                fresh.close();
+            }
+            fresh = taskManager.subscribe(true);
+            snapshot = taskManager.getSnapshot();
+        }
+    }
+
+    private void apply() {
+        for (TaskEvent event : subscription.poll(Integer.MAX_VALUE)) {
+            if (event.getVersion() <= indexedVersion) {
+                continue;
+            }
+            if (event.getKind() == TaskEvent.Kind.ADDED) {
+                add(event.getTask());
+            } else if (event.getKind() == TaskEvent.Kind.DELETED) {
+                remove(event.getTask());
+            }
+        }
+    }
+
+    private void rebuild(ChangeFeed.Subscription fresh, TaskManager.Snapshot snapshot) {
+        if (subscription != null) {
+            subscription.close();
+        }
+        subscription = fresh;
+        clear();
+        for (Task task : snapshot.getTasks()) {
+            add(task);
+        }
+        indexedVersion = snapshot.getVersion();
+        Metrics.count(name + ".rebuilds", 1);
+    }
+
+    /**
+     * Removes all tasks from the index.
+     */
+    abstract void clear();
+
+    /**
+     * Adds a task to the index. A task that is already indexed is ignored.
+     *
+     * @param task the task to be added
+     */
+    abstract void add(Task task);
+
+    /**
+     * Removes a task from the index. A task that is not indexed is ignored.
+     *
+     * @param task the task to be removed
+     */
+    abstract void remove(Task task);
+}
@@ -0,0 +1,559 @@
+package com.erii.core;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * The IdBitmap class is a compressed set of task ids, laid out like a Roaring bitmap.
+ * <p>
+ * Ids are split into a high and a low 16-bit half. Ids sharing a high half are kept in one
+ * container: a sorted array of low halves while there are at most ARRAY_MAX of them, and a
+ * plain 65536-bit bitmap otherwise. Set operations work a container at a time, so sparse
+ * and dense sets both stay small and intersections of dense sets run a word at a time.
+ */
+final class IdBitmap {
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /**
+     * The Container class holds the low halves of the ids that share a high half.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        /**
+         * Adds a low half, returning the container that now holds it.
+         */
+        abstract Container add(char low);
+
+        /**
+         * Removes a low half, returning the container that now holds the rest, or null if none are left.
+         */
+        abstract Container remove(char low);
+
+        /**
+         * Hands each id to a consumer until it returns false, returning false if it did.
+         */
+        abstract boolean forEachWhile(int high, IntPredicate consumer);
+
+        /**
+         * Returns the smallest low half at or after the given one, or -1 if there is none.
+         */
+        abstract int next(int low);
+
+        abstract Container copy();
+
+        abstract long[] toWords();
+    }
+
+    /**
+     * The ArrayContainer class holds up to ARRAY_MAX low halves in a sorted array.
+     */
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int count;
+
+        private ArrayContainer(char[] values, int count) {
+            this.values = values;
+            this.count = count;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, count, low) >= 0;
+        }
+
+        @Override
+        Container add(char low) {
+            int at = Arrays.binarySearch(values, 0, count, low);
+            if (at >= 0) {
+                return this;
+            }
+            if (count == ARRAY_MAX) {
+                return new BitmapContainer(toWords(), count).add(low);
+            }
+            at = -at - 1;
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, count * 2)));
+            }
+            System.arraycopy(values, at, values, at + 1, count - at);
+            values[at] = low;
+            count++;
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            int at = Arrays.binarySearch(values, 0, count, low);
+            if (at < 0) {
+                return this;
+            }
+            System.arraycopy(values, at + 1, values, at, count - at - 1);
+            count--;
+            return count == 0 ? null : this;
+        }
+
+        @Override
+        boolean forEachWhile(int high, IntPredicate consumer) {
+            for (int i = 0; i < count; i++) {
+                if (!consumer.test(high | values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int next(int low) {
+            int at = Arrays.binarySearch(values, 0, count, (char) low);
+            if (at < 0) {
+                at = -at - 1;
+            }
+            return at < count ? values[at] : -1;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, count), count);
+        }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < count; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return words;
+        }
+    }
+
+    /**
+     * The BitmapContainer class holds more than ARRAY_MAX low halves as one bit each.
+     */
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int count;
+
+        private BitmapContainer(long[] words, int count) {
+            this.words = words;
+            this.count = count;
+        }
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(char low) {
+            long before = words[low >>> 6];
+            words[low >>> 6] = before | (1L << low);
+            if (before != words[low >>> 6]) {
+                count++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            long before = words[low >>> 6];
+            words[low >>> 6] = before & ~(1L << low);
+            if (before == words[low >>> 6]) {
+                return this;
+            }
+            count--;
+            return count <= ARRAY_MAX ? fromWords(words, count) : this;
+        }
+
+        @Override
+        boolean forEachWhile(int high, IntPredicate consumer) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    if (!consumer.test(high | (w << 6) | Long.numberOfTrailingZeros(word))) {
+                        return false;
+                    }
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int next(int low) {
+            int w = low >>> 6;
+            long word = words[w] & (-1L << low);
+            while (word == 0) {
+                if (++w == WORDS) {
+                    return -1;
+                }
+                word = words[w];
+            }
+            return (w << 6) | Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), count);
+        }
+
+        @Override
+        long[] toWords() {
+            return words;
+        }
+    }
+
+    /**
+     * Returns the smallest container holding the bits of a bitmap.
+     *
+     * @param words the bits
+     * @param count the number of bits set
+     * @return the container, or null if no bits are set
+     */
+    private static Container fromWords(long[] words, int count) {
+        if (count == 0) {
+            return null;
+        }
+        if (count > ARRAY_MAX) {
+            return new BitmapContainer(words, count);
+        }
+        char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values, count);
+    }
+
+    /**
+     * Adds an id to the set.
+     *
+     * @param id the id, which must not be negative
+     */
+    void add(int id) {
+        char high = (char) (id >>> 16);
+        int at = indexOfKey(high);
+        if (at >= 0) {
+            containers[at] = containers[at].add((char) id);
+            return;
+        }
+        insert(-at - 1, high, new ArrayContainer(new char[] {(char) id}, 1));
+    }
+
+    /**
+     * Removes an id from the set.
+     *
+     * @param id the id
+     */
+    void remove(int id) {
+        int at = indexOfKey((char) (id >>> 16));
+        if (at < 0) {
+            return;
+        }
+        Container container = containers[at].remove((char) id);
+        if (container != null) {
+            containers[at] = container;
+            return;
+        }
+        System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+        System.arraycopy(containers, at + 1, containers, at, size - at - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    /**
+     * Returns whether an id is in the set.
+     *
+     * @param id the id
+     * @return true if the id is in the set
+     */
+    boolean contains(int id) {
+        int at = indexOfKey((char) (id >>> 16));
+        return at >= 0 && containers[at].contains((char) id);
+    }
+
+    /**
+     * Returns the number of ids in the set.
+     *
+     * @return the number of ids
+     */
+    int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Returns whether the set is empty.
+     *
+     * @return true if the set has no ids
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Hands each id in the set to a consumer, in increasing order.
+     *
+     * @param consumer the function receiving the ids
+     */
+    void forEach(IntConsumer consumer) {
+        forEachWhile(id -> {
+            consumer.accept(id);
+            return true;
+        });
+    }
+
+    /**
+     * Hands each id in the set to a consumer, in increasing order, until the consumer returns false.
+     *
+     * @param consumer the function receiving the ids, returning whether to go on
+     * @return false if the consumer stopped early
+     */
+    boolean forEachWhile(IntPredicate consumer) {
+        for (int i = 0; i < size; i++) {
+            if (!containers[i].forEachWhile(keys[i] << 16, consumer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the smallest id in the set at or after the given one, so the set can be walked
+     * one id at a time without holding on to it between steps.
+     *
+     * @param from the id to start at, which must not be negative
+     * @return the id, or -1 if there is none
+     */
+    int nextId(int from) {
+        int high = from >>> 16;
+        int at = indexOfKey((char) high);
+        int low = from & 0xFFFF;
+        if (at < 0) {
+            at = -at - 1;
+            low = 0;
+        }
+        for (; at < size; at++, low = 0) {
+            int next = containers[at].next(low);
+            if (next >= 0) {
+                return (keys[at] << 16) | next;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a copy of the set that can be changed independently.
+     *
+     * @return the copy
+     */
+    IdBitmap copy() {
+        IdBitmap copy = new IdBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.containers = new Container[copy.keys.length];
+        for (int i = 0; i < size; i++) {
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Returns the ids in both sets.
+     *
+     * @param a the first set
+     * @param b the second set
+     * @return a new set with the ids in both
+     */
+    static IdBitmap and(IdBitmap a, IdBitmap b) {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container container = and(a.containers[i], b.containers[j]);
+                if (container != null) {
+                    result.insert(result.size, a.keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids in either set.
+     *
+     * @param a the first set
+     * @param b the second set
+     * @return a new set with the ids in either
+     */
+    static IdBitmap or(IdBitmap a, IdBitmap b) {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                result.insert(result.size, a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                result.insert(result.size, b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.insert(result.size, a.keys[i], or(a.containers[i], b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids in the first set but not in the second.
+     *
+     * @param a the first set
+     * @param b the second set
+     * @return a new set with the ids in the first set only
+     */
+    static IdBitmap andNot(IdBitmap a, IdBitmap b) {
+        IdBitmap result = new IdBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+            Container container = j < b.size && b.keys[j] == a.keys[i]
+                    ? andNot(a.containers[i], b.containers[j]) : a.containers[i].copy();
+            if (container != null) {
+                result.insert(result.size, a.keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    private static Container and(Container a, Container b) {
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer) (a instanceof ArrayContainer ? a : b);
+            Container other = array == a ? b : a;
+            char[] values = new char[array.count];
+            int n = 0;
+            for (int i = 0; i < array.count; i++) {
+                if (other.contains(array.values[i])) {
+                    values[n++] = array.values[i];
+                }
+            }
+            return n == 0 ? null : new ArrayContainer(values, n);
+        }
+        long[] words = new long[WORDS];
+        long[] aw = a.toWords();
+        long[] bw = b.toWords();
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+            words[w] = aw[w] & bw[w];
+            count += Long.bitCount(words[w]);
+        }
+        return fromWords(words, count);
+    }
+
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer
+                && a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+            ArrayContainer x = (ArrayContainer) a;
+            ArrayContainer y = (ArrayContainer) b;
+            char[] values = new char[x.count + y.count];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < x.count || j < y.count) {
+                if (j == y.count || (i < x.count && x.values[i] < y.values[j])) {
+                    values[n++] = x.values[i++];
+                } else if (i == x.count || x.values[i] > y.values[j]) {
+                    values[n++] = y.values[j++];
+                } else {
+                    values[n++] = x.values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+        long[] words = a.toWords().clone();
+        long[] bw = b.toWords();
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+            words[w] |= bw[w];
+            count += Long.bitCount(words[w]);
+        }
+        return fromWords(words, count);
+    }
+
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer) a;
+            char[] values = new char[array.count];
+            int n = 0;
+            for (int i = 0; i < array.count; i++) {
+                if (!b.contains(array.values[i])) {
+                    values[n++] = array.values[i];
+                }
+            }
+            return n == 0 ? null : new ArrayContainer(values, n);
+        }
+        long[] words = a.toWords().clone();
+        long[] bw = b.toWords();
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+            words[w] &= ~bw[w];
+            count += Long.bitCount(words[w]);
+        }
+        return fromWords(words, count);
+    }
+
+    private int indexOfKey(char high) {
+        if (size > 0 && keys[size - 1] == high) {
+            // Ids are handed out in increasing order, so the last container is the usual one
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insert(int at, char high, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = high;
+        containers[at] = container;
+        size++;
+    }
+}
@@ -0,0 +1,59 @@
+package com.erii.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The Interner class maps equal immutable values to one canonical instance, so that tasks
+ * sharing a description or a date share one object instead of each holding a copy.
+ * Entries are weak: a canonical value is forgotten once no task refers to it.
+ *
+ * @param <T> the type of the values; it must be immutable
+ */
+public class Interner<T> {
+    private final Map<T, WeakReference<T>> canonical = new WeakHashMap<>();
+    private final String name;
+
+    /**
+     * Constructs an Interner that reports how many values it saved under the given name.
+     *
+     * @param name the name of the counter of shared values
+     */
+    public Interner(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the canonical instance equal to a value, making the value canonical if there is none.
+     *
+     * @param value the value, or null
+     * @return the canonical instance, or null if the value is null
+     */
+    public synchronized T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        WeakReference<T> reference = canonical.get(value);
+        T existing = reference == null ? null : reference.get();
+        if (existing != null) {
+            if (existing != value) {
+                Metrics.count(name, 1);
+            }
+            return existing;
+        }
+        canonical.put(value, new WeakReference<>(value));
+        return value;
+    }
+
+    /**
+     * Returns the number of canonical values currently held.
+     *
+     * @return the number of canonical values
+     */
+    public synchronized int size() {
+        return canonical.size();
+    }
+}
@@ -0,0 +1,345 @@
+package com.erii.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.erii.core.TaskManager.Priority;
+import com.erii.core.TaskManager.Task;
+
+/**
+ * The QueryPlan class chooses how a query is answered, runs it and records what it cost.
+ * <p>
+ * A query can read its candidate tasks from one of three access paths: a scan of the whole
+ * list, the bitmap index, which answers the tag, type, priority and status conditions exactly,
+ * or the date index, which holds the tasks of the date range. The planner estimates how many
+ * tasks each path would examine, from the size of the list, the cardinality of the bitmap and
+ * an estimate of the date index, and picks the cheapest. A path that already delivers the
+ * requested order lets the limit stop it early, so its cost shrinks with the limit; any other
+ * path pays for a sort, which keeps only the top rows when there is a limit. The remaining
+ * conditions are checked on each candidate, and results are handed to the caller as they
+ * are found unless they have to be sorted first.
+ */
+public final class QueryPlan {
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    /**
+     * The AccessPath enum represents where a query reads its candidate tasks from.
+     */
+    public enum AccessPath {
+        SCAN, BITMAP, DATE_RANGE
+    }
+
+    private final TaskQuery query;
+    private final int totalRows;
+    private final long scanCost;
+    private final long bitmapCost;
+    private final long dateCost;
+    private final AccessPath path;
+    private final long estimatedRows;
+    private final boolean isOrdered;
+    private final IdBitmap selected;
+    private int rowsExamined;
+    private int rowsReturned;
+
+    private QueryPlan(TaskQuery query, int totalRows, IdBitmap selected, long dateEstimate) {
+        this.query = query;
+        this.totalRows = totalRows;
+        this.selected = selected;
+        long bitmapRows = selected == null ? -1 : selected.cardinality();
+        long expected = totalRows;
+        if (bitmapRows >= 0) {
+            expected = Math.min(expected, bitmapRows);
+        }
+        if (dateEstimate >= 0) {
+            expected = Math.min(expected, dateEstimate);
+        }
+        scanCost = cost(totalRows, delivers(AccessPath.SCAN), expected);
+        bitmapCost = bitmapRows < 0 ? -1 : cost(bitmapRows, delivers(AccessPath.BITMAP), expected);
+        dateCost = dateEstimate < 0 ? -1 : cost(dateEstimate, delivers(AccessPath.DATE_RANGE), expected);
+
+        AccessPath best = AccessPath.SCAN;
+        long bestCost = scanCost;
+        long rows = totalRows;
+        if (bitmapCost >= 0 && bitmapCost < bestCost) {
+            best = AccessPath.BITMAP;
+            bestCost = bitmapCost;
+            rows = bitmapRows;
+        }
+        if (dateCost >= 0 && dateCost < bestCost) {
+            best = AccessPath.DATE_RANGE;
+            rows = dateEstimate;
+        }
+        path = best;
+        estimatedRows = rows;
+        isOrdered = delivers(best);
+    }
+
+    /**
+     * Plans a query. Must be called with the read lock of the task manager held.
+     *
+     * @param query        the query
+     * @param index        the bitmap index of the task list
+     * @param totalRows    the number of tasks in the list
+     * @param dateEstimate the estimated number of tasks in the date range, or -1 if the query has none
+     * @return the plan
+     * @throws IllegalArgumentException if the tag, type, priority and status conditions are not valid
+     */
+    static QueryPlan choose(TaskQuery query, BitmapIndex index, int totalRows, long dateEstimate) {
+        IdBitmap selected = query.getBitmapExpression() == null ? null
+                : BitmapFilter.evaluate(index, query.getBitmapExpression());
+        return new QueryPlan(query, totalRows, selected, dateEstimate);
+    }
+
+    /**
+     * Returns whether an access path produces its tasks in the order the query asks for.
+     */
+    private boolean delivers(AccessPath candidate) {
+        TaskQuery.Order order = query.getOrder();
+        if (order == null) {
+            return true;
+        }
+        switch (candidate) {
+            case BITMAP:
+                return order == TaskQuery.Order.PRIORITY || (order == TaskQuery.Order.ID && !query.isDescending());
+            case DATE_RANGE:
+                return order == TaskQuery.Order.DATE;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Estimates the number of tasks a path examines, plus the matches it sorts if it is not in order.
+     *
+     * @param rows      the number of tasks the path produces
+     * @param isInOrder whether the path produces them in the requested order
+     * @param expected  the expected number of matches
+     * @return the cost
+     */
+    private long cost(long rows, boolean isInOrder, long expected) {
+        int limit = query.getLimit();
+        if (!isInOrder) {
+            return rows + expected;
+        } else if (limit >= 0 && expected > 0) {
+            // Matches are assumed to be spread evenly, so the path stops after limit / selectivity rows
+            return Math.min(rows, (limit * rows + expected - 1) / expected);
+        }
+        return rows;
+    }
+
+    /**
+     * Runs the query. Must be called within the same hold of the task manager's read lock as
+     * choose() and the reading of the date range.
+     *
+     * @param tasks    the task list
+     * @param index    the bitmap index of the task list
+     * @param range    the tasks of the date range, taken from the date index, for the DATE_RANGE path
+     * @param consumer the function receiving the results
+     */
+    void execute(List<Task> tasks, BitmapIndex index, List<Task> range, Consumer<Task> consumer) {
+        int limit = query.getLimit();
+        if (limit == 0) {
+            return;
+        }
+        Comparator<Task> order = query.comparator();
+        boolean isStreamed = order == null || isOrdered;
+        List<Task> matches = new ArrayList<>();
+        PriorityQueue<Task> top = !isStreamed && limit > 0 ? new PriorityQueue<>(limit + 1, order.reversed()) : null;
+        Predicate<Task> examine = task -> {
+            rowsExamined++;
+            if (!matches(task, index)) {
+                return true;
+            }
+            if (isStreamed) {
+                consumer.accept(task);
+                rowsReturned++;
+                return limit < 0 || rowsReturned < limit;
+            } else if (top != null) {
+                top.add(task);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            } else {
+                matches.add(task);
+            }
+            return true;
+        };
+
+        switch (path) {
+            case BITMAP:
+                if (query.getOrder() == TaskQuery.Order.PRIORITY) {
+                    for (int p = 0; p < PRIORITIES.length; p++) {
+                        Priority priority = PRIORITIES[query.isDescending() ? PRIORITIES.length - 1 - p : p];
+                        if (!IdBitmap.and(selected, index.withPriority(priority))
+                                .forEachWhile(id -> examine.test(index.task(id)))) {
+                            break;
+                        }
+                    }
+                } else {
+                    selected.forEachWhile(id -> examine.test(index.task(id)));
+                }
+                break;
+            case DATE_RANGE:
+                if (isOrdered && query.getOrder() != null) {
+                    walkInDateOrder(range, query.isDescending(), examine);
+                } else {
+                    for (Task task : range) {
+                        if (!examine.test(task)) {
+                            break;
+                        }
+                    }
+                }
+                break;
+            default:
+                for (Task task : tasks) {
+                    if (!examine.test(task)) {
+                        break;
+                    }
+                }
+                break;
+        }
+
+        if (!isStreamed) {
+            if (top != null) {
+                matches.addAll(top);
+            }
+            matches.sort(order);
+            for (Task task : matches) {
+                consumer.accept(task);
+            }
+            rowsReturned = matches.size();
+        }
+    }
+
+    /**
+     * Walks the tasks of a date range in date order, forwards or backwards. The date index sorts them
+     * by time alone, so the tasks of each time are walked in id order, as the query orders ties.
+     */
+    private static void walkInDateOrder(List<Task> range, boolean isDescending, Predicate<Task> examine) {
+        List<Task> sameTime = new ArrayList<>();
+        for (int i = 0; i < range.size(); i++) {
+            Task task = range.get(isDescending ? range.size() - 1 - i : i);
+            if (!sameTime.isEmpty() && !TaskQuery.dateOf(task).equals(TaskQuery.dateOf(sameTime.get(0)))
+                    && !walkInIdOrder(sameTime, examine)) {
+                return;
+            }
+            sameTime.add(task);
+        }
+        walkInIdOrder(sameTime, examine);
+    }
+
+    private static boolean walkInIdOrder(List<Task> sameTime, Predicate<Task> examine) {
+        sameTime.sort(Comparator.comparingInt(Task::getId));
+        for (Task task : sameTime) {
+            if (!examine.test(task)) {
+                return false;
+            }
+        }
+        sameTime.clear();
+        return true;
+    }
+
+    /**
+     * Checks the conditions the access path did not answer.
+     */
+    private boolean matches(Task task, BitmapIndex index) {
+        return (path == AccessPath.BITMAP || selected == null || selected.contains(task.getId()))
+                && (path == AccessPath.DATE_RANGE || query.matchesDates(task))
+                && query.matchesText(task);
+    }
+
+    /**
+     * Returns the access path the plan reads candidate tasks from.
+     *
+     * @return the access path
+     */
+    public AccessPath getAccessPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of tasks the access path was expected to produce.
+     *
+     * @return the estimated number of rows
+     */
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    /**
+     * Returns the number of tasks the query examined.
+     *
+     * @return the number of rows examined
+     */
+    public int getRowsExamined() {
+        return rowsExamined;
+    }
+
+    /**
+     * Returns the number of tasks the query returned.
+     *
+     * @return the number of rows returned
+     */
+    public int getRowsReturned() {
+        return rowsReturned;
+    }
+
+    /**
+     * Describes the plan and, once it has run, the rows it examined and returned.
+     *
+     * @return the description, one step per line
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        switch (path) {
+            case BITMAP:
+                out.append("Read: bitmap index on ").append(query.getBitmapExpression())
+                        .append(", ").append(estimatedRows).append(" of ").append(totalRows).append(" tasks\n");
+                break;
+            case DATE_RANGE:
+                out.append("Read: date index from ").append(query.getFrom()).append(" to ").append(query.getTo())
+                        .append(", about ").append(estimatedRows).append(" of ").append(totalRows).append(" tasks\n");
+                break;
+            default:
+                out.append("Read: scan of all ").append(totalRows).append(" tasks\n");
+                break;
+        }
+        List<String> checks = new ArrayList<>();
+        if (path != AccessPath.BITMAP && query.getBitmapExpression() != null) {
+            checks.add(query.getBitmapExpression() + " (from the bitmap index)");
+        }
+        String others = query.describeChecks(path != AccessPath.DATE_RANGE);
+        if (!others.isEmpty()) {
+            checks.add(others);
+        }
+        if (!checks.isEmpty()) {
+            out.append("Check: ").append(String.join(", ", checks)).append('\n');
+        }
+        if (query.getOrder() != null) {
+            out.append("Order: by ").append(query.getOrder().name().toLowerCase())
+                    .append(query.isDescending() ? " desc" : " asc")
+                    .append(isOrdered ? ", as read from the index" : query.getLimit() > 0
+                            ? ", keeping the top " + query.getLimit() + " while reading" : ", sorted after reading")
+                    .append('\n');
+        }
+        if (query.getLimit() >= 0) {
+            out.append("Limit: ").append(query.getLimit())
+                    .append(isOrdered ? ", stops reading once reached" : ", applied after sorting").append('\n');
+        }
+        out.append("Costs: scan ").append(scanCost);
+        if (bitmapCost >= 0) {
+            out.append(", bitmap index ").append(bitmapCost);
+        }
+        if (dateCost >= 0) {
+            out.append(", date index ").append(dateCost);
+        }
+        out.append('\n');
+        out.append("Rows examined: ").append(rowsExamined).append(", returned: ").append(rowsReturned);
+        return out.toString();
+    }
+}
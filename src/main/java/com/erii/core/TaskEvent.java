@@ -0,0 +1,96 @@
+package com.erii.core;
+
+import com.erii.core.TaskManager.Task;
+
+/**
+ * The TaskEvent class describes one change to the task list, as published on the change feed.
+ * Events of one change share the version the task list reached with that change.
+ */
+public final class TaskEvent {
+
+    /**
+     * The Kind enum represents the kinds of changes that are published.
+     */
+    public enum Kind {
+        /** A task was inserted at the index. */
+        ADDED,
+        /** The task at the index was removed. */
+        DELETED,
+        /** The done status of the task at the index changed. */
+        DONE,
+        /** Other fields of the task at the index, such as its tags, changed. */
+        UPDATED,
+        /** The whole list was reordered; the event carries no task. */
+        REORDERED
+    }
+
+    private final Kind kind;
+    private final Task task;
+    private final int index;
+    private final long version;
+    private final boolean isExternal;
+
+    TaskEvent(Kind kind, Task task, int index, long version) {
+        this(kind, task, index, version, false);
+    }
+
+    TaskEvent(Kind kind, Task task, int index, long version, boolean isExternal) {
+        this.kind = kind;
+        this.task = task;
+        this.index = index;
+        this.version = version;
+        this.isExternal = isExternal;
+    }
+
+    /**
+     * Returns the kind of the change.
+     *
+     * @return the kind of the change
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the task that changed.
+     *
+     * @return the task, or null for REORDERED events
+     */
+    public Task getTask() {
+        return task;
+    }
+
+    /**
+     * Returns the index of the task in the list at the time of the change.
+     *
+     * @return the index of the task, or -1 for REORDERED events
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the version of the task list after the change. Consumers that start from
+     * a snapshot can skip events whose version is not newer than the snapshot's.
+     *
+     * @return the version of the task list after the change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether the change was made by another process sharing the same storage,
+     * and is therefore already saved.
+     *
+     * @return true if the change came from another process
+     */
+    public boolean isExternal() {
+        return isExternal;
+    }
+
+    @Override
+    public String toString() {
+        return kind + "@" + version + (task == null ? "" : " " + task);
+    }
+}
@@ -0,0 +1,127 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import com.erii.core.TaskManager.Priority;
+
+/**
+ * The TaskFilter class selects the tasks an aggregation counts. Each condition is optional;
+ * a filter without conditions selects every task. Conditions are set by chained calls,
+ * for example {@code new TaskFilter().type("Deadline").priority(Priority.S).done(false)}.
+ */
+public class TaskFilter {
+    private String type;
+    private Priority priority;
+    private Boolean isDone;
+    private LocalDate from;
+    private LocalDate to;
+    private LocalDateTime overdueAt;
+
+    /**
+     * Selects only tasks of a type.
+     *
+     * @param type the task type: Todo, Deadline or Event
+     * @return this filter
+     */
+    public TaskFilter type(String type) {
+        this.type = type;
+        return this;
+    }
+
+    /**
+     * Selects only tasks of a priority.
+     *
+     * @param priority the priority
+     * @return this filter
+     */
+    public TaskFilter priority(Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Selects only tasks that are done, or only tasks that are not done.
+     *
+     * @param isDone true for done tasks, false for tasks not done
+     * @return this filter
+     */
+    public TaskFilter done(boolean isDone) {
+        this.isDone = isDone;
+        return this;
+    }
+
+    /**
+     * Selects only deadlines due and events taking place within a range of days.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @return this filter
+     */
+    public TaskFilter dueBetween(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Selects only deadlines and events that are not done and were due before a time.
+     * An event is due at the end of its last day.
+     *
+     * @param now the time to compare against
+     * @return this filter
+     */
+    public TaskFilter overdueAt(LocalDateTime now) {
+        this.overdueAt = now;
+        return this;
+    }
+
+    /**
+     * Returns a filter with the same conditions, which can be changed without changing this one.
+     *
+     * @return the copy
+     */
+    public TaskFilter copy() {
+        TaskFilter copy = new TaskFilter();
+        copy.type = type;
+        copy.priority = priority;
+        copy.isDone = isDone;
+        copy.from = from;
+        copy.to = to;
+        copy.overdueAt = overdueAt;
+        return copy;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    Priority getPriority() {
+        return priority;
+    }
+
+    Boolean isDone() {
+        return isDone;
+    }
+
+    LocalDate getFrom() {
+        return from;
+    }
+
+    LocalDate getTo() {
+        return to;
+    }
+
+    LocalDateTime getOverdueAt() {
+        return overdueAt;
+    }
+
+    /**
+     * Returns whether the filter only has conditions on type, priority and done status.
+     *
+     * @return true if the filter can be answered from the per-type counters
+     */
+    boolean isCounted() {
+        return from == null && overdueAt == null;
+    }
+}
@@ -0,0 +1,457 @@
+package com.erii.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.erii.core.TaskManager.Task;
+
+/**
+ * The TaskHistory class keeps the undo/redo history of a TaskManager.
+ * Each change is stored as a compact list of deltas (task id plus the changed fields)
+ * rather than a copy of the task list, and the history is kept in a ring buffer
+ * of fixed depth so that the oldest changes are dropped once the buffer is full.
+ */
+public class TaskHistory {
+    public static final int DEFAULT_DEPTH = 20;
+
+    /**
+     * The Kind enum represents the kinds of deltas that can be recorded.
+     */
+    public enum Kind {
+        ADD, REMOVE, DONE, TAGS, DEPEND, SORT
+    }
+
+    /**
+     * The Delta class represents a single change to the task list. Tasks are referred to by id,
+     * so a change can still be undone after other tasks moved, and one whose tasks are gone is
+     * found out before any of it is applied.
+     */
+    public static final class Delta {
+        private final Kind kind;
+        private final int taskId;
+        private final Task task;
+        private final boolean before;
+        private final boolean after;
+        private final int[] runs;
+        private final List<String> tagsBefore;
+        private final List<String> tagsAfter;
+        private final int otherId;
+        private final String sortKey;
+
+        private Delta(Kind kind, int taskId, Task task, boolean before, boolean after, int otherId) {
+            this(kind, taskId, task, before, after, otherId, null, null, null, null);
+        }
+
+        private Delta(Kind kind, int taskId, Task task, boolean before, boolean after, int otherId,
+                List<String> tagsBefore, List<String> tagsAfter, int[] runs, String sortKey) {
+            this.kind = kind;
+            this.taskId = taskId;
+            this.task = task;
+            this.before = before;
+            this.after = after;
+            this.otherId = otherId;
+            this.tagsBefore = tagsBefore;
+            this.tagsAfter = tagsAfter;
+            this.runs = runs;
+            this.sortKey = sortKey;
+        }
+
+        /**
+         * Creates a delta recording that a task was inserted after another.
+         *
+         * @param task    the inserted task
+         * @param afterId the id of the task before it, or 0 if it was inserted first
+         * @return the delta
+         */
+        public static Delta added(Task task, int afterId) {
+            return new Delta(Kind.ADD, task.getId(), task, false, false, afterId);
+        }
+
+        /**
+         * Creates a delta recording that a task was removed from after another.
+         *
+         * @param task    the removed task
+         * @param afterId the id of the task that was before it, or 0 if it was first
+         * @return the delta
+         */
+        public static Delta removed(Task task, int afterId) {
+            return new Delta(Kind.REMOVE, task.getId(), task, false, false, afterId);
+        }
+
+        /**
+         * Creates a delta recording a change of the done status of a task.
+         *
+         * @param taskId the id of the task
+         * @param before the done status before the change
+         * @param after  the done status after the change
+         * @return the delta
+         */
+        public static Delta done(int taskId, boolean before, boolean after) {
+            return new Delta(Kind.DONE, taskId, null, before, after, 0);
+        }
+
+        /**
+         * Creates a delta recording a change of the tags of a task.
+         *
+         * @param taskId the id of the task
+         * @param before the tags before the change
+         * @param after  the tags after the change
+         * @return the delta
+         */
+        public static Delta tagged(int taskId, List<String> before, List<String> after) {
+            return new Delta(Kind.TAGS, taskId, null, false, false, 0, before, after, null, null);
+        }
+
+        /**
+         * Creates a delta recording that a task started or stopped waiting for another.
+         *
+         * @param taskId    the id of the task that waits
+         * @param blockerId the id of the task it waits for
+         * @param before    whether the task waited for the other before the change
+         * @param after     whether the task waits for the other after the change
+         * @return the delta
+         */
+        public static Delta depended(int taskId, int blockerId, boolean before, boolean after) {
+            return new Delta(Kind.DEPEND, taskId, null, before, after, blockerId);
+        }
+
+        /**
+         * Creates a delta recording a stable sort of the task list by a key. Redoing the sort
+         * sorts the list again. Since a stable sort keeps the tasks with equal keys in order,
+         * the order before the sort follows from which group of equal keys each old position
+         * held, which is stored as runs: pairs of a group, numbered in sorted order, and the
+         * number of consecutive old positions it held. A list that was nearly sorted has few runs.
+         *
+         * @param sortKey the name of the key the list was sorted by
+         * @param runs    the groups of the old positions, as pairs of group and run length
+         * @return the delta
+         */
+        public static Delta sorted(String sortKey, int[] runs) {
+            return new Delta(Kind.SORT, 0, null, false, false, 0, null, null, runs, sortKey);
+        }
+
+        /**
+         * Returns the kind of the delta.
+         *
+         * @return the kind of the delta
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Returns the id of the task the delta applies to.
+         *
+         * @return the id of the task, or 0 for a sort
+         */
+        public int getTaskId() {
+            return taskId;
+        }
+
+        /**
+         * Returns the inserted or removed task.
+         *
+         * @return the task, or null for other kinds of delta
+         */
+        public Task getTask() {
+            return task;
+        }
+
+        /**
+         * Returns the id of the task before the inserted or removed task.
+         *
+         * @return the id of the task before it, or 0 if it is first or for other kinds of delta
+         */
+        public int getAfterId() {
+            return kind == Kind.ADD || kind == Kind.REMOVE ? otherId : 0;
+        }
+
+        /**
+         * Returns the id of the task waited for.
+         *
+         * @return the id of the blocker, or 0 for other kinds of delta
+         */
+        public int getBlockerId() {
+            return kind == Kind.DEPEND ? otherId : 0;
+        }
+
+        /**
+         * Returns the done status, or whether the dependency existed, before the change.
+         *
+         * @return the state before the change
+         */
+        public boolean getBefore() {
+            return before;
+        }
+
+        /**
+         * Returns the done status, or whether the dependency exists, after the change.
+         *
+         * @return the state after the change
+         */
+        public boolean getAfter() {
+            return after;
+        }
+
+        /**
+         * Returns the tags before the change.
+         *
+         * @return the tags before the change, or null for other kinds of delta
+         */
+        public List<String> getTagsBefore() {
+            return tagsBefore;
+        }
+
+        /**
+         * Returns the tags after the change.
+         *
+         * @return the tags after the change, or null for other kinds of delta
+         */
+        public List<String> getTagsAfter() {
+            return tagsAfter;
+        }
+
+        /**
+         * Returns the name of the key the list was sorted by.
+         *
+         * @return the sort key, or null for other kinds of delta
+         */
+        public String getSortKey() {
+            return sortKey;
+        }
+
+        /**
+         * Returns the groups of the positions before the sort, as pairs of group and run length.
+         *
+         * @return the runs, or null for other kinds of delta
+         */
+        public int[] getRuns() {
+            return runs;
+        }
+    }
+
+    /**
+     * The Change class groups the deltas of one user command so that
+     * a bulk operation is undone or redone as a single step.
+     */
+    public static final class Change {
+        private final String label;
+        private final List<Delta> deltas;
+
+        /**
+         * Constructs a Change with the specified label and deltas.
+         *
+         * @param label  a short description of the change
+         * @param deltas the deltas of the change, in the order they were applied
+         */
+        public Change(String label, List<Delta> deltas) {
+            this.label = label;
+            this.deltas = Collections.unmodifiableList(new ArrayList<>(deltas));
+        }
+
+        /**
+         * Constructs a Change with a single delta.
+         *
+         * @param label a short description of the change
+         * @param delta the delta of the change
+         */
+        public Change(String label, Delta delta) {
+            this(label, Collections.singletonList(delta));
+        }
+
+        /**
+         * Returns the label of the change.
+         *
+         * @return the label of the change
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Returns the deltas of the change.
+         *
+         * @return the deltas of the change
+         */
+        public List<Delta> getDeltas() {
+            return deltas;
+        }
+    }
+
+    private final Change[] ring;
+    private int start;
+    private int size;
+    private int undoCount;
+    private boolean persistent;
+
+    /**
+     * Constructs a TaskHistory with the default depth.
+     */
+    public TaskHistory() {
+        this(DEFAULT_DEPTH);
+    }
+
+    /**
+     * Constructs a TaskHistory that keeps at most the given number of changes.
+     *
+     * @param depth the maximum number of changes kept
+     */
+    public TaskHistory(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("History depth must be at least 1.");
+        }
+        this.ring = new Change[depth];
+    }
+
+    /**
+     * Records a new change. Any changes that were undone are discarded,
+     * and the oldest change is dropped if the history is full.
+     *
+     * @param change the change to be recorded
+     */
+    public void record(Change change) {
+        size = undoCount;
+        if (size == ring.length) {
+            ring[start] = null;
+            start = (start + 1) % ring.length;
+            size--;
+        }
+        ring[(start + size) % ring.length] = change;
+        size++;
+        undoCount = size;
+    }
+
+    /**
+     * Returns the change to be undone and moves it to the redo side of the history.
+     *
+     * @return the change to be undone, or null if there is nothing to undo
+     */
+    public Change takeUndo() {
+        if (undoCount == 0) {
+            return null;
+        }
+        undoCount--;
+        return ring[(start + undoCount) % ring.length];
+    }
+
+    /**
+     * Returns the change that takeUndo() would return, without moving it.
+     *
+     * @return the change to be undone, or null if there is nothing to undo
+     */
+    public Change peekUndo() {
+        return undoCount == 0 ? null : ring[(start + undoCount - 1) % ring.length];
+    }
+
+    /**
+     * Returns the change that takeRedo() would return, without moving it.
+     *
+     * @return the change to be redone, or null if there is nothing to redo
+     */
+    public Change peekRedo() {
+        return undoCount == size ? null : ring[(start + undoCount) % ring.length];
+    }
+
+    /**
+     * Returns the change to be redone and moves it back to the undo side of the history.
+     *
+     * @return the change to be redone, or null if there is nothing to redo
+     */
+    public Change takeRedo() {
+        if (undoCount == size) {
+            return null;
+        }
+        Change change = ring[(start + undoCount) % ring.length];
+        undoCount++;
+        return change;
+    }
+
+    /**
+     * Discards all recorded changes.
+     */
+    public void clear() {
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = null;
+        }
+        start = 0;
+        size = 0;
+        undoCount = 0;
+    }
+
+    /**
+     * Returns all recorded changes, oldest first. The first getUndoCount() changes
+     * can be undone and the remaining ones can be redone.
+     *
+     * @return the recorded changes
+     */
+    public List<Change> getChanges() {
+        List<Change> changes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            changes.add(ring[(start + i) % ring.length]);
+        }
+        return changes;
+    }
+
+    /**
+     * Replaces the history with the given changes, for example after loading it from a file.
+     * If there are more changes than the depth allows, the oldest ones are dropped.
+     *
+     * @param changes   the changes, oldest first
+     * @param undoCount the number of changes that can be undone
+     */
+    public void restore(List<Change> changes, int undoCount) {
+        clear();
+        int skip = Math.max(0, changes.size() - ring.length);
+        for (int i = skip; i < changes.size(); i++) {
+            ring[i - skip] = changes.get(i);
+        }
+        size = changes.size() - skip;
+        this.undoCount = Math.max(0, Math.min(size, undoCount - skip));
+    }
+
+    /**
+     * Returns the maximum number of changes kept.
+     *
+     * @return the depth of the history
+     */
+    public int getDepth() {
+        return ring.length;
+    }
+
+    /**
+     * Returns the number of changes that can be undone.
+     *
+     * @return the number of changes that can be undone
+     */
+    public int getUndoCount() {
+        return undoCount;
+    }
+
+    /**
+     * Returns the number of changes that can be redone.
+     *
+     * @return the number of changes that can be redone
+     */
+    public int getRedoCount() {
+        return size - undoCount;
+    }
+
+    /**
+     * Returns whether the history is saved together with the tasks.
+     *
+     * @return true if the history is persisted
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Sets whether the history is saved together with the tasks.
+     *
+     * @param persistent true to persist the history
+     */
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+}
@@ -0,0 +1,152 @@
+package com.erii.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.erii.core.TaskManager.Task;
+
+/**
+ * The TaskList class is the list of tasks of a TaskManager, which also finds the position of
+ * a task by its id without scanning the list.
+ * <p>
+ * The positions are kept in a map by id. Adding a task at the end records its position, but
+ * inserting or removing one shifts every task after it, so the map is only trusted for the
+ * tasks before the first position changed since it was last brought up to date, and the rest
+ * is indexed again on the next lookup that needs it. A run of changes followed by lookups
+ * therefore costs one pass over the shifted tasks, no more than the shifting itself.
+ * Changes are guarded by the TaskManager's write lock. Lookups may run together under its read
+ * lock, and since a lookup may index the tasks again, lookups hold the list's own monitor.
+ */
+final class TaskList extends AbstractList<Task> implements RandomAccess {
+    private final List<Task> tasks;
+    private final Map<Integer, Integer> positions;
+    // The positions of the tasks before this index are known to be right
+    private int indexedUpTo;
+
+    /**
+     * Constructs an empty TaskList.
+     */
+    TaskList() {
+        this.tasks = new ArrayList<>();
+        this.positions = new HashMap<>();
+    }
+
+    /**
+     * Constructs a TaskList holding the given tasks, in order.
+     *
+     * @param tasks the tasks
+     */
+    TaskList(Collection<Task> tasks) {
+        this.tasks = new ArrayList<>(tasks);
+        this.positions = new HashMap<>(this.tasks.size() * 2);
+        for (Task task : this.tasks) {
+            positions.put(task.getId(), positions.size());
+        }
+        indexedUpTo = this.tasks.size();
+    }
+
+    @Override
+    public Task get(int index) {
+        return tasks.get(index);
+    }
+
+    @Override
+    public int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public Task set(int index, Task task) {
+        Task replaced = tasks.set(index, task);
+        if (replaced.getId() != task.getId()) {
+            positions.remove(replaced.getId());
+        }
+        positions.put(task.getId(), index);
+        return replaced;
+    }
+
+    @Override
+    public void add(int index, Task task) {
+        tasks.add(index, task);
+        positions.put(task.getId(), index);
+        if (index == indexedUpTo && index == tasks.size() - 1) {
+            indexedUpTo++;
+        } else {
+            indexedUpTo = Math.min(indexedUpTo, index);
+        }
+        modCount++;
+    }
+
+    @Override
+    public Task remove(int index) {
+        Task removed = tasks.remove(index);
+        positions.remove(removed.getId());
+        indexedUpTo = Math.min(indexedUpTo, index);
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        tasks.clear();
+        positions.clear();
+        indexedUpTo = 0;
+        modCount++;
+    }
+
+    /**
+     * Returns the position of the task with the given id.
+     *
+     * @param id the id of the task
+     * @return the position of the task, or -1 if there is no task with that id
+     */
+    synchronized int indexOfId(int id) {
+        Integer position = positions.get(id);
+        if (position == null) {
+            return -1;
+        }
+        if (position >= indexedUpTo) {
+            for (int i = indexedUpTo; i < tasks.size(); i++) {
+                positions.put(tasks.get(i).getId(), i);
+            }
+            indexedUpTo = tasks.size();
+            position = positions.get(id);
+        }
+        return position;
+    }
+
+    /**
+     * Returns the positions of the tasks with the given ids. The list is indexed again at most
+     * once for all of them.
+     *
+     * @param ids the ids of the tasks
+     * @return the position of each task, or -1 for an id with no task
+     */
+    synchronized int[] indexesOfIds(int[] ids) {
+        int[] indexes = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            indexes[i] = indexOfId(ids[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the position of a task, found by its id.
+     *
+     * @param task the task
+     * @return the position of the task, or -1 if it is not in the list
+     */
+    @Override
+    public int indexOf(Object task) {
+        if (!(task instanceof Task)) {
+            return -1;
+        }
+        int index = indexOfId(((Task) task).getId());
+        return index >= 0 && tasks.get(index) == task ? index : -1;
+    }
+}
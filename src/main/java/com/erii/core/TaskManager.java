@@ -1,15 +1,37 @@
 package com.erii.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+import com.erii.metrics.Metrics;
+
 /**
  * The TaskManager class represents a task management system that allows users to manage tasks.
  * It provides functionality to add tasks, list tasks, mark tasks as done, delete tasks, and search for tasks.
  * Tasks can be of different types, such as Todo, Deadline, and Event, each with its own properties and behaviors.
+ * The task list is guarded by a read-write lock, so queries can run concurrently with each other
+ * while changes are applied one at a time.
  */
 
 public class TaskManager {
@@ -21,13 +43,42 @@ public class TaskManager {
         SS, S, A, B, C, D
     }
 
+    /**
+     * The DuplicatePolicy enum represents what happens to a task whose type, priority, description
+     * and dates are the same as those of a task already in the list.
+     * ALLOW adds it anyway, REJECT drops it, and MERGE drops it but marks the task already in
+     * the list as done if the duplicate was done.
+     */
+    public enum DuplicatePolicy {
+        ALLOW, REJECT, MERGE
+    }
+
+    /**
+     * The GroupBy enum represents the fields task counts can be grouped by.
+     * WEEK groups deadlines by the ISO week they are due in and events by the week they start in.
+     */
+    public enum GroupBy {
+        TYPE, PRIORITY, DONE, WEEK
+    }
+
+    private static final Interner<String> DESCRIPTIONS = new Interner<>("intern.descriptions");
+    private static final Interner<LocalDateTime> DATE_TIMES = new Interner<>("intern.date-times");
+    private static final Interner<LocalDate> DATES = new Interner<>("intern.dates");
+    private static final Interner<String> TAGS = new Interner<>("intern.tags");
+    private static final String SORT_BY_PRIORITY = "priority";
+    private static final String SORT_BY_TYPE = "type";
+
     /**
      * The Task class represents a generic task.
      */
     public abstract class Task {
+        protected int id;
         protected String name;
         protected String description;
         protected Priority priority;
+        private DescriptionSource descriptionSource;
+        private long descriptionHandle;
+        private List<String> tags = Collections.emptyList();
 
         /**
          * Constructs a Task object with the specified name, description, and priority.
@@ -38,10 +89,29 @@ public class TaskManager {
          */
         public Task(final String name, final String description, final Priority priority) {
             this.name = name;
-            this.description = description;
+            this.description = DESCRIPTIONS.intern(description);
             this.priority = priority;
         }
 
+        /**
+         * Returns the id of the task, which stays the same when other tasks are added,
+         * deleted or reordered. A task has id 0 until it is added to a task manager.
+         *
+         * @return the id of the task
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Sets the id of the task. Used by storage backends that persist task ids.
+         *
+         * @param id the id to be set
+         */
+        public void setId(final int id) {
+            this.id = id;
+        }
+
         /**
          * Returns the name of the task.
          *
@@ -57,9 +127,24 @@ public class TaskManager {
          * @return the description of the task
          */
         public String getDescription() {
+            if (description == null && descriptionSource != null) {
+                return descriptionSource.getDescription(descriptionHandle);
+            }
             return description;
         }
 
+        /**
+         * Makes the task read its description from a source on demand instead of holding it.
+         *
+         * @param source the source of the description
+         * @param handle the handle of the description in the source
+         */
+        public void setDescriptionSource(final DescriptionSource source, final long handle) {
+            this.description = null;
+            this.descriptionSource = source;
+            this.descriptionHandle = handle;
+        }
+
         /**
          * Returns the priority of the task.
          *
@@ -78,6 +163,43 @@ public class TaskManager {
             this.priority = priority;
         }
 
+        /**
+         * Returns the tags of the task, sorted and without the leading '#'.
+         *
+         * @return the tags of the task
+         */
+        public List<String> getTags() {
+            return tags;
+        }
+
+        /**
+         * Sets the tags of a task that is not in a task list yet.
+         * Use TaskManager.tagTask to change the tags of a task in the list.
+         *
+         * @param tags the tags, with or without a leading '#'
+         * @throws IllegalArgumentException if a tag contains anything but letters, digits, '-' and '_'
+         */
+        public void setTags(final Collection<String> tags) {
+            Set<String> normalized = new TreeSet<>();
+            for (String tag : tags) {
+                normalized.add(TAGS.intern(normalizeTag(tag)));
+            }
+            this.tags = normalized.isEmpty() ? Collections.emptyList() : List.copyOf(normalized);
+        }
+
+        /**
+         * Returns the tags of the task as they are shown after it, or an empty string if it has none.
+         *
+         * @return the tags, each with a leading '#'
+         */
+        protected String tagSuffix() {
+            StringBuilder suffix = new StringBuilder();
+            for (String tag : tags) {
+                suffix.append(" #").append(tag);
+            }
+            return suffix.toString();
+        }
+
         /**
          * Returns the status icon of the task.
          *
@@ -147,7 +269,7 @@ public class TaskManager {
          */
         @Override
         public String toString() {
-            return "[T]" + getStatusIcon() + " " + description + " <" + priority + "> ";
+            return "[T]" + getStatusIcon() + " " + getDescription() + " <" + priority + "> " + tagSuffix();
         }
     }
 
@@ -168,7 +290,7 @@ public class TaskManager {
          */
         public Deadline(final String name, final String description, final LocalDateTime by, final Priority priority) {
             super(name, description, priority);
-            this.by = by;
+            this.by = DATE_TIMES.intern(by);
         }
 
         /**
@@ -186,7 +308,7 @@ public class TaskManager {
          * @param by the deadline to be set
          */
         public void setBy(final LocalDateTime by) {
-            this.by = by;
+            this.by = DATE_TIMES.intern(by);
         }
 
         /**
@@ -198,8 +320,8 @@ public class TaskManager {
         public String toString() {
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMM dd yyyy");
             String formattedDate = by.format(formatter);
-            return "[D]" + super.getStatusIcon() + " " + description + " <" + priority + "> " + " (by: " + formattedDate
-                    + ")";
+            return "[D]" + super.getStatusIcon() + " " + getDescription() + " <" + priority + "> " + " (by: " + formattedDate
+                    + ")" + tagSuffix();
         }
     }
 
@@ -207,7 +329,6 @@ public class TaskManager {
      * The Event class represents an event task.
      */
     public class Event extends Todo {
-        protected boolean isDone;
         protected LocalDate start;
         protected LocalDate end;
 
@@ -224,8 +345,8 @@ public class TaskManager {
         public Event(final String name, final String description, final LocalDate start, final LocalDate end,
                 final Priority priority) {
             super(name, description, priority);
-            this.start = start;
-            this.end = end;
+            this.start = DATES.intern(start);
+            this.end = DATES.intern(end);
         }
 
         /**
@@ -273,197 +394,2163 @@ public class TaskManager {
         @Override
         public String toString() {
             DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MMM dd yyyy");
-            return "[E]" + getStatusIcon() + " " + description + " <" + priority + "> " + " (from: "
-                    + start.format(formatter) + " to: " + end.format(formatter) + ")";
+            return "[E]" + getStatusIcon() + " " + getDescription() + " <" + priority + "> " + " (from: "
+                    + start.format(formatter) + " to: " + end.format(formatter) + ")" + tagSuffix();
+        }
+    }
+
+    /**
+     * The Snapshot class is an immutable copy of the task list at one version.
+     * The version changes whenever the list or any task in it changes, so it can
+     * be used to tell whether a copy taken earlier is still current.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final List<Task> tasks;
+
+        private Snapshot(final long version, final List<Task> tasks) {
+            this.version = version;
+            this.tasks = tasks;
+        }
+
+        /**
+         * Returns the version of the task list this snapshot was taken at.
+         *
+         * @return the version of the task list
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the tasks in the snapshot.
+         *
+         * @return a read-only list of the tasks
+         */
+        public List<Task> getTasks() {
+            return tasks;
         }
     }
 
-    private List<Task> tasks = new ArrayList<>();
+    private TaskList tasks = new TaskList();
+    private final TaskHistory history;
+    private int nextId = 1;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long version;
+    private volatile Snapshot snapshot;
+    private final ChangeFeed feed;
+    private final TrigramIndex fuzzyIndex = new TrigramIndex(this);
+    private final DateIndex dateIndex = new DateIndex(this);
+    private final DuplicateDetector duplicates = new DuplicateDetector();
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.ALLOW;
+    private ArchivePolicy archivePolicy;
+    private IntSupplier idSource;
+    private DescriptionStore descriptionStore;
+    private final TaskStats stats = new TaskStats();
+    private final BitmapIndex bitmaps = new BitmapIndex();
+    private final DependencyGraph dependencies = new DependencyGraph();
 
     /**
-     * Returns the size of the task list.
+     * Constructs a TaskManager with an undo history of the default depth.
+     */
+    public TaskManager() {
+        this(TaskHistory.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Constructs a TaskManager with an undo history of the given depth.
      *
-     * @return the size of the task list
+     * @param historyDepth the maximum number of changes that can be undone
      */
-    public int listSize() {
-        return tasks.size();
+    public TaskManager(final int historyDepth) {
+        this(historyDepth, ChangeFeed.DEFAULT_CAPACITY);
     }
 
     /**
-     * Adds a task to the task list.
+     * Constructs a TaskManager with an undo history and a change feed of the given sizes.
      *
-     * @param task the task to be added
+     * @param historyDepth the maximum number of changes that can be undone
+     * @param feedCapacity the number of unread events the change feed holds
      */
-    public void addTask(final Task task) {
-        tasks.add(task);
-        System.out.println("\nGot it. I've added this task:");
-        System.out.println("  " + task);
-        System.out.println("\nNow you have " + tasks.size() + " tasks in the list.");
-        System.out.println("____________________________________________________________");
+    public TaskManager(final int historyDepth, final int feedCapacity) {
+        this.history = new TaskHistory(historyDepth);
+        this.feed = new ChangeFeed(feedCapacity);
     }
 
     /**
-     * Loads a task from Text to the task list.
+     * Returns the undo/redo history of the task list.
      *
-     * @param task the task to be loaded
+     * @return the undo/redo history
      */
-    public void loadTask(final Task task) {
-        tasks.add(task);
+    public TaskHistory getHistory() {
+        return history;
     }
 
     /**
-     * Lists all tasks in the task list.
+     * Sets what happens to tasks that duplicate a task already in the list.
+     * Duplicates already in the list are kept.
+     *
+     * @param policy the duplicate policy
      */
-    public void listTasks() {
-        System.out.println("\nHere are the tasks in your list:");
-        for (int i = 0; i < tasks.size(); i++) {
-            System.out.println((i + 1) + "." + tasks.get(i));
+    public void setDuplicatePolicy(final DuplicatePolicy policy) {
+        lock.writeLock().lock();
+        try {
+            duplicates.clear();
+            if (policy != DuplicatePolicy.ALLOW) {
+                for (Task task : tasks) {
+                    duplicates.add(task);
+                }
+            }
+            duplicatePolicy = policy;
+        } finally {
+            lock.writeLock().unlock();
         }
-        System.out.println("____________________________________________________________");
     }
 
     /**
-     * Sorts the task list by priority.
+     * Sets which tasks archiveTasks moves out of the list.
+     *
+     * @param policy the archive policy, or null to keep every task in the list
      */
-    public void sortListByPriority() {
-        tasks.sort((Task t1, Task t2) -> t1.getPriority().compareTo(t2.getPriority()));
-        System.out.println("\nTasks sorted by priority.");
+    public void setArchivePolicy(final ArchivePolicy policy) {
+        archivePolicy = policy;
     }
 
     /**
-     * Sorts the task list by type.
+     * Returns the policy deciding which tasks are archived.
+     *
+     * @return the archive policy, or null if tasks are never archived
      */
-    public void sortListByType() {
-        tasks.sort((Task t1, Task t2) -> t1.getName().compareTo(t2.getName()));
-        System.out.println("\nTasks sorted by type.");
+    public ArchivePolicy getArchivePolicy() {
+        return archivePolicy;
     }
 
     /**
-     * Marks a task as done.
+     * Makes the tasks added from now on keep their descriptions in a store instead of on the heap.
+     * Tasks that already read their description from a source keep it.
      *
-     * @param taskIndex the index of the task to be marked as done
+     * @param store the description store, or null to keep descriptions in the tasks
      */
-    public void markTaskAsDone(final int taskIndex) {
-        if (taskIndex >= 0 && taskIndex < tasks.size()) {
-            Task task = tasks.get(taskIndex);
-            if (task instanceof Todo) {
-                ((Todo) task).setDone(true);
-            } else if (task instanceof Event) {
-                ((Event) task).setDone(true);
-            } else {
-                System.out.println("\nThis task type cannot be marked as done.");
-                return;
+    public void setDescriptionStore(final DescriptionStore store) {
+        lock.writeLock().lock();
+        try {
+            descriptionStore = store;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the description of a task to the description store, if there is one.
+     * Must be called with the write lock held.
+     */
+    private void storeDescription(final Task task) {
+        if (descriptionStore != null && task.description != null) {
+            task.setDescriptionSource(descriptionStore, descriptionStore.store(task.description));
+        }
+    }
+
+    /**
+     * Makes new tasks take their ids from a source shared with other processes,
+     * so that tasks added by different processes never get the same id.
+     *
+     * @param source the source of new ids, or null to number tasks locally
+     */
+    public void setIdSource(final IntSupplier source) {
+        lock.writeLock().lock();
+        try {
+            idSource = source;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs an action with the write lock held, so that the task list cannot change
+     * in between the steps of the action except through the action itself.
+     *
+     * @param action the action to be run
+     */
+    public void runExclusively(final Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Subscribes to the changes made to the task list from now on. A subscriber that needs
+     * the earlier tasks starts from getSnapshot() and skips events whose version is not newer
+     * than the snapshot's.
+     *
+     * @return the new subscription
+     */
+    public ChangeFeed.Subscription subscribe() {
+        return subscribe(false);
+    }
+
+    /**
+     * Subscribes to the changes made to the task list from now on, optionally as a lossy
+     * subscription that is dropped rather than waited for when it falls a full buffer behind.
+     *
+     * @param isLossy true for a lossy subscription
+     * @return the new subscription
+     */
+    public ChangeFeed.Subscription subscribe(final boolean isLossy) {
+        lock.readLock().lock();
+        try {
+            return feed.subscribe(isLossy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Publishes a change on the change feed, after bringing the task counters and the
+     * duplicate detector up to date with it. Must be called with the write lock held,
+     * after changed().
+     *
+     * @param kind  the kind of the change
+     * @param task  the task that changed, or null
+     * @param index the index of the task, or -1
+     */
+    private void publish(final TaskEvent.Kind kind, final Task task, final int index) {
+        publish(kind, task, index, false);
+    }
+
+    /**
+     * Publishes a change on the change feed, after bringing the task counters and the
+     * duplicate detector up to date with it. Must be called with the write lock held,
+     * after changed().
+     *
+     * @param kind       the kind of the change
+     * @param task       the task that changed, or null
+     * @param index      the index of the task, or -1
+     * @param isExternal whether the change was made by another process
+     */
+    private void publish(final TaskEvent.Kind kind, final Task task, final int index, final boolean isExternal) {
+        boolean isDetecting = duplicatePolicy != DuplicatePolicy.ALLOW;
+        if (kind == TaskEvent.Kind.ADDED) {
+            storeDescription(task);
+            stats.added(task);
+            bitmaps.added(task);
+            dependencies.added(task);
+            if (isDetecting) {
+                duplicates.add(task);
+            }
+        } else if (kind == TaskEvent.Kind.DELETED) {
+            stats.removed(task);
+            bitmaps.removed(task);
+            dependencies.removed(task);
+            if (isDetecting) {
+                duplicates.remove(task);
             }
-            System.out.println("----------------------------------");
-            System.out.println("\nTask completed");
-            System.out.println(task);
-            System.out.println("--------------------------------------");
-        } else {
-            System.out.println("\nInvalid task number.");
         }
+        feed.publish(new TaskEvent(kind, task, index, version, isExternal));
     }
 
     /**
-     * Deletes a task from the task list.
+     * Sets the done status of a task in the list. Must be called with the write lock held.
      *
-     * @param taskIndex the index of the task to be deleted
+     * @param task the task
+     * @param done the done status to be set
      */
-    public void deleteTask(final int taskIndex) {
-        if (taskIndex >= 0 && taskIndex < tasks.size()) {
-            Task task = tasks.remove(taskIndex);
-            System.out.println("\nNoted. I've removed this task:");
-            System.out.println("  " + task);
-            System.out.println("\nNow you have " + tasks.size() + " tasks in the list.");
-            System.out.println("____________________________________________________________");
-        } else {
-            System.out.println("Invalid task number.");
+    private void setDone(final Todo task, final boolean done) {
+        stats.doneChanged(task, done);
+        bitmaps.doneChanged(task, done);
+        dependencies.doneChanged(task, done);
+        task.setDone(done);
+    }
+
+    /**
+     * Applies the duplicate policy to a task about to be added. Under MERGE, the task already
+     * in the list is marked as done if the duplicate was done. Must be called with the write lock held.
+     *
+     * @param task the task about to be added
+     * @return the task already in the list with the same content, or null if the task should be added
+     */
+    private Task findDuplicate(final Task task) {
+        if (duplicatePolicy == DuplicatePolicy.ALLOW) {
+            return null;
         }
+        Task existing = duplicates.find(task);
+        if (existing != null) {
+            Metrics.count("tasks.duplicates", 1);
+        }
+        return existing;
     }
 
     /**
-     * Returns a copy of all tasks in the task list.
+     * Returns whether merging a duplicate into a task already in the list marks that task as done.
      *
-     * @return a copy of all tasks in the task list
+     * @param existing  the task already in the list
+     * @param duplicate the duplicate
+     * @return true if the task already in the list should be marked as done
      */
-    public List<Task> getAllTasks() {
-        return new ArrayList<>(tasks);
+    private boolean mergesDone(final Task existing, final Task duplicate) {
+        return duplicatePolicy == DuplicatePolicy.MERGE
+                && duplicate instanceof Todo && ((Todo) duplicate).isDone()
+                && existing instanceof Todo && !((Todo) existing).isDone();
     }
 
     /**
-     * Lists deadline tasks on a specific datetime.
+     * Returns the size of the task list.
      *
-     * @param datetime the datetime to filter deadline tasks
+     * @return the size of the task list
      */
-    public void listTasksOn(final LocalDateTime datetime) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm");
-        System.out.println("\nDeadline Tasks on " + datetime.format(formatter) + ":");
+    public int listSize() {
+        lock.readLock().lock();
+        try {
+            return tasks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        boolean found = false;
-        for (Task task : tasks) {
-            if (task instanceof Deadline) {
-                LocalDateTime taskDatetime = ((Deadline) task).getBy();
-                if (taskDatetime.isEqual(datetime)) {
-                    System.out.println(task);
-                    found = true;
+    /**
+     * Adds a task to the task list.
+     *
+     * @param task the task to be added
+     */
+    public void addTask(final Task task) {
+        lock.writeLock().lock();
+        try {
+            Task existing = findDuplicate(task);
+            if (existing != null) {
+                if (mergesDone(existing, task)) {
+                    markDone(indexOfTask(existing));
                 }
+                System.out.println("\nThis task is already in the list:");
+                System.out.println("  " + existing);
+                System.out.println("____________________________________________________________");
+                return;
             }
+            appendTask(task);
+            System.out.println("\nGot it. I've added this task:");
+            System.out.println("  " + task);
+            System.out.println("\nNow you have " + tasks.size() + " tasks in the list.");
+            System.out.println("____________________________________________________________");
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        if (!found) {
-            System.out.println("No deadline tasks found for this date and time.");
+    /**
+     * Adds a task to the task list without printing anything. If the task duplicates a task
+     * already in the list and the duplicate policy does not allow duplicates, the task already
+     * in the list is returned instead.
+     *
+     * @param task the task to be added
+     * @return the task that is in the list
+     */
+    public Task createTask(final Task task) {
+        lock.writeLock().lock();
+        try {
+            Task existing = findDuplicate(task);
+            if (existing != null) {
+                if (mergesDone(existing, task)) {
+                    markDone(indexOfTask(existing));
+                }
+                return existing;
+            }
+            appendTask(task);
+            return task;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /**
-     * Lists event tasks occurring on a specific date.
+     * Appends a task to the task list and records the change.
      *
-     * @param date the date to filter event tasks
+     * @param task the task to be added
      */
-    public void listTasksOn(final LocalDate date) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
-        System.out.println("\nEvent Tasks on " + date.format(formatter) + ":");
+    private void appendTask(final Task task) {
+        assignId(task);
+        tasks.add(task);
+        history.record(new TaskHistory.Change("add", TaskHistory.Delta.added(task, idBefore(tasks.size() - 1))));
+        changed();
+        publish(TaskEvent.Kind.ADDED, task, tasks.size() - 1);
+    }
 
-        boolean found = false;
-        for (Task task : tasks) {
-            if (task instanceof Event) {
-                LocalDate startDate = ((Event) task).getStart();
-                LocalDate endDate = ((Event) task).getEnd();
-                if ((date.isEqual(startDate) || date.isAfter(startDate))
-                        && (date.isEqual(endDate) || date.isBefore(endDate))) {
-                    System.out.println(task);
-                    found = true;
+    /**
+     * Adds several tasks to the end of the task list as one change,
+     * so that undoing it removes all of them in a single step.
+     * Tasks that duplicate a task already in the list are handled by the duplicate policy.
+     *
+     * @param newTasks the tasks to be added
+     */
+    public void addTasks(final List<Task> newTasks) {
+        lock.writeLock().lock();
+        try {
+            List<TaskHistory.Delta> deltas = new ArrayList<>(newTasks.size());
+            int added = 0;
+            changed();
+            for (Task task : newTasks) {
+                Task existing = findDuplicate(task);
+                if (existing == null) {
+                    assignId(task);
+                    tasks.add(task);
+                    deltas.add(TaskHistory.Delta.added(task, idBefore(tasks.size() - 1)));
+                    publish(TaskEvent.Kind.ADDED, task, tasks.size() - 1);
+                    added++;
+                } else if (mergesDone(existing, task)) {
+                    int index = indexOfTask(existing);
+                    setDone((Todo) existing, true);
+                    deltas.add(TaskHistory.Delta.done(existing.getId(), false, true));
+                    publish(TaskEvent.Kind.DONE, existing, index);
                 }
             }
+            if (!deltas.isEmpty()) {
+                history.record(new TaskHistory.Change("add " + added + " tasks", deltas));
+            }
+            System.out.println("\nGot it. I've added " + added + " tasks.");
+            if (added < newTasks.size()) {
+                System.out.println((newTasks.size() - added) + " tasks were already in the list.");
+            }
+            System.out.println("\nNow you have " + tasks.size() + " tasks in the list.");
+            System.out.println("____________________________________________________________");
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        if (!found) {
-            System.out.println("No event tasks found for this date.");
+    /**
+     * Loads a task from Text to the task list. Loading is not recorded in the undo history,
+     * including a duplicate merged into a task already loaded.
+     *
+     * @param task the task to be loaded
+     * @return true if the task was loaded, false if it was dropped as a duplicate
+     */
+    public boolean loadTask(final Task task) {
+        lock.writeLock().lock();
+        try {
+            Task existing = findDuplicate(task);
+            changed();
+            if (existing != null) {
+                if (mergesDone(existing, task)) {
+                    setDone((Todo) existing, true);
+                    publish(TaskEvent.Kind.DONE, existing, indexOfTask(existing));
+                }
+                return false;
+            }
+            if (task.getId() > 0 && bitmaps.task(task.getId()) != null) {
+                // Two saved tasks claim the same id; the later one is given a new id
+                task.setId(0);
+            }
+            assignId(task);
+            tasks.add(task);
+            publish(TaskEvent.Kind.ADDED, task, tasks.size() - 1);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
     /**
-     * Searches tasks by keyword and prints the matching tasks.
+     * Moves the task list to a new version, discarding the cached snapshot.
+     * Must be called with the write lock held.
+     */
+    private void changed() {
+        version++;
+        snapshot = null;
+    }
+
+    /**
+     * Gives a task a new id, or keeps the id it was loaded with.
      *
-     * @param keyword the keyword to search for
+     * @param task the task to be given an id
      */
-    public void findTasks(final String keyword) {
-        System.out.println("____________________________________________________________");
-        System.out.println("\nHere are the matching tasks in your list:");
+    private void assignId(final Task task) {
+        if (task.getId() <= 0) {
+            task.setId(idSource != null ? idSource.getAsInt() : nextId);
+        }
+        if (task.getId() >= nextId) {
+            nextId = task.getId() + 1;
+        }
+    }
 
-        int matchCount = 0;
-        for (int i = 0; i < tasks.size(); i++) {
-            Task task = tasks.get(i);
-            if (task.getDescription().toLowerCase().contains(keyword.toLowerCase())) {
-                System.out.println((i + 1) + "." + task);
-                matchCount++;
-            }
+    /**
+     * Returns the task at the given index.
+     *
+     * @param taskIndex the index of the task
+     * @return the task at the given index
+     */
+    public Task getTask(final int taskIndex) {
+        lock.readLock().lock();
+        try {
+            return tasks.get(taskIndex);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        if (matchCount == 0) {
-            System.out.println("\nNo matching tasks found.");
+    /**
+     * Returns the task with the given id.
+     *
+     * @param id the id of the task
+     * @return the task, or null if there is no task with that id
+     */
+    public Task findTask(final int id) {
+        lock.readLock().lock();
+        try {
+            int index = indexOf(id);
+            return index < 0 ? null : tasks.get(index);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        System.out.println("____________________________________________________________");
+    /**
+     * Returns the index of the task with the given id.
+     * Must be called with the lock held.
+     *
+     * @param id the id of the task
+     * @return the index of the task, or -1 if there is no task with that id
+     */
+    private int indexOf(final int id) {
+        return tasks.indexOfId(id);
+    }
+
+    /**
+     * Returns the version of the task list, which changes whenever the list or a task in it changes.
+     *
+     * @return the version of the task list
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns an immutable copy of the task list and its version. The copy is shared by
+     * all callers until the list next changes, so repeated reads do not copy the list
+     * or take the lock.
+     *
+     * @return the current snapshot of the task list
+     */
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        lock.readLock().lock();
+        try {
+            current = new Snapshot(version, Collections.unmodifiableList(new ArrayList<>(tasks)));
+            snapshot = current;
+            return current;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists all tasks in the task list.
+     */
+    public void listTasks() {
+        lock.readLock().lock();
+        try {
+            System.out.println("\nHere are the tasks in your list:");
+            for (int i = 0; i < tasks.size(); i++) {
+                System.out.println((i + 1) + "." + tasks.get(i));
+            }
+            System.out.println("____________________________________________________________");
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sorts the task list by priority.
+     */
+    public void sortListByPriority() {
+        lock.writeLock().lock();
+        try {
+            reorder("sort by priority", SORT_BY_PRIORITY);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("\nTasks sorted by priority.");
+    }
+
+    /**
+     * Sorts the task list by type.
+     */
+    public void sortListByType() {
+        lock.writeLock().lock();
+        try {
+            reorder("sort by type", SORT_BY_TYPE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("\nTasks sorted by type.");
+    }
+
+    /**
+     * Sorts the task list by a key and records the sort so that it can be undone as a single
+     * step. Sorting a list that is already sorted changes nothing and is not recorded.
+     *
+     * @param label   the label of the change
+     * @param sortKey the key to sort by
+     */
+    private void reorder(final String label, final String sortKey) {
+        Comparator<Task> comparator = comparatorFor(sortKey);
+        Integer[] order = new Integer[tasks.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (Integer i1, Integer i2) -> comparator.compare(tasks.get(i1), tasks.get(i2)));
+        boolean isMoved = false;
+        for (int i = 0; i < order.length && !isMoved; i++) {
+            isMoved = order[i] != i;
+        }
+        if (!isMoved) {
+            return;
+        }
+        // The group of equal keys each old position held, numbered in sorted order
+        int[] groups = new int[order.length];
+        List<Task> sorted = new ArrayList<>(order.length);
+        int group = 0;
+        for (int i = 0; i < order.length; i++) {
+            Task task = tasks.get(order[i]);
+            if (i > 0 && comparator.compare(sorted.get(i - 1), task) != 0) {
+                group++;
+            }
+            groups[order[i]] = group;
+            sorted.add(task);
+        }
+        tasks = new TaskList(sorted);
+        history.record(new TaskHistory.Change(label, TaskHistory.Delta.sorted(sortKey, runsOf(groups))));
+        changed();
+        publish(TaskEvent.Kind.REORDERED, null, -1);
+    }
+
+    /**
+     * Returns the order of a sort key.
+     *
+     * @param sortKey the name of the key
+     * @return the comparator of the key, or null if there is no key with that name
+     */
+    private static Comparator<Task> comparatorFor(final String sortKey) {
+        switch (sortKey) {
+            case SORT_BY_PRIORITY:
+                return (Task t1, Task t2) -> t1.getPriority().compareTo(t2.getPriority());
+            case SORT_BY_TYPE:
+                return (Task t1, Task t2) -> t1.getName().compareTo(t2.getName());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Encodes a sequence of groups as pairs of a group and the length of its run.
+     *
+     * @param groups the groups
+     * @return the runs
+     */
+    private static int[] runsOf(final int[] groups) {
+        int[] runs = new int[groups.length * 2];
+        int length = 0;
+        for (int group : groups) {
+            if (length > 0 && runs[length - 2] == group) {
+                runs[length - 1]++;
+            } else {
+                runs[length++] = group;
+                runs[length++] = 1;
+            }
+        }
+        return Arrays.copyOf(runs, length);
+    }
+
+    /**
+     * Returns the order a stably sorted list had before the sort, from the runs of groups its
+     * old positions held. Each run takes the next tasks of its group, as the sort kept them in order.
+     *
+     * @param sorted     the sorted tasks
+     * @param comparator the order they were sorted in
+     * @param runs       the groups of the old positions, as pairs of group and run length
+     * @return the tasks in their order before the sort
+     */
+    private static List<Task> unsort(final List<Task> sorted, final Comparator<Task> comparator, final int[] runs) {
+        List<Integer> next = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i == 0 || comparator.compare(sorted.get(i - 1), sorted.get(i)) != 0) {
+                next.add(i);
+            }
+        }
+        List<Task> unsorted = new ArrayList<>(sorted.size());
+        for (int i = 0; i < runs.length; i += 2) {
+            int at = next.get(runs[i]);
+            unsorted.addAll(sorted.subList(at, at + runs[i + 1]));
+            next.set(runs[i], at + runs[i + 1]);
+        }
+        return unsorted;
+    }
+
+    /**
+     * Marks a task as done.
+     *
+     * @param taskIndex the index of the task to be marked as done
+     */
+    public void markTaskAsDone(final int taskIndex) {
+        lock.writeLock().lock();
+        try {
+            if (taskIndex >= 0 && taskIndex < tasks.size()) {
+                Task task = tasks.get(taskIndex);
+                boolean wasDone = task instanceof Todo && ((Todo) task).isDone();
+                if (!markDone(taskIndex)) {
+                    System.out.println("\nThis task type cannot be marked as done.");
+                    return;
+                }
+                System.out.println("----------------------------------");
+                System.out.println("\nTask completed");
+                System.out.println(task);
+                if (!wasDone) {
+                    printUnblocked(task);
+                }
+                System.out.println("--------------------------------------");
+            } else {
+                System.out.println("\nInvalid task number.");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Prints the tasks waiting for a task that are now ready. Must be called with the lock held.
+     *
+     * @param task the task that was done
+     */
+    private void printUnblocked(final Task task) {
+        boolean isFirst = true;
+        for (int id : dependencies.dependentsOf(task.getId())) {
+            if (dependencies.ready().contains(id)) {
+                if (isFirst) {
+                    System.out.println("\nThese tasks are now ready to start:");
+                    isFirst = false;
+                }
+                System.out.println(bitmaps.task(id));
+            }
+        }
+    }
+
+    /**
+     * Marks the task with the given id as done without printing anything.
+     *
+     * @param id the id of the task
+     * @return the task, or null if there is no task with that id or it cannot be marked as done
+     */
+    public Task completeTask(final int id) {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(id);
+            if (index < 0 || !markDone(index)) {
+                return null;
+            }
+            return tasks.get(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the task at an index as done and records the change. A task that is already done
+     * is left as it is, and nothing is recorded.
+     *
+     * @param taskIndex the index of the task
+     * @return true if the task was marked, false if its type cannot be marked as done
+     */
+    private boolean markDone(final int taskIndex) {
+        Task task = tasks.get(taskIndex);
+        if (!(task instanceof Todo)) {
+            return false;
+        }
+        if (((Todo) task).isDone()) {
+            return true;
+        }
+        setDone((Todo) task, true);
+        history.record(new TaskHistory.Change("mark", TaskHistory.Delta.done(task.getId(), false, true)));
+        changed();
+        publish(TaskEvent.Kind.DONE, task, taskIndex);
+        return true;
+    }
+
+    /**
+     * Replaces the tags of a task.
+     *
+     * @param taskIndex the index of the task to be tagged
+     * @param tags      the new tags of the task, with or without a leading '#'
+     */
+    public void tagTask(final int taskIndex, final Collection<String> tags) {
+        lock.writeLock().lock();
+        try {
+            if (taskIndex < 0 || taskIndex >= tasks.size()) {
+                System.out.println("\nInvalid task number.");
+                return;
+            }
+            Task task = tasks.get(taskIndex);
+            List<String> before = task.getTags();
+            setTags(task, tags);
+            history.record(new TaskHistory.Change("tag",
+                    TaskHistory.Delta.tagged(task.getId(), before, task.getTags())));
+            changed();
+            publish(TaskEvent.Kind.UPDATED, task, taskIndex);
+            System.out.println("\nNoted. I've updated the tags of this task:");
+            System.out.println("  " + task);
+            System.out.println("____________________________________________________________");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Makes a task wait for another task to be done before it is ready to start.
+     *
+     * @param taskIndex    the index of the task that waits
+     * @param blockerIndex the index of the task it waits for
+     */
+    public void addDependency(final int taskIndex, final int blockerIndex) {
+        lock.writeLock().lock();
+        try {
+            if (taskIndex < 0 || taskIndex >= tasks.size() || blockerIndex < 0 || blockerIndex >= tasks.size()) {
+                System.out.println("\nInvalid task number.");
+                return;
+            }
+            Task task = tasks.get(taskIndex);
+            Task blocker = tasks.get(blockerIndex);
+            try {
+                if (!dependencies.addEdge(task, blocker)) {
+                    System.out.println("\nThis task already waits for that task.");
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("\nThis dependency cannot be added: " + e.getMessage() + ".");
+                return;
+            }
+            history.record(new TaskHistory.Change("depend",
+                    TaskHistory.Delta.depended(task.getId(), blocker.getId(), false, true)));
+            changed();
+            publish(TaskEvent.Kind.UPDATED, task, taskIndex);
+            System.out.println("\nNoted. This task:");
+            System.out.println("  " + task);
+            System.out.println("now waits for:");
+            System.out.println("  " + blocker);
+            System.out.println("____________________________________________________________");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops a task from waiting for another task.
+     *
+     * @param taskIndex    the index of the task that waits
+     * @param blockerIndex the index of the task it waits for
+     */
+    public void removeDependency(final int taskIndex, final int blockerIndex) {
+        lock.writeLock().lock();
+        try {
+            if (taskIndex < 0 || taskIndex >= tasks.size() || blockerIndex < 0 || blockerIndex >= tasks.size()) {
+                System.out.println("\nInvalid task number.");
+                return;
+            }
+            Task task = tasks.get(taskIndex);
+            int blockerId = tasks.get(blockerIndex).getId();
+            if (!dependencies.removeEdge(task.getId(), blockerId)) {
+                System.out.println("\nThis task does not wait for that task.");
+                return;
+            }
+            history.record(new TaskHistory.Change("undepend",
+                    TaskHistory.Delta.depended(task.getId(), blockerId, true, false)));
+            changed();
+            publish(TaskEvent.Kind.UPDATED, task, taskIndex);
+            System.out.println("\nNoted. This task no longer waits for that task:");
+            System.out.println("  " + task);
+            System.out.println("____________________________________________________________");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a dependency read from storage, without recording it in the history.
+     *
+     * @param taskId    the id of the task that waits
+     * @param blockerId the id of the task it waits for
+     * @return false if there is no task with either id or the dependency would close a cycle
+     */
+    public boolean loadDependency(final int taskId, final int blockerId) {
+        lock.writeLock().lock();
+        try {
+            Task task = bitmaps.task(taskId);
+            Task blocker = bitmaps.task(blockerId);
+            if (task == null || blocker == null) {
+                return false;
+            }
+            dependencies.addEdge(task, blocker);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all dependencies as pairs of task ids, the task that waits first.
+     *
+     * @return the dependencies
+     */
+    public List<int[]> getDependencies() {
+        lock.readLock().lock();
+        try {
+            List<int[]> pairs = new ArrayList<>(dependencies.size());
+            if (dependencies.size() == 0) {
+                return pairs;
+            }
+            for (Task task : tasks) {
+                for (int blocker : dependencies.blockersOf(task.getId())) {
+                    pairs.add(new int[] {task.getId(), blocker});
+                }
+            }
+            return pairs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a number that changes whenever a dependency is added or removed,
+     * including when a task is deleted with its dependencies.
+     *
+     * @return the version of the dependencies
+     */
+    public long getDependencyVersion() {
+        lock.readLock().lock();
+        try {
+            return dependencies.getVersion();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of dependencies between tasks.
+     *
+     * @return the number of dependencies
+     */
+    public int getDependencyCount() {
+        lock.readLock().lock();
+        try {
+            return dependencies.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the tasks a task waits for, whether they are done or not.
+     *
+     * @param taskIndex the index of the task
+     * @return the tasks it waits for
+     */
+    public List<Task> getBlockers(final int taskIndex) {
+        lock.readLock().lock();
+        try {
+            List<Task> blockers = new ArrayList<>();
+            for (int id : dependencies.blockersOf(tasks.get(taskIndex).getId())) {
+                blockers.add(bitmaps.task(id));
+            }
+            return blockers;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the tasks that are not done and do not wait for any task that is not done,
+     * oldest first. The ready tasks are kept up to date as tasks change, so this only
+     * visits the tasks it returns.
+     *
+     * @return the ready tasks
+     */
+    public List<Task> getReadyTasks() {
+        lock.readLock().lock();
+        try {
+            return bitmaps.tasks(dependencies.ready());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists the tasks that are ready to start.
+     */
+    public void listReadyTasks() {
+        List<Task> ready = getReadyTasks();
+        System.out.println("____________________________________________________________");
+        System.out.println("\nHere are the tasks you can start now:");
+        for (Task task : ready) {
+            System.out.println(task);
+        }
+        if (ready.isEmpty()) {
+            System.out.println("\nNo tasks are ready.");
+        }
+        System.out.println("____________________________________________________________");
+    }
+
+    /**
+     * Sets the tags of a task in the list. Must be called with the write lock held.
+     *
+     * @param task the task
+     * @param tags the new tags
+     */
+    private void setTags(final Task task, final Collection<String> tags) {
+        List<String> before = task.getTags();
+        task.setTags(tags);
+        bitmaps.tagsChanged(task, before);
+    }
+
+    /**
+     * Deletes a task from the task list.
+     *
+     * @param taskIndex the index of the task to be deleted
+     */
+    public void deleteTask(final int taskIndex) {
+        lock.writeLock().lock();
+        try {
+            if (taskIndex >= 0 && taskIndex < tasks.size()) {
+                Task task = removeAt(taskIndex);
+                System.out.println("\nNoted. I've removed this task:");
+                System.out.println("  " + task);
+                System.out.println("\nNow you have " + tasks.size() + " tasks in the list.");
+                System.out.println("____________________________________________________________");
+            } else {
+                System.out.println("Invalid task number.");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the task with the given id without printing anything.
+     *
+     * @param id the id of the task
+     * @return the deleted task, or null if there is no task with that id
+     */
+    public Task removeTask(final int id) {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(id);
+            return index < 0 ? null : removeAt(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the task at an index and records the change.
+     *
+     * @param taskIndex the index of the task
+     * @return the removed task
+     */
+    private Task removeAt(final int taskIndex) {
+        Task task = tasks.get(taskIndex);
+        // The dependencies of the task go with it, and come back with it on undo
+        List<TaskHistory.Delta> deltas = new ArrayList<>();
+        int[] blockers = dependencies.blockersOf(task.getId());
+        int[] dependents = dependencies.dependentsOf(task.getId());
+        for (int blocker : blockers) {
+            deltas.add(TaskHistory.Delta.depended(task.getId(), blocker, true, false));
+        }
+        for (int dependent : dependents) {
+            deltas.add(TaskHistory.Delta.depended(dependent, task.getId(), true, false));
+        }
+        deltas.add(TaskHistory.Delta.removed(task, idBefore(taskIndex)));
+        tasks.remove(taskIndex);
+        history.record(new TaskHistory.Change("delete", deltas));
+        changed();
+        publish(TaskEvent.Kind.DELETED, task, taskIndex);
+        return task;
+    }
+
+    /**
+     * Moves the tasks selected by the archive policy out of the task list. The tasks are handed
+     * to the archive first, and only removed from the list once the archive has kept them.
+     * Tasks that a task not done still waits for stay in the list.
+     * Archived tasks cannot be brought back by undo; a change to an archived task can no
+     * longer be undone either.
+     *
+     * @param today   the current day
+     * @param archive the function writing the tasks to the archive, returning false if it could not
+     * @return the archived tasks, in list order
+     */
+    public List<Task> archiveTasks(final LocalDate today, final Predicate<List<Task>> archive) {
+        lock.writeLock().lock();
+        try {
+            List<Integer> indexes = new ArrayList<>();
+            List<Task> archived = new ArrayList<>();
+            List<Task> kept = new ArrayList<>(tasks.size());
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                if (archivePolicy != null && archivePolicy.isArchived(task, today)
+                        && !dependencies.isBlocking(task.getId())) {
+                    indexes.add(i);
+                    archived.add(task);
+                } else {
+                    kept.add(task);
+                }
+            }
+            if (archived.isEmpty() || !archive.test(archived)) {
+                return Collections.emptyList();
+            }
+            tasks = new TaskList(kept);
+            changed();
+            // Published from the end, so each event carries the index the task had when it went
+            for (int i = indexes.size() - 1; i >= 0; i--) {
+                publish(TaskEvent.Kind.DELETED, archived.get(i), indexes.get(i));
+            }
+            Metrics.count("tasks.archived", archived.size());
+            return archived;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces a task saved by another process sharing the same storage.
+     * A task with the same id is replaced where it is; a new task is inserted at the index
+     * it was saved at, or at the end if the list is shorter. The change is not recorded in
+     * the undo history.
+     *
+     * @param task  the task as the other process saved it
+     * @param index the index the other process saved it at
+     */
+    public void putExternalTask(final Task task, final int index) {
+        lock.writeLock().lock();
+        try {
+            changed();
+            Task existing = bitmaps.task(task.getId());
+            if (existing == null) {
+                int at = Math.min(Math.max(index, 0), tasks.size());
+                assignId(task);
+                tasks.add(at, task);
+                publish(TaskEvent.Kind.ADDED, task, at, true);
+                return;
+            }
+            int at = indexOfTask(existing);
+            boolean isDetecting = duplicatePolicy != DuplicatePolicy.ALLOW;
+            stats.removed(existing);
+            bitmaps.removed(existing);
+            if (isDetecting) {
+                duplicates.remove(existing);
+            }
+            tasks.set(at, task);
+            storeDescription(task);
+            stats.added(task);
+            bitmaps.added(task);
+            if (isDetecting) {
+                duplicates.add(task);
+            }
+            // The dependencies are kept by id, so only the done status of the task is passed on
+            dependencies.doneChanged(task, task instanceof Todo && ((Todo) task).isDone());
+            feed.publish(new TaskEvent(TaskEvent.Kind.DELETED, existing, at, version, true));
+            feed.publish(new TaskEvent(TaskEvent.Kind.ADDED, task, at, version, true));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a task deleted by another process sharing the same storage.
+     * The change is not recorded in the undo history.
+     *
+     * @param id the id of the task
+     * @return the removed task, or null if there is no task with that id
+     */
+    public Task removeExternalTask(final int id) {
+        lock.writeLock().lock();
+        try {
+            Task task = bitmaps.task(id);
+            if (task == null) {
+                return null;
+            }
+            int index = indexOfTask(task);
+            changed();
+            tasks.remove(index);
+            publish(TaskEvent.Kind.DELETED, task, index, true);
+            return task;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the tasks in the order another process sharing the same storage saved them in.
+     * Tasks the other process did not know of keep their order after the others.
+     * The change is not recorded in the undo history.
+     *
+     * @param ids the ids of the tasks in their new order
+     */
+    public void reorderExternal(final int[] ids) {
+        lock.writeLock().lock();
+        try {
+            List<Task> reordered = new ArrayList<>(tasks.size());
+            Set<Integer> placed = new HashSet<>();
+            for (int id : ids) {
+                Task task = bitmaps.task(id);
+                if (task != null && placed.add(id)) {
+                    reordered.add(task);
+                }
+            }
+            for (Task task : tasks) {
+                if (!placed.contains(task.getId())) {
+                    reordered.add(task);
+                }
+            }
+            changed();
+            tasks = new TaskList(reordered);
+            publish(TaskEvent.Kind.REORDERED, null, -1, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the whole task list with the tasks another process sharing the same storage saved,
+     * when the changes in between cannot be applied one by one.
+     * The change is not recorded in the undo history, which is cleared.
+     *
+     * @param newTasks the tasks as saved, with their ids
+     */
+    public void replaceExternalTasks(final List<Task> newTasks) {
+        lock.writeLock().lock();
+        try {
+            changed();
+            history.clear();
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                publish(TaskEvent.Kind.DELETED, tasks.remove(i), i, true);
+            }
+            for (Task task : newTasks) {
+                if (task.getId() > 0 && bitmaps.task(task.getId()) != null) {
+                    task.setId(0);
+                }
+                assignId(task);
+                tasks.add(task);
+                publish(TaskEvent.Kind.ADDED, task, tasks.size() - 1, true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reverts the most recent change to the task list.
+     *
+     * @return true if a change was undone, false if there was nothing to undo
+     */
+    public boolean undo() {
+        TaskHistory.Change change;
+        lock.writeLock().lock();
+        try {
+            change = history.peekUndo();
+            if (change == null) {
+                System.out.println("\nNothing to undo.");
+                return false;
+            }
+            if (!isApplicable(change, true)) {
+                history.clear();
+                System.out.println("\nCannot undo: " + change.getLabel()
+                        + ". The tasks it changed are no longer in the list, so the history was cleared.");
+                return false;
+            }
+            history.takeUndo();
+            List<TaskHistory.Delta> deltas = change.getDeltas();
+            changed();
+            for (int i = deltas.size() - 1; i >= 0; i--) {
+                applyDelta(deltas.get(i), true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("\nUndone: " + change.getLabel());
+        System.out.println("____________________________________________________________");
+        return true;
+    }
+
+    /**
+     * Re-applies the most recently undone change to the task list.
+     *
+     * @return true if a change was redone, false if there was nothing to redo
+     */
+    public boolean redo() {
+        TaskHistory.Change change;
+        lock.writeLock().lock();
+        try {
+            change = history.peekRedo();
+            if (change == null) {
+                System.out.println("\nNothing to redo.");
+                return false;
+            }
+            if (!isApplicable(change, false)) {
+                history.clear();
+                System.out.println("\nCannot redo: " + change.getLabel()
+                        + ". The tasks it changed are no longer in the list, so the history was cleared.");
+                return false;
+            }
+            history.takeRedo();
+            changed();
+            for (TaskHistory.Delta delta : change.getDeltas()) {
+                applyDelta(delta, false);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("\nRedone: " + change.getLabel());
+        System.out.println("____________________________________________________________");
+        return true;
+    }
+
+    /**
+     * Returns whether every task a change refers to will be there when its deltas are applied
+     * in turn, so that a change is either applied whole or not at all. Must be called with the
+     * write lock held.
+     *
+     * @param change  the change to be applied
+     * @param inverse true to check reverting the change, false to check re-applying it
+     * @return true if the change can be applied
+     */
+    private boolean isApplicable(final TaskHistory.Change change, final boolean inverse) {
+        List<TaskHistory.Delta> deltas = change.getDeltas();
+        // The ids the deltas checked so far put into or took out of the list
+        Set<Integer> inserted = new HashSet<>();
+        Set<Integer> deleted = new HashSet<>();
+        for (int i = 0; i < deltas.size(); i++) {
+            TaskHistory.Delta delta = deltas.get(inverse ? deltas.size() - 1 - i : i);
+            int id = delta.getTaskId();
+            switch (delta.getKind()) {
+                case ADD:
+                case REMOVE:
+                    if ((delta.getKind() == TaskHistory.Kind.ADD) != inverse) {
+                        int afterId = delta.getAfterId();
+                        if (isPresent(id, inserted, deleted)
+                                || afterId != 0 && !isPresent(afterId, inserted, deleted)) {
+                            return false;
+                        }
+                        inserted.add(id);
+                        deleted.remove(id);
+                    } else {
+                        if (!isPresent(id, inserted, deleted)) {
+                            return false;
+                        }
+                        deleted.add(id);
+                        inserted.remove(id);
+                    }
+                    break;
+                case DONE:
+                case TAGS:
+                    if (!isPresent(id, inserted, deleted)) {
+                        return false;
+                    }
+                    break;
+                case DEPEND:
+                    if (!isPresent(id, inserted, deleted) || !isPresent(delta.getBlockerId(), inserted, deleted)) {
+                        return false;
+                    }
+                    break;
+                case SORT:
+                    Comparator<Task> comparator = comparatorFor(delta.getSortKey());
+                    if (comparator == null || inverse && !isUnsortable(comparator, delta.getRuns())) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isPresent(final int id, final Set<Integer> inserted, final Set<Integer> deleted) {
+        return inserted.contains(id) || !deleted.contains(id) && bitmaps.task(id) != null;
+    }
+
+    /**
+     * Returns whether the task list is still sorted as a sort left it, with as many tasks in
+     * each group of equal keys as the runs of the sort take back out.
+     *
+     * @param comparator the order of the sort
+     * @param runs       the groups of the positions before the sort, as pairs of group and run length
+     * @return true if the sort can be undone
+     */
+    private boolean isUnsortable(final Comparator<Task> comparator, final int[] runs) {
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            int order = i == 0 ? -1 : comparator.compare(tasks.get(i - 1), tasks.get(i));
+            if (order > 0) {
+                return false;
+            } else if (order == 0) {
+                sizes.set(sizes.size() - 1, sizes.get(sizes.size() - 1) + 1);
+            } else {
+                sizes.add(1);
+            }
+        }
+        for (int i = 0; i < runs.length; i += 2) {
+            if (runs[i] < 0 || runs[i] >= sizes.size()) {
+                return false;
+            }
+            sizes.set(runs[i], sizes.get(runs[i]) - runs[i + 1]);
+        }
+        for (int size : sizes) {
+            if (size != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies a delta to the task list, either forwards or in reverse, and publishes it.
+     * The tasks it refers to must be in the list, as checked by isApplicable().
+     *
+     * @param delta   the delta to be applied
+     * @param inverse true to revert the delta, false to re-apply it
+     */
+    private void applyDelta(final TaskHistory.Delta delta, final boolean inverse) {
+        switch (delta.getKind()) {
+            case ADD:
+            case REMOVE:
+                boolean insert = (delta.getKind() == TaskHistory.Kind.ADD) != inverse;
+                if (insert) {
+                    int at = delta.getAfterId() == 0 ? 0 : indexOf(delta.getAfterId()) + 1;
+                    assignId(delta.getTask());
+                    tasks.add(at, delta.getTask());
+                    publish(TaskEvent.Kind.ADDED, delta.getTask(), at);
+                } else {
+                    int index = indexOf(delta.getTaskId());
+                    publish(TaskEvent.Kind.DELETED, tasks.remove(index), index);
+                }
+                break;
+            case DONE:
+                int index = indexOf(delta.getTaskId());
+                Task task = tasks.get(index);
+                if (task instanceof Todo) {
+                    setDone((Todo) task, inverse ? delta.getBefore() : delta.getAfter());
+                    publish(TaskEvent.Kind.DONE, task, index);
+                }
+                break;
+            case TAGS:
+                int taggedIndex = indexOf(delta.getTaskId());
+                Task tagged = tasks.get(taggedIndex);
+                setTags(tagged, inverse ? delta.getTagsBefore() : delta.getTagsAfter());
+                publish(TaskEvent.Kind.UPDATED, tagged, taggedIndex);
+                break;
+            case DEPEND:
+                int dependentIndex = indexOf(delta.getTaskId());
+                Task dependent = tasks.get(dependentIndex);
+                Task blocker = bitmaps.task(delta.getBlockerId());
+                if (inverse ? delta.getBefore() : delta.getAfter()) {
+                    dependencies.addEdge(dependent, blocker);
+                } else {
+                    dependencies.removeEdge(dependent.getId(), blocker.getId());
+                }
+                publish(TaskEvent.Kind.UPDATED, dependent, dependentIndex);
+                break;
+            case SORT:
+                Comparator<Task> comparator = comparatorFor(delta.getSortKey());
+                List<Task> resorted = new ArrayList<>(tasks);
+                if (inverse) {
+                    resorted = unsort(resorted, comparator, delta.getRuns());
+                } else {
+                    resorted.sort(comparator);
+                }
+                tasks = new TaskList(resorted);
+                publish(TaskEvent.Kind.REORDERED, null, -1);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the id of the task before an index.
+     *
+     * @param index the index
+     * @return the id of the task before it, or 0 if the index is the first
+     */
+    private int idBefore(final int index) {
+        return index > 0 ? tasks.get(index - 1).getId() : 0;
+    }
+
+    /**
+     * Returns a copy of all tasks in the task list.
+     *
+     * @return a copy of all tasks in the task list
+     */
+    public List<Task> getAllTasks() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(tasks);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists deadline tasks on a specific datetime.
+     *
+     * @param datetime the datetime to filter deadline tasks
+     */
+    public void listTasksOn(final LocalDateTime datetime) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm");
+        System.out.println("\nDeadline Tasks on " + datetime.format(formatter) + ":");
+
+        List<Task> found = getDeadlinesAt(datetime);
+        for (Task task : found) {
+            System.out.println(task);
+        }
+
+        if (found.isEmpty()) {
+            System.out.println("No deadline tasks found for this date and time.");
+        }
+    }
+
+    /**
+     * Returns the deadline tasks due at a specific datetime.
+     *
+     * @param datetime the datetime to filter deadline tasks
+     * @return the matching deadline tasks
+     */
+    public List<Task> getDeadlinesAt(final LocalDateTime datetime) {
+        return dateIndex.deadlinesAt(datetime);
+    }
+
+    /**
+     * Lists event tasks occurring on a specific date.
+     *
+     * @param date the date to filter event tasks
+     */
+    public void listTasksOn(final LocalDate date) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
+        System.out.println("\nEvent Tasks on " + date.format(formatter) + ":");
+
+        List<Task> found = getEventsOn(date);
+        for (Task task : found) {
+            System.out.println(task);
+        }
+
+        if (found.isEmpty()) {
+            System.out.println("No event tasks found for this date.");
+        }
+    }
+
+    /**
+     * Returns the event tasks occurring on a specific date.
+     *
+     * @param date the date to filter event tasks
+     * @return the matching event tasks
+     */
+    public List<Task> getEventsOn(final LocalDate date) {
+        return dateIndex.eventsBetween(date, date);
+    }
+
+    /**
+     * Lists the deadlines and events of a range of days as an agenda, one day at a time.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     */
+    public void listAgenda(final LocalDate from, final LocalDate to) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy");
+        DateTimeFormatter dayFormatter = DateTimeFormatter.ofPattern("EEE dd MMM yyyy");
+        System.out.println("\nAgenda from " + from.format(formatter) + " to " + to.format(formatter) + ":");
+
+        boolean[] found = {false};
+        forEachDayBetween(from, to, (day, dayTasks) -> {
+            found[0] = true;
+            System.out.println("\n" + day.format(dayFormatter));
+            for (Task task : dayTasks) {
+                System.out.println("  " + task);
+            }
+        });
+
+        if (!found[0]) {
+            System.out.println("No deadline or event tasks found in this period.");
+        }
+        System.out.println("____________________________________________________________");
+    }
+
+    /**
+     * Returns the deadlines due and the events taking place within a range of days,
+     * in date order. Only the tasks dated in or near the range are visited.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @return the matching tasks
+     */
+    public List<Task> getTasksBetween(final LocalDate from, final LocalDate to) {
+        return dateIndex.tasksBetween(from, to);
+    }
+
+    /**
+     * Hands the deadlines and events of each day of a range to a consumer, one day at a time
+     * and in date order. Days without tasks are skipped.
+     *
+     * @param from     the first day of the range
+     * @param to       the last day of the range
+     * @param consumer the function receiving each day and its tasks
+     */
+    public void forEachDayBetween(final LocalDate from, final LocalDate to,
+            final BiConsumer<LocalDate, List<Task>> consumer) {
+        dateIndex.forEachDay(from, to, consumer);
+    }
+
+    /**
+     * Searches tasks by keyword and prints the matching tasks.
+     *
+     * @param keyword the keyword to search for
+     */
+    public void findTasks(final String keyword) {
+        long start = Metrics.start();
+        System.out.println("____________________________________________________________");
+        System.out.println("\nHere are the matching tasks in your list:");
+
+        int matchCount = 0;
+        int scanned;
+        lock.readLock().lock();
+        try {
+            scanned = tasks.size();
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                if (matches(task, keyword)) {
+                    System.out.println((i + 1) + "." + task);
+                    matchCount++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (matchCount == 0) {
+            System.out.println("\nNo matching tasks found.");
+        }
+
+        System.out.println("____________________________________________________________");
+        recordQuery("query.find", start, scanned, matchCount);
+    }
+
+    /**
+     * Returns the tasks whose description contains a keyword, ignoring case.
+     *
+     * @param keyword the keyword to search for
+     * @return the matching tasks
+     */
+    public List<Task> searchTasks(final String keyword) {
+        long start = Metrics.start();
+        List<Task> found = new ArrayList<>();
+        int scanned;
+        lock.readLock().lock();
+        try {
+            scanned = tasks.size();
+            for (Task task : tasks) {
+                if (matches(task, keyword)) {
+                    found.add(task);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        recordQuery("query.find", start, scanned, found.size());
+        return found;
+    }
+
+    /**
+     * Prints the tasks selected by a filter expression such as
+     * {@code tag:ops AND priority<=S AND NOT done}, with their numbers in the list.
+     *
+     * @param expression the filter expression
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public void listFilteredTasks(final String expression) {
+        long start = Metrics.start();
+        int matchCount = 0;
+        int scanned;
+        lock.readLock().lock();
+        try {
+            IdBitmap ids = BitmapFilter.evaluate(bitmaps, expression);
+            System.out.println("____________________________________________________________");
+            System.out.println("\nHere are the tasks matching the filter:");
+            // List numbers are positions, not ids, so they come from the list's id index
+            int[] selected = new int[ids.cardinality()];
+            int[] count = new int[1];
+            ids.forEach(id -> selected[count[0]++] = id);
+            scanned = selected.length;
+            int[] indexes = tasks.indexesOfIds(selected);
+            Arrays.sort(indexes);
+            for (int index : indexes) {
+                if (index >= 0) {
+                    System.out.println((index + 1) + "." + tasks.get(index));
+                    matchCount++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (matchCount == 0) {
+            System.out.println("\nNo matching tasks found.");
+        }
+        System.out.println("____________________________________________________________");
+        recordQuery("query.filter", start, scanned, matchCount);
+    }
+
+    /**
+     * Returns the tasks selected by a filter expression such as
+     * {@code tag:ops AND priority<=S AND NOT done}. The expression is answered from bitmap
+     * indexes of the tags, priorities, types and done status, so only the selected tasks are read.
+     *
+     * @param expression the filter expression
+     * @return the selected tasks, oldest first
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public List<Task> filterTasks(final String expression) {
+        long start = Metrics.start();
+        List<Task> found;
+        lock.readLock().lock();
+        try {
+            found = bitmaps.tasks(BitmapFilter.evaluate(bitmaps, expression));
+        } finally {
+            lock.readLock().unlock();
+        }
+        recordQuery("query.filter", start, found.size(), found.size());
+        return found;
+    }
+
+    /**
+     * Returns a publisher of all tasks in the list, in list order. The list is read as far as
+     * the subscriber has asked for tasks, without being copied; see iterateTasks.
+     *
+     * @return the publisher
+     */
+    public Flow.Publisher<Task> streamTasks() {
+        return new TaskPublisher("stream.list", this::iterateTasks);
+    }
+
+    /**
+     * Returns a publisher of the tasks whose description contains a keyword, ignoring case.
+     * The list is only searched as far as the subscriber has asked for matches.
+     *
+     * @param keyword the keyword to search for
+     * @return the publisher
+     */
+    public Flow.Publisher<Task> streamSearch(final String keyword) {
+        return new TaskPublisher("stream.find", () -> {
+            Iterator<Task> listTasks = iterateTasks();
+            return generate(() -> {
+                while (listTasks.hasNext()) {
+                    Task task = listTasks.next();
+                    if (matches(task, keyword)) {
+                        return task;
+                    }
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Returns an iterator over the tasks in list order. A cached snapshot is read if there is
+     * one, since that costs nothing; otherwise the live list is read one task at a time under
+     * the read lock. If the list changed since the previous task was read, the iterator carries
+     * on after that task where it now is, or at the position it had if it was deleted, so no
+     * task is returned twice unless the list was reordered.
+     *
+     * @return the iterator
+     */
+    private Iterator<Task> iterateTasks() {
+        Snapshot cached = snapshot;
+        if (cached != null) {
+            return cached.getTasks().iterator();
+        }
+        long[] readVersion = {version};
+        int[] position = {0};
+        Task[] previous = {null};
+        return generate(() -> {
+            lock.readLock().lock();
+            try {
+                if (version != readVersion[0] && previous[0] != null) {
+                    int index = indexOfTask(previous[0]);
+                    // A deleted task leaves the next one at the position it had
+                    position[0] = index >= 0 ? index + 1 : position[0] - 1;
+                }
+                readVersion[0] = version;
+                if (position[0] >= tasks.size()) {
+                    return null;
+                }
+                previous[0] = tasks.get(position[0]++);
+                return previous[0];
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Returns a publisher of the tasks selected by a filter expression, oldest first.
+     * The expression is evaluated against the bitmap indexes when a subscriber first requests
+     * tasks, and each selected task is then looked up only when it is asked for, so tasks deleted
+     * in the meantime are skipped. An expression that is not valid is reported through onError.
+     *
+     * @param expression the filter expression
+     * @return the publisher
+     */
+    public Flow.Publisher<Task> streamFilter(final String expression) {
+        return new TaskPublisher("stream.filter", () -> {
+            IdBitmap ids;
+            lock.readLock().lock();
+            try {
+                ids = BitmapFilter.evaluate(bitmaps, expression);
+            } finally {
+                lock.readLock().unlock();
+            }
+            int[] cursor = {0};
+            return generate(() -> {
+                while (cursor[0] >= 0) {
+                    int id = ids.nextId(cursor[0]);
+                    cursor[0] = id < 0 || id == Integer.MAX_VALUE ? -1 : id + 1;
+                    if (id < 0) {
+                        return null;
+                    }
+                    lock.readLock().lock();
+                    try {
+                        Task task = bitmaps.task(id);
+                        if (task != null) {
+                            return task;
+                        }
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Returns a publisher of the deadlines due and the events taking place within a range of
+     * days, in date order. The date index is read one date at a time as tasks are asked for.
+     *
+     * @param from the first day of the range
+     * @param to   the last day of the range
+     * @return the publisher
+     */
+    public Flow.Publisher<Task> streamTasksBetween(final LocalDate from, final LocalDate to) {
+        return new TaskPublisher("stream.range", () -> dateIndex.iterateBetween(from, to, true, true));
+    }
+
+    /**
+     * Returns a publisher of the event tasks occurring on a specific date.
+     *
+     * @param date the date to filter event tasks
+     * @return the publisher
+     */
+    public Flow.Publisher<Task> streamEventsOn(final LocalDate date) {
+        return new TaskPublisher("stream.events-on", () -> dateIndex.iterateBetween(date, date, false, true));
+    }
+
+    /**
+     * Returns a publisher of the deadline tasks due at a specific datetime.
+     *
+     * @param datetime the due time
+     * @return the publisher
+     */
+    public Flow.Publisher<Task> streamDeadlinesAt(final LocalDateTime datetime) {
+        return new TaskPublisher("stream.deadlines-on", () -> dateIndex.deadlinesAt(datetime).iterator());
+    }
+
+    /**
+     * Returns an iterator over the tasks produced by a function, which returns null when
+     * there are no more. The function is only called when the next task is needed.
+     *
+     * @param next the function producing the next task
+     * @return the iterator
+     */
+    private static Iterator<Task> generate(final Supplier<Task> next) {
+        return new Iterator<Task>() {
+            private Task head;
+            private boolean isEnded;
+
+            @Override
+            public boolean hasNext() {
+                if (head == null && !isEnded) {
+                    head = next.get();
+                    isEnded = head == null;
+                }
+                return head != null;
+            }
+
+            @Override
+            public Task next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Task task = head;
+                head = null;
+                return task;
+            }
+        };
+    }
+
+    /**
+     * Runs a query such as {@code priority<=S NOT done date>=2026-10-01 order by date limit 5}
+     * and hands each result to a consumer as soon as it is known. The query is answered from
+     * a scan, the bitmap index or the date index, whichever is expected to examine the fewest
+     * tasks; see TaskQuery for the language and QueryPlan for the planner.
+     * The consumer runs with the read lock held, so it must not change the task list.
+     *
+     * @param text     the query
+     * @param consumer the function receiving the results
+     * @return the plan the query ran with, including the rows it examined
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public QueryPlan query(final String text, final Consumer<Task> consumer) {
+        long start = Metrics.start();
+        TaskQuery query = TaskQuery.parse(text);
+        QueryPlan plan;
+        // The plan and its results are read from the same version of the list and its indexes
+        lock.readLock().lock();
+        try {
+            long dateEstimate = query.hasDateRange() ? dateIndex.estimateBetween(query.getFrom(), query.getTo()) : -1;
+            plan = QueryPlan.choose(query, bitmaps, tasks.size(), dateEstimate);
+            List<Task> range = plan.getAccessPath() == QueryPlan.AccessPath.DATE_RANGE
+                    ? dateIndex.tasksBetween(query.getFrom(), query.getTo())
+                    : null;
+            plan.execute(tasks, bitmaps, range, consumer);
+        } finally {
+            lock.readLock().unlock();
+        }
+        recordQuery("query.planned", start, plan.getRowsExamined(), plan.getRowsReturned());
+        return plan;
+    }
+
+    /**
+     * Prints the results of a query.
+     *
+     * @param text the query
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public void listQuery(final String text) {
+        boolean[] isHeadingShown = {false};
+        query(text, task -> {
+            // The heading waits for the first result, so an invalid query only prints its error
+            if (!isHeadingShown[0]) {
+                isHeadingShown[0] = true;
+                System.out.println("____________________________________________________________");
+                System.out.println("\nHere are the tasks matching the query:");
+            }
+            System.out.println(task);
+        });
+        if (!isHeadingShown[0]) {
+            System.out.println("____________________________________________________________");
+            System.out.println("\nNo matching tasks found.");
+        }
+        System.out.println("____________________________________________________________");
+    }
+
+    /**
+     * Runs a query without printing its results, then prints the plan it ran with
+     * and the rows it examined.
+     *
+     * @param text the query
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public void explainQuery(final String text) {
+        QueryPlan plan = query(text, task -> { });
+        System.out.println("____________________________________________________________");
+        System.out.println("\nQuery plan:");
+        System.out.println(plan);
+        System.out.println("____________________________________________________________");
+    }
+
+    /**
+     * Searches tasks by words that may be misspelt and prints the matching tasks, best match first.
+     *
+     * @param query the words to search for
+     */
+    public void fuzzyFindTasks(final String query) {
+        List<Task> found = fuzzySearchTasks(query);
+        System.out.println("____________________________________________________________");
+        System.out.println("\nHere are the closest matching tasks in your list:");
+
+        lock.readLock().lock();
+        try {
+            int[] ids = new int[found.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = found.get(i).getId();
+            }
+            int[] indexes = tasks.indexesOfIds(ids);
+            for (int i = 0; i < indexes.length; i++) {
+                Task task = found.get(i);
+                if (indexes[i] >= 0 && tasks.get(indexes[i]) == task) {
+                    System.out.println((indexes[i] + 1) + "." + task);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (found.isEmpty()) {
+            System.out.println("\nNo matching tasks found.");
+        }
+        System.out.println("____________________________________________________________");
+    }
+
+    /**
+     * Returns the tasks whose descriptions contain every word of a query, allowing a few
+     * typos per word. The search uses a trigram index, so it does not scan the task list.
+     *
+     * @param query the words to search for
+     * @return the matching tasks, best match first
+     */
+    public List<Task> fuzzySearchTasks(final String query) {
+        return fuzzyIndex.search(query);
+    }
+
+    /**
+     * Counts the tasks selected by a filter, grouped by a field. Groups of type, priority
+     * and done status are listed even when empty. Counts that only filter and group by type,
+     * priority and done status are read from counters kept up to date as tasks change,
+     * and the others are computed with one pass over the task list.
+     *
+     * @param filter  the tasks to count
+     * @param groupBy the field to group the tasks by
+     * @return the number of tasks in each group, in display order
+     */
+    public Map<String, Integer> countTasks(final TaskFilter filter, final GroupBy groupBy) {
+        if (filter.isCounted() && groupBy != GroupBy.WEEK) {
+            lock.readLock().lock();
+            try {
+                return stats.countFromCounters(filter, groupBy);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return stats.countFromColumns(getSnapshot(), filter, groupBy);
+    }
+
+    /**
+     * Counts the tasks selected by a filter.
+     *
+     * @param filter the tasks to count
+     * @return the number of tasks
+     */
+    public int countTasks(final TaskFilter filter) {
+        int count = 0;
+        for (int groupCount : countTasks(filter, GroupBy.DONE).values()) {
+            count += groupCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the share of the deadlines and events selected by a filter that are not done
+     * and overdue at a given time, out of those that are not done.
+     *
+     * @param filter the tasks to consider
+     * @param now    the time to compare against
+     * @return the share of overdue tasks, or 0 if none are left to do
+     */
+    public double getOverdueRatio(final TaskFilter filter, final LocalDateTime now) {
+        TaskFilter pending = filter.copy().done(false);
+        int due = 0;
+        if (!"Todo".equalsIgnoreCase(pending.getType())) {
+            due = countTasks(pending);
+            if (pending.getType() == null) {
+                due -= countTasks(pending.copy().type("Todo"));
+            }
+        }
+        if (due == 0) {
+            return 0;
+        }
+        return (double) countTasks(pending.overdueAt(now)) / due;
+    }
+
+    /**
+     * Returns the index of a task in the list. Must be called with the lock held.
+     *
+     * @param task the task
+     * @return the index of the task, or -1 if it is not in the list
+     */
+    private int indexOfTask(final Task task) {
+        return tasks.indexOf(task);
+    }
+
+    private static boolean matches(final Task task, final String keyword) {
+        return task.getDescription().toLowerCase().contains(keyword.toLowerCase());
+    }
+
+    /**
+     * Records the latency of a query and how many tasks it scanned and returned.
+     *
+     * @param name     the timer name of the query
+     * @param start    the value of Metrics.start() when the query began
+     * @param scanned  the number of tasks examined
+     * @param returned the number of tasks returned
+     */
+    private static void recordQuery(final String name, final long start, final int scanned, final int returned) {
+        Metrics.time(name, start);
+        Metrics.count(name + ".scanned", scanned);
+        Metrics.count(name + ".returned", returned);
+    }
+
+    /**
+     * Returns a tag without its leading '#', in lower case.
+     *
+     * @param tag the tag
+     * @return the normalized tag
+     * @throws IllegalArgumentException if the tag contains anything but letters, digits, '-' and '_'
+     */
+    public static String normalizeTag(final String tag) {
+        String normalized = (tag.startsWith("#") ? tag.substring(1) : tag).toLowerCase(Locale.ROOT);
+        if (!normalized.matches("[\\p{L}\\p{N}_-]+")) {
+            throw new IllegalArgumentException("tags may only contain letters, digits, '-' and '_': '" + tag + "'");
+        }
+        return normalized;
+    }
+
+    /**
+     * Checks that a description can be saved. Task files separate fields with '|' and tasks
+     * with line breaks, so a description may contain neither.
+     *
+     * @param description the description
+     * @return the description
+     * @throws IllegalArgumentException if the description contains '|' or a line break
+     */
+    public static String validateDescription(final String description) {
+        if (description.indexOf('|') >= 0 || description.indexOf('\n') >= 0 || description.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("descriptions may not contain '|' or line breaks");
+        }
+        return description;
+    }
+
+    /**
+     * Splits text into tags separated by spaces or commas.
+     *
+     * @param text the text, for example "#ops #urgent"
+     * @return the normalized tags
+     * @throws IllegalArgumentException if a tag contains anything but letters, digits, '-' and '_'
+     */
+    public static List<String> parseTags(final String text) {
+        List<String> tags = new ArrayList<>();
+        for (String tag : text.trim().split("[\\s,]+")) {
+            if (!tag.isEmpty()) {
+                tags.add(normalizeTag(tag));
+            }
+        }
+        return tags;
     }
 
     /**
@@ -0,0 +1,153 @@
+package com.erii.core;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+/**
+ * The TaskPublisher class streams the results of a query to subscribers, producing each task
+ * only when a subscriber has asked for it.
+ * <p>
+ * Every subscription runs the query again from its own iterator, created on its first request.
+ * Requests add to the subscription's demand, and whichever thread raises the demand delivers
+ * tasks until the demand is met, the results run out or the subscription is cancelled. A
+ * request made from onNext only adds to the demand and is served by the loop already running,
+ * so the stack does not grow with the number of tasks. No lock of the task manager is held
+ * while a subscriber receives a signal.
+ */
+final class TaskPublisher implements Flow.Publisher<Task> {
+    private final String name;
+    private final Supplier<Iterator<Task>> query;
+
+    /**
+     * Constructs a TaskPublisher.
+     *
+     * @param name  the timer name of the query
+     * @param query the function starting the query, returning an iterator over its results
+     */
+    TaskPublisher(String name, Supplier<Iterator<Task>> query) {
+        this.name = name;
+        this.query = query;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Task> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscriber.onSubscribe(new Subscription(subscriber));
+    }
+
+    /**
+     * The Subscription class is one subscriber's run of the query.
+     */
+    private final class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Task> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean isCancelled;
+        private volatile IllegalArgumentException badRequest;
+        // Only used by the thread draining the subscription
+        private Iterator<Task> tasks;
+        private boolean isFinished;
+        private long start;
+        private int returned;
+
+        private Subscription(Flow.Subscriber<? super Task> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("A subscriber must request a positive number of tasks.");
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            isCancelled = true;
+            drain();
+        }
+
+        /**
+         * Runs the delivery loop unless another call is already running it, in which case
+         * that call runs the loop once more before it returns.
+         */
+        private void drain() {
+            if (pendingDrains.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                deliver();
+                missed = pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            if (isFinished) {
+                return;
+            }
+            if (badRequest != null && !isCancelled) {
+                finish();
+                subscriber.onError(badRequest);
+                return;
+            }
+            while (!isCancelled) {
+                boolean hasNext;
+                Task task = null;
+                try {
+                    if (tasks == null) {
+                        start = Metrics.start();
+                        tasks = query.get();
+                    }
+                    // Looks one task ahead, so the subscriber is told of the end without asking again
+                    hasNext = tasks.hasNext();
+                    if (hasNext && demand.get() > 0) {
+                        task = tasks.next();
+                    }
+                } catch (RuntimeException e) {
+                    finish();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (!hasNext) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+                if (task == null) {
+                    return;
+                }
+                demand.decrementAndGet();
+                returned++;
+                try {
+                    subscriber.onNext(task);
+                } catch (RuntimeException e) {
+                    // A subscriber that throws has broken the protocol, so it gets nothing more
+                    isCancelled = true;
+                    finish();
+                    throw e;
+                }
+            }
+            finish();
+        }
+
+        private void finish() {
+            isFinished = true;
+            if (tasks != null) {
+                tasks = null;
+                Metrics.time(name, start);
+                Metrics.count(name + ".returned", returned);
+            }
+        }
+    }
+}
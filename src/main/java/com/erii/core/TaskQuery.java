@@ -0,0 +1,380 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.Task;
+
+/**
+ * The TaskQuery class is a parsed query over the task list.
+ * <p>
+ * A query is a list of conditions that must all hold, followed by an optional
+ * {@code order by priority|date|type|description|id [asc|desc]} and {@code limit N}, for example
+ * {@code priority<=S NOT done date>=2026-10-01 text:report order by date limit 5}.
+ * The conditions are:
+ * <ul>
+ *     <li>the tag, type, priority and status conditions of a bitmap filter, such as
+ *     {@code #ops}, {@code type:deadline}, {@code priority<=S} and {@code NOT done}, which may be
+ *     combined with OR, NOT and parentheses among themselves</li>
+ *     <li>{@code date:}, {@code date=}, {@code date<}, {@code date<=}, {@code date>} and {@code date>=}
+ *     followed by a yyyy-MM-dd date, selecting deadlines due and events taking place on those days</li>
+ *     <li>{@code text:word} or {@code text:"some words"}, selecting descriptions that contain the text,
+ *     ignoring case</li>
+ * </ul>
+ */
+public class TaskQuery {
+    static final LocalDate FIRST_DAY = LocalDate.of(0, 1, 1);
+    static final LocalDate LAST_DAY = LocalDate.of(9999, 12, 31);
+
+    /**
+     * The Order enum represents the fields query results can be ordered by.
+     */
+    public enum Order {
+        PRIORITY, DATE, TYPE, DESCRIPTION, ID
+    }
+
+    private final String text;
+    private String bitmapExpression;
+    private LocalDate from;
+    private LocalDate to;
+    private final List<String> texts = new ArrayList<>();
+    private Order order;
+    private boolean isDescending;
+    private int limit = -1;
+
+    private TaskQuery(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param text the query
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    public static TaskQuery parse(String text) {
+        TaskQuery query = new TaskQuery(text.trim());
+        List<String> tokens = tokenize(text);
+        List<String> segments = new ArrayList<>();
+        List<String> segment = new ArrayList<>();
+        boolean isClauseSeen = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            String lower = token.toLowerCase(Locale.ROOT);
+            if (lower.equals("order")) {
+                if (i + 2 >= tokens.size() || !tokens.get(i + 1).equalsIgnoreCase("by")) {
+                    throw new IllegalArgumentException("expected 'order by' and a field");
+                }
+                query.order = parseOrder(tokens.get(i + 2));
+                i += 2;
+                if (i + 1 < tokens.size() && (tokens.get(i + 1).equalsIgnoreCase("asc")
+                        || tokens.get(i + 1).equalsIgnoreCase("desc"))) {
+                    query.isDescending = tokens.get(++i).equalsIgnoreCase("desc");
+                }
+                isClauseSeen = true;
+                continue;
+            } else if (lower.equals("limit")) {
+                if (i + 1 >= tokens.size()) {
+                    throw new IllegalArgumentException("expected a number after 'limit'");
+                }
+                query.limit = parseLimit(tokens.get(++i));
+                isClauseSeen = true;
+                continue;
+            }
+            if (isClauseSeen) {
+                throw new IllegalArgumentException("conditions must come before 'order by' and 'limit'");
+            }
+            if (lower.startsWith("text:")) {
+                addSegment(segments, segment);
+                if (token.length() == 5) {
+                    throw new IllegalArgumentException("expected some text after 'text:'");
+                }
+                query.texts.add(token.substring(5).toLowerCase());
+            } else if (lower.startsWith("date") && lower.length() > 4 && ":=<>".indexOf(lower.charAt(4)) >= 0) {
+                addSegment(segments, segment);
+                query.addDateCondition(token.substring(4));
+            } else {
+                segment.add(token);
+            }
+        }
+        addSegment(segments, segment);
+        if (!segments.isEmpty()) {
+            query.bitmapExpression = segments.size() == 1 ? segments.get(0)
+                    : "(" + String.join(") AND (", segments) + ")";
+        }
+        return query;
+    }
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean isQuoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                isQuoted = !isQuoted;
+            } else if (!isQuoted && (Character.isWhitespace(c) || c == '(' || c == ')')) {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                if (!Character.isWhitespace(c)) {
+                    tokens.add(String.valueOf(c));
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        if (isQuoted) {
+            throw new IllegalArgumentException("missing '\"'");
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds a run of tag, type, priority and status tokens to the bitmap filter, dropping the
+     * ANDs around it since the runs are joined by AND anyway.
+     */
+    private static void addSegment(List<String> segments, List<String> segment) {
+        while (!segment.isEmpty() && segment.get(0).equalsIgnoreCase("AND")) {
+            segment.remove(0);
+        }
+        while (!segment.isEmpty() && segment.get(segment.size() - 1).equalsIgnoreCase("AND")) {
+            segment.remove(segment.size() - 1);
+        }
+        if (segment.isEmpty()) {
+            return;
+        }
+        String first = segment.get(0);
+        String last = segment.get(segment.size() - 1);
+        if (first.equalsIgnoreCase("OR") || last.equalsIgnoreCase("OR") || last.equalsIgnoreCase("NOT")) {
+            throw new IllegalArgumentException("OR and NOT only combine tag, type, priority and status conditions");
+        }
+        segments.add(String.join(" ", segment));
+        segment.clear();
+    }
+
+    private static Order parseOrder(String field) {
+        try {
+            return Order.valueOf(field.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("cannot order by '" + field + "'");
+        }
+    }
+
+    private static int parseLimit(String limit) {
+        try {
+            int value = Integer.parseInt(limit);
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("expected a number after 'limit', not '" + limit + "'");
+    }
+
+    private void addDateCondition(String comparison) {
+        String operator = comparison.startsWith("<=") || comparison.startsWith(">=")
+                ? comparison.substring(0, 2) : comparison.substring(0, 1);
+        LocalDate date;
+        try {
+            date = LocalDate.parse(comparison.substring(operator.length()));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("expected a yyyy-MM-dd date, not '"
+                    + comparison.substring(operator.length()) + "'");
+        }
+        LocalDate first = FIRST_DAY;
+        LocalDate last = LAST_DAY;
+        switch (operator) {
+            case ">":
+                first = date.plusDays(1);
+                break;
+            case ">=":
+                first = date;
+                break;
+            case "<":
+                last = date.minusDays(1);
+                break;
+            case "<=":
+                last = date;
+                break;
+            default:
+                first = date;
+                last = date;
+                break;
+        }
+        if (from == null || first.isAfter(from)) {
+            from = first;
+        }
+        if (to == null || last.isBefore(to)) {
+            to = last;
+        }
+    }
+
+    /**
+     * Returns the query as it was written.
+     *
+     * @return the query text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the field the results are ordered by.
+     *
+     * @return the field, or null if the results come in any order
+     */
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns whether the results are in descending order.
+     *
+     * @return true for descending order
+     */
+    public boolean isDescending() {
+        return isDescending;
+    }
+
+    /**
+     * Returns the largest number of results.
+     *
+     * @return the limit, or -1 if there is none
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    String getBitmapExpression() {
+        return bitmapExpression;
+    }
+
+    boolean hasDateRange() {
+        return from != null;
+    }
+
+    LocalDate getFrom() {
+        return from;
+    }
+
+    LocalDate getTo() {
+        return to;
+    }
+
+    boolean hasText() {
+        return !texts.isEmpty();
+    }
+
+    /**
+     * Returns whether a task is dated within the date range of the query, if it has one.
+     *
+     * @param task the task
+     * @return true if the task matches the date conditions
+     */
+    boolean matchesDates(Task task) {
+        if (from == null) {
+            return true;
+        } else if (task instanceof Deadline) {
+            LocalDate day = ((Deadline) task).getBy().toLocalDate();
+            return !day.isBefore(from) && !day.isAfter(to);
+        } else if (task instanceof Event) {
+            return !((Event) task).getStart().isAfter(to) && !((Event) task).getEnd().isBefore(from);
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the description of a task contains each text of the query.
+     *
+     * @param task the task
+     * @return true if the task matches the text conditions
+     */
+    boolean matchesText(Task task) {
+        if (texts.isEmpty()) {
+            return true;
+        }
+        String description = task.getDescription().toLowerCase();
+        for (String text : texts) {
+            if (!description.contains(text)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the order of the results, with ties broken by task id.
+     *
+     * @return the comparator, or null if the results come in any order
+     */
+    Comparator<Task> comparator() {
+        if (order == null) {
+            return null;
+        }
+        Comparator<Task> field;
+        switch (order) {
+            case PRIORITY:
+                field = Comparator.comparing(Task::getPriority);
+                break;
+            case DATE:
+                field = Comparator.comparing(TaskQuery::dateOf, isDescending
+                        ? Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder())
+                        : Comparator.nullsLast(Comparator.<LocalDateTime>naturalOrder()));
+                return field.thenComparingInt(Task::getId);
+            case TYPE:
+                field = Comparator.comparingInt(BitmapIndex::typeOf);
+                break;
+            case DESCRIPTION:
+                field = Comparator.comparing(Task::getDescription, String.CASE_INSENSITIVE_ORDER);
+                break;
+            default:
+                field = Comparator.comparingInt(Task::getId);
+                break;
+        }
+        return (isDescending ? field.reversed() : field).thenComparingInt(Task::getId);
+    }
+
+    /**
+     * Returns the time a task is ordered by: the due time of a deadline and the start of an event.
+     */
+    static LocalDateTime dateOf(Task task) {
+        if (task instanceof Deadline) {
+            return ((Deadline) task).getBy();
+        } else if (task instanceof Event) {
+            return ((Event) task).getStart().atStartOfDay();
+        }
+        return null;
+    }
+
+    /**
+     * Describes the conditions that are checked on each task rather than answered by an index.
+     *
+     * @param withDates whether the date range is among them
+     * @return the description, or an empty string if there are none
+     */
+    String describeChecks(boolean withDates) {
+        List<String> checks = new ArrayList<>();
+        if (withDates && from != null) {
+            checks.add("date from " + (from.equals(FIRST_DAY) ? "any" : from)
+                    + " to " + (to.equals(LAST_DAY) ? "any" : to));
+        }
+        for (String text : texts) {
+            checks.add("text contains \"" + text + "\"");
+        }
+        return String.join(", ", checks);
+    }
+}
@@ -0,0 +1,300 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.GroupBy;
+import com.erii.core.TaskManager.Priority;
+import com.erii.core.TaskManager.Task;
+import com.erii.core.TaskManager.Todo;
+import com.erii.metrics.Metrics;
+
+/**
+ * The TaskStats class counts tasks for aggregations.
+ * <p>
+ * The number of tasks of each type, priority and done status is kept up to date as the task
+ * list changes, so counts grouped by those fields take constant time. Filters on dates and
+ * groupings by week are answered by one pass over a columnar copy of a snapshot, which is
+ * built once per version of the task list and scanned in parallel when it is large.
+ */
+class TaskStats {
+    static final String[] TYPES = {"Todo", "Deadline", "Event"};
+    static final String NO_DATE = "no date";
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final int[] counts = new int[TYPES.length * PRIORITIES.length * 2];
+    private volatile Columns columns;
+
+    /**
+     * The Columns class holds the fields aggregations look at, one array per field,
+     * for the tasks of one snapshot.
+     */
+    private static final class Columns {
+        private final long version;
+        private final byte[] types;
+        private final byte[] priorities;
+        private final boolean[] done;
+        private final long[] firstDays;
+        private final long[] lastDays;
+        private final long[] dueSeconds;
+
+        private Columns(TaskManager.Snapshot snapshot) {
+            List<Task> tasks = snapshot.getTasks();
+            int size = tasks.size();
+            version = snapshot.getVersion();
+            types = new byte[size];
+            priorities = new byte[size];
+            done = new boolean[size];
+            firstDays = new long[size];
+            lastDays = new long[size];
+            dueSeconds = new long[size];
+            for (int i = 0; i < size; i++) {
+                Task task = tasks.get(i);
+                types[i] = (byte) typeOf(task);
+                priorities[i] = (byte) task.getPriority().ordinal();
+                done[i] = task instanceof Todo && ((Todo) task).isDone();
+                if (task instanceof Deadline) {
+                    firstDays[i] = ((Deadline) task).getBy().toLocalDate().toEpochDay();
+                    lastDays[i] = firstDays[i];
+                    dueSeconds[i] = ((Deadline) task).getBy().toEpochSecond(ZoneOffset.UTC);
+                } else if (task instanceof Event) {
+                    firstDays[i] = ((Event) task).getStart().toEpochDay();
+                    lastDays[i] = ((Event) task).getEnd().toEpochDay();
+                    dueSeconds[i] = ((Event) task).getEnd().plusDays(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+                } else {
+                    firstDays[i] = Long.MIN_VALUE;
+                    lastDays[i] = Long.MIN_VALUE;
+                    dueSeconds[i] = Long.MIN_VALUE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts a task added to the task list. Must be called with the write lock held.
+     *
+     * @param task the task
+     */
+    void added(Task task) {
+        counts[cell(task, isDone(task))]++;
+    }
+
+    /**
+     * Stops counting a task removed from the task list. Must be called with the write lock held.
+     *
+     * @param task the task
+     */
+    void removed(Task task) {
+        counts[cell(task, isDone(task))]--;
+    }
+
+    /**
+     * Moves a task to the count of its new done status. Must be called with the write lock
+     * held, before the status of the task changes.
+     *
+     * @param task   the task
+     * @param isDone the new done status
+     */
+    void doneChanged(Task task, boolean isDone) {
+        if (isDone != isDone(task)) {
+            counts[cell(task, !isDone)]--;
+            counts[cell(task, isDone)]++;
+        }
+    }
+
+    /**
+     * Counts the tasks selected by a filter from the per-type counters.
+     * Must be called with the lock held.
+     *
+     * @param filter  the filter, which must satisfy isCounted()
+     * @param groupBy the field to group by, other than WEEK
+     * @return the number of tasks in each group
+     */
+    Map<String, Integer> countFromCounters(TaskFilter filter, GroupBy groupBy) {
+        long start = Metrics.start();
+        Map<String, Integer> groups = emptyGroups(groupBy);
+        for (int t = 0; t < TYPES.length; t++) {
+            for (int p = 0; p < PRIORITIES.length; p++) {
+                for (int d = 0; d < 2; d++) {
+                    if (matches(filter, t, p, d == 1)) {
+                        groups.merge(groupName(groupBy, t, p, d == 1), counts[(t * PRIORITIES.length + p) * 2 + d],
+                                Integer::sum);
+                    }
+                }
+            }
+        }
+        record(start, counts.length, groups);
+        return groups;
+    }
+
+    /**
+     * Counts the tasks of a snapshot selected by a filter, with one pass over its columns.
+     *
+     * @param snapshot the snapshot
+     * @param filter   the filter
+     * @param groupBy  the field to group by
+     * @return the number of tasks in each group
+     */
+    Map<String, Integer> countFromColumns(TaskManager.Snapshot snapshot, TaskFilter filter, GroupBy groupBy) {
+        long start = Metrics.start();
+        Columns view = columns;
+        if (view == null || view.version != snapshot.getVersion()) {
+            view = new Columns(snapshot);
+            columns = view;
+        }
+        Columns c = view;
+        long from = filter.getFrom() == null ? Long.MIN_VALUE : filter.getFrom().toEpochDay();
+        long to = filter.getTo() == null ? Long.MAX_VALUE : filter.getTo().toEpochDay();
+        long overdueBefore = filter.getOverdueAt() == null ? Long.MAX_VALUE
+                : filter.getOverdueAt().toEpochSecond(ZoneOffset.UTC);
+        IntStream rows = IntStream.range(0, c.types.length);
+        if (c.types.length >= PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        HashMap<Long, int[]> keyed = rows.filter(i -> matches(filter, c.types[i], c.priorities[i], c.done[i])
+                        && (filter.getFrom() == null
+                            || (c.firstDays[i] != Long.MIN_VALUE && c.firstDays[i] <= to && c.lastDays[i] >= from))
+                        && (filter.getOverdueAt() == null
+                            || (!c.done[i] && c.dueSeconds[i] != Long.MIN_VALUE && c.dueSeconds[i] < overdueBefore)))
+                .collect(HashMap::new, (map, i) -> map.computeIfAbsent(groupKey(c, groupBy, i), k -> new int[1])[0]++,
+                        (a, b) -> b.forEach((k, v) -> a.computeIfAbsent(k, key -> new int[1])[0] += v[0]));
+        Map<String, Integer> groups = emptyGroups(groupBy);
+        List<Long> keys = new ArrayList<>(keyed.keySet());
+        keys.sort(null);
+        if (keys.remove(Long.valueOf(Long.MIN_VALUE))) {
+            // Tasks without a date are listed after the weeks
+            keys.add(Long.MIN_VALUE);
+        }
+        for (Long key : keys) {
+            groups.merge(groupName(groupBy, key), keyed.get(key)[0], Integer::sum);
+        }
+        record(start, c.types.length, groups);
+        return groups;
+    }
+
+    private static boolean matches(TaskFilter filter, int type, int priority, boolean isDone) {
+        return (filter.getType() == null || TYPES[type].equalsIgnoreCase(filter.getType()))
+                && (filter.getPriority() == null || PRIORITIES[priority] == filter.getPriority())
+                && (filter.isDone() == null || filter.isDone() == isDone);
+    }
+
+    /**
+     * Returns the groups that are listed even when empty, in display order.
+     *
+     * @param groupBy the field to group by
+     * @return the empty groups
+     */
+    private static Map<String, Integer> emptyGroups(GroupBy groupBy) {
+        Map<String, Integer> groups = new LinkedHashMap<>();
+        switch (groupBy) {
+            case TYPE:
+                for (String type : TYPES) {
+                    groups.put(type, 0);
+                }
+                break;
+            case PRIORITY:
+                for (Priority priority : PRIORITIES) {
+                    groups.put(priority.name(), 0);
+                }
+                break;
+            case DONE:
+                groups.put(doneName(false), 0);
+                groups.put(doneName(true), 0);
+                break;
+            default:
+                break;
+        }
+        return groups;
+    }
+
+    private static long groupKey(Columns c, GroupBy groupBy, int i) {
+        switch (groupBy) {
+            case TYPE:
+                return c.types[i];
+            case PRIORITY:
+                return c.priorities[i];
+            case DONE:
+                return c.done[i] ? 1 : 0;
+            case WEEK:
+                // The Monday of the week; epoch day 0 was a Thursday
+                return c.firstDays[i] == Long.MIN_VALUE ? Long.MIN_VALUE
+                        : c.firstDays[i] - Math.floorMod(c.firstDays[i] + 3, 7);
+            default:
+                return 0;
+        }
+    }
+
+    private static String groupName(GroupBy groupBy, long key) {
+        switch (groupBy) {
+            case TYPE:
+                return TYPES[(int) key];
+            case PRIORITY:
+                return PRIORITIES[(int) key].name();
+            case DONE:
+                return doneName(key == 1);
+            case WEEK:
+                return key == Long.MIN_VALUE ? NO_DATE : weekName(LocalDate.ofEpochDay(key));
+            default:
+                return "all";
+        }
+    }
+
+    private static String groupName(GroupBy groupBy, int type, int priority, boolean isDone) {
+        switch (groupBy) {
+            case TYPE:
+                return TYPES[type];
+            case PRIORITY:
+                return PRIORITIES[priority].name();
+            case DONE:
+                return doneName(isDone);
+            default:
+                return "all";
+        }
+    }
+
+    private static String weekName(LocalDate monday) {
+        return monday.get(IsoFields.WEEK_BASED_YEAR) + "-W"
+                + String.format("%02d", monday.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+    }
+
+    private static String doneName(boolean isDone) {
+        return isDone ? "done" : "not done";
+    }
+
+    private static int cell(Task task, boolean isDone) {
+        return (typeOf(task) * PRIORITIES.length + task.getPriority().ordinal()) * 2 + (isDone ? 1 : 0);
+    }
+
+    private static int typeOf(Task task) {
+        if (task instanceof Deadline) {
+            return 1;
+        } else if (task instanceof Event) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private static boolean isDone(Task task) {
+        return task instanceof Todo && ((Todo) task).isDone();
+    }
+
+    private static void record(long start, int scanned, Map<String, Integer> groups) {
+        int returned = 0;
+        for (int count : groups.values()) {
+            returned += count;
+        }
+        Metrics.time("query.count", start);
+        Metrics.count("query.count.scanned", scanned);
+        Metrics.count("query.count.returned", returned);
+    }
+}
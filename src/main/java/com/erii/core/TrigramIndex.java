@@ -0,0 +1,303 @@
+package com.erii.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+/**
+ * The TrigramIndex class finds tasks whose descriptions approximately match a query.
+ * <p>
+ * Descriptions are split into words, and the distinct words are indexed by their trigrams.
+ * A query word first looks up the words that share a trigram with it, verifies at most
+ * MAX_CANDIDATES of them with a bounded edit distance, and only then maps the matching words
+ * to tasks, so the cost of a search depends on the vocabulary and the number of matches
+ * rather than on the number of tasks.
+ */
+class TrigramIndex extends FeedIndex {
+    static final int MAX_CANDIDATES = 1000;
+
+    private final Map<String, Set<String>> wordsByTrigram = new HashMap<>();
+    private final Map<String, Set<Task>> tasksByWord = new HashMap<>();
+    private final Map<Task, String[]> wordsByTask = new IdentityHashMap<>();
+
+    /**
+     * The Match class is a task found by a search and how closely it matched.
+     */
+    private static final class Match {
+        private final Task task;
+        private int score;
+
+        private Match(Task task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * Constructs a TrigramIndex over the tasks of a task manager.
+     * The index is built on the first search.
+     *
+     * @param taskManager the task manager to index
+     */
+    TrigramIndex(TaskManager taskManager) {
+        super(taskManager, "query.fuzzy");
+    }
+
+    /**
+     * Finds the tasks that contain every word of the query, allowing a few typos per word.
+     * Results are ranked by their total score, then by task id.
+     *
+     * @param query the words to search for
+     * @return the matching tasks, best match first
+     */
+    List<Task> search(String query) {
+        long start = Metrics.start();
+        catchUp();
+        String[] queryWords = words(query);
+        Map<Task, Match> matches = null;
+        int verified = 0;
+        synchronized (this) {
+            for (String queryWord : queryWords) {
+                Map<Task, Integer> wordMatches = new IdentityHashMap<>();
+                List<String> candidates = candidates(queryWord);
+                verified += candidates.size();
+                int bound = maxDistance(queryWord);
+                for (String word : candidates) {
+                    int score = score(queryWord, word, bound);
+                    if (score < 0) {
+                        continue;
+                    }
+                    for (Task task : tasksByWord.get(word)) {
+                        wordMatches.merge(task, score, Math::min);
+                    }
+                }
+                matches = intersect(matches, wordMatches);
+                if (matches.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        List<Task> found = new ArrayList<>();
+        if (matches != null) {
+            List<Match> ranked = new ArrayList<>(matches.values());
+            ranked.sort(Comparator.comparingInt((Match match) -> match.score)
+                    .thenComparingInt(match -> match.task.getId()));
+            for (Match match : ranked) {
+                found.add(match.task);
+            }
+        }
+        Metrics.time("query.fuzzy", start);
+        Metrics.count("query.fuzzy.scanned", verified);
+        Metrics.count("query.fuzzy.returned", found.size());
+        return found;
+    }
+
+    /**
+     * Scores how well an indexed word matches a query word: 0 for the same word, 1 for a word
+     * containing the query word, and twice the edit distance otherwise.
+     *
+     * @param queryWord the query word
+     * @param word      the indexed word
+     * @param bound     the largest edit distance accepted
+     * @return the score, or -1 if the words do not match
+     */
+    private static int score(String queryWord, String word, int bound) {
+        if (word.equals(queryWord)) {
+            return 0;
+        } else if (word.contains(queryWord)) {
+            return 1;
+        }
+        int distance = distance(queryWord, word, bound);
+        return distance > bound ? -1 : 2 * distance;
+    }
+
+    /**
+     * Keeps only the tasks that also matched the current query word, adding up their scores.
+     *
+     * @param matches     the tasks that matched the previous query words, or null for the first word
+     * @param wordMatches the tasks that matched the current query word, with their scores
+     * @return the tasks that matched every query word so far
+     */
+    private static Map<Task, Match> intersect(Map<Task, Match> matches, Map<Task, Integer> wordMatches) {
+        Map<Task, Match> result = new IdentityHashMap<>();
+        for (Map.Entry<Task, Integer> entry : wordMatches.entrySet()) {
+            Match match = matches == null ? new Match(entry.getKey()) : matches.get(entry.getKey());
+            if (match != null) {
+                match.score += entry.getValue();
+                result.put(entry.getKey(), match);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indexed words sharing a trigram with a query word, most shared trigrams first,
+     * limited to MAX_CANDIDATES.
+     *
+     * @param queryWord the query word
+     * @return the candidate words
+     */
+    private List<String> candidates(String queryWord) {
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : trigrams(queryWord)) {
+            Set<String> words = wordsByTrigram.get(trigram);
+            if (words != null) {
+                for (String word : words) {
+                    shared.merge(word, 1, Integer::sum);
+                }
+            }
+        }
+        List<String> candidates = new ArrayList<>(shared.keySet());
+        if (candidates.size() > MAX_CANDIDATES) {
+            candidates.sort(Comparator.comparingInt((String word) -> shared.get(word)).reversed());
+            candidates = candidates.subList(0, MAX_CANDIDATES);
+        }
+        return candidates;
+    }
+
+    @Override
+    void clear() {
+        wordsByTrigram.clear();
+        tasksByWord.clear();
+        wordsByTask.clear();
+    }
+
+    @Override
+    void add(Task task) {
+        if (wordsByTask.containsKey(task)) {
+            return;
+        }
+        String[] taskWords = words(task.getDescription());
+        wordsByTask.put(task, taskWords);
+        for (String word : taskWords) {
+            Set<Task> tasks = tasksByWord.get(word);
+            if (tasks == null) {
+                tasks = Collections.newSetFromMap(new IdentityHashMap<>());
+                tasksByWord.put(word, tasks);
+                for (String trigram : trigrams(word)) {
+                    wordsByTrigram.computeIfAbsent(trigram, key -> new HashSet<>()).add(word);
+                }
+            }
+            tasks.add(task);
+        }
+    }
+
+    @Override
+    void remove(Task task) {
+        String[] taskWords = wordsByTask.remove(task);
+        if (taskWords == null) {
+            return;
+        }
+        for (String word : taskWords) {
+            Set<Task> tasks = tasksByWord.get(word);
+            if (tasks == null || !tasks.remove(task) || !tasks.isEmpty()) {
+                continue;
+            }
+            tasksByWord.remove(word);
+            for (String trigram : trigrams(word)) {
+                Set<String> words = wordsByTrigram.get(trigram);
+                words.remove(word);
+                if (words.isEmpty()) {
+                    wordsByTrigram.remove(trigram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits text into distinct lower-case words.
+     *
+     * @param text the text to split
+     * @return the words of the text
+     */
+    static String[] words(String text) {
+        Set<String> words = new HashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the trigrams of a word padded with two leading spaces and one trailing space,
+     * so that short words and word starts have trigrams of their own.
+     *
+     * @param word the word
+     * @return the distinct trigrams of the word
+     */
+    static Set<String> trigrams(String word) {
+        String padded = "  " + word + " ";
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Returns the number of typos allowed in a query word of the given length.
+     *
+     * @param word the query word
+     * @return the largest edit distance accepted
+     */
+    static int maxDistance(String word) {
+        if (word.length() <= 2) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : 2;
+    }
+
+    /**
+     * Computes the edit distance between two words, counting insertions, deletions, substitutions
+     * and swaps of adjacent characters as one edit each. The computation stops as soon as the
+     * distance is known to exceed the bound.
+     *
+     * @param a     the first word
+     * @param b     the second word
+     * @param bound the largest distance of interest
+     * @return the distance, or bound + 1 if it exceeds the bound
+     */
+    static int distance(String a, String b, int bound) {
+        if (Math.abs(a.length() - b.length()) > bound) {
+            return bound + 1;
+        }
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], bound + 1);
+    }
+}
@@ -0,0 +1,175 @@
+package com.erii.data;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The AtomicFile class replaces a file without ever leaving it half written.
+ * New contents are written to a temporary file, synced to disk and then renamed over the
+ * target in one atomic step, so the target always exists. The previous generation of the file
+ * is kept as a backup by linking it, or copying it where links are not supported, before it
+ * is replaced.
+ */
+public class AtomicFile {
+    private final Path target;
+    private final Path temp;
+    private final Path backup;
+    private final Path backupTemp;
+
+    /**
+     * Constructs an AtomicFile for the given path.
+     *
+     * @param path the path of the file to be written
+     */
+    public AtomicFile(String path) {
+        this.target = Paths.get(path);
+        this.temp = Paths.get(path + ".tmp");
+        this.backup = Paths.get(path + ".bak");
+        this.backupTemp = Paths.get(path + ".bak.tmp");
+    }
+
+    /**
+     * Returns the path of the file.
+     *
+     * @return the path of the file
+     */
+    public Path getPath() {
+        return target;
+    }
+
+    /**
+     * Returns the path of the previous generation of the file.
+     *
+     * @return the path of the backup
+     */
+    public Path getBackupPath() {
+        return backup;
+    }
+
+    /**
+     * Starts writing a new generation of the file.
+     *
+     * @return a stream to write the new contents to
+     * @throws IOException if the temporary file cannot be created
+     */
+    public FileOutputStream startWrite() throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return new FileOutputStream(temp.toFile());
+    }
+
+    /**
+     * Returns the path new contents are written to by callers that write them without
+     * startWrite. They must sync the contents to disk before calling replace.
+     *
+     * @return the path of the temporary file
+     */
+    public Path getTempPath() {
+        return temp;
+    }
+
+    /**
+     * Syncs the new contents to disk and renames them over the file.
+     * The current file is kept as the backup.
+     *
+     * @param out the stream returned by startWrite
+     * @throws IOException if the new contents cannot be committed
+     */
+    public void finishWrite(FileOutputStream out) throws IOException {
+        finishWrite(out, true);
+    }
+
+    /**
+     * Syncs the new contents to disk and renames them over the file.
+     *
+     * @param out           the stream returned by startWrite
+     * @param updatesBackup whether the current file becomes the backup; false keeps the backup
+     *                      as it is, for when the current file is known to be damaged
+     * @throws IOException if the new contents cannot be committed
+     */
+    public void finishWrite(FileOutputStream out, boolean updatesBackup) throws IOException {
+        try {
+            out.flush();
+            Metrics.count("storage.bytes-written", out.getChannel().position());
+            long start = Metrics.start();
+            out.getFD().sync();
+            Metrics.time("storage.fsync", start);
+        } finally {
+            out.close();
+        }
+        replace(updatesBackup);
+    }
+
+    /**
+     * Renames the synced temporary file over the file.
+     *
+     * @param updatesBackup whether the current file becomes the backup
+     * @throws IOException if the temporary file cannot be renamed
+     */
+    public void replace(boolean updatesBackup) throws IOException {
+        if (updatesBackup && Files.exists(target)) {
+            Files.deleteIfExists(backupTemp);
+            try {
+                Files.createLink(backupTemp, target);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(target, backupTemp);
+            }
+            move(backupTemp, backup);
+        }
+        move(temp, target);
+        syncDirectory();
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Abandons a write started with startWrite, leaving the file untouched.
+     *
+     * @param out the stream returned by startWrite
+     */
+    public void failWrite(FileOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // The temporary file is deleted below either way
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // A stale temporary file is overwritten by the next write
+        }
+    }
+
+    /**
+     * Syncs the parent directory so that the rename itself survives a crash.
+     * Not every platform allows opening a directory, in which case this does nothing.
+     */
+    private void syncDirectory() {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(parent, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directory sync is best effort
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.erii.data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import com.erii.data.PageFile.Node;
+
+/**
+ * The BPlusTree class maps long keys to small byte array values, stored in the pages of a PageFile.
+ * Nodes are split when they outgrow their page. Deleted entries are simply removed from
+ * their leaf; underfull pages are not merged, which keeps deletes to a single page write.
+ */
+class BPlusTree {
+    static final int MAX_VALUE_SIZE = 1024;
+
+    private final PageFile file;
+    private final int slot;
+
+    /**
+     * The Split class describes the new right sibling created by splitting a node.
+     */
+    private static final class Split {
+        private final long key;
+        private final int page;
+
+        private Split(long key, int page) {
+            this.key = key;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Opens the tree stored in the given root slot of the page file, creating it if needed.
+     *
+     * @param file the page file
+     * @param slot the root slot of the tree
+     */
+    BPlusTree(PageFile file, int slot) {
+        this.file = file;
+        this.slot = slot;
+        if (file.getRoot(slot) == 0) {
+            file.setRoot(slot, file.allocate(true).page);
+        }
+    }
+
+    /**
+     * Returns the value stored under a key.
+     *
+     * @param key the key
+     * @return the value, or null if the key is not in the tree
+     */
+    byte[] get(long key) {
+        Node leaf = findLeaf(key);
+        int i = Collections.binarySearch(leaf.keys, key);
+        return i >= 0 ? leaf.values.get(i) : null;
+    }
+
+    /**
+     * Stores a value under a key, replacing any previous value.
+     *
+     * @param key   the key
+     * @param value the value, at most MAX_VALUE_SIZE bytes
+     */
+    void put(long key, byte[] value) {
+        if (value.length > MAX_VALUE_SIZE) {
+            throw new IllegalArgumentException("Value of " + value.length + " bytes is too large to store.");
+        }
+        Node root = file.read(file.getRoot(slot));
+        Split split = insert(root, key, value);
+        if (split != null) {
+            Node newRoot = file.allocate(false);
+            newRoot.children.add(root.page);
+            newRoot.keys.add(split.key);
+            newRoot.children.add(split.page);
+            file.write(newRoot);
+            file.setRoot(slot, newRoot.page);
+        }
+    }
+
+    /**
+     * Removes a key from the tree.
+     *
+     * @param key the key
+     * @return true if the key was in the tree
+     */
+    boolean remove(long key) {
+        Node leaf = findLeaf(key);
+        int i = Collections.binarySearch(leaf.keys, key);
+        if (i < 0) {
+            return false;
+        }
+        leaf.keys.remove(i);
+        leaf.values.remove(i);
+        file.write(leaf);
+        return true;
+    }
+
+    /**
+     * Visits all entries with keys between from and to, inclusive, in key order.
+     * Only the leaves in the range are read.
+     *
+     * @param from    the smallest key to visit
+     * @param to      the largest key to visit
+     * @param visitor the function called with each key and value
+     */
+    void scan(long from, long to, BiConsumer<Long, byte[]> visitor) {
+        Node leaf = findLeaf(from);
+        while (true) {
+            for (int i = 0; i < leaf.keys.size(); i++) {
+                long key = leaf.keys.get(i);
+                if (key > to) {
+                    return;
+                }
+                if (key >= from) {
+                    visitor.accept(key, leaf.values.get(i));
+                }
+            }
+            if (leaf.next == 0) {
+                return;
+            }
+            leaf = file.read(leaf.next);
+        }
+    }
+
+    private Node findLeaf(long key) {
+        Node node = file.read(file.getRoot(slot));
+        while (!node.isLeaf) {
+            node = file.read(node.children.get(childIndex(node.keys, key)));
+        }
+        return node;
+    }
+
+    private static int childIndex(List<Long> keys, long key) {
+        int i = Collections.binarySearch(keys, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private Split insert(Node node, long key, byte[] value) {
+        if (node.isLeaf) {
+            int i = Collections.binarySearch(node.keys, key);
+            if (i >= 0) {
+                node.values.set(i, value);
+            } else {
+                node.keys.add(-i - 1, key);
+                node.values.add(-i - 1, value);
+            }
+            file.write(node);
+            return node.encodedSize() > PageFile.PAGE_SIZE ? splitLeaf(node) : null;
+        }
+        int i = childIndex(node.keys, key);
+        Split split = insert(file.read(node.children.get(i)), key, value);
+        if (split == null) {
+            return null;
+        }
+        node.keys.add(i, split.key);
+        node.children.add(i + 1, split.page);
+        file.write(node);
+        return node.encodedSize() > PageFile.PAGE_SIZE ? splitInternal(node) : null;
+    }
+
+    /**
+     * Splits a leaf where the entries before the split take about half of its bytes,
+     * so a leaf of a few long values is split as evenly as one of many short values.
+     */
+    private Split splitLeaf(Node node) {
+        Node right = file.allocate(true);
+        int half = node.encodedSize() / 2;
+        int size = PageFile.NODE_HEADER + PageFile.leafEntrySize(node.values.get(0).length);
+        int mid = 1;
+        while (mid < node.keys.size() - 1 && size + PageFile.leafEntrySize(node.values.get(mid).length) <= half) {
+            size += PageFile.leafEntrySize(node.values.get(mid).length);
+            mid++;
+        }
+        List<Long> movedKeys = node.keys.subList(mid, node.keys.size());
+        List<byte[]> movedValues = node.values.subList(mid, node.values.size());
+        right.keys.addAll(movedKeys);
+        right.values.addAll(movedValues);
+        movedKeys.clear();
+        movedValues.clear();
+        if (node.encodedSize() > PageFile.PAGE_SIZE || right.encodedSize() > PageFile.PAGE_SIZE) {
+            throw new IllegalStateException("A split leaf does not fit in a page.");
+        }
+        right.next = node.next;
+        node.next = right.page;
+        file.write(right);
+        file.write(node);
+        return new Split(right.keys.get(0), right.page);
+    }
+
+    private Split splitInternal(Node node) {
+        Node right = file.allocate(false);
+        int mid = node.keys.size() / 2;
+        long separator = node.keys.get(mid);
+        List<Long> movedKeys = node.keys.subList(mid + 1, node.keys.size());
+        List<Integer> movedChildren = node.children.subList(mid + 1, node.children.size());
+        right.keys.addAll(movedKeys);
+        right.children.addAll(movedChildren);
+        movedKeys.clear();
+        movedChildren.clear();
+        node.keys.remove(mid);
+        file.write(right);
+        file.write(node);
+        return new Split(separator, right.page);
+    }
+}
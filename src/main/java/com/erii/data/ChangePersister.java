@@ -0,0 +1,121 @@
+package com.erii.data;
+
+import com.erii.core.ChangeFeed;
+import com.erii.core.TaskEvent;
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The ChangePersister class writes the changes of a task list to storage by reading them from
+ * the task list's change feed. A single added, changed or deleted task is handed to the
+ * repository on its own, and a batch of changes or a reordering is written as one full save.
+ * With a repository that writes one task at a time, such as the key-value repository, the cost
+ * of a save follows the number of changes rather than the number of tasks. The text repository
+ * has no such write and rewrites its file on every save.
+ * The persister follows the feed through a lossy subscription: a bulk operation that publishes
+ * more events than the feed holds drops it instead of making the publisher wait for it under
+ * the write lock, and the persister then writes the list with one full save, which is what a
+ * batch that size would have cost anyway.
+ * The dependencies between tasks refer to tasks by id, so they are only written again
+ * when they change.
+ * <p>
+ * When the profile is shared with other processes, changes are saved through the shared journal,
+ * which first applies the changes saved by the other processes. Changes applied that way are
+ * already saved, so they are not written again.
+ */
+public class ChangePersister {
+    private final TaskManager taskManager;
+    private final DataStorage storage;
+    private final SharedJournal journal;
+    private ChangeFeed.Subscription subscription;
+    private long dependencyVersion;
+
+    /**
+     * Constructs a ChangePersister that saves the changes made to a task list from now on.
+     *
+     * @param taskManager the task list to follow
+     * @param storage     the storage to write to
+     */
+    public ChangePersister(TaskManager taskManager, DataStorage storage) {
+        this(taskManager, storage, null);
+    }
+
+    /**
+     * Constructs a ChangePersister that saves the changes made to a task list from now on,
+     * sharing them with other processes through a journal.
+     *
+     * @param taskManager the task list to follow
+     * @param storage     the storage to write to
+     * @param journal     the journal shared with other processes, or null if the profile is not shared
+     */
+    public ChangePersister(TaskManager taskManager, DataStorage storage, SharedJournal journal) {
+        this.taskManager = taskManager;
+        this.storage = storage;
+        this.journal = journal;
+        this.subscription = taskManager.subscribe(true);
+        this.dependencyVersion = taskManager.getDependencyVersion();
+    }
+
+    /**
+     * Writes all changes published since the last call.
+     * If the feed dropped this persister because the changes did not fit in it, the whole task list
+     * is saved instead.
+     * It may be called from the thread watching the shared journal as well as from the user's.
+     */
+    public synchronized void persist() {
+        if (journal == null) {
+            persistLocal();
+        } else {
+            // Nothing may change between reading the changes and saving them
+            taskManager.runExclusively(this::persistLocal);
+        }
+    }
+
+    private void persistLocal() {
+        boolean isOverrun = subscription.isOverrun();
+        List<TaskEvent> batch = new ArrayList<>();
+        if (isOverrun) {
+            subscription = taskManager.subscribe(true);
+        } else {
+            for (TaskEvent event : subscription.poll(Integer.MAX_VALUE)) {
+                if (!event.isExternal()) {
+                    batch.add(event);
+                }
+            }
+        }
+        boolean isChanged = isOverrun || !batch.isEmpty();
+        if (journal != null) {
+            journal.commit(batch, isOverrun, () -> write(batch, isOverrun));
+        } else if (isChanged) {
+            write(batch, isOverrun);
+        }
+        long version = taskManager.getDependencyVersion();
+        if (version != dependencyVersion) {
+            dependencyVersion = version;
+            storage.saveDependencies(taskManager);
+        }
+    }
+
+    private void write(List<TaskEvent> batch, boolean isOverrun) {
+        // The list is read from the shared snapshot, and only by repositories that need it
+        Supplier<List<Task>> tasks = () -> taskManager.getSnapshot().getTasks();
+        if (isOverrun || batch.size() > 1 || batch.get(0).getKind() == TaskEvent.Kind.REORDERED) {
+            storage.saveTasks(tasks.get());
+        } else if (batch.get(0).getKind() == TaskEvent.Kind.DELETED) {
+            storage.deleteTask(tasks, batch.get(0).getTask());
+        } else {
+            storage.saveTask(tasks, batch.get(0).getTask());
+        }
+    }
+
+    /**
+     * Stops following the task list.
+     */
+    public void close() {
+        subscription.close();
+    }
+}
@@ -0,0 +1,332 @@
+package com.erii.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The CompressedTaskFile class reads and writes the block-compressed task file format.
+ * Task lines are grouped into blocks of at most BLOCK_BYTES, and each block is stored as
+ * its raw length, compressed length and CRC32C followed by the deflated bytes. The CRC only
+ * covers the raw bytes, so a raw length over BLOCK_BYTES, or a compressed length over what
+ * such a block can deflate to, is taken as corruption rather than trusted as a buffer size.
+ * An index of block offsets at the end of the file lets the blocks be decompressed in
+ * parallel; without a valid index the blocks are streamed one after the other.
+ */
+class CompressedTaskFile {
+    static final byte[] MAGIC = "ERIIZ01\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int INDEX_MAGIC = 0x45494458;
+    private static final int END_OF_BLOCKS = -1;
+    private static final int BLOCK_BYTES = 256 * 1024;
+    // The most a block of BLOCK_BYTES can take once deflated, with the zlib header and trailer
+    private static final int MAX_COMPRESSED_BYTES =
+            BLOCK_BYTES + ((BLOCK_BYTES + 7) >> 3) + ((BLOCK_BYTES + 63) >> 6) + 11;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+
+    /**
+     * The Result class holds the parsed blocks of a file and whether reading stopped early.
+     *
+     * @param <R> the type of a parsed block
+     */
+    static class Result<R> {
+        final List<R> blocks;
+        final boolean isCorrupted;
+
+        Result(List<R> blocks, boolean isCorrupted) {
+            this.blocks = blocks;
+            this.isCorrupted = isCorrupted;
+        }
+    }
+
+    /**
+     * The Writer class writes task lines to a compressed task file.
+     */
+    static class Writer {
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final List<Long> offsets = new ArrayList<>();
+        private final byte[] raw = new byte[BLOCK_BYTES];
+        private byte[] compressed = new byte[BLOCK_BYTES];
+        private int rawLength;
+        private long position;
+
+        /**
+         * Constructs a Writer and writes the file header.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the header cannot be written
+         */
+        Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+            position = MAGIC.length;
+        }
+
+        /**
+         * Appends a line to the current block, writing the block out once it is full.
+         *
+         * @param line the line to be written, without the line separator
+         * @throws IOException if the line does not fit in a block, or a block cannot be written
+         */
+        void writeLine(String line) throws IOException {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > BLOCK_BYTES) {
+                throw new IOException("A task line is longer than " + BLOCK_BYTES + " bytes");
+            }
+            if (rawLength + bytes.length > BLOCK_BYTES) {
+                flushBlock();
+            }
+            System.arraycopy(bytes, 0, raw, rawLength, bytes.length);
+            rawLength += bytes.length;
+        }
+
+        /**
+         * Writes the last block and the block index. The underlying stream is not closed.
+         *
+         * @throws IOException if the file cannot be written
+         */
+        void finish() throws IOException {
+            try {
+                flushBlock();
+                out.writeInt(END_OF_BLOCKS);
+                long indexOffset = position + Integer.BYTES;
+                out.writeInt(offsets.size());
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                out.writeLong(indexOffset);
+                out.writeInt(INDEX_MAGIC);
+                out.flush();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (rawLength == 0) {
+                return;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(raw, 0, rawLength);
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            offsets.add(position);
+            out.writeInt(rawLength);
+            out.writeInt(compressedLength);
+            out.writeInt((int) crc.getValue());
+            out.write(compressed, 0, compressedLength);
+            position += 3 * Integer.BYTES + compressedLength;
+            rawLength = 0;
+        }
+    }
+
+    /**
+     * Returns whether the file at the given path starts with the compressed format header.
+     *
+     * @param path the file to check
+     * @return true if the file is block-compressed
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isCompressed(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] header = in.readNBytes(MAGIC.length);
+            return Arrays.equals(header, MAGIC);
+        }
+    }
+
+    /**
+     * Reads a compressed task file, handing the lines of each block to the parser.
+     * Blocks are decompressed and parsed in parallel when the block index is intact,
+     * and streamed in order otherwise. Reading stops at the first damaged block.
+     *
+     * @param path   the file to read
+     * @param parser the function parsing the lines of one block
+     * @param <R>    the type of a parsed block
+     * @return the parsed blocks, in file order
+     * @throws IOException if the file cannot be read
+     */
+    static <R> Result<R> read(Path path, Function<List<String>, R> parser) throws IOException {
+        long[] offsets = readIndex(path);
+        if (offsets == null) {
+            return readSequentially(path, parser);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<R> parsed = IntStream.range(0, offsets.length).parallel()
+                    .mapToObj(i -> {
+                        List<String> lines = readBlockAt(channel, offsets[i]);
+                        return lines == null ? null : parser.apply(lines);
+                    })
+                    .collect(Collectors.toList());
+            int good = parsed.indexOf(null);
+            if (good < 0) {
+                return new Result<>(parsed, false);
+            }
+            return new Result<>(new ArrayList<>(parsed.subList(0, good)), true);
+        }
+    }
+
+    private static <R> Result<R> readSequentially(Path path, Function<List<String>, R> parser) throws IOException {
+        List<R> parsed = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            in.skipNBytes(MAGIC.length);
+            Inflater inflater = new Inflater();
+            try {
+                while (true) {
+                    int rawLength = in.readInt();
+                    if (rawLength == END_OF_BLOCKS) {
+                        return new Result<>(parsed, false);
+                    }
+                    int compressedLength = in.readInt();
+                    int crc = in.readInt();
+                    if (!isValidBlock(rawLength, compressedLength)) {
+                        return new Result<>(parsed, true);
+                    }
+                    byte[] compressed = in.readNBytes(compressedLength);
+                    List<String> lines = inflate(inflater, compressed, rawLength, crc);
+                    if (lines == null) {
+                        return new Result<>(parsed, true);
+                    }
+                    parsed.add(parser.apply(lines));
+                }
+            } catch (EOFException e) {
+                return new Result<>(parsed, true);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private static long[] readIndex(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAGIC.length + TRAILER_BYTES) {
+                return null;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            readFully(channel, trailer, size - TRAILER_BYTES);
+            trailer.flip();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != INDEX_MAGIC || indexOffset < MAGIC.length || indexOffset > size - TRAILER_BYTES) {
+                return null;
+            }
+            long indexLength = size - TRAILER_BYTES - indexOffset;
+            if (indexLength < Integer.BYTES || indexLength > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer index = ByteBuffer.allocate((int) indexLength);
+            readFully(channel, index, indexOffset);
+            index.flip();
+            int count = index.getInt();
+            if (count < 0 || index.remaining() != (long) count * Long.BYTES) {
+                return null;
+            }
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = index.getLong();
+            }
+            return offsets;
+        }
+    }
+
+    private static List<String> readBlockAt(FileChannel channel, long offset) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES);
+            readFully(channel, header, offset);
+            header.flip();
+            int rawLength = header.getInt();
+            int compressedLength = header.getInt();
+            int crc = header.getInt();
+            if (!isValidBlock(rawLength, compressedLength)
+                    || compressedLength > channel.size() - offset - header.capacity()) {
+                return null;
+            }
+            ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+            readFully(channel, compressed, offset + header.capacity());
+            Inflater inflater = new Inflater();
+            try {
+                return inflate(inflater, compressed.array(), rawLength, crc);
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isValidBlock(int rawLength, int compressedLength) {
+        return rawLength >= 0 && rawLength <= BLOCK_BYTES
+                && compressedLength >= 0 && compressedLength <= MAX_COMPRESSED_BYTES;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static List<String> inflate(Inflater inflater, byte[] compressed, int rawLength, int crc) {
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, length, rawLength - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                length += read;
+            }
+            if (length != rawLength) {
+                return null;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        }
+        CRC32C check = new CRC32C();
+        check.update(raw, 0, rawLength);
+        if ((int) check.getValue() != crc) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < rawLength; i++) {
+            if (raw[i] == '\n') {
+                lines.add(new String(raw, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return lines;
+    }
+}
@@ -1,65 +1,430 @@
 package com.erii.data;
 
+import com.erii.core.TaskHistory;
 import com.erii.core.TaskManager;
 import com.erii.core.TaskManager.Task;
 import com.erii.user.UserDetails;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 /**
  * The DataStorage class is responsible for saving and loading data from files.
  * It provides methods to save and load tasks and user details.
+ * Once the directory has been synced with another, every save of tasks is also recorded in
+ * its task versions, so the next sync knows what changed without hashing every task.
  */
 public class DataStorage {
-    private static final String TASKS_FILE = "./data/tasks.txt";
-    private static final String USER_DETAILS_FILE = "./data/userDetails.txt";
+    public static final String DATA_DIRECTORY = "./data";
+    public static final String TASKS_FILE_NAME = "tasks.txt";
+    public static final String TASKS_DB_FILE_NAME = "tasks.db";
+    private static final String USER_DETAILS_FILE_NAME = "userDetails.txt";
+    private static final String HISTORY_FILE_NAME = "history.txt";
+    private static final String DEPENDENCIES_FILE_NAME = "dependencies.txt";
+    private static final String DEPENDENCIES_HEADER = "#erii-dependencies|ids";
+    private static final String ARCHIVE_DIRECTORY_NAME = "archive";
+
+    private final String directory;
+    private final TaskRepository repository;
+    private final String userDetailsFile;
+    private final String historyFile;
+    private final String dependenciesFile;
+    private final TaskArchive archive;
+
+    /**
+     * Constructs a DataStorage that saves tasks to the plain text task file in the data directory.
+     */
+    public DataStorage() {
+        this(DATA_DIRECTORY, new TextTaskRepository(DATA_DIRECTORY + "/" + TASKS_FILE_NAME, false));
+    }
+
+    /**
+     * Constructs a DataStorage that keeps its files in the given directory
+     * and saves tasks to the given repository.
+     *
+     * @param directory  The directory user details and history are kept in
+     * @param repository The repository tasks are saved to
+     */
+    public DataStorage(String directory, TaskRepository repository) {
+        this.directory = directory;
+        this.repository = repository;
+        this.userDetailsFile = directory + "/" + USER_DETAILS_FILE_NAME;
+        this.historyFile = directory + "/" + HISTORY_FILE_NAME;
+        this.dependenciesFile = directory + "/" + DEPENDENCIES_FILE_NAME;
+        this.archive = new TaskArchive(directory + "/" + ARCHIVE_DIRECTORY_NAME);
+    }
 
     /**
-     * Save tasks to a file
+     * Save tasks to the repository, replacing all tasks stored before.
      *
      * @param tasks The list of tasks to be saved
      */
     public void saveTasks(List<Task> tasks) {
-        try (PrintWriter writer = new PrintWriter(new File(TASKS_FILE))) {
-            for (Task task : tasks) {
-                writer.println(taskToFileString(task));
+        repository.saveTasks(tasks);
+        TaskVersions.tasksSaved(directory, tasks);
+    }
+
+    /**
+     * Save a task that was added or changed.
+     *
+     * @param tasks Supplies the list of all tasks after the change, read only if the repository needs it
+     * @param task  The task that was added or changed
+     */
+    public void saveTask(Supplier<List<Task>> tasks, Task task) {
+        repository.saveTask(tasks, task);
+        TaskVersions.taskSaved(directory, task);
+    }
+
+    /**
+     * Remove a deleted task from the repository.
+     *
+     * @param tasks Supplies the list of all tasks after the deletion, read only if the repository needs it
+     * @param task  The task that was deleted
+     */
+    public void deleteTask(Supplier<List<Task>> tasks, Task task) {
+        repository.deleteTask(tasks, task);
+        TaskVersions.taskDeleted(directory, task);
+    }
+
+    /**
+     * Save tasks that were added or changed and remove tasks that were deleted, as a sync does.
+     * The caller keeps the versions of the tasks up to date itself.
+     *
+     * @param taskManager The task manager instance the saved tasks are loaded with
+     * @param changed     The tasks that were added or changed
+     * @param removedIds  The ids of the tasks that were deleted
+     */
+    void saveChanges(TaskManager taskManager, Collection<Task> changed, Collection<Integer> removedIds) {
+        repository.saveChanges(taskManager, changed, removedIds);
+    }
+
+    /**
+     * Load tasks from the repository
+     *
+     * @param taskManager The task manager instance
+     * @return The list of loaded tasks
+     */
+    public List<Task> loadTasks(TaskManager taskManager) {
+        return repository.loadTasks(taskManager);
+    }
+
+    /**
+     * Load the tasks whose ids are in any of the given ranges from the repository
+     *
+     * @param taskManager The task manager instance
+     * @param ranges      The ranges, each the first id and the id after the last, in increasing order
+     * @return The tasks with ids in the ranges
+     */
+    List<Task> loadTasksWithIds(TaskManager taskManager, List<int[]> ranges) {
+        return repository.loadTasksWithIds(taskManager, ranges);
+    }
+
+    /**
+     * Load the deadlines and events dated within a range from the repository
+     *
+     * @param taskManager The task manager instance
+     * @param from        The first date of the range
+     * @param to          The last date of the range
+     * @return The tasks dated within the range
+     */
+    public List<Task> loadTasksBetween(TaskManager taskManager, LocalDate from, LocalDate to) {
+        return repository.loadTasksBetween(taskManager, from, to);
+    }
+
+    /**
+     * Save an image of the tasks that lets the next start skip parsing them, if the repository keeps one
+     *
+     * @param tasks The list of tasks, as last saved
+     */
+    public void saveImage(List<Task> tasks) {
+        repository.saveImage(tasks);
+    }
+
+    /**
+     * Return the directory the files of this storage are kept in
+     *
+     * @return The directory
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Return the archive that tasks moved out of the task list are kept in
+     *
+     * @return The archive
+     */
+    public TaskArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Release the files held by the repository
+     */
+    public void close() {
+        repository.close();
+    }
+
+    /**
+     * Save the undo/redo history of the task manager to a file.
+     * Each change is written as a header line followed by one line per delta,
+     * so the file only grows with the size of the changes, not of the task list.
+     * The header holds a fingerprint of the task list, so that a history is only loaded
+     * against the tasks it was recorded on.
+     *
+     * @param taskManager The task manager whose history is saved
+     */
+    public void saveHistory(TaskManager taskManager) {
+        TaskHistory history = taskManager.getHistory();
+        AtomicFile file = new AtomicFile(historyFile);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.println("H|" + history.getUndoCount() + "|"
+                    + fingerprint(taskManager.getSnapshot().getTasks()));
+            for (TaskHistory.Change change : history.getChanges()) {
+                writer.println("C|" + change.getDeltas().size() + "|" + change.getLabel());
+                for (TaskHistory.Delta delta : change.getDeltas()) {
+                    writer.println(deltaToFileString(delta));
+                }
             }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("the file could not be written");
+            }
+            file.finishWrite(out);
         } catch (IOException e) {
-            System.out.println("An error occurred while saving tasks: " + e.getMessage());
+            if (out != null) {
+                file.failWrite(out);
+            }
+            System.out.println("An error occurred while saving history: " + e.getMessage());
         }
     }
 
     /**
-     * Load tasks from a file
+     * Load the undo/redo history of the task manager from a file.
+     * The history must be loaded after the tasks it refers to, and is dropped if it was
+     * recorded on a different task list, such as after a crash between saving the tasks
+     * and saving the history.
      *
      * @param taskManager The task manager instance
-     * @return The list of loaded tasks
      */
-    public List<Task> loadTasks(TaskManager taskManager) {
-        List<Task> tasks = new ArrayList<>();
-        try (Scanner scanner = new Scanner(new File(TASKS_FILE))) {
+    public void loadHistory(TaskManager taskManager) {
+        List<TaskHistory.Change> changes = new ArrayList<>();
+        int undoCount = 0;
+        Map<Integer, Task> tasksById = new HashMap<>();
+        for (Task task : taskManager.getSnapshot().getTasks()) {
+            tasksById.put(task.getId(), task);
+        }
+        try (Scanner scanner = new Scanner(new File(historyFile))) {
+            if (scanner.hasNextLine()) {
+                String[] header = scanner.nextLine().split("\\|", 3);
+                undoCount = Integer.parseInt(header[1]);
+                if (header.length < 3 || !header[2].equals(fingerprint(taskManager.getSnapshot().getTasks()))) {
+                    System.out.println("History does not match the saved tasks. Starting with an empty history.");
+                    return;
+                }
+            }
             while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if (line.trim().isEmpty()) continue;
-                Task task = fileStringToTask(line, taskManager);
-                if (task != null) {
-                    tasks.add(task);
+                String[] header = scanner.nextLine().split("\\|", 3);
+                int count = Integer.parseInt(header[1]);
+                List<TaskHistory.Delta> deltas = new ArrayList<>(count);
+                for (int i = 0; i < count && scanner.hasNextLine(); i++) {
+                    TaskHistory.Delta delta = fileStringToDelta(scanner.nextLine(), taskManager, tasksById);
+                    if (delta == null) {
+                        throw new IllegalArgumentException("unreadable delta");
+                    }
+                    deltas.add(delta);
                 }
+                changes.add(new TaskHistory.Change(header.length > 2 ? header[2] : "", deltas));
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (RuntimeException e) {
+            System.out.println("History file is corrupted. Starting with an empty history.");
+            return;
+        }
+        taskManager.getHistory().restore(changes, undoCount);
+    }
+
+    /**
+     * Save the dependencies between tasks to a file, replacing the dependencies saved before.
+     * Tasks are referred to by their ids, so the file stays valid when tasks are added,
+     * removed or reordered, and only has to be saved when the dependencies change.
+     *
+     * @param taskManager The task manager instance
+     */
+    public void saveDependencies(TaskManager taskManager) {
+        List<int[]> dependencies = taskManager.getDependencies();
+        AtomicFile file = new AtomicFile(dependenciesFile);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.println(DEPENDENCIES_HEADER);
+            for (int[] dependency : dependencies) {
+                writer.println(dependency[0] + "|" + dependency[1]);
+            }
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("the file could not be written");
+            }
+            file.finishWrite(out);
+        } catch (IOException e) {
+            if (out != null) {
+                file.failWrite(out);
+            }
+            System.out.println("An error occurred while saving dependencies: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load the dependencies between tasks from a file.
+     * The dependencies must be loaded after the tasks they refer to.
+     *
+     * @param taskManager The task manager instance
+     */
+    public void loadDependencies(TaskManager taskManager) {
+        List<int[]> dependencies = new ArrayList<>();
+        try (Scanner scanner = new Scanner(new File(dependenciesFile))) {
+            String header = scanner.hasNextLine() ? scanner.nextLine() : "";
+            if (!header.equals(DEPENDENCIES_HEADER)) {
+                throw new IllegalArgumentException("missing header");
+            }
+            while (scanner.hasNextLine()) {
+                String[] parts = scanner.nextLine().split("\\|");
+                dependencies.add(new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
             }
         } catch (FileNotFoundException e) {
-            System.out.println("Tasks file not found. Starting with an empty task list.");
+            return;
+        } catch (RuntimeException e) {
+            System.out.println("Dependencies file is corrupted. Starting without dependencies.");
+            return;
+        }
+        int skipped = 0;
+        for (int[] dependency : dependencies) {
+            if (!taskManager.loadDependency(dependency[0], dependency[1])) {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            System.out.println("Skipped " + skipped + " invalid dependencies.");
+        }
+    }
+
+    /**
+     * Returns a fingerprint of a task list: the number of tasks and a hash of their ids in order.
+     *
+     * @param tasks The tasks
+     * @return The fingerprint
+     */
+    private static String fingerprint(List<Task> tasks) {
+        long hash = 1;
+        for (Task task : tasks) {
+            hash = 31 * hash + task.getId();
+        }
+        return tasks.size() + "|" + Long.toHexString(hash);
+    }
+
+    /**
+     * Convert a history delta to a string representation
+     *
+     * @param delta The delta
+     * @return The string representation of the delta
+     */
+    private String deltaToFileString(TaskHistory.Delta delta) {
+        switch (delta.getKind()) {
+            case ADD:
+                return "A|" + delta.getAfterId() + "|" + TaskCodec.taskToRecord(delta.getTask());
+            case REMOVE:
+                return "R|" + delta.getAfterId() + "|" + TaskCodec.taskToRecord(delta.getTask());
+            case DONE:
+                return "M|" + delta.getTaskId() + "|" + (delta.getBefore() ? "1" : "0") + "|"
+                        + (delta.getAfter() ? "1" : "0");
+            case TAGS:
+                return "G|" + delta.getTaskId() + "|" + String.join(" ", delta.getTagsBefore()) + "|"
+                        + String.join(" ", delta.getTagsAfter());
+            case DEPEND:
+                return "P|" + delta.getTaskId() + "|" + delta.getBlockerId() + "|"
+                        + (delta.getBefore() ? "1" : "0") + "|" + (delta.getAfter() ? "1" : "0");
+            case SORT:
+                StringBuilder sort = new StringBuilder("S|").append(delta.getSortKey()).append('|');
+                int[] runs = delta.getRuns();
+                for (int i = 0; i < runs.length; i++) {
+                    if (i > 0) {
+                        sort.append(',');
+                    }
+                    sort.append(runs[i]);
+                }
+                return sort.toString();
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Convert a string representation of a history delta to a delta.
+     * A task record holds the task as it was when the history was saved, and the later deltas
+     * take it back to its earlier states as they are undone. So, as when the history was
+     * recorded, the deltas that add or remove a task share one task object, which is the task
+     * in the list if it is still there.
+     *
+     * @param line        The string representation of the delta
+     * @param taskManager The task manager instance
+     * @param tasksById   The tasks of the list and of the deltas read so far, by id
+     * @return The delta, or null if the line cannot be parsed
+     */
+    private TaskHistory.Delta fileStringToDelta(String line, TaskManager taskManager, Map<Integer, Task> tasksById) {
+        String[] parts = line.split("\\|", 3);
+        switch (parts[0]) {
+            case "A":
+            case "R":
+                Task parsed = TaskCodec.fileStringToTask(parts[2], taskManager);
+                if (parsed == null || parsed.getId() <= 0) {
+                    return null;
+                }
+                Task task = tasksById.computeIfAbsent(parsed.getId(), id -> parsed);
+                int afterId = Integer.parseInt(parts[1]);
+                return parts[0].equals("A") ? TaskHistory.Delta.added(task, afterId)
+                        : TaskHistory.Delta.removed(task, afterId);
+            case "M":
+                String[] flags = parts[2].split("\\|");
+                return TaskHistory.Delta.done(Integer.parseInt(parts[1]), flags[0].equals("1"), flags[1].equals("1"));
+            case "G":
+                String[] tags = parts[2].split("\\|", -1);
+                return TaskHistory.Delta.tagged(Integer.parseInt(parts[1]), TaskManager.parseTags(tags[0]),
+                        TaskManager.parseTags(tags[1]));
+            case "P":
+                String[] link = parts[2].split("\\|");
+                return TaskHistory.Delta.depended(Integer.parseInt(parts[1]), Integer.parseInt(link[0]),
+                        link[1].equals("1"), link[2].equals("1"));
+            case "S":
+                String[] values = parts[2].isEmpty() ? new String[0] : parts[2].split(",");
+                if (values.length % 2 != 0) {
+                    return null;
+                }
+                int[] runs = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    runs[i] = Integer.parseInt(values[i]);
+                }
+                return TaskHistory.Delta.sorted(parts[1], runs);
+            default:
+                return null;
         }
-        return tasks;
     }
 
     /**
@@ -68,7 +433,7 @@ public class DataStorage {
      * @param userDetails The user details to be saved
      */
     public void saveUserDetails(UserDetails userDetails) {
-        File file = new File(USER_DETAILS_FILE);
+        File file = new File(userDetailsFile);
         File parentDir = file.getParentFile();
         if (!parentDir.exists()) {
             parentDir.mkdirs();
@@ -89,7 +454,7 @@ public class DataStorage {
      */
     public UserDetails loadUserDetails() {
         UserDetails userDetails = new UserDetails();
-        try (Scanner scanner = new Scanner(new File(USER_DETAILS_FILE))) {
+        try (Scanner scanner = new Scanner(new File(userDetailsFile))) {
             if (scanner.hasNextLine()) {
                 userDetails.setUserName(scanner.nextLine());
             } else {
@@ -110,89 +475,4 @@ public class DataStorage {
         }
         return userDetails;
     }
-
-    /**
-     * Convert a Task object to a string representation
-     *
-     * @param task The Task object
-     * @return The string representation of the task
-     */
-    private String taskToFileString(Task task) {
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
-        String taskType;
-        if (task instanceof TaskManager.Deadline) {
-            taskType = "D";
-        } else if (task instanceof TaskManager.Event) {
-            taskType = "E";
-        } else if (task instanceof TaskManager.Todo) {
-            taskType = "T";
-        } else {
-            taskType = "Unknown";
-        }
-        String status = task instanceof TaskManager.Todo && ((TaskManager.Todo) task).isDone() ? "1" : "0";
-        String priority = task.getPriority().name();
-        String description = task.getDescription();
-        String dateInfo = "";
-
-        if (task instanceof TaskManager.Deadline) {
-            LocalDateTime by = ((TaskManager.Deadline) task).getBy();
-            dateInfo = "|" + by.format(dateTimeFormatter);
-        } else if (task instanceof TaskManager.Event) {
-            LocalDate start = ((TaskManager.Event) task).getStart();
-            LocalDate end = ((TaskManager.Event) task).getEnd();
-            dateInfo = "|" + start.format(dateFormatter) + "|" + end.format(dateFormatter);
-        }
-
-        return String.join("|", taskType, status, priority, description) + dateInfo;
-    }
-
-    /**
-     * Convert a string representation of a task to a Task object
-     *
-     * @param line        The string representation of the task
-     * @param taskManager The task manager instance
-     * @return The Task object
-     */
-    private Task fileStringToTask(String line, TaskManager taskManager) {
-        String[] parts = line.split("\\|");
-        String taskType = parts[0];
-        boolean isDone = parts[1].equals("1");
-        TaskManager.Priority priority = TaskManager.Priority.valueOf(parts[2]);
-        String description = parts[3];
-
-        DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
-        switch (taskType) {
-            case "T":
-                TaskManager.Todo todo = taskManager.new Todo("Todo", description, priority);
-                todo.setDone(isDone);
-                return todo;
-            case "D":
-                try {
-                    LocalDateTime byDate = LocalDateTime.parse(parts[4], dateTimeFormatter);
-                    TaskManager.Deadline deadline = taskManager.new Deadline("Deadline", description, byDate, priority);
-                    deadline.setDone(isDone);
-                    return deadline;
-                } catch (DateTimeParseException e) {
-                    System.out.println("Error parsing the deadline date: " + e.getMessage());
-                    return null;
-                }
-            case "E":
-                try {
-                    LocalDate startDate = LocalDate.parse(parts[4], dateFormatter);
-                    LocalDate endDate = LocalDate.parse(parts[5], dateFormatter);
-                    TaskManager.Event event = taskManager.new Event("Event", description, startDate, endDate, priority);
-                    event.setDone(isDone);
-                    return event;
-                } catch (DateTimeParseException e) {
-                    System.out.println("Error parsing event dates: " + parts[4] + " to " + parts[5]);
-                    return null;
-                }
-            default:
-                return null;
-        }
-    }
-}
\ No newline at end of file
+}
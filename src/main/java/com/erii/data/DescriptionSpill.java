@@ -0,0 +1,151 @@
+package com.erii.data;
+
+import com.erii.core.DescriptionStore;
+import com.erii.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The DescriptionSpill class keeps task descriptions in a temporary spill file, holding no
+ * more than a memory budget of them on the heap.
+ * <p>
+ * Descriptions are appended to the file, which is split into pages of PAGE_SIZE bytes. The page
+ * being written stays in memory until it is full. Other pages are read into a fixed number of
+ * frames when a description on them is needed, and the frame to reuse is chosen by the CLOCK
+ * policy: a hand sweeps the frames, clearing the referenced bit of each frame used since it last
+ * passed, and reuses the first frame whose bit is already clear. Pages are never changed once
+ * written, so a frame is dropped without being written back. A handle is the offset of a
+ * description in the file and its length in bytes. The space of descriptions of deleted tasks
+ * is not reused; the file is deleted when the program exits.
+ */
+public class DescriptionSpill implements DescriptionStore {
+    static final int PAGE_SIZE = 1 << 16;
+    private static final int LENGTH_BITS = 24;
+
+    private final FileChannel channel;
+    private final byte[][] frames;
+    private final long[] framePages;
+    private final boolean[] isReferenced;
+    private final Map<Long, Integer> frameByPage = new HashMap<>();
+    private final byte[] tail = new byte[PAGE_SIZE];
+    private long size;
+    private int hand;
+
+    /**
+     * Constructs a DescriptionSpill in a new temporary file.
+     *
+     * @param budget the number of bytes of pages kept on the heap, at least one page
+     * @throws IOException if the spill file cannot be created
+     */
+    public DescriptionSpill(long budget) throws IOException {
+        Path file = Files.createTempFile("erii-spill", ".bin");
+        file.toFile().deleteOnExit();
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int frameCount = (int) Math.max(1, Math.min(budget / PAGE_SIZE, Integer.MAX_VALUE - 8));
+        this.frames = new byte[frameCount][];
+        this.framePages = new long[frameCount];
+        this.isReferenced = new boolean[frameCount];
+        Arrays.fill(framePages, -1);
+    }
+
+    @Override
+    public synchronized long store(String description) {
+        byte[] bytes = description.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= 1 << LENGTH_BITS) {
+            throw new IllegalArgumentException("The description is too long to be stored.");
+        }
+        long handle = (size << LENGTH_BITS) | bytes.length;
+        int written = 0;
+        while (written < bytes.length) {
+            int at = (int) (size % PAGE_SIZE);
+            int length = Math.min(bytes.length - written, PAGE_SIZE - at);
+            System.arraycopy(bytes, written, tail, at, length);
+            written += length;
+            size += length;
+            if (size % PAGE_SIZE == 0) {
+                writeTail();
+            }
+        }
+        Metrics.count("spill.bytes", bytes.length);
+        return handle;
+    }
+
+    @Override
+    public synchronized String getDescription(long handle) {
+        long offset = handle >>> LENGTH_BITS;
+        byte[] bytes = new byte[(int) (handle & ((1 << LENGTH_BITS) - 1))];
+        int read = 0;
+        while (read < bytes.length) {
+            long page = (offset + read) / PAGE_SIZE;
+            int at = (int) ((offset + read) % PAGE_SIZE);
+            int length = Math.min(bytes.length - read, PAGE_SIZE - at);
+            System.arraycopy(page == size / PAGE_SIZE ? tail : frame(page), at, bytes, read, length);
+            read += length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the frame holding a written page, reading the page into a frame if it is not in one.
+     */
+    private byte[] frame(long page) {
+        Integer index = frameByPage.get(page);
+        if (index != null) {
+            isReferenced[index] = true;
+            Metrics.count("spill.hits", 1);
+            return frames[index];
+        }
+        while (isReferenced[hand]) {
+            isReferenced[hand] = false;
+            hand = (hand + 1) % frames.length;
+        }
+        int victim = hand;
+        hand = (hand + 1) % frames.length;
+        if (framePages[victim] >= 0) {
+            frameByPage.remove(framePages[victim]);
+            Metrics.count("spill.evictions", 1);
+        }
+        if (frames[victim] == null) {
+            frames[victim] = new byte[PAGE_SIZE];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frames[victim]);
+        try {
+            while (buffer.hasRemaining() && channel.read(buffer, page * PAGE_SIZE + buffer.position()) > 0) {
+                // Keep reading until the page is complete
+            }
+        } catch (IOException e) {
+            framePages[victim] = -1;
+            throw new UncheckedIOException(e);
+        }
+        framePages[victim] = page;
+        frameByPage.put(page, victim);
+        isReferenced[victim] = true;
+        Metrics.count("spill.faults", 1);
+        return frames[victim];
+    }
+
+    /**
+     * Writes the full page being written to the spill file.
+     */
+    private void writeTail() {
+        ByteBuffer buffer = ByteBuffer.wrap(tail);
+        long position = size - PAGE_SIZE;
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
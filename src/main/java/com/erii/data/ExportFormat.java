@@ -0,0 +1,19 @@
+package com.erii.data;
+
+/**
+ * The ExportFormat enum represents the structured formats tasks can be exported to and imported from.
+ */
+public enum ExportFormat {
+    JSON_LINES, CSV;
+
+    /**
+     * Returns the format matching the extension of a file name:
+     * ".csv" for CSV and anything else for JSON Lines.
+     *
+     * @param fileName the file name
+     * @return the format of the file
+     */
+    public static ExportFormat fromFileName(String fileName) {
+        return fileName.toLowerCase().endsWith(".csv") ? CSV : JSON_LINES;
+    }
+}
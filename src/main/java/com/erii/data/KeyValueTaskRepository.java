@@ -0,0 +1,395 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The KeyValueTaskRepository class stores tasks in an embedded B+tree file.
+ * Tasks are keyed by id, so adding, marking and deleting a task only writes the pages
+ * holding that task. A second tree indexes deadlines and events by date for range scans,
+ * and a third holds the order key of each task, which gives its place in the task list.
+ * Order keys are spread ORDER_GAP apart by a full save, so a task inserted between two others
+ * usually gets a key between theirs without moving any other task. The order tree also keeps,
+ * under a key no task has, the order key of the end of the list, where tasks are appended.
+ * The file is opened on first use and pages are read into memory only when they are visited.
+ * A full save builds a new file and renames it over the old one, so a crash during it leaves
+ * the old file intact.
+ */
+public class KeyValueTaskRepository implements TaskRepository {
+    private static final int TASKS_SLOT = 0;
+    private static final int DATES_SLOT = 1;
+    private static final int ORDER_SLOT = 2;
+    private static final long ORDER_GAP = 1L << 20;
+    private static final long ORDER_END_KEY = -1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Path path;
+    private PageFile file;
+    private BPlusTree tasksById;
+    private BPlusTree tasksByDate;
+    private BPlusTree orderById;
+
+    /**
+     * Constructs a KeyValueTaskRepository backed by the given file.
+     *
+     * @param path The path of the database file
+     */
+    public KeyValueTaskRepository(String path) {
+        this.path = Paths.get(path);
+    }
+
+    /**
+     * Save tasks, replacing all tasks stored before. Tasks keep their ids; their order in
+     * the list is saved as their order keys.
+     *
+     * @param tasks The list of tasks to be saved
+     */
+    @Override
+    public void saveTasks(List<Task> tasks) {
+        long start = Metrics.start();
+        close();
+        AtomicFile target = new AtomicFile(path.toString());
+        PageFile rebuilt = null;
+        try {
+            Files.deleteIfExists(target.getTempPath());
+            rebuilt = new PageFile(target.getTempPath());
+            BPlusTree byId = new BPlusTree(rebuilt, TASKS_SLOT);
+            BPlusTree byDate = new BPlusTree(rebuilt, DATES_SLOT);
+            BPlusTree order = new BPlusTree(rebuilt, ORDER_SLOT);
+            for (int i = 0; i < tasks.size(); i++) {
+                Task task = tasks.get(i);
+                putTask(byId, byDate, task);
+                order.put(task.getId(), orderValue(i * ORDER_GAP));
+            }
+            order.put(ORDER_END_KEY, orderValue((tasks.size() - 1) * ORDER_GAP));
+            rebuilt.close();
+            rebuilt = null;
+            // The file is changed in place between full saves, so it is not kept as a backup
+            target.replace(false);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.out.println("An error occurred while saving tasks: " + e.getMessage());
+            discard(rebuilt, target.getTempPath());
+        }
+        Metrics.time("storage.save", start);
+    }
+
+    /**
+     * Save a task that was added or changed, writing only the pages that hold it.
+     * A task that is new to the file is given an order key between those of its neighbours
+     * in the list; if there is no key left between them, all tasks are saved.
+     *
+     * @param tasks Supplies the list of all tasks after the change, read only for a new task
+     * @param task  The task that was added or changed
+     */
+    @Override
+    public void saveTask(Supplier<List<Task>> tasks, Task task) {
+        long start = Metrics.start();
+        try {
+            open();
+            if (orderById.get(task.getId()) == null) {
+                List<Task> all = tasks.get();
+                Long order = orderBetweenNeighbours(all, task);
+                if (order == null) {
+                    saveTasks(all);
+                    return;
+                }
+                orderById.put(task.getId(), orderValue(order));
+                Long end = orderAt(ORDER_END_KEY);
+                if (end != null && order > end) {
+                    orderById.put(ORDER_END_KEY, orderValue(order));
+                }
+            }
+            removeTask(task.getId());
+            putTask(tasksById, tasksByDate, task);
+            file.flush();
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.out.println("An error occurred while saving the task: " + e.getMessage());
+        }
+        Metrics.time("storage.save-task", start);
+    }
+
+    /**
+     * Save tasks that were added or changed and remove tasks that were deleted, writing only the
+     * pages that hold them. Added tasks are given order keys after the end of the list.
+     *
+     * @param taskManager The task manager instance the saved tasks are loaded with
+     * @param changed     The tasks that were added or changed
+     * @param removedIds  The ids of the tasks that were deleted
+     */
+    @Override
+    public void saveChanges(TaskManager taskManager, Collection<Task> changed, Collection<Integer> removedIds) {
+        long start = Metrics.start();
+        try {
+            open();
+            Long end = orderAt(ORDER_END_KEY);
+            if (end == null) {
+                // Saved before the end of the list was kept, so the order is written again in full
+                TaskRepository.super.saveChanges(taskManager, changed, removedIds);
+                return;
+            }
+            for (int id : removedIds) {
+                removeTask(id);
+                orderById.remove(id);
+            }
+            for (Task task : changed) {
+                if (orderById.get(task.getId()) == null) {
+                    end += ORDER_GAP;
+                    orderById.put(task.getId(), orderValue(end));
+                }
+                removeTask(task.getId());
+                putTask(tasksById, tasksByDate, task);
+            }
+            orderById.put(ORDER_END_KEY, orderValue(end));
+            file.flush();
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.out.println("An error occurred while saving tasks: " + e.getMessage());
+        }
+        Metrics.time("storage.save-changes", start);
+    }
+
+    /**
+     * Remove a deleted task, writing only the pages that held it.
+     *
+     * @param tasks Supplies the list of all tasks after the deletion, which is not needed
+     * @param task  The task that was deleted
+     */
+    @Override
+    public void deleteTask(Supplier<List<Task>> tasks, Task task) {
+        long start = Metrics.start();
+        try {
+            open();
+            removeTask(task.getId());
+            orderById.remove(task.getId());
+            file.flush();
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("An error occurred while deleting the task: " + e.getMessage());
+        }
+        Metrics.time("storage.delete-task", start);
+    }
+
+    /**
+     * Load all tasks in list order. Files saved before order keys were kept are loaded in id order.
+     *
+     * @param taskManager The task manager instance
+     * @return The list of loaded tasks
+     */
+    @Override
+    public List<Task> loadTasks(TaskManager taskManager) {
+        long start = Metrics.start();
+        List<Task> tasks = new ArrayList<>();
+        try {
+            open();
+            tasksById.scan(Long.MIN_VALUE, Long.MAX_VALUE, (id, value) -> addDecoded(tasks, id, value, taskManager));
+            Map<Long, Long> orders = new HashMap<>(tasks.size() * 2);
+            orderById.scan(Long.MIN_VALUE, Long.MAX_VALUE, (id, value) -> orders.put(id, ByteBuffer.wrap(value).getLong()));
+            if (!orders.isEmpty()) {
+                tasks.sort(Comparator.comparingLong(task -> orders.getOrDefault((long) task.getId(), Long.MAX_VALUE)));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("An error occurred while loading tasks: " + e.getMessage());
+        }
+        Metrics.count("storage.records-parsed", tasks.size());
+        Metrics.time("storage.load", start);
+        return tasks;
+    }
+
+    /**
+     * Load the tasks whose ids are in any of the given ranges, visiting only the pages in the ranges.
+     *
+     * @param taskManager The task manager instance
+     * @param ranges      The ranges, each the first id and the id after the last, in increasing order
+     * @return The tasks with ids in the ranges, in id order
+     */
+    @Override
+    public List<Task> loadTasksWithIds(TaskManager taskManager, List<int[]> ranges) {
+        long start = Metrics.start();
+        List<Task> tasks = new ArrayList<>();
+        try {
+            open();
+            for (int[] range : ranges) {
+                tasksById.scan(range[0], range[1] - 1L, (id, value) -> addDecoded(tasks, id, value, taskManager));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("An error occurred while loading tasks: " + e.getMessage());
+        }
+        Metrics.time("storage.load-ids", start);
+        return tasks;
+    }
+
+    /**
+     * Load the deadlines due and the events starting within a range of dates,
+     * visiting only the index pages in the range. Tasks are returned in date order.
+     *
+     * @param taskManager The task manager instance
+     * @param from        The first date of the range
+     * @param to          The last date of the range
+     * @return The tasks dated within the range
+     */
+    @Override
+    public List<Task> loadTasksBetween(TaskManager taskManager, LocalDate from, LocalDate to) {
+        long start = Metrics.start();
+        List<Task> tasks = new ArrayList<>();
+        try {
+            open();
+            long first = from.toEpochDay() << 32;
+            long last = (to.toEpochDay() << 32) | 0xFFFFFFFFL;
+            tasksByDate.scan(first, last, (dateKey, unused) -> {
+                long id = dateKey & 0xFFFFFFFFL;
+                byte[] value = tasksById.get(id);
+                if (value != null) {
+                    addDecoded(tasks, id, value, taskManager);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("An error occurred while loading tasks: " + e.getMessage());
+        }
+        Metrics.time("storage.load-range", start);
+        return tasks;
+    }
+
+    /**
+     * Flush and close the database file.
+     */
+    @Override
+    public void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("An error occurred while closing the task database: " + e.getMessage());
+        }
+        file = null;
+    }
+
+    private void open() throws IOException {
+        if (file == null) {
+            file = new PageFile(path);
+            tasksById = new BPlusTree(file, TASKS_SLOT);
+            tasksByDate = new BPlusTree(file, DATES_SLOT);
+            orderById = new BPlusTree(file, ORDER_SLOT);
+        }
+    }
+
+    /**
+     * Returns an order key between those of the neighbours of a task in the list,
+     * or null if there is none or a neighbour has no order key.
+     */
+    private Long orderBetweenNeighbours(List<Task> tasks, Task task) {
+        int index = tasks.size() - 1;
+        while (index >= 0 && tasks.get(index) != task) {
+            index--;
+        }
+        Long before = index > 0 ? orderOf(tasks.get(index - 1)) : Long.valueOf(-ORDER_GAP);
+        Long after = index >= 0 && index + 1 < tasks.size() ? orderOf(tasks.get(index + 1)) : null;
+        if (index < 0 || before == null || (after == null && index + 1 < tasks.size())) {
+            return null;
+        }
+        if (after == null) {
+            return before + ORDER_GAP;
+        }
+        return after - before > 1 ? before + (after - before) / 2 : null;
+    }
+
+    private Long orderOf(Task task) {
+        return orderAt(task.getId());
+    }
+
+    private Long orderAt(long key) {
+        byte[] value = orderById.get(key);
+        return value == null ? null : ByteBuffer.wrap(value).getLong();
+    }
+
+    private static byte[] orderValue(long order) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(order).array();
+    }
+
+    /**
+     * Closes and deletes a file that was being rebuilt.
+     */
+    private static void discard(PageFile rebuilt, Path temp) {
+        try {
+            if (rebuilt != null) {
+                rebuilt.close();
+            }
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // A stale temporary file is deleted by the next full save
+        }
+    }
+
+    /**
+     * Store a task and its date index entry. The value starts with the date key
+     * so that the index entry can be found again when the task is removed.
+     *
+     * @param tasksById   The tree of tasks by id
+     * @param tasksByDate The tree of dated tasks by date
+     * @param task        The task to be stored
+     */
+    private static void putTask(BPlusTree tasksById, BPlusTree tasksByDate, Task task) {
+        long dateKey = dateKey(task);
+        byte[] line = TaskCodec.taskToFileString(task).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer value = ByteBuffer.allocate(Long.BYTES + line.length);
+        value.putLong(dateKey);
+        value.put(line);
+        tasksById.put(task.getId(), value.array());
+        if (dateKey != NO_DATE) {
+            tasksByDate.put(dateKey, new byte[0]);
+        }
+    }
+
+    private void removeTask(long id) {
+        byte[] value = tasksById.get(id);
+        if (value == null) {
+            return;
+        }
+        long dateKey = ByteBuffer.wrap(value).getLong();
+        if (dateKey != NO_DATE) {
+            tasksByDate.remove(dateKey);
+        }
+        tasksById.remove(id);
+    }
+
+    private static void addDecoded(List<Task> tasks, long id, byte[] value, TaskManager taskManager) {
+        String line = new String(value, Long.BYTES, value.length - Long.BYTES, StandardCharsets.UTF_8);
+        Task task = null;
+        try {
+            task = TaskCodec.fileStringToTask(line, taskManager);
+        } catch (RuntimeException e) {
+            // Reported below like any other unreadable record
+        }
+        if (task == null) {
+            System.out.println("Skipped unreadable task " + id + ".");
+            return;
+        }
+        task.setId((int) id);
+        tasks.add(task);
+    }
+
+    private static long dateKey(Task task) {
+        LocalDate date = TaskRepository.dateOf(task);
+        if (date == null) {
+            return NO_DATE;
+        }
+        return (date.toEpochDay() << 32) | (task.getId() & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,68 @@
+package com.erii.data;
+
+import com.erii.core.DescriptionSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The MappedDescriptions class decodes task descriptions on demand from a memory-mapped task file.
+ * A handle is the offset and length of a description in the file. Recently decoded descriptions
+ * are kept in a cache of bounded size, least recently used first out.
+ * <p>
+ * Task files are never written in place, only replaced by renaming a new file over them,
+ * so the mapped bytes stay valid after later saves.
+ */
+class MappedDescriptions implements DescriptionSource {
+    static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final ByteBuffer buffer;
+    private final Map<Long, String> cache;
+
+    /**
+     * Constructs a MappedDescriptions over the bytes of a mapped task file.
+     *
+     * @param buffer    The mapped file
+     * @param cacheSize The number of decoded descriptions kept
+     */
+    MappedDescriptions(ByteBuffer buffer, int cacheSize) {
+        this.buffer = buffer;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Build the handle of a description
+     *
+     * @param offset The offset of the description in the file
+     * @param length The length of the description in bytes
+     * @return The handle
+     */
+    static long handle(int offset, int length) {
+        return ((long) offset << 32) | length;
+    }
+
+    @Override
+    public synchronized String getDescription(long handle) {
+        String description = cache.get(handle);
+        if (description != null) {
+            Metrics.count("storage.descriptions.cached", 1);
+            return description;
+        }
+        int offset = (int) (handle >>> 32);
+        byte[] bytes = new byte[(int) handle];
+        buffer.get(offset, bytes);
+        description = new String(bytes, StandardCharsets.UTF_8);
+        cache.put(handle, description);
+        Metrics.count("storage.descriptions.decoded", 1);
+        return description;
+    }
+}
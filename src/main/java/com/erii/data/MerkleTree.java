@@ -0,0 +1,94 @@
+package com.erii.data;
+
+import java.util.Map;
+
+/**
+ * The MerkleTree class summarises the task versions of a store by ranges of task ids, so that
+ * two stores can find the ranges they differ in by comparing a few hashes from the root down.
+ * <p>
+ * Leaf i covers the ids from i * LEAF_IDS up to (i + 1) * LEAF_IDS. Its hash is the sum of a
+ * mix of the id and version hash of each task in it, so it does not depend on the order the
+ * tasks are added in, and a change to one task updates it without visiting the others. The
+ * leaf hashes are kept up to date and saved by TaskVersions; the tree is built from them.
+ * The tree is complete and kept in an array: node 1 is the root and node n has the children
+ * 2n and 2n + 1. Two trees can only be compared if they have as many leaves.
+ */
+final class MerkleTree {
+    static final int LEAF_IDS = 32;
+
+    private final long[] nodes;
+    private final int leaves;
+
+    /**
+     * Builds the tree over a set of leaf hashes.
+     *
+     * @param leafHashes the hash of each leaf that holds any task, by leaf number
+     * @param leaves     the number of leaves, a power of two covering the highest id
+     */
+    MerkleTree(Map<Integer, Long> leafHashes, int leaves) {
+        this.leaves = leaves;
+        this.nodes = new long[leaves * 2];
+        for (Map.Entry<Integer, Long> leaf : leafHashes.entrySet()) {
+            nodes[leaves + leaf.getKey()] = leaf.getValue();
+        }
+        for (int node = leaves - 1; node >= 1; node--) {
+            nodes[node] = mix(nodes[2 * node] * 31 + mix(nodes[2 * node + 1]));
+        }
+    }
+
+    /**
+     * Returns what one task version adds to the hash of its leaf.
+     *
+     * @param id   the task id
+     * @param hash the version hash of the task
+     * @return the share of the task in its leaf hash
+     */
+    static long leafShare(int id, long hash) {
+        return mix(id * 0x9E3779B97F4A7C15L + hash);
+    }
+
+    /**
+     * Returns the leaf that covers an id.
+     *
+     * @param id the task id
+     * @return the leaf number
+     */
+    static int leafOf(int id) {
+        return id / LEAF_IDS;
+    }
+
+    /**
+     * Returns the number of leaves needed to cover ids up to the given one.
+     *
+     * @param maxId the highest id
+     * @return a power of two
+     */
+    static int leavesFor(int maxId) {
+        int needed = Math.max(maxId, 0) / LEAF_IDS + 1;
+        return needed == 1 ? 1 : Integer.highestOneBit(needed - 1) << 1;
+    }
+
+    long hash(int node) {
+        return nodes[node];
+    }
+
+    boolean isLeaf(int node) {
+        return node >= leaves;
+    }
+
+    /**
+     * Returns the first id covered by a leaf.
+     *
+     * @param node the leaf node
+     * @return the first id of its range
+     */
+    int firstId(int node) {
+        return (node - leaves) * LEAF_IDS;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -0,0 +1,297 @@
+package com.erii.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The PageFile class stores B+tree nodes in fixed-size pages of a single file.
+ * Page 0 holds the file header and the root pages of up to ROOT_SLOTS trees.
+ * Nodes are read lazily and kept in a bounded LRU cache; changed nodes are written back
+ * when they are evicted or when the file is flushed.
+ */
+class PageFile implements Closeable {
+    static final int PAGE_SIZE = 4096;
+    static final int ROOT_SLOTS = 8;
+    private static final int MAGIC = 0x45494B56;
+    private static final int CACHE_PAGES = 512;
+    static final int NODE_HEADER = 1 + 2 * Integer.BYTES;
+
+    /**
+     * The Node class is a decoded B+tree page. Leaves hold keys and values and link to
+     * the next leaf; internal nodes hold separator keys and child pages.
+     */
+    static final class Node {
+        final int page;
+        final boolean isLeaf;
+        final List<Long> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        final List<Integer> children = new ArrayList<>();
+        int next;
+        private boolean isDirty;
+
+        Node(int page, boolean isLeaf) {
+            this.page = page;
+            this.isLeaf = isLeaf;
+        }
+
+        /**
+         * Returns the number of bytes the node takes when written to its page.
+         *
+         * @return the encoded size of the node
+         */
+        int encodedSize() {
+            int size = NODE_HEADER;
+            if (isLeaf) {
+                for (byte[] value : values) {
+                    size += leafEntrySize(value.length);
+                }
+            } else {
+                size += keys.size() * Long.BYTES + children.size() * Integer.BYTES;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Returns the number of bytes a leaf entry takes in its page.
+     *
+     * @param valueLength the length of the value of the entry
+     * @return the encoded size of the entry
+     */
+    static int leafEntrySize(int valueLength) {
+        return Long.BYTES + Short.BYTES + valueLength;
+    }
+
+    private final FileChannel channel;
+    private final int[] roots = new int[ROOT_SLOTS];
+    private int pageCount;
+    private final Map<Integer, Node> cache = new LinkedHashMap<Integer, Node>(CACHE_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Node> eldest) {
+            if (size() <= CACHE_PAGES) {
+                return false;
+            }
+            if (eldest.getValue().isDirty) {
+                writeNode(eldest.getValue());
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Opens the page file at the given path, creating it if it does not exist.
+     *
+     * @param path the path of the file
+     * @throws IOException if the file cannot be opened or is not a page file
+     */
+    PageFile(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            pageCount = 1;
+            writeHeader();
+            return;
+        }
+        ByteBuffer header = readPage(0);
+        if (header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(path + " is not a task database.");
+        }
+        pageCount = header.getInt();
+        for (int i = 0; i < ROOT_SLOTS; i++) {
+            roots[i] = header.getInt();
+        }
+    }
+
+    /**
+     * Returns the root page of a tree.
+     *
+     * @param slot the slot of the tree
+     * @return the root page, or 0 if the tree has not been created
+     */
+    int getRoot(int slot) {
+        return roots[slot];
+    }
+
+    /**
+     * Sets the root page of a tree.
+     *
+     * @param slot the slot of the tree
+     * @param page the new root page
+     */
+    void setRoot(int slot, int page) {
+        roots[slot] = page;
+    }
+
+    /**
+     * Returns the node stored in a page, reading it from disk if it is not cached.
+     *
+     * @param page the page number
+     * @return the node
+     */
+    Node read(int page) {
+        Node node = cache.get(page);
+        if (node == null) {
+            try {
+                node = decode(page, readPage(page));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cache.put(page, node);
+        }
+        return node;
+    }
+
+    /**
+     * Allocates a new page for an empty node.
+     *
+     * @param isLeaf whether the node is a leaf
+     * @return the new node
+     */
+    Node allocate(boolean isLeaf) {
+        Node node = new Node(pageCount++, isLeaf);
+        write(node);
+        return node;
+    }
+
+    /**
+     * Marks a node as changed so that it is written back to its page.
+     *
+     * @param node the changed node
+     */
+    void write(Node node) {
+        node.isDirty = true;
+        cache.put(node.page, node);
+    }
+
+    /**
+     * Writes all changed nodes and the header, and forces them to disk.
+     *
+     * @throws IOException if the pages cannot be written
+     */
+    void flush() throws IOException {
+        try {
+            for (Node node : cache.values()) {
+                if (node.isDirty) {
+                    writeNode(node);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writeHeader();
+        long start = Metrics.start();
+        channel.force(false);
+        Metrics.time("storage.fsync", start);
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(pageCount);
+        for (int root : roots) {
+            header.putInt(root);
+        }
+        header.clear();
+        writePage(0, header);
+    }
+
+    private void writeNode(Node node) {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.put((byte) (node.isLeaf ? 1 : 0));
+        buffer.putInt(node.keys.size());
+        buffer.putInt(node.next);
+        if (node.isLeaf) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                byte[] value = node.values.get(i);
+                buffer.putLong(node.keys.get(i));
+                buffer.putShort((short) value.length);
+                buffer.put(value);
+            }
+        } else {
+            buffer.putInt(node.children.get(0));
+            for (int i = 0; i < node.keys.size(); i++) {
+                buffer.putLong(node.keys.get(i));
+                buffer.putInt(node.children.get(i + 1));
+            }
+        }
+        buffer.clear();
+        try {
+            writePage(node.page, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        node.isDirty = false;
+    }
+
+    private static Node decode(int page, ByteBuffer buffer) {
+        Node node = new Node(page, buffer.get() == 1);
+        int count = buffer.getInt();
+        node.next = buffer.getInt();
+        if (node.isLeaf) {
+            for (int i = 0; i < count; i++) {
+                node.keys.add(buffer.getLong());
+                byte[] value = new byte[buffer.getShort()];
+                buffer.get(value);
+                node.values.add(value);
+            }
+        } else {
+            node.children.add(buffer.getInt());
+            for (int i = 0; i < count; i++) {
+                node.keys.add(buffer.getLong());
+                node.children.add(buffer.getInt());
+            }
+        }
+        return node;
+    }
+
+    private ByteBuffer readPage(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        long position = (long) page * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writePage(int page, ByteBuffer buffer) throws IOException {
+        long position = (long) page * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        Metrics.count("storage.bytes-written", PAGE_SIZE);
+    }
+}
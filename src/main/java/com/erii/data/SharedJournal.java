@@ -0,0 +1,535 @@
+package com.erii.data;
+
+import com.erii.core.TaskEvent;
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SharedJournal class lets several processes work on the same profile directory at once.
+ * <p>
+ * The processes take turns through a lock on the journal file: a process saving its changes holds
+ * the exclusive lock while it applies the changes other processes saved since it last looked,
+ * saves the task file, and appends its own changes to the journal, each entry numbered with the
+ * next sequence number. The other processes learn of the new entries from a file watch on the
+ * directory and apply them one by one, so none of them has to read the task file again. Tasks
+ * are identified by id, and new ids are leased in blocks from a counter in the journal header,
+ * so tasks added by different processes never share an id.
+ * <p>
+ * Two processes that change the same task before seeing each other's change are in conflict.
+ * The change saved last wins, except that a task deleted by one process stays deleted; either
+ * way the conflict is reported. The journal is emptied once it holds COMPACT_ENTRIES entries,
+ * since the task file holds all of them by then; a process that had not seen them all loads
+ * the task file instead.
+ * <p>
+ * Each journal line is a sequence number, a process id, and a change: P followed by the index
+ * and record of a task that was added or changed, R followed by the id of a deleted task,
+ * O followed by the ids of all tasks in their new order, or S when the task file has to be
+ * loaded again.
+ */
+public class SharedJournal {
+    static final String JOURNAL_FILE_NAME = "journal.log";
+    private static final String HEADER_PREFIX = "#erii-journal|";
+    private static final int HEADER_BYTES = HEADER_PREFIX.length() + 19 + 1 + 10 + 1;
+    private static final int ID_LEASE = 64;
+    private static final int COMPACT_ENTRIES = 4096;
+
+    private final Path path;
+    private final long processId = ProcessHandle.current().pid();
+    private FileChannel channel;
+    private FileLock exclusiveLock;
+    private TaskManager taskManager;
+    private DataStorage storage;
+    private long baseSequence;
+    private long sequence;
+    private long offset;
+    private int entries;
+    private int nextId;
+    private int leaseEnd;
+    private WatchService watcher;
+
+    /**
+     * The Header class holds the first line of the journal: the sequence number of the last
+     * entry removed by compaction, and the first id that has not been leased yet.
+     */
+    private static final class Header {
+        private final long baseSequence;
+        private final int nextId;
+
+        private Header(long baseSequence, int nextId) {
+            this.baseSequence = baseSequence;
+            this.nextId = nextId;
+        }
+    }
+
+    /**
+     * Constructs a SharedJournal kept in the given profile directory.
+     *
+     * @param directory the profile directory
+     */
+    public SharedJournal(String directory) {
+        this.path = Paths.get(directory, JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Opens the journal, loading the tasks while no other process can save, and makes the
+     * task manager take the ids of new tasks from the journal.
+     *
+     * @param taskManager the task manager the tasks are loaded into
+     * @param storage     the storage of the profile
+     * @param load        the action loading the tasks into the task manager
+     * @throws IOException if the journal cannot be opened
+     */
+    public synchronized void open(TaskManager taskManager, DataStorage storage, Runnable load) throws IOException {
+        this.taskManager = taskManager;
+        this.storage = storage;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock();
+        try {
+            load.run();
+            int maxId = 0;
+            for (Task task : taskManager.getAllTasks()) {
+                maxId = Math.max(maxId, task.getId());
+            }
+            Header header = readHeader();
+            if (header == null) {
+                // A new journal starts after the tasks as they are saved now
+                channel.truncate(0);
+                header = new Header(0, maxId + 1);
+                writeHeader(header);
+            } else if (header.nextId <= maxId) {
+                // Tasks were added without the journal in between
+                header = new Header(header.baseSequence, maxId + 1);
+                writeHeader(header);
+            }
+            baseSequence = header.baseSequence;
+            sequence = baseSequence;
+            offset = HEADER_BYTES;
+            for (String line : readLines()) {
+                sequence = Math.max(sequence, sequenceOf(line));
+                entries++;
+            }
+        } finally {
+            unlock();
+        }
+        taskManager.setIdSource(this::nextId);
+    }
+
+    /**
+     * Starts watching the journal for entries appended by other processes.
+     *
+     * @param onChange the action run when there are new entries; it is run on the watching thread
+     */
+    public synchronized void watch(Runnable onChange) {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            path.toAbsolutePath().getParent().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.out.println("An error occurred while watching the journal: " + e.getMessage()
+                    + ". Changes from other windows are picked up when you save.");
+            return;
+        }
+        WatchService service = watcher;
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+                    boolean isJournal = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        isJournal |= path.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    if (isJournal && hasNewEntries()) {
+                        onChange.run();
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // The journal was closed
+            }
+        }, "erii-journal-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns whether other processes appended to the journal since this process last read it.
+     *
+     * @return true if there may be new entries
+     */
+    public synchronized boolean hasNewEntries() {
+        try {
+            return channel != null && channel.size() != offset;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies the entries other processes appended, then saves the local changes and appends
+     * them to the journal, all under the exclusive lock. Must be called with the write lock
+     * of the task manager held, through TaskManager.runExclusively.
+     *
+     * @param local     the changes made by this process since the last commit
+     * @param isOverrun whether some local changes were lost, so that the whole list must be saved
+     * @param save      the action saving the local changes to the task file
+     */
+    public synchronized void commit(List<TaskEvent> local, boolean isOverrun, Runnable save) {
+        long start = Metrics.start();
+        try {
+            lock();
+            try {
+                Set<Integer> changedIds = new LinkedHashSet<>();
+                boolean isReordered = false;
+                for (TaskEvent event : local) {
+                    if (event.getKind() == TaskEvent.Kind.REORDERED) {
+                        isReordered = true;
+                    } else {
+                        changedIds.add(event.getTask().getId());
+                    }
+                }
+                if (isOverrun) {
+                    skipToEnd();
+                } else {
+                    applyEntries(changedIds);
+                }
+                if (!changedIds.isEmpty() || isReordered || isOverrun) {
+                    save.run();
+                    appendEntries(changedIds, isReordered, isOverrun);
+                    if (entries >= COMPACT_ENTRIES) {
+                        compact();
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("An error occurred while sharing changes with other windows: " + e.getMessage());
+        }
+        Metrics.time("storage.journal-commit", start);
+    }
+
+    /**
+     * Applies the entries appended by other processes since this process last read the journal.
+     * Entries for tasks this process also changed are resolved as conflicts.
+     *
+     * @param changedIds the ids of the tasks changed by this process; tasks whose local change
+     *                   is dropped are removed from it
+     */
+    private void applyEntries(Set<Integer> changedIds) throws IOException {
+        Header header = readHeader();
+        if (header == null || header.baseSequence != baseSequence) {
+            if (header != null && header.baseSequence == sequence) {
+                // Compacted right after the last entry this process had seen
+                baseSequence = header.baseSequence;
+                offset = HEADER_BYTES;
+                entries = 0;
+            } else {
+                reload(changedIds);
+                return;
+            }
+        }
+        int applied = 0;
+        for (String line : readLines()) {
+            String[] fields = line.split("\\|", 4);
+            long entrySequence = sequenceOf(line);
+            entries++;
+            boolean isDamaged = fields.length < 3 || (!"S".equals(fields[2]) && fields.length < 4);
+            if (entrySequence <= sequence || isDamaged) {
+                // Already applied, or left damaged by a process that stopped while writing it
+                continue;
+            }
+            sequence = entrySequence;
+            if (fields[1].equals(String.valueOf(processId))) {
+                continue;
+            }
+            applied++;
+            switch (fields[2]) {
+                case "P":
+                    String[] put = fields[3].split("\\|", 2);
+                    Task task = TaskCodec.fileStringToTask(put[1], taskManager);
+                    if (task == null) {
+                        break;
+                    }
+                    if (changedIds.contains(task.getId())) {
+                        reportConflict(task.getId(), taskManager.findTask(task.getId()) == null
+                                ? "it stays deleted" : "your version was kept");
+                    } else {
+                        taskManager.putExternalTask(task, Integer.parseInt(put[0]));
+                    }
+                    break;
+                case "R":
+                    int id = Integer.parseInt(fields[3]);
+                    if (changedIds.remove(id) && taskManager.findTask(id) != null) {
+                        reportConflict(id, "it was deleted there, so your change was dropped");
+                    }
+                    taskManager.removeExternalTask(id);
+                    break;
+                case "O":
+                    String[] order = fields[3].isEmpty() ? new String[0] : fields[3].split(",");
+                    int[] ids = new int[order.length];
+                    for (int i = 0; i < order.length; i++) {
+                        ids[i] = Integer.parseInt(order[i]);
+                    }
+                    taskManager.reorderExternal(ids);
+                    break;
+                default:
+                    // The task file holds this entry and all later ones
+                    reload(changedIds);
+                    return;
+            }
+        }
+        if (applied > 0) {
+            Metrics.count("storage.journal-applied", applied);
+            System.out.println("\nPicked up " + applied + " changes made in another window.");
+        }
+    }
+
+    /**
+     * Loads the task file again, as saved by the last process to commit, and moves to the end
+     * of the journal. Local changes that were not saved yet are dropped.
+     */
+    private void reload(Set<Integer> changedIds) throws IOException {
+        if (!changedIds.isEmpty()) {
+            System.out.println("\nThe task list was saved in another window while " + changedIds.size()
+                    + " of your changes were not saved yet; they were dropped.");
+            changedIds.clear();
+        }
+        taskManager.replaceExternalTasks(storage.loadTasks(taskManager));
+        skipToEnd();
+        Metrics.count("storage.journal-reloads", 1);
+    }
+
+    /**
+     * Moves to the end of the journal without applying its entries.
+     */
+    private void skipToEnd() throws IOException {
+        Header header = readHeader();
+        if (header != null && header.baseSequence != baseSequence) {
+            baseSequence = header.baseSequence;
+            sequence = Math.max(sequence, baseSequence);
+            offset = HEADER_BYTES;
+            entries = 0;
+        }
+        for (String line : readLines()) {
+            sequence = Math.max(sequence, sequenceOf(line));
+            entries++;
+        }
+    }
+
+    /**
+     * Returns the sequence number of a journal line, or -1 if the line is damaged.
+     */
+    private static long sequenceOf(String line) {
+        try {
+            return Long.parseLong(line.substring(0, line.indexOf('|')));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private void reportConflict(int id, String outcome) {
+        Metrics.count("storage.journal-conflicts", 1);
+        System.out.println("\nTask " + id + " was changed in another window at the same time as here; " + outcome + ".");
+    }
+
+    /**
+     * Appends an entry for each local change, as the tasks are now.
+     */
+    private void appendEntries(Set<Integer> changedIds, boolean isReordered, boolean isOverrun) throws IOException {
+        StringBuilder out = new StringBuilder();
+        if (isOverrun) {
+            appendEntry(out, "S");
+        } else {
+            List<Task> tasks = taskManager.getAllTasks();
+            Map<Integer, Integer> indexes = new HashMap<>(tasks.size() * 2);
+            for (int i = 0; i < tasks.size(); i++) {
+                indexes.put(tasks.get(i).getId(), i);
+            }
+            for (int id : changedIds) {
+                Integer index = indexes.get(id);
+                if (index == null) {
+                    appendEntry(out, "R|" + id);
+                } else {
+                    appendEntry(out, "P|" + index + "|" + TaskCodec.taskToRecord(tasks.get(index)));
+                }
+            }
+            if (isReordered) {
+                StringBuilder order = new StringBuilder("O|");
+                for (int i = 0; i < tasks.size(); i++) {
+                    order.append(i == 0 ? "" : ",").append(tasks.get(i).getId());
+                }
+                appendEntry(out, order.toString());
+            }
+        }
+        if (channel.size() > offset) {
+            // A process stopped halfway through a line; end it so that it is skipped as damaged
+            out.insert(0, '\n');
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(out.toString());
+        offset = channel.size();
+        while (bytes.hasRemaining()) {
+            offset += channel.write(bytes, offset);
+        }
+        channel.force(false);
+    }
+
+    private void appendEntry(StringBuilder out, String change) {
+        out.append(++sequence).append('|').append(processId).append('|').append(change).append('\n');
+        entries++;
+    }
+
+    /**
+     * Empties the journal once the task file holds all of its entries.
+     */
+    private void compact() throws IOException {
+        Header header = readHeader();
+        writeHeader(new Header(sequence, header == null ? nextId : header.nextId));
+        channel.truncate(HEADER_BYTES);
+        channel.force(false);
+        baseSequence = sequence;
+        offset = HEADER_BYTES;
+        entries = 0;
+    }
+
+    /**
+     * Returns the id of a new task, leasing a block of ids from the journal header when the
+     * last block is used up. Called by the task manager with its write lock held.
+     */
+    private synchronized int nextId() {
+        if (nextId >= leaseEnd) {
+            try {
+                boolean isLocked = exclusiveLock != null;
+                if (!isLocked) {
+                    lock();
+                }
+                try {
+                    Header header = readHeader();
+                    long base = header == null ? baseSequence : header.baseSequence;
+                    nextId = header == null ? Math.max(nextId, 1) : header.nextId;
+                    leaseEnd = nextId + ID_LEASE;
+                    writeHeader(new Header(base, leaseEnd));
+                    channel.force(false);
+                } finally {
+                    if (!isLocked) {
+                        unlock();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return nextId++;
+    }
+
+    private Header readHeader() throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(HEADER_BYTES);
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) > 0) {
+            // Keep reading until the header is complete or the file ends
+        }
+        String line = new String(bytes.array(), 0, bytes.position(), StandardCharsets.US_ASCII);
+        if (bytes.hasRemaining() || !line.startsWith(HEADER_PREFIX) || !line.endsWith("\n")) {
+            return null;
+        }
+        String[] fields = line.trim().split("\\|");
+        try {
+            return new Header(Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private void writeHeader(Header header) throws IOException {
+        String line = String.format("%s%019d|%010d\n", HEADER_PREFIX, header.baseSequence, header.nextId);
+        ByteBuffer bytes = StandardCharsets.US_ASCII.encode(line);
+        int position = 0;
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    /**
+     * Reads the complete lines from the current offset to the end of the journal,
+     * and moves the offset past them. A line still being written is left for the next read.
+     */
+    private List<String> readLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        long size = channel.size();
+        if (size <= offset) {
+            return lines;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(size - offset, Integer.MAX_VALUE - 8));
+        while (bytes.hasRemaining() && channel.read(bytes, offset + bytes.position()) > 0) {
+            // Keep reading until the buffer is full or the file ends
+        }
+        int lineStart = 0;
+        for (int i = 0; i < bytes.position(); i++) {
+            if (bytes.get(i) == '\n') {
+                if (i > lineStart) {
+                    lines.add(new String(bytes.array(), lineStart, i - lineStart, StandardCharsets.UTF_8));
+                }
+                lineStart = i + 1;
+            }
+        }
+        offset += lineStart;
+        return lines;
+    }
+
+    private void lock() throws IOException {
+        exclusiveLock = channel.lock();
+    }
+
+    private void unlock() throws IOException {
+        FileLock held = exclusiveLock;
+        exclusiveLock = null;
+        if (held != null) {
+            held.release();
+        }
+    }
+
+    /**
+     * Stops watching the journal and closes it.
+     */
+    public void close() {
+        // The task manager lock is taken before the journal's, as when a task is added
+        if (taskManager != null) {
+            taskManager.setIdSource(null);
+        }
+        synchronized (this) {
+            try {
+                if (watcher != null) {
+                    watcher.close();
+                }
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                System.out.println("An error occurred while closing the journal: " + e.getMessage());
+            }
+        }
+    }
+}
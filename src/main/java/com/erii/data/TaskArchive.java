@@ -0,0 +1,160 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The TaskArchive class keeps the tasks moved out of the task list in an archive directory.
+ * <p>
+ * Each archiving run appends one segment: a block-compressed task file that is never changed
+ * once it is written, named with a sequence number so that segments sort in the order they
+ * were written. Nothing is read until the archive is first searched; the segments are then
+ * loaded into a task manager of their own, which builds the same bitmap, date and word indexes
+ * as the task list, and segments appended later are loaded into it on the next search.
+ */
+public class TaskArchive {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".erz";
+
+    private final Path directory;
+    private TaskManager taskManager;
+    private int loadedSegments;
+
+    /**
+     * Constructs a TaskArchive that keeps its segments in the given directory.
+     *
+     * @param directory the archive directory, created when the first segment is written
+     */
+    public TaskArchive(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Writes tasks to a new segment.
+     *
+     * @param tasks the tasks to be archived
+     * @return true if the segment was written, false if it could not be
+     */
+    public synchronized boolean append(List<Task> tasks) {
+        long start = Metrics.start();
+        FileOutputStream out = null;
+        AtomicFile file = null;
+        try {
+            List<Path> segments = listSegments();
+            int sequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+            file = new AtomicFile(directory.resolve(segmentName(sequence)).toString());
+            out = file.startWrite();
+            CompressedTaskFile.Writer writer = new CompressedTaskFile.Writer(new BufferedOutputStream(out, 1 << 16));
+            for (Task task : tasks) {
+                writer.writeLine(TaskCodec.taskToFileString(task));
+            }
+            writer.finish();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            if (out != null) {
+                file.failWrite(out);
+            }
+            System.out.println("An error occurred while archiving tasks: " + e.getMessage());
+            return false;
+        }
+        Metrics.time("storage.archive", start);
+        return true;
+    }
+
+    /**
+     * Returns the task manager holding the archived tasks, loading the segments
+     * that have not been loaded yet. The task manager is only meant to be searched.
+     *
+     * @return the archived tasks
+     */
+    public synchronized TaskManager getTaskManager() {
+        if (taskManager == null) {
+            taskManager = new TaskManager(1);
+        }
+        List<Path> segments;
+        try {
+            segments = listSegments();
+        } catch (IOException e) {
+            System.out.println("An error occurred while loading the archive: " + e.getMessage());
+            return taskManager;
+        }
+        for (; loadedSegments < segments.size(); loadedSegments++) {
+            loadSegment(segments.get(loadedSegments));
+        }
+        return taskManager;
+    }
+
+    /**
+     * Loads the tasks of a segment into the archive task manager, up to its first damaged block.
+     *
+     * @param segment the segment file
+     */
+    private void loadSegment(Path segment) {
+        long start = Metrics.start();
+        try {
+            CompressedTaskFile.Result<List<Task>> blocks = CompressedTaskFile.read(segment, lines -> {
+                List<Task> tasks = new ArrayList<>(lines.size());
+                for (String line : lines) {
+                    try {
+                        tasks.add(TaskCodec.fileStringToTask(line, taskManager));
+                    } catch (RuntimeException e) {
+                        // An unreadable line only loses its own task
+                    }
+                }
+                return tasks;
+            });
+            for (List<Task> block : blocks.blocks) {
+                for (Task task : block) {
+                    taskManager.loadTask(task);
+                }
+            }
+            if (blocks.isCorrupted) {
+                System.out.println("Archive segment " + segment.getFileName()
+                        + " is damaged. Its tasks are searched up to the last good block.");
+            }
+        } catch (IOException e) {
+            System.out.println("An error occurred while loading the archive: " + e.getMessage());
+        }
+        Metrics.time("storage.archive-load", start);
+    }
+
+    /**
+     * Returns the segment files in the order they were written.
+     */
+    private List<Path> listSegments() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static int sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String segmentName(int sequence) {
+        return String.format("%s%06d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,205 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The TaskCodec class converts tasks to and from the pipe-delimited line format
+ * shared by all task files.
+ */
+final class TaskCodec {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private TaskCodec() {
+    }
+
+    /**
+     * Convert a Task object to a string representation
+     *
+     * @param task The Task object
+     * @return The string representation of the task
+     */
+    static String taskToFileString(Task task) {
+        String taskType;
+        if (task instanceof TaskManager.Deadline) {
+            taskType = "D";
+        } else if (task instanceof TaskManager.Event) {
+            taskType = "E";
+        } else if (task instanceof TaskManager.Todo) {
+            taskType = "T";
+        } else {
+            taskType = "Unknown";
+        }
+        String status = task instanceof TaskManager.Todo && ((TaskManager.Todo) task).isDone() ? "1" : "0";
+        String priority = task.getPriority().name();
+        String description = task.getDescription();
+        String dateInfo = "";
+
+        if (task instanceof TaskManager.Deadline) {
+            LocalDateTime by = ((TaskManager.Deadline) task).getBy();
+            dateInfo = "|" + by.format(DATE_TIME_FORMAT);
+        } else if (task instanceof TaskManager.Event) {
+            LocalDate start = ((TaskManager.Event) task).getStart();
+            LocalDate end = ((TaskManager.Event) task).getEnd();
+            dateInfo = "|" + start.format(DATE_FORMAT) + "|" + end.format(DATE_FORMAT);
+        }
+
+        String tagInfo = task.getTags().isEmpty() ? "" : "|" + String.join(" ", task.getTags());
+        return String.join("|", taskType, status, priority, description) + dateInfo + tagInfo;
+    }
+
+    /**
+     * Convert a Task object to a string representation that starts with the id of the task,
+     * so that the task keeps its id when it is loaded again
+     *
+     * @param task The Task object
+     * @return The string representation of the task and its id
+     */
+    static String taskToRecord(Task task) {
+        return task.getId() + "|" + taskToFileString(task);
+    }
+
+    /**
+     * Convert a string representation of a task to a Task object.
+     * Lines that start with an id, as written by taskToRecord, give the task that id;
+     * task types are letters, so a leading digit tells the two forms apart.
+     *
+     * @param line        The string representation of the task
+     * @param taskManager The task manager instance
+     * @return The Task object
+     */
+    static Task fileStringToTask(String line, TaskManager taskManager) {
+        int id = 0;
+        if (!line.isEmpty() && Character.isDigit(line.charAt(0))) {
+            int bar = line.indexOf('|');
+            id = Integer.parseInt(line.substring(0, bar));
+            line = line.substring(bar + 1);
+        }
+        String[] parts = line.split("\\|");
+        Task task = partsToTask(parts, parts[3], taskManager);
+        if (task != null) {
+            task.setId(id);
+        }
+        return task;
+    }
+
+    /**
+     * Convert a task line of a mapped task file to a Task object without decoding its description.
+     * The task reads its description from the file when it is first asked for it.
+     *
+     * @param file         The mapped task file
+     * @param start        The offset of the line
+     * @param end          The offset just past the line, excluding the line break
+     * @param taskManager  The task manager instance
+     * @param descriptions The source the description is read from
+     * @return The Task object
+     */
+    static Task fileBytesToTask(ByteBuffer file, int start, int end, TaskManager taskManager,
+            MappedDescriptions descriptions) {
+        int id = 0;
+        int idStart = start;
+        while (start < end && file.get(start) >= '0' && file.get(start) <= '9') {
+            id = id * 10 + file.get(start++) - '0';
+        }
+        if (start > idStart) {
+            if (start == end || file.get(start) != '|') {
+                throw new IllegalArgumentException("Malformed task id");
+            }
+            start++;
+        }
+        int[] bars = new int[6];
+        int count = 0;
+        for (int i = start; i < end && count < bars.length; i++) {
+            if (file.get(i) == '|') {
+                bars[count++] = i;
+            }
+        }
+        if (count < 3) {
+            throw new IllegalArgumentException("Too few fields");
+        }
+        String[] parts = new String[count + 1];
+        int from = start;
+        for (int field = 0; field <= count; field++) {
+            int to = field < count ? bars[field] : end;
+            if (field != 3) {
+                parts[field] = ascii(file, from, to);
+            }
+            from = to + 1;
+        }
+        int descriptionEnd = count > 3 ? bars[3] : end;
+        Task task = partsToTask(parts, null, taskManager);
+        if (task != null) {
+            task.setDescriptionSource(descriptions,
+                    MappedDescriptions.handle(bars[2] + 1, descriptionEnd - bars[2] - 1));
+            task.setId(id);
+        }
+        return task;
+    }
+
+    private static String ascii(ByteBuffer file, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = (char) (file.get(i) & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Convert the fields of a task line to a Task object
+     *
+     * @param parts       The fields of the line
+     * @param description The description of the task
+     * @param taskManager The task manager instance
+     * @return The Task object
+     */
+    private static Task partsToTask(String[] parts, String description, TaskManager taskManager) {
+        String taskType = parts[0];
+        boolean isDone = parts[1].equals("1");
+        TaskManager.Priority priority = TaskManager.Priority.valueOf(parts[2]);
+
+        TaskManager.Todo task;
+        int tagField;
+        switch (taskType) {
+            case "T":
+                task = taskManager.new Todo("Todo", description, priority);
+                tagField = 4;
+                break;
+            case "D":
+                try {
+                    LocalDateTime byDate = LocalDateTime.parse(parts[4], DATE_TIME_FORMAT);
+                    task = taskManager.new Deadline("Deadline", description, byDate, priority);
+                    tagField = 5;
+                } catch (DateTimeParseException e) {
+                    System.out.println("Error parsing the deadline date: " + e.getMessage());
+                    return null;
+                }
+                break;
+            case "E":
+                try {
+                    LocalDate startDate = LocalDate.parse(parts[4], DATE_FORMAT);
+                    LocalDate endDate = LocalDate.parse(parts[5], DATE_FORMAT);
+                    task = taskManager.new Event("Event", description, startDate, endDate, priority);
+                    tagField = 6;
+                } catch (DateTimeParseException e) {
+                    System.out.println("Error parsing event dates: " + parts[4] + " to " + parts[5]);
+                    return null;
+                }
+                break;
+            default:
+                return null;
+        }
+        task.setDone(isDone);
+        if (parts.length > tagField) {
+            // Tags follow the dates, so files written before tags existed read the same
+            task.setTags(TaskManager.parseTags(parts[tagField]));
+        }
+        return task;
+    }
+}
@@ -0,0 +1,216 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The TaskExporter class streams tasks to a channel as JSON Lines or CSV.
+ * Each task is formatted into a reusable record buffer and encoded straight into a reusable
+ * byte buffer that is written out whenever it fills up, so memory use does not depend on
+ * the number of tasks exported.
+ */
+public class TaskExporter {
+    static final String CSV_HEADER = "type,done,priority,description,by,start,end,tags";
+    static final String OLD_CSV_HEADER = "type,done,priority,description,by,start,end";
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder record = new StringBuilder(256);
+
+    /**
+     * Constructs a TaskExporter with a 64 KiB write buffer.
+     */
+    public TaskExporter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a TaskExporter with a write buffer of the given size.
+     *
+     * @param bufferSize the size of the write buffer in bytes
+     */
+    public TaskExporter(int bufferSize) {
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Writes tasks to a channel in the given format.
+     *
+     * @param tasks   the tasks to be exported
+     * @param format  the format to write
+     * @param channel the channel to write to; it is not closed
+     * @return the number of tasks written
+     * @throws IOException if the channel cannot be written
+     */
+    public long export(Iterable<Task> tasks, ExportFormat format, WritableByteChannel channel) throws IOException {
+        long start = Metrics.start();
+        buffer.clear();
+        encoder.reset();
+        if (format == ExportFormat.CSV) {
+            write(CSV_HEADER + "\n", channel);
+        }
+        long count = 0;
+        for (Task task : tasks) {
+            record.setLength(0);
+            if (format == ExportFormat.CSV) {
+                appendCsv(task);
+            } else {
+                appendJson(task);
+            }
+            record.append('\n');
+            write(record, channel);
+            count++;
+        }
+        encoder.encode(CharBuffer.allocate(0), buffer, true);
+        encoder.flush(buffer);
+        drain(channel);
+        Metrics.count("export.records", count);
+        Metrics.time("storage.export", start);
+        return count;
+    }
+
+    private void appendJson(Task task) {
+        record.append('{');
+        appendJsonFields(record, task);
+        record.append('}');
+    }
+
+    /**
+     * Appends the fields of a task's JSON object, without the enclosing braces,
+     * so that callers can add fields of their own.
+     *
+     * @param out  the builder to append to
+     * @param task the task to be written
+     */
+    public static void appendJsonFields(StringBuilder out, Task task) {
+        out.append("\"type\":\"").append(typeOf(task)).append('"');
+        out.append(",\"done\":").append(isDone(task));
+        out.append(",\"priority\":\"").append(task.getPriority().name()).append('"');
+        out.append(",\"description\":");
+        appendJsonString(out, task.getDescription());
+        if (task instanceof TaskManager.Deadline) {
+            out.append(",\"by\":\"").append(((TaskManager.Deadline) task).getBy()).append('"');
+        } else if (task instanceof TaskManager.Event) {
+            out.append(",\"start\":\"").append(((TaskManager.Event) task).getStart()).append('"');
+            out.append(",\"end\":\"").append(((TaskManager.Event) task).getEnd()).append('"');
+        }
+        if (!task.getTags().isEmpty()) {
+            out.append(",\"tags\":");
+            appendJsonString(out, String.join(" ", task.getTags()));
+        }
+    }
+
+    /**
+     * Appends a string as a quoted JSON string.
+     *
+     * @param out   the builder to append to
+     * @param value the string to be written
+     */
+    public static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private void appendCsv(Task task) {
+        record.append(typeOf(task)).append(',').append(isDone(task)).append(',')
+                .append(task.getPriority().name()).append(',');
+        appendCsvField(task.getDescription());
+        record.append(',');
+        if (task instanceof TaskManager.Deadline) {
+            record.append(((TaskManager.Deadline) task).getBy()).append(",,");
+        } else if (task instanceof TaskManager.Event) {
+            record.append(',').append(((TaskManager.Event) task).getStart())
+                    .append(',').append(((TaskManager.Event) task).getEnd());
+        } else {
+            record.append(",,");
+        }
+        record.append(',').append(String.join(" ", task.getTags()));
+    }
+
+    private void appendCsvField(String value) {
+        boolean needsQuotes = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!needsQuotes) {
+            record.append(value);
+            return;
+        }
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                record.append('"');
+            }
+            record.append(c);
+        }
+        record.append('"');
+    }
+
+    private void write(CharSequence text, WritableByteChannel channel) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if (result.isOverflow()) {
+                drain(channel);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void drain(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    static String typeOf(Task task) {
+        if (task instanceof TaskManager.Deadline) {
+            return "D";
+        } else if (task instanceof TaskManager.Event) {
+            return "E";
+        }
+        return "T";
+    }
+
+    private static boolean isDone(Task task) {
+        return task instanceof TaskManager.Todo && ((TaskManager.Todo) task).isDone();
+    }
+}
@@ -0,0 +1,201 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The TaskImage class reads and writes a binary image of a task list, written next to the
+ * text task file on a clean exit so that the next start can skip parsing the text.
+ * The image records the size and modification time of the text file it was taken from,
+ * and is only used while the text file still has them; any save in between makes it stale.
+ * <p>
+ * The image is a header of magic, size and time of the text file, task count and CRC32C of
+ * the body, followed by one record per task: the id as an int, type, done status and priority
+ * as bytes, the description as a length and UTF-8 bytes, the dates as epoch seconds or days, and the
+ * tags as a count followed by each tag as a length and UTF-8 bytes.
+ */
+class TaskImage {
+    private static final int MAGIC = 0x45524949;
+    private static final int FORMAT = 3;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    private TaskImage() {
+    }
+
+    /**
+     * Write an image of the tasks saved in a text file
+     *
+     * @param image  The image file to write
+     * @param source The text file the tasks are saved in
+     * @param tasks  The tasks saved in the text file
+     * @throws IOException If the image cannot be written
+     */
+    static void write(AtomicFile image, Path source, List<Task> tasks) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(body);
+        for (Task task : tasks) {
+            writeRecord(records, task);
+        }
+        records.flush();
+        CRC32C crc = new CRC32C();
+        crc.update(body.toByteArray());
+
+        FileOutputStream out = image.startWrite();
+        try {
+            DataOutputStream header = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT);
+            header.writeLong(Files.size(source));
+            header.writeLong(Files.getLastModifiedTime(source).toMillis());
+            header.writeInt(tasks.size());
+            header.writeInt((int) crc.getValue());
+            body.writeTo(header);
+            header.flush();
+            image.finishWrite(out);
+        } catch (IOException e) {
+            image.failWrite(out);
+            throw e;
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Task task) throws IOException {
+        byte[] description = task.getDescription().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(task.getId());
+        if (task instanceof TaskManager.Deadline) {
+            out.writeByte('D');
+        } else if (task instanceof TaskManager.Event) {
+            out.writeByte('E');
+        } else {
+            out.writeByte('T');
+        }
+        out.writeBoolean(task instanceof TaskManager.Todo && ((TaskManager.Todo) task).isDone());
+        out.writeByte(task.getPriority().ordinal());
+        out.writeInt(description.length);
+        out.write(description);
+        if (task instanceof TaskManager.Deadline) {
+            out.writeLong(((TaskManager.Deadline) task).getBy().toEpochSecond(ZoneOffset.UTC));
+        } else if (task instanceof TaskManager.Event) {
+            out.writeLong(((TaskManager.Event) task).getStart().toEpochDay());
+            out.writeLong(((TaskManager.Event) task).getEnd().toEpochDay());
+        }
+        out.writeShort(task.getTags().size());
+        for (String tag : task.getTags()) {
+            byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Read the tasks from an image, if it was taken from the text file as it is now.
+     * With lazy descriptions, the image stays mapped and descriptions are decoded from it on demand.
+     *
+     * @param image       The image file
+     * @param source      The text file the image should have been taken from
+     * @param taskManager The task manager instance
+     * @param isLazy      Whether descriptions are decoded on demand
+     * @return The tasks, or null if there is no usable image
+     * @throws IOException If the image or the text file cannot be read
+     */
+    static List<Task> read(Path image, Path source, TaskManager taskManager, boolean isLazy) throws IOException {
+        if (!Files.exists(image)) {
+            return null;
+        }
+        ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (file.getInt(0) != MAGIC || file.getInt(4) != FORMAT
+                || file.getLong(8) != Files.size(source)
+                || file.getLong(16) != Files.getLastModifiedTime(source).toMillis()) {
+            return null;
+        }
+        int count = file.getInt(24);
+        CRC32C crc = new CRC32C();
+        crc.update(file.duplicate().position(HEADER_BYTES));
+        if (file.getInt(28) != (int) crc.getValue()) {
+            return null;
+        }
+        MappedDescriptions descriptions = isLazy
+                ? new MappedDescriptions(file, MappedDescriptions.DEFAULT_CACHE_SIZE) : null;
+        TaskManager.Priority[] priorities = TaskManager.Priority.values();
+        List<Task> tasks = new ArrayList<>(count);
+        try {
+            int position = HEADER_BYTES;
+            for (int i = 0; i < count; i++) {
+                int id = file.getInt(position);
+                position += Integer.BYTES;
+                byte type = file.get(position);
+                boolean isDone = file.get(position + 1) != 0;
+                TaskManager.Priority priority = priorities[file.get(position + 2)];
+                int length = file.getInt(position + 3);
+                int descriptionStart = position + 7;
+                position = descriptionStart + length;
+                String description = null;
+                if (!isLazy) {
+                    byte[] bytes = new byte[length];
+                    file.get(descriptionStart, bytes);
+                    description = new String(bytes, StandardCharsets.UTF_8);
+                }
+                TaskManager.Todo task;
+                if (type == 'D') {
+                    LocalDateTime by = LocalDateTime.ofEpochSecond(file.getLong(position), 0, ZoneOffset.UTC);
+                    position += Long.BYTES;
+                    task = taskManager.new Deadline("Deadline", description, by, priority);
+                } else if (type == 'E') {
+                    LocalDate start = LocalDate.ofEpochDay(file.getLong(position));
+                    LocalDate end = LocalDate.ofEpochDay(file.getLong(position + Long.BYTES));
+                    position += 2 * Long.BYTES;
+                    task = taskManager.new Event("Event", description, start, end, priority);
+                } else {
+                    task = taskManager.new Todo("Todo", description, priority);
+                }
+                int tagCount = file.getShort(position) & 0xffff;
+                position += Short.BYTES;
+                if (tagCount > 0) {
+                    List<String> tags = new ArrayList<>(tagCount);
+                    for (int t = 0; t < tagCount; t++) {
+                        byte[] tag = new byte[file.getShort(position) & 0xffff];
+                        file.get(position + Short.BYTES, tag);
+                        position += Short.BYTES + tag.length;
+                        tags.add(new String(tag, StandardCharsets.UTF_8));
+                    }
+                    task.setTags(tags);
+                }
+                task.setDone(isDone);
+                task.setId(id);
+                if (isLazy) {
+                    task.setDescriptionSource(descriptions, MappedDescriptions.handle(descriptionStart, length));
+                }
+                tasks.add(task);
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            return null;
+        }
+        Metrics.count("storage.records-imaged", tasks.size());
+        return tasks;
+    }
+}
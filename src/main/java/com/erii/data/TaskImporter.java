@@ -0,0 +1,258 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The TaskImporter class reads tasks written by TaskExporter, one record at a time,
+ * handing each task to a consumer as soon as it is parsed.
+ */
+public class TaskImporter {
+
+    /**
+     * Reads tasks from a channel in the given format.
+     * Records that cannot be parsed are skipped and reported.
+     *
+     * @param channel     the channel to read from; it is not closed
+     * @param format      the format of the input
+     * @param taskManager the task manager instance
+     * @param consumer    the function receiving each imported task
+     * @return the number of tasks imported
+     * @throws IOException if the channel cannot be read
+     */
+    public long importTasks(ReadableByteChannel channel, ExportFormat format, TaskManager taskManager,
+            Consumer<Task> consumer) throws IOException {
+        long start = Metrics.start();
+        BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1),
+                64 * 1024);
+        long count = 0;
+        long skipped = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Task task;
+            try {
+                if (format == ExportFormat.CSV) {
+                    if (line.equals(TaskExporter.CSV_HEADER) || line.equals(TaskExporter.OLD_CSV_HEADER)) {
+                        continue;
+                    }
+                    task = parseCsv(readCsvRecord(line, reader), taskManager);
+                } else {
+                    task = parseJson(line, taskManager);
+                }
+            } catch (RuntimeException e) {
+                task = null;
+            }
+            if (task == null) {
+                skipped++;
+                continue;
+            }
+            consumer.accept(task);
+            count++;
+        }
+        if (skipped > 0) {
+            System.out.println("Skipped " + skipped + " unreadable records.");
+        }
+        Metrics.count("import.records", count);
+        Metrics.time("storage.import", start);
+        return count;
+    }
+
+    private static List<String> readCsvRecord(String firstLine, BufferedReader reader) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean isQuoted = false;
+        String line = firstLine;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (isQuoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        isQuoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    isQuoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (!isQuoted) {
+                break;
+            }
+            line = reader.readLine();
+            if (line == null) {
+                throw new IllegalArgumentException("Unterminated quoted field.");
+            }
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static Task parseCsv(List<String> fields, TaskManager taskManager) {
+        return createTask(taskManager, fields.get(0), Boolean.parseBoolean(fields.get(1)), fields.get(2),
+                fields.get(3), fields.get(4), fields.get(5), fields.get(6), fields.size() > 7 ? fields.get(7) : null);
+    }
+
+    /**
+     * Creates a task from a JSON object in the format written by TaskExporter.
+     *
+     * @param line        the JSON object
+     * @param taskManager the task manager instance
+     * @return the task, or null if the type is unknown
+     * @throws RuntimeException if the object or one of its values is malformed
+     */
+    public static Task parseJson(String line, TaskManager taskManager) {
+        Map<String, String> fields = parseFlatJson(line);
+        return createTask(taskManager, fields.get("type"), Boolean.parseBoolean(fields.get("done")),
+                fields.get("priority"), fields.get("description"), fields.get("by"), fields.get("start"),
+                fields.get("end"), fields.get("tags"));
+    }
+
+    private static Task createTask(TaskManager taskManager, String type, boolean isDone, String priorityName,
+            String description, String by, String start, String end, String tags) {
+        TaskManager.Priority priority = TaskManager.Priority.valueOf(priorityName);
+        TaskManager.validateDescription(description);
+        TaskManager.Todo task;
+        switch (type) {
+            case "T":
+                task = taskManager.new Todo("Todo", description, priority);
+                break;
+            case "D":
+                task = taskManager.new Deadline("Deadline", description, LocalDateTime.parse(by), priority);
+                break;
+            case "E":
+                task = taskManager.new Event("Event", description, LocalDate.parse(start), LocalDate.parse(end),
+                        priority);
+                break;
+            default:
+                return null;
+        }
+        task.setDone(isDone);
+        if (tags != null) {
+            task.setTags(TaskManager.parseTags(tags));
+        }
+        return task;
+    }
+
+    /**
+     * Parses a JSON object whose values are strings, booleans, numbers or null.
+     * Nested objects and arrays are not supported.
+     *
+     * @param json the JSON object
+     * @return the values by key, with non-string values in their literal form
+     */
+    static Map<String, String> parseFlatJson(String json) {
+        Map<String, String> fields = new HashMap<>();
+        int[] position = {skipWhitespace(json, 0)};
+        expect(json, position, '{');
+        if (peek(json, position) == '}') {
+            return fields;
+        }
+        while (true) {
+            String key = readJsonString(json, position);
+            expect(json, position, ':');
+            String value;
+            if (peek(json, position) == '"') {
+                value = readJsonString(json, position);
+            } else {
+                int start = position[0];
+                while (position[0] < json.length() && ",} \t".indexOf(json.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+                value = json.substring(start, position[0]);
+                position[0] = skipWhitespace(json, position[0]);
+            }
+            fields.put(key, "null".equals(value) ? null : value);
+            char next = json.charAt(position[0]++);
+            if (next == '}') {
+                return fields;
+            } else if (next != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' in " + json);
+            }
+            position[0] = skipWhitespace(json, position[0]);
+        }
+    }
+
+    private static String readJsonString(String json, int[] position) {
+        expect(json, position, '"');
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            char c = json.charAt(position[0]++);
+            if (c == '"') {
+                break;
+            } else if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = json.charAt(position[0]++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    value.append((char) Integer.parseInt(json.substring(position[0], position[0] + 4), 16));
+                    position[0] += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+        position[0] = skipWhitespace(json, position[0]);
+        return value.toString();
+    }
+
+    private static void expect(String json, int[] position, char expected) {
+        if (peek(json, position) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' in " + json);
+        }
+        position[0] = skipWhitespace(json, position[0] + 1);
+    }
+
+    private static char peek(String json, int[] position) {
+        return position[0] < json.length() ? json.charAt(position[0]) : 0;
+    }
+
+    private static int skipWhitespace(String json, int position) {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,155 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Deadline;
+import com.erii.core.TaskManager.Event;
+import com.erii.core.TaskManager.Task;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The TaskRepository interface is implemented by the storage backends tasks are saved to.
+ * Backends that cannot update a single task rewrite the whole list, which is why the
+ * point update methods are also given the full list of tasks.
+ */
+public interface TaskRepository {
+
+    /**
+     * Save tasks, replacing all tasks stored before.
+     *
+     * @param tasks The list of tasks to be saved
+     */
+    void saveTasks(List<Task> tasks);
+
+    /**
+     * Load all tasks, in list order.
+     *
+     * @param taskManager The task manager instance
+     * @return The list of loaded tasks
+     */
+    List<Task> loadTasks(TaskManager taskManager);
+
+    /**
+     * Save a task that was added or changed.
+     * By default all tasks are saved again; repositories that can write one task override it,
+     * and only read the list if they need it.
+     *
+     * @param tasks Supplies the list of all tasks after the change
+     * @param task  The task that was added or changed
+     */
+    default void saveTask(Supplier<List<Task>> tasks, Task task) {
+        saveTasks(tasks.get());
+    }
+
+    /**
+     * Remove a deleted task.
+     * By default all tasks are saved again; repositories that can remove one task override it.
+     *
+     * @param tasks Supplies the list of all tasks after the deletion
+     * @param task  The task that was deleted
+     */
+    default void deleteTask(Supplier<List<Task>> tasks, Task task) {
+        saveTasks(tasks.get());
+    }
+
+    /**
+     * Load the deadlines due and the events starting within a range of dates.
+     *
+     * @param taskManager The task manager instance
+     * @param from        The first date of the range
+     * @param to          The last date of the range
+     * @return The tasks dated within the range
+     */
+    default List<Task> loadTasksBetween(TaskManager taskManager, LocalDate from, LocalDate to) {
+        List<Task> matches = new ArrayList<>();
+        for (Task task : loadTasks(taskManager)) {
+            LocalDate date = dateOf(task);
+            if (date != null && !date.isBefore(from) && !date.isAfter(to)) {
+                matches.add(task);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Load the tasks whose ids are in any of the given ranges.
+     *
+     * @param taskManager The task manager instance
+     * @param ranges      The ranges, each the first id and the id after the last, in increasing order
+     * @return The tasks with ids in the ranges
+     */
+    default List<Task> loadTasksWithIds(TaskManager taskManager, List<int[]> ranges) {
+        List<Task> matches = new ArrayList<>();
+        for (Task task : loadTasks(taskManager)) {
+            for (int[] range : ranges) {
+                if (task.getId() >= range[0] && task.getId() < range[1]) {
+                    matches.add(task);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Save tasks that were added or changed and remove tasks that were deleted, leaving the other
+     * tasks as they are. A changed task keeps its place in the list, and an added one goes at the end.
+     *
+     * @param taskManager The task manager instance the saved tasks are loaded with
+     * @param changed     The tasks that were added or changed
+     * @param removedIds  The ids of the tasks that were deleted
+     */
+    default void saveChanges(TaskManager taskManager, Collection<Task> changed, Collection<Integer> removedIds) {
+        List<Task> tasks = loadTasks(taskManager);
+        Map<Integer, Integer> indexes = new HashMap<>(tasks.size() * 2);
+        for (int i = 0; i < tasks.size(); i++) {
+            indexes.put(tasks.get(i).getId(), i);
+        }
+        for (Task task : changed) {
+            Integer index = indexes.get(task.getId());
+            if (index != null) {
+                tasks.set(index, task);
+            } else {
+                tasks.add(task);
+            }
+        }
+        tasks.removeIf(task -> removedIds.contains(task.getId()));
+        saveTasks(tasks);
+    }
+
+    /**
+     * Save whatever lets the next load be faster than reading the saved tasks from scratch.
+     * Called on a clean exit, after all changes have been saved.
+     *
+     * @param tasks The list of tasks, as last saved
+     */
+    default void saveImage(List<Task> tasks) {
+    }
+
+    /**
+     * Release any files held by the repository.
+     */
+    default void close() {
+    }
+
+    /**
+     * Return the date a task is indexed by: the due date of a deadline or the start date of an event.
+     *
+     * @param task The task
+     * @return The date of the task, or null if it has none
+     */
+    static LocalDate dateOf(Task task) {
+        if (task instanceof Deadline) {
+            return ((Deadline) task).getBy().toLocalDate();
+        } else if (task instanceof Event) {
+            return ((Event) task).getStart();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,320 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.data.TaskVersions.Version;
+import com.erii.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The TaskSync class brings the tasks of two data directories up to date with each other,
+ * copying only the tasks that differ.
+ * <p>
+ * Each directory keeps the versions of its tasks in TaskVersions, which every save of its tasks
+ * updates, so a sync starts from versions and Merkle leaf hashes that are already up to date.
+ * The trees over id ranges of the two directories are compared from the root down, and only
+ * the versions and tasks in the ranges that differ are read, so the cost of a sync follows the
+ * number of changes rather than the number of tasks. The first sync of a directory, or one
+ * after its versions were lost, hashes all of its tasks instead.
+ * <p>
+ * A task changed on one side only since the last sync is copied to the other side. A task
+ * changed on both sides is a conflict, resolved in favour of the later change. Two new tasks
+ * that were given the same id on each side are both kept, the one from the other directory
+ * under a new id. Only the copied and deleted tasks are written; a copied task keeps its place
+ * in the list if the other side has it, and goes at the end otherwise.
+ */
+public class TaskSync {
+    private static final long DELETED = TaskVersions.DELETED;
+
+    private final Side local;
+    private final Side remote;
+    private final Result result = new Result();
+    private int nextId;
+
+    /**
+     * The Result class counts what a sync did.
+     */
+    public static final class Result {
+        public int sent;
+        public int received;
+        public int conflicts;
+        public int renumbered;
+        public int hashesCompared;
+    }
+
+    /**
+     * The Side class holds the versions of one of the two directories, and the tasks read from it.
+     */
+    private static final class Side {
+        private final DataStorage storage;
+        private final TaskManager taskManager = new TaskManager(1);
+        private final TaskVersions versions;
+        private final Map<Integer, Task> tasks = new HashMap<>();
+        private final Map<Integer, Task> changed = new HashMap<>();
+        private final Set<Integer> removed = new HashSet<>();
+        private boolean isFullyRead;
+
+        private Side(DataStorage storage) {
+            this.storage = storage;
+            this.versions = new TaskVersions(storage.getDirectory());
+        }
+    }
+
+    /**
+     * Constructs a TaskSync between two data directories.
+     *
+     * @param local  the storage of this computer's directory
+     * @param remote the storage of the other directory
+     */
+    public TaskSync(DataStorage local, DataStorage remote) {
+        this.local = new Side(local);
+        this.remote = new Side(remote);
+    }
+
+    /**
+     * Syncs the two directories and saves the directories that changed.
+     * Must not be run while either directory is open in another window.
+     *
+     * @return what the sync did
+     */
+    public Result sync() {
+        long start = Metrics.start();
+        try {
+            open(local);
+            open(remote);
+            nextId = Math.max(local.versions.getMaxId(), remote.versions.getMaxId()) + 1;
+            List<int[]> ranges = differingRanges(MerkleTree.leavesFor(nextId - 1));
+            read(local, ranges);
+            read(remote, ranges);
+            for (int[] range : ranges) {
+                syncRange(range[0], range[1]);
+            }
+            agree(local);
+            agree(remote);
+        } catch (IOException e) {
+            System.out.println("An error occurred while syncing: " + e.getMessage());
+            return result;
+        }
+        save(local);
+        save(remote);
+        Metrics.count("sync.hashes", result.hashesCompared);
+        Metrics.count("sync.sent", result.sent);
+        Metrics.count("sync.received", result.received);
+        Metrics.count("sync.conflicts", result.conflicts);
+        Metrics.time("sync", start);
+        return result;
+    }
+
+    /**
+     * Compares the Merkle trees of the two sides from the root down.
+     *
+     * @return the id ranges of the leaves that differ, in increasing order
+     */
+    private List<int[]> differingRanges(int leaves) {
+        MerkleTree localTree = new MerkleTree(local.versions.getLeafHashes(), leaves);
+        MerkleTree remoteTree = new MerkleTree(remote.versions.getLeafHashes(), leaves);
+        List<int[]> ranges = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(1);
+        while (!pending.isEmpty()) {
+            int node = pending.pop();
+            result.hashesCompared++;
+            if (localTree.hash(node) == remoteTree.hash(node)) {
+                continue;
+            }
+            if (localTree.isLeaf(node)) {
+                ranges.add(new int[] {localTree.firstId(node), localTree.firstId(node) + MerkleTree.LEAF_IDS});
+            } else {
+                pending.push(2 * node + 1);
+                pending.push(2 * node);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Brings the tasks with ids in a range up to date on both sides.
+     */
+    private void syncRange(int from, int to) throws IOException {
+        TreeSet<Integer> ids = new TreeSet<>(local.versions.range(from, to).keySet());
+        ids.addAll(remote.versions.range(from, to).keySet());
+        for (int id : ids) {
+            Version mine = local.versions.get(id);
+            Version theirs = remote.versions.get(id);
+            if (mine != null && theirs != null && mine.hash == theirs.hash) {
+                continue;
+            }
+            if (mine == null || (theirs != null && mine.isUnchanged())) {
+                result.received += copy(remote, local, id, theirs) ? 1 : 0;
+            } else if (theirs == null || theirs.isUnchanged()) {
+                result.sent += copy(local, remote, id, mine) ? 1 : 0;
+            } else if (!mine.isSynced && !theirs.isSynced && mine.hash != DELETED && theirs.hash != DELETED) {
+                renumber(id, mine, theirs);
+            } else {
+                result.conflicts++;
+                boolean isMineLater = mine.changedAt != theirs.changedAt
+                        ? mine.changedAt > theirs.changedAt : mine.hash > theirs.hash;
+                if (isMineLater) {
+                    result.sent += copy(local, remote, id, mine) ? 1 : 0;
+                } else {
+                    result.received += copy(remote, local, id, theirs) ? 1 : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a task, or its deletion, from one side to the other.
+     *
+     * @return false if the tasks of the other side did not change
+     */
+    private static boolean copy(Side from, Side to, int id, Version version) {
+        Version previous = to.versions.get(id);
+        to.versions.put(id, version);
+        if (version.hash == DELETED) {
+            // The other side may never have had the task
+            if (previous == null || previous.hash == DELETED) {
+                return false;
+            }
+            to.changed.remove(id);
+            to.removed.add(id);
+            return true;
+        }
+        Task task = from.tasks.get(id);
+        if (task == null) {
+            // The task was lost from the other side's storage after its version was recorded
+            return false;
+        }
+        Task copied = TaskCodec.fileStringToTask(TaskCodec.taskToRecord(task), to.taskManager);
+        to.tasks.put(id, copied);
+        to.changed.put(id, copied);
+        to.removed.remove(id);
+        return true;
+    }
+
+    /**
+     * Keeps two different tasks that were added with the same id on each side, by moving the
+     * other directory's task to a new id on both sides.
+     */
+    private void renumber(int id, Version mine, Version theirs) throws IOException {
+        int newId = nextId++;
+        local.versions.loadLeaf(MerkleTree.leafOf(newId));
+        remote.versions.loadLeaf(MerkleTree.leafOf(newId));
+        Task moved = remote.tasks.remove(id);
+        if (moved != null) {
+            moved.setId(newId);
+            remote.tasks.put(newId, moved);
+            remote.changed.put(newId, moved);
+        }
+        remote.versions.put(newId, theirs);
+        copy(local, remote, id, mine);
+        copy(remote, local, newId, theirs);
+        result.sent++;
+        result.received++;
+        result.renumbered++;
+    }
+
+    /**
+     * Loads the versions of a side. If they are not up to date with its tasks, all of its tasks
+     * are read and hashed, and the tasks that changed since its versions were last saved are
+     * recorded as changed at the time the tasks were last saved.
+     */
+    private static void open(Side side) throws IOException {
+        try {
+            if (side.versions.load()) {
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Sync file in " + side.storage.getDirectory()
+                    + " is corrupted. Tasks changed on both sides are kept twice.");
+            side.versions.clear();
+        }
+        long savedAt = lastSaved(side.storage.getDirectory());
+        for (Task task : side.storage.loadTasks(side.taskManager)) {
+            side.tasks.put(task.getId(), task);
+            long hash = TaskVersions.hash(task);
+            Version version = side.versions.get(task.getId());
+            if (version == null) {
+                side.versions.put(task.getId(), new Version(hash, savedAt, false, DELETED));
+            } else if (version.hash != hash) {
+                side.versions.put(task.getId(), new Version(hash, savedAt, version.isSynced, version.syncedHash));
+            }
+        }
+        for (Map.Entry<Integer, Version> entry : new ArrayList<>(side.versions.loaded().entrySet())) {
+            Version version = entry.getValue();
+            if (version.hash != DELETED && !side.tasks.containsKey(entry.getKey())) {
+                side.versions.put(entry.getKey(), new Version(DELETED, savedAt, version.isSynced, version.syncedHash));
+            }
+        }
+        side.isFullyRead = true;
+    }
+
+    /**
+     * Reads the versions of a side in the given ranges, and its tasks in them.
+     */
+    private static void read(Side side, List<int[]> ranges) throws IOException {
+        for (int[] range : ranges) {
+            side.versions.loadLeaf(MerkleTree.leafOf(range[0]));
+        }
+        if (!side.isFullyRead && !ranges.isEmpty()) {
+            for (Task task : side.storage.loadTasksWithIds(side.taskManager, ranges)) {
+                side.tasks.put(task.getId(), task);
+            }
+        }
+    }
+
+    /**
+     * Records the versions read from a side as agreed on by both sides. Every version read is
+     * now the same on both sides: those in the ranges that differed were just synced, and the
+     * others are in ranges whose hashes matched.
+     */
+    private static void agree(Side side) {
+        for (Map.Entry<Integer, Version> entry : new ArrayList<>(side.versions.loaded().entrySet())) {
+            Version version = entry.getValue();
+            if (!version.isUnchanged()) {
+                side.versions.put(entry.getKey(), new Version(version.hash, version.changedAt, true, version.hash));
+            }
+        }
+    }
+
+    /**
+     * Saves the tasks of a side that changed, and its versions.
+     */
+    private static void save(Side side) {
+        if (!side.changed.isEmpty() || !side.removed.isEmpty()) {
+            side.storage.saveChanges(side.taskManager, side.changed.values(), side.removed);
+            // The saved history has to match the saved tasks, or it is dropped on load
+            side.storage.saveHistory(side.taskManager);
+        }
+        try {
+            side.versions.save();
+        } catch (IOException e) {
+            System.out.println("An error occurred while saving the sync file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the time the tasks of a directory were last saved, or now if they never were.
+     */
+    private static long lastSaved(String directory) {
+        long savedAt = 0;
+        for (String name : new String[] {DataStorage.TASKS_FILE_NAME, DataStorage.TASKS_DB_FILE_NAME}) {
+            File file = new File(directory, name);
+            if (file.exists()) {
+                savedAt = Math.max(savedAt, file.lastModified());
+            }
+        }
+        return savedAt == 0 ? System.currentTimeMillis() : savedAt;
+    }
+}
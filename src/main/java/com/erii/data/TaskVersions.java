@@ -0,0 +1,564 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager.Task;
+
+import java.io.BufferedInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The TaskVersions class is what a data directory knows of its tasks for syncing: for every
+ * task id it has known, a hash of the task, the time it was last seen to change, and the hash
+ * both directories agreed on at the last sync. Deleted tasks are kept with a hash of DELETED,
+ * so that a deletion is passed on rather than undone.
+ * <p>
+ * Once a directory has been synced, its versions are kept in a snapshot, written by a sync,
+ * and a change log that every save of the directory's tasks appends to, so they stay up to date
+ * without the task list being hashed again. The snapshot starts with the Merkle leaf hashes
+ * and where the versions of each leaf are in the file, so only the versions of the leaves named
+ * in the change log, and of those a sync finds different, are read. The log is folded into a
+ * new snapshot when it grows past a quarter of it. Each snapshot has a generation number, and a
+ * log written against another snapshot is ignored.
+ */
+final class TaskVersions {
+    static final String FILE_NAME = "sync.txt";
+    static final String CHANGES_FILE_NAME = "sync-changes.txt";
+    static final long DELETED = 0;
+    private static final String HEADER = "#erii-sync|2|";
+    private static final String OLD_HEADER = "#erii-sync|1";
+    private static final String CHANGES_HEADER = "#erii-sync-changes|";
+    private static final String VERSIONS_MARKER = "#versions";
+    private static final String NEVER_SYNCED = "-";
+    private static final String KEEP_SYNCED = "=";
+    private static final int MIN_LOGGED_CHANGES = 64;
+
+    private final Path file;
+    private final Path changesFile;
+    private final TreeMap<Integer, Version> versions = new TreeMap<>();
+    private final Map<Integer, Long> leafHashes = new HashMap<>();
+    private final Map<Integer, long[]> snapshotLeaves = new HashMap<>();
+    private final Set<Integer> loadedLeaves = new HashSet<>();
+    private final Set<Integer> changedIds = new TreeSet<>();
+    private long generation;
+    private int maxId;
+    private int snapshotCount;
+    private int loggedCount;
+    private long versionsStart;
+    private boolean isComplete = true;
+
+    /**
+     * The Version class is what a directory knows of one task id.
+     */
+    static final class Version {
+        final long hash;
+        final long changedAt;
+        final boolean isSynced;
+        final long syncedHash;
+
+        Version(long hash, long changedAt, boolean isSynced, long syncedHash) {
+            this.hash = hash;
+            this.changedAt = changedAt;
+            this.isSynced = isSynced;
+            this.syncedHash = syncedHash;
+        }
+
+        /**
+         * Returns whether the task has not changed since the last sync.
+         */
+        boolean isUnchanged() {
+            return isSynced && hash == syncedHash;
+        }
+    }
+
+    /**
+     * Constructs the versions of a data directory, empty until they are loaded.
+     *
+     * @param directory the data directory
+     */
+    TaskVersions(String directory) {
+        this.file = Paths.get(directory, FILE_NAME);
+        this.changesFile = Paths.get(directory, CHANGES_FILE_NAME);
+    }
+
+    /**
+     * Returns whether a data directory has been synced, so its task versions are kept.
+     *
+     * @param directory the data directory
+     * @return true if the directory has a snapshot of its versions
+     */
+    static boolean isKept(String directory) {
+        return Files.exists(Paths.get(directory, FILE_NAME));
+    }
+
+    /**
+     * Loads the snapshot head and the change log, and the versions of the leaves named in the log.
+     *
+     * @return true if the versions are up to date with the tasks; false if the directory was
+     *         never synced or was synced by an older version, so the tasks must be hashed again
+     * @throws IOException if the files cannot be read or are damaged
+     */
+    boolean load() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            long[] position = new long[1];
+            String header = readLine(in, position);
+            if (OLD_HEADER.equals(header)) {
+                for (String line = readLine(in, position); line != null; line = readLine(in, position)) {
+                    String[] parts = line.split("\\|");
+                    putLoaded(Integer.parseInt(parts[0]), parseVersion(parts, null));
+                }
+                return false;
+            }
+            if (header == null || !header.startsWith(HEADER)) {
+                throw new IOException("missing header");
+            }
+            String[] counts = header.substring(HEADER.length()).split("\\|");
+            generation = Long.parseLong(counts[0]);
+            maxId = Integer.parseInt(counts[1]);
+            snapshotCount = Integer.parseInt(counts[2]);
+            for (String line = readLine(in, position); !VERSIONS_MARKER.equals(line); line = readLine(in, position)) {
+                if (line == null) {
+                    throw new IOException("missing versions");
+                }
+                String[] parts = line.split("\\|");
+                int leaf = Integer.parseInt(parts[0]);
+                leafHashes.put(leaf, Long.parseUnsignedLong(parts[1], 16));
+                snapshotLeaves.put(leaf, new long[] {Long.parseLong(parts[2]), Long.parseLong(parts[3])});
+            }
+            versionsStart = position[0];
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        isComplete = false;
+        loadChanges();
+        return true;
+    }
+
+    /**
+     * Reads the change log and applies it to the versions of the leaves it names.
+     */
+    private void loadChanges() throws IOException {
+        List<String[]> changes = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(changesFile))) {
+            long[] position = new long[1];
+            if (!(CHANGES_HEADER + generation).equals(readLine(in, position))) {
+                // Written against an older snapshot, which already holds its changes
+                return;
+            }
+            for (String line = readLine(in, position); line != null; line = readLine(in, position)) {
+                String[] parts = line.split("\\|");
+                // A save that stopped halfway through a line leaves it without its last field
+                if (parts.length == 4) {
+                    changes.add(parts);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        loggedCount = changes.size();
+        for (String[] parts : changes) {
+            loadLeaf(MerkleTree.leafOf(Integer.parseInt(parts[0])));
+        }
+        for (String[] parts : changes) {
+            int id = Integer.parseInt(parts[0]);
+            Version version = parseVersion(parts, versions.get(id));
+            if (version.hash != DELETED || versions.containsKey(id)) {
+                put(id, version);
+            }
+        }
+        changedIds.clear();
+    }
+
+    /**
+     * Reads the versions of a leaf from the snapshot, unless they are already in memory.
+     *
+     * @param leaf the leaf number
+     * @throws IOException if the snapshot cannot be read, or the versions do not match the leaf hash
+     */
+    void loadLeaf(int leaf) throws IOException {
+        if (isComplete || !loadedLeaves.add(leaf)) {
+            return;
+        }
+        long[] place = snapshotLeaves.get(leaf);
+        if (place == null) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) place[1]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, versionsStart + place[0] + bytes.position()) < 0) {
+                    throw new IOException("the snapshot ends early");
+                }
+            }
+        }
+        long hash = 0;
+        bytes.flip();
+        for (String line : StandardCharsets.UTF_8.decode(bytes).toString().split("\n")) {
+            String[] parts = line.split("\\|");
+            int id = Integer.parseInt(parts[0]);
+            Version version = parseVersion(parts, null);
+            versions.put(id, version);
+            hash += MerkleTree.leafShare(id, version.hash);
+        }
+        if (hash != leafHashes.get(leaf)) {
+            throw new IOException("the versions of ids from " + leaf * MerkleTree.LEAF_IDS + " do not match their hash");
+        }
+    }
+
+    /**
+     * Reads the versions of every leaf from the snapshot.
+     *
+     * @throws IOException if the snapshot cannot be read or is damaged
+     */
+    void loadAll() throws IOException {
+        for (int leaf : new ArrayList<>(snapshotLeaves.keySet())) {
+            loadLeaf(leaf);
+        }
+        isComplete = true;
+    }
+
+    /**
+     * Forgets all versions, as if the directory had never been synced.
+     */
+    void clear() {
+        versions.clear();
+        leafHashes.clear();
+        snapshotLeaves.clear();
+        loadedLeaves.clear();
+        changedIds.clear();
+        maxId = 0;
+        snapshotCount = 0;
+        loggedCount = 0;
+        isComplete = true;
+    }
+
+    /**
+     * Returns the version of a task id. Its leaf must have been loaded.
+     *
+     * @param id the task id
+     * @return the version, or null if the id is not known
+     */
+    Version get(int id) {
+        return versions.get(id);
+    }
+
+    /**
+     * Returns the versions of the task ids in a range. Their leaves must have been loaded.
+     *
+     * @param from the first id of the range
+     * @param to   the id after the last of the range
+     * @return the versions by task id
+     */
+    NavigableMap<Integer, Version> range(int from, int to) {
+        return versions.subMap(from, true, to, false);
+    }
+
+    /**
+     * Returns the versions loaded so far, which are all versions once loadAll has been called.
+     *
+     * @return the versions by task id
+     */
+    NavigableMap<Integer, Version> loaded() {
+        return versions;
+    }
+
+    /**
+     * Sets the version of a task id and updates the hash of its leaf. The leaf must have been loaded.
+     *
+     * @param id      the task id
+     * @param version the new version
+     */
+    void put(int id, Version version) {
+        Version previous = versions.put(id, version);
+        long share = MerkleTree.leafShare(id, version.hash);
+        if (previous != null) {
+            share -= MerkleTree.leafShare(id, previous.hash);
+        }
+        leafHashes.merge(MerkleTree.leafOf(id), share, Long::sum);
+        maxId = Math.max(maxId, id);
+        changedIds.add(id);
+    }
+
+    /**
+     * Puts a version read from a file whose leaf is not otherwise loaded.
+     */
+    private void putLoaded(int id, Version version) {
+        put(id, version);
+        changedIds.remove(id);
+    }
+
+    Map<Integer, Long> getLeafHashes() {
+        return leafHashes;
+    }
+
+    int getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Saves the versions changed since they were loaded, by adding them to the change log, or by
+     * writing a new snapshot if all versions are in memory or the log has grown past a quarter of it.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    void save() throws IOException {
+        if (!isComplete && changedIds.isEmpty()) {
+            return;
+        }
+        if (isComplete || loggedCount + changedIds.size() > Math.max(MIN_LOGGED_CHANGES, snapshotCount / 4)) {
+            saveSnapshot();
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int id : changedIds) {
+            lines.append(toLine(id, versions.get(id))).append('\n');
+        }
+        appendChanges(changesFile, generation, lines.toString());
+        loggedCount += changedIds.size();
+        changedIds.clear();
+    }
+
+    /**
+     * Writes all versions to a new snapshot, and empties the change log.
+     */
+    private void saveSnapshot() throws IOException {
+        loadAll();
+        StringBuilder body = new StringBuilder();
+        StringBuilder head = new StringBuilder();
+        int leaf = -1;
+        int leafStart = 0;
+        for (Map.Entry<Integer, Version> entry : versions.entrySet()) {
+            int entryLeaf = MerkleTree.leafOf(entry.getKey());
+            if (entryLeaf != leaf) {
+                addLeaf(head, leaf, leafStart, body.length());
+                leaf = entryLeaf;
+                leafStart = body.length();
+            }
+            body.append(toLine(entry.getKey(), entry.getValue())).append('\n');
+        }
+        addLeaf(head, leaf, leafStart, body.length());
+        AtomicFile snapshot = new AtomicFile(file.toString());
+        FileOutputStream out = null;
+        try {
+            out = snapshot.startWrite();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.print(HEADER + (generation + 1) + "|" + maxId + "|" + versions.size() + "\n");
+            writer.print(head);
+            writer.print(VERSIONS_MARKER + "\n");
+            writer.print(body);
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("the file could not be written");
+            }
+            snapshot.finishWrite(out);
+        } catch (IOException e) {
+            if (out != null) {
+                snapshot.failWrite(out);
+            }
+            throw e;
+        }
+        // The log is ignored from now on, as it names the old generation
+        generation++;
+        Files.deleteIfExists(changesFile);
+        snapshotCount = versions.size();
+        loggedCount = 0;
+        changedIds.clear();
+    }
+
+    private void addLeaf(StringBuilder head, int leaf, int start, int end) {
+        if (leaf >= 0) {
+            head.append(leaf).append('|').append(Long.toHexString(leafHashes.get(leaf))).append('|')
+                    .append(start).append('|').append(end - start).append('\n');
+        }
+    }
+
+    /**
+     * Records that a task was saved, if the directory has been synced.
+     *
+     * @param directory the data directory
+     * @param task      the task that was added or changed
+     */
+    static void taskSaved(String directory, Task task) {
+        logChange(directory, task.getId(), hash(task));
+    }
+
+    /**
+     * Records that a task was deleted, if the directory has been synced.
+     *
+     * @param directory the data directory
+     * @param task      the task that was deleted
+     */
+    static void taskDeleted(String directory, Task task) {
+        logChange(directory, task.getId(), DELETED);
+    }
+
+    /**
+     * Records the tasks that changed in a save of the whole list, if the directory has been synced.
+     * The list was written in full, so the versions are all read to find what changed.
+     *
+     * @param directory the data directory
+     * @param tasks     the saved tasks
+     */
+    static void tasksSaved(String directory, List<Task> tasks) {
+        if (!isKept(directory)) {
+            return;
+        }
+        TaskVersions versions = new TaskVersions(directory);
+        try {
+            if (!versions.load()) {
+                // Synced by an older version, so the next sync hashes all tasks anyway
+                return;
+            }
+            versions.loadAll();
+            long now = System.currentTimeMillis();
+            Set<Integer> ids = new HashSet<>(tasks.size() * 2);
+            for (Task task : tasks) {
+                ids.add(task.getId());
+                versions.changed(task.getId(), hash(task), now);
+            }
+            for (Map.Entry<Integer, Version> entry : new ArrayList<>(versions.versions.entrySet())) {
+                if (!ids.contains(entry.getKey())) {
+                    versions.changed(entry.getKey(), DELETED, now);
+                }
+            }
+            if (!versions.changedIds.isEmpty()) {
+                versions.save();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("An error occurred while saving the sync file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gives a task id a new hash changed at the given time, unless the hash is the same.
+     */
+    private void changed(int id, long hash, long changedAt) {
+        Version version = versions.get(id);
+        if (version == null ? hash != DELETED : version.hash != hash) {
+            put(id, version == null ? new Version(hash, changedAt, false, DELETED)
+                    : new Version(hash, changedAt, version.isSynced, version.syncedHash));
+        }
+    }
+
+    /**
+     * Appends one change to the change log, without reading the versions.
+     */
+    private static void logChange(String directory, int id, long hash) {
+        Path snapshot = Paths.get(directory, FILE_NAME);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshot))) {
+            String header = readLine(in, new long[1]);
+            if (header == null || !header.startsWith(HEADER)) {
+                // Never synced, or the next sync hashes all tasks anyway
+                return;
+            }
+            long generation = Long.parseLong(header.substring(HEADER.length()).split("\\|")[0]);
+            appendChanges(Paths.get(directory, CHANGES_FILE_NAME), generation,
+                    id + "|" + Long.toHexString(hash) + "|" + System.currentTimeMillis() + "|" + KEEP_SYNCED + "\n");
+        } catch (NoSuchFileException e) {
+            // Never synced
+        } catch (IOException | RuntimeException e) {
+            System.out.println("An error occurred while saving the sync file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends lines to the change log of a snapshot generation, starting a new log if there is
+     * none or it belongs to another generation, and forces them to disk.
+     */
+    private static void appendChanges(Path changesFile, long generation, String lines) throws IOException {
+        String header = CHANGES_HEADER + generation;
+        try (FileChannel channel = FileChannel.open(changesFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer current = ByteBuffer.allocate(header.length() + 1);
+            while (current.hasRemaining() && channel.read(current, current.position()) > 0) {
+                // Reads the header, or as much of it as there is
+            }
+            StringBuilder out = new StringBuilder();
+            long offset = channel.size();
+            if (!new String(current.array(), 0, current.position(), StandardCharsets.UTF_8).equals(header + "\n")) {
+                channel.truncate(0);
+                offset = 0;
+                out.append(header).append('\n');
+            }
+            out.append(lines);
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(out.toString());
+            while (bytes.hasRemaining()) {
+                offset += channel.write(bytes, offset);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads one line of ASCII text ending in a newline, and advances the byte position past it.
+     *
+     * @return the line, or null at the end of the input
+     */
+    private static String readLine(InputStream in, long[] position) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        if (b == -1 && line.length() == 0) {
+            return null;
+        }
+        position[0] += line.length() + (b == '\n' ? 1 : 0);
+        return line.toString();
+    }
+
+    /**
+     * Parses the hash, change time and sync state of a version line.
+     *
+     * @param parts    the fields of the line
+     * @param previous the version the line replaces, whose sync state a change log line may keep
+     */
+    private static Version parseVersion(String[] parts, Version previous) {
+        long hash = Long.parseUnsignedLong(parts[1], 16);
+        long changedAt = Long.parseLong(parts[2]);
+        if (parts[3].equals(KEEP_SYNCED)) {
+            return previous == null ? new Version(hash, changedAt, false, DELETED)
+                    : new Version(hash, changedAt, previous.isSynced, previous.syncedHash);
+        }
+        boolean isSynced = !parts[3].equals(NEVER_SYNCED);
+        return new Version(hash, changedAt, isSynced, isSynced ? Long.parseUnsignedLong(parts[3], 16) : DELETED);
+    }
+
+    private static String toLine(int id, Version version) {
+        return id + "|" + Long.toHexString(version.hash) + "|" + version.changedAt + "|"
+                + (version.isSynced ? Long.toHexString(version.syncedHash) : NEVER_SYNCED);
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of a task as it is saved, never equal to DELETED.
+     *
+     * @param task the task
+     * @return the hash of the task
+     */
+    static long hash(Task task) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : TaskCodec.taskToFileString(task).getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return hash == DELETED ? 1 : hash;
+    }
+}
@@ -0,0 +1,455 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import com.erii.metrics.Metrics;
+
+/**
+ * The TextTaskRepository class stores the whole task list in one text file,
+ * optionally block-compressed. Every save rewrites the file. Each task line starts with
+ * the id of the task, so that tasks keep their ids from one load to the next.
+ */
+public class TextTaskRepository implements TaskRepository {
+    private static final String TASKS_HEADER = "#erii-tasks|1";
+    private static final int BLOCK_SIZE = 64;
+    private static final String IMAGE_SUFFIX = ".image";
+
+    private final String tasksFile;
+    private final boolean isCompressed;
+    private final boolean isLazy;
+    // Set when the file was found damaged, so the next save keeps the good backup
+    private boolean isDamaged;
+
+    /**
+     * The LoadResult class collects the tasks read from a file or from one block of it.
+     */
+    private static class LoadResult {
+        private final List<Task> tasks = new ArrayList<>();
+        private int skipped;
+        private boolean isCorrupted;
+    }
+
+    /**
+     * Constructs a TextTaskRepository that saves tasks to the given file
+     * as plain text or block-compressed. Either format is detected automatically when loading.
+     *
+     * @param tasksFile    The path of the task file
+     * @param isCompressed Whether tasks are saved block-compressed
+     */
+    public TextTaskRepository(String tasksFile, boolean isCompressed) {
+        this(tasksFile, isCompressed, false);
+    }
+
+    /**
+     * Constructs a TextTaskRepository that saves tasks to the given file
+     * as plain text or block-compressed, and optionally loads plain text files lazily:
+     * the file is memory-mapped and task descriptions are only decoded when they are needed.
+     *
+     * @param tasksFile    The path of the task file
+     * @param isCompressed Whether tasks are saved block-compressed
+     * @param isLazy       Whether descriptions of plain text files are decoded on demand
+     */
+    public TextTaskRepository(String tasksFile, boolean isCompressed, boolean isLazy) {
+        this.tasksFile = tasksFile;
+        this.isCompressed = isCompressed;
+        this.isLazy = isLazy;
+    }
+
+    /**
+     * Save tasks to a file.
+     * The file is written to a temporary file and renamed into place,
+     * so a crash during the save leaves the previous file intact. The previous file becomes
+     * the backup, unless it was found damaged when it was loaded.
+     *
+     * @param tasks The list of tasks to be saved
+     */
+    @Override
+    public void saveTasks(List<Task> tasks) {
+        long start = Metrics.start();
+        AtomicFile file = new AtomicFile(tasksFile);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            if (isCompressed) {
+                writeCompressedTasks(out, tasks);
+            } else {
+                writeTextTasks(out, tasks);
+            }
+            file.finishWrite(out, !isDamaged);
+            isDamaged = false;
+        } catch (IOException e) {
+            if (out != null) {
+                file.failWrite(out);
+            }
+            System.out.println("An error occurred while saving tasks: " + e.getMessage());
+        }
+        Metrics.time("storage.save", start);
+    }
+
+    /**
+     * Save a binary image of the tasks next to the task file, so that the next load can skip
+     * parsing while the task file is unchanged.
+     *
+     * @param tasks The list of tasks, as last saved
+     */
+    @Override
+    public void saveImage(List<Task> tasks) {
+        long start = Metrics.start();
+        Path path = Paths.get(tasksFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            TaskImage.write(new AtomicFile(tasksFile + IMAGE_SUFFIX), path, tasks);
+        } catch (IOException e) {
+            System.out.println("An error occurred while saving the task image: " + e.getMessage());
+        }
+        Metrics.time("storage.save-image", start);
+    }
+
+    /**
+     * Write tasks as text in blocks of BLOCK_SIZE lines, each followed by a trailer line
+     * with the CRC32C of the block.
+     *
+     * @param out   The stream to write to
+     * @param tasks The list of tasks to be written
+     * @throws IOException If the tasks cannot be written
+     */
+    private void writeTextTasks(OutputStream out, List<Task> tasks) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(TASKS_HEADER);
+        writer.write('\n');
+        CRC32C crc = new CRC32C();
+        int count = 0;
+        for (Task task : tasks) {
+            String line = TaskCodec.taskToRecord(task) + "\n";
+            crc.update(line.getBytes(StandardCharsets.UTF_8));
+            writer.write(line);
+            count++;
+            if (count == BLOCK_SIZE) {
+                writer.write(blockTrailer(count, crc));
+                crc.reset();
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            writer.write(blockTrailer(count, crc));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write tasks as deflated, checksummed blocks followed by a block index.
+     *
+     * @param out   The stream to write to
+     * @param tasks The list of tasks to be written
+     * @throws IOException If the tasks cannot be written
+     */
+    private void writeCompressedTasks(OutputStream out, List<Task> tasks) throws IOException {
+        CompressedTaskFile.Writer writer = new CompressedTaskFile.Writer(new BufferedOutputStream(out, 1 << 16));
+        for (Task task : tasks) {
+            writer.writeLine(TaskCodec.taskToRecord(task));
+        }
+        writer.finish();
+    }
+
+    /**
+     * Load tasks from a file.
+     * Plain text and block-compressed files are told apart by their header.
+     * Blocks whose checksum does not match, and any blocks after them, are dropped so that
+     * the task list is recovered up to the last good block.
+     *
+     * @param taskManager The task manager instance
+     * @return The list of loaded tasks
+     */
+    @Override
+    public List<Task> loadTasks(TaskManager taskManager) {
+        long start = Metrics.start();
+        AtomicFile file = new AtomicFile(tasksFile);
+        Path path = file.getPath();
+        if (!Files.exists(path)) {
+            System.out.println("Tasks file not found. Starting with an empty task list.");
+            return new ArrayList<>();
+        }
+        LoadResult result;
+        try {
+            List<Task> imaged = TaskImage.read(Paths.get(tasksFile + IMAGE_SUFFIX), path, taskManager, isLazy);
+            if (imaged != null) {
+                Metrics.time("storage.load", start);
+                return imaged;
+            }
+            if (CompressedTaskFile.isCompressed(path)) {
+                result = readCompressedTasks(path, taskManager);
+            } else if (isLazy && Files.size(path) <= Integer.MAX_VALUE) {
+                result = readMappedTasks(path, taskManager);
+            } else {
+                result = readTextTasks(path, taskManager);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("An error occurred while loading tasks: " + e.getMessage());
+            result = new LoadResult();
+            result.isCorrupted = true;
+        }
+        if (result.isCorrupted) {
+            isDamaged = true;
+            System.out.println("Tasks file is damaged. Recovered " + result.tasks.size()
+                    + " tasks up to the last good block. The previous save is kept in " + file.getBackupPath());
+        }
+        if (result.skipped > 0) {
+            System.out.println("Skipped " + result.skipped + " unreadable task lines.");
+        }
+        Metrics.count("storage.records-parsed", result.tasks.size() + result.skipped);
+        Metrics.time("storage.load", start);
+        return result.tasks;
+    }
+
+    /**
+     * Read tasks from a text file, verifying the block checksums if the file has them.
+     * Files written before checksums were introduced are loaded without verification.
+     *
+     * @param path        The file to read
+     * @param taskManager The task manager instance
+     * @return The loaded tasks
+     * @throws IOException If the file cannot be read
+     */
+    private LoadResult readTextTasks(Path path, TaskManager taskManager) throws IOException {
+        LoadResult result = new LoadResult();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            boolean isChecksummed = TASKS_HEADER.equals(line);
+            if (isChecksummed) {
+                line = reader.readLine();
+            }
+            List<String> block = new ArrayList<>(BLOCK_SIZE);
+            CRC32C crc = new CRC32C();
+            for (; line != null; line = reader.readLine()) {
+                if (isChecksummed && line.startsWith("#|")) {
+                    if (!isValidTrailer(line, block.size(), crc)) {
+                        result.isCorrupted = true;
+                        return result;
+                    }
+                    result.skipped += parseTasks(block, result.tasks, taskManager);
+                    block.clear();
+                    crc.reset();
+                    continue;
+                }
+                if (isChecksummed) {
+                    crc.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+                    block.add(line);
+                } else if (!line.trim().isEmpty()) {
+                    block.add(line);
+                }
+            }
+            if (!isChecksummed) {
+                result.skipped += parseTasks(block, result.tasks, taskManager);
+            } else if (!block.isEmpty()) {
+                result.isCorrupted = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read tasks from a memory-mapped text file, leaving their descriptions in the file.
+     * Blocks are verified the same way as by readTextTasks, checksumming the mapped bytes directly.
+     *
+     * @param path        The file to read
+     * @param taskManager The task manager instance
+     * @return The loaded tasks
+     * @throws IOException If the file cannot be read
+     */
+    private LoadResult readMappedTasks(Path path, TaskManager taskManager) throws IOException {
+        ByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        MappedDescriptions descriptions = new MappedDescriptions(file, MappedDescriptions.DEFAULT_CACHE_SIZE);
+        LoadResult result = new LoadResult();
+        int position = 0;
+        int firstEnd = lineEnd(file, 0);
+        boolean isChecksummed = isLine(file, 0, firstEnd, TASKS_HEADER);
+        if (isChecksummed) {
+            position = Math.min(firstEnd + 1, file.limit());
+        }
+        int blockStart = position;
+        int count = 0;
+        CRC32C crc = new CRC32C();
+        while (position < file.limit()) {
+            int end = lineEnd(file, position);
+            int next = Math.min(end + 1, file.limit());
+            if (!isChecksummed) {
+                int contentEnd = end > position && file.get(end - 1) == '\r' ? end - 1 : end;
+                if (!isBlank(file, position, contentEnd)) {
+                    result.skipped += parseMappedTask(file, position, contentEnd, result.tasks, taskManager,
+                            descriptions);
+                }
+            } else if (end - position >= 2 && file.get(position) == '#' && file.get(position + 1) == '|') {
+                crc.update(file.duplicate().position(blockStart).limit(position));
+                String trailer = StandardCharsets.UTF_8.decode(file.duplicate().position(position).limit(end))
+                        .toString();
+                if (!isValidTrailer(trailer, count, crc)) {
+                    result.isCorrupted = true;
+                    return result;
+                }
+                for (int line = blockStart; line < position; ) {
+                    int lineEnd = lineEnd(file, line);
+                    result.skipped += parseMappedTask(file, line, lineEnd, result.tasks, taskManager, descriptions);
+                    line = lineEnd + 1;
+                }
+                blockStart = next;
+                count = 0;
+                crc.reset();
+            } else {
+                count++;
+            }
+            position = next;
+        }
+        if (isChecksummed && count > 0) {
+            result.isCorrupted = true;
+        }
+        return result;
+    }
+
+    private static int parseMappedTask(ByteBuffer file, int start, int end, List<Task> tasks,
+            TaskManager taskManager, MappedDescriptions descriptions) {
+        Task task = null;
+        try {
+            task = TaskCodec.fileBytesToTask(file, start, end, taskManager, descriptions);
+        } catch (RuntimeException e) {
+            // Counted as unreadable below
+        }
+        if (task == null) {
+            return 1;
+        }
+        tasks.add(task);
+        return 0;
+    }
+
+    private static int lineEnd(ByteBuffer file, int position) {
+        int end = position;
+        while (end < file.limit() && file.get(end) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isLine(ByteBuffer file, int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (file.get(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(ByteBuffer file, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(file.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read tasks from a block-compressed file, decompressing and parsing the blocks in parallel.
+     *
+     * @param path        The file to read
+     * @param taskManager The task manager instance
+     * @return The loaded tasks
+     * @throws IOException If the file cannot be read
+     */
+    private LoadResult readCompressedTasks(Path path, TaskManager taskManager) throws IOException {
+        CompressedTaskFile.Result<LoadResult> blocks = CompressedTaskFile.read(path, lines -> {
+            LoadResult block = new LoadResult();
+            block.skipped = parseTasks(lines, block.tasks, taskManager);
+            return block;
+        });
+        LoadResult result = new LoadResult();
+        for (LoadResult block : blocks.blocks) {
+            result.tasks.addAll(block.tasks);
+            result.skipped += block.skipped;
+        }
+        result.isCorrupted = blocks.isCorrupted;
+        return result;
+    }
+
+    /**
+     * Parse the task lines of a verified block
+     *
+     * @param lines       The task lines
+     * @param tasks       The list to add the parsed tasks to
+     * @param taskManager The task manager instance
+     * @return The number of lines that could not be parsed
+     */
+    private int parseTasks(List<String> lines, List<Task> tasks, TaskManager taskManager) {
+        int skipped = 0;
+        for (String line : lines) {
+            Task task = null;
+            try {
+                task = TaskCodec.fileStringToTask(line, taskManager);
+            } catch (RuntimeException e) {
+                // Counted as unreadable below
+            }
+            if (task != null) {
+                tasks.add(task);
+            } else {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Build the trailer line of a block
+     *
+     * @param count The number of task lines in the block
+     * @param crc   The checksum of the block
+     * @return The trailer line
+     */
+    private static String blockTrailer(int count, CRC32C crc) {
+        return "#|" + count + "|" + Long.toHexString(crc.getValue()) + "\n";
+    }
+
+    /**
+     * Check a block trailer against the lines read since the previous trailer
+     *
+     * @param line  The trailer line
+     * @param count The number of task lines read
+     * @param crc   The checksum of the lines read
+     * @return Whether the block is intact
+     */
+    private static boolean isValidTrailer(String line, int count, CRC32C crc) {
+        String[] parts = line.split("\\|");
+        try {
+            return parts.length == 3 && Integer.parseInt(parts[1]) == count
+                    && Long.parseLong(parts[2], 16) == crc.getValue();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+import com.erii.user.UserDetails;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * The UserStore class holds the data of one user profile: its storage, its user details
+ * and its task manager. Tasks are only loaded the first time the task manager is requested.
+ * A profile shared with other processes also has a journal, through which their changes are
+ * picked up as they are saved.
+ */
+public class UserStore {
+    private final String userName;
+    private final DataStorage storage;
+    private final TaskManager taskManager;
+    private final UserDetails userDetails;
+    private SharedJournal journal;
+    private ChangePersister persister;
+    private boolean isLoaded;
+
+    /**
+     * Constructs a UserStore and loads the user details of the profile.
+     *
+     * @param userName    the name of the profile
+     * @param storage     the storage of the profile
+     * @param taskManager the empty task manager the tasks are loaded into
+     * @param journal     the journal shared with other processes, or null if the profile is not shared
+     */
+    UserStore(String userName, DataStorage storage, TaskManager taskManager, SharedJournal journal) {
+        this.userName = userName;
+        this.storage = storage;
+        this.taskManager = taskManager;
+        this.journal = journal;
+        this.userDetails = storage.loadUserDetails();
+    }
+
+    /**
+     * Returns the name of the profile.
+     *
+     * @return the name of the profile
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Returns the storage of the profile.
+     *
+     * @return the storage of the profile
+     */
+    public DataStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the user details of the profile.
+     *
+     * @return the user details of the profile
+     */
+    public UserDetails getUserDetails() {
+        return userDetails;
+    }
+
+    /**
+     * Returns the task manager of the profile, loading its tasks on the first call.
+     *
+     * @return the task manager of the profile
+     */
+    public TaskManager getTaskManager() {
+        if (!isLoaded) {
+            if (journal != null) {
+                try {
+                    journal.open(taskManager, storage, this::loadTasks);
+                } catch (IOException e) {
+                    System.out.println("An error occurred while opening the journal: " + e.getMessage()
+                            + ". Changes are not shared with other windows.");
+                    journal = null;
+                }
+            }
+            if (journal == null) {
+                loadTasks();
+            }
+            persister = new ChangePersister(taskManager, storage, journal);
+            if (journal != null) {
+                journal.watch(persister::persist);
+            }
+            isLoaded = true;
+            int archived = archiveTasks();
+            if (archived > 0) {
+                System.out.println("\nMoved " + archived + " completed and past tasks to the archive.");
+            }
+        }
+        return taskManager;
+    }
+
+    /**
+     * Loads the tasks, history and dependencies of the profile into the task manager.
+     */
+    private void loadTasks() {
+        int duplicates = 0;
+        for (TaskManager.Task task : storage.loadTasks(taskManager)) {
+            if (!taskManager.loadTask(task)) {
+                duplicates++;
+            }
+        }
+        if (duplicates > 0) {
+            System.out.println("\nRemoved " + duplicates + " duplicate tasks.");
+            storage.saveTasks(taskManager.getAllTasks());
+        }
+        if (taskManager.getHistory().isPersistent()) {
+            // A history recorded before the duplicates were removed no longer matches and is dropped
+            storage.loadHistory(taskManager);
+        }
+        // Dependencies refer to tasks by id, so those on removed duplicates are just skipped
+        storage.loadDependencies(taskManager);
+    }
+
+    /**
+     * Moves the tasks selected by the archive policy of the task manager to the archive
+     * of the profile, and saves the task list without them.
+     *
+     * @return the number of tasks archived
+     */
+    private int archiveTasks() {
+        int archived = taskManager.archiveTasks(LocalDate.now(), storage.getArchive()::append).size();
+        if (archived > 0) {
+            persister.persist();
+            if (taskManager.getHistory().isPersistent()) {
+                storage.saveHistory(taskManager);
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Returns the persister that writes the task changes of the profile to its storage,
+     * loading the tasks if they have not been loaded yet.
+     *
+     * @return the persister of the profile
+     */
+    public ChangePersister getPersister() {
+        getTaskManager();
+        return persister;
+    }
+
+    /**
+     * Writes back the user details and history of the profile and closes its files.
+     * Task changes are written through as they happen, so only changes that have not
+     * been persisted yet are written here.
+     */
+    void writeBack() {
+        if (isLoaded) {
+            persister.persist();
+            persister.close();
+            if (journal != null) {
+                // Another process may have saved since, so the task file may not match this list
+                journal.close();
+            } else {
+                storage.saveImage(taskManager.getAllTasks());
+            }
+        }
+        if (!userDetails.getUserName().isEmpty()) {
+            storage.saveUserDetails(userDetails);
+        }
+        if (isLoaded && taskManager.getHistory().isPersistent()) {
+            storage.saveHistory(taskManager);
+        }
+        storage.close();
+    }
+}
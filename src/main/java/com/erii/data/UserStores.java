@@ -0,0 +1,114 @@
+package com.erii.data;
+
+import com.erii.core.TaskManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The UserStores class gives each user profile its own store under the data directory.
+ * The default profile uses the data directory itself and every other profile uses
+ * a subdirectory named after the user. Stores are opened on first use, and at most
+ * a fixed number of them are kept open; the least recently used store is written back
+ * and closed when another one has to be opened.
+ * Stores may be shared with other processes, each profile then keeping a journal of its changes.
+ */
+public class UserStores {
+    public static final String DEFAULT_USER = "";
+
+    private final String dataDirectory;
+    private final int capacity;
+    private final Function<String, TaskRepository> repositoryFactory;
+    private final Supplier<TaskManager> taskManagerFactory;
+    private final boolean isShared;
+    private final Map<String, UserStore> stores;
+
+    /**
+     * Constructs a UserStores.
+     *
+     * @param dataDirectory      the directory holding all profiles
+     * @param capacity           the maximum number of stores kept open
+     * @param repositoryFactory  the function creating the task repository for a profile directory
+     * @param taskManagerFactory the function creating an empty task manager for a profile
+     */
+    public UserStores(String dataDirectory, int capacity, Function<String, TaskRepository> repositoryFactory,
+            Supplier<TaskManager> taskManagerFactory) {
+        this(dataDirectory, capacity, repositoryFactory, taskManagerFactory, false);
+    }
+
+    /**
+     * Constructs a UserStores whose profiles may be opened by other processes at the same time.
+     *
+     * @param dataDirectory      the directory holding all profiles
+     * @param capacity           the maximum number of stores kept open
+     * @param repositoryFactory  the function creating the task repository for a profile directory
+     * @param taskManagerFactory the function creating an empty task manager for a profile
+     * @param isShared           whether changes are shared with other processes through a journal
+     */
+    public UserStores(String dataDirectory, int capacity, Function<String, TaskRepository> repositoryFactory,
+            Supplier<TaskManager> taskManagerFactory, boolean isShared) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("At least one user store must be kept open.");
+        }
+        this.dataDirectory = dataDirectory;
+        this.capacity = capacity;
+        this.repositoryFactory = repositoryFactory;
+        this.taskManagerFactory = taskManagerFactory;
+        this.isShared = isShared;
+        this.stores = new LinkedHashMap<String, UserStore>(capacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserStore> eldest) {
+                if (size() <= UserStores.this.capacity) {
+                    return false;
+                }
+                eldest.getValue().writeBack();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the store of a profile, opening it if it is not open yet.
+     *
+     * @param userName the name of the profile, or DEFAULT_USER for the default profile
+     * @return the store of the profile
+     */
+    public UserStore open(String userName) {
+        String key = directoryName(userName);
+        UserStore store = stores.get(key);
+        if (store == null) {
+            String directory = key.isEmpty() ? dataDirectory : dataDirectory + "/" + key;
+            DataStorage storage = new DataStorage(directory, repositoryFactory.apply(directory));
+            store = new UserStore(userName.trim(), storage, taskManagerFactory.get(),
+                    isShared ? new SharedJournal(directory) : null);
+            stores.put(key, store);
+        }
+        return store;
+    }
+
+    /**
+     * Writes back and closes all open stores.
+     */
+    public void closeAll() {
+        List<UserStore> open = new ArrayList<>(stores.values());
+        stores.clear();
+        for (UserStore store : open) {
+            store.writeBack();
+        }
+    }
+
+    /**
+     * Returns the directory name of a profile. Characters that are not safe in file names
+     * are replaced, so that a profile can never reach outside the data directory.
+     *
+     * @param userName the name of the profile
+     * @return the directory name, or an empty string for the default profile
+     */
+    static String directoryName(String userName) {
+        return userName.trim().toLowerCase().replaceAll("[^a-z0-9_-]+", "_");
+    }
+}
@@ -0,0 +1,153 @@
+package com.erii.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The Metrics class is the process-wide registry of counters and latency histograms.
+ * Timers are named after what they measure, such as "command.add-todo", "storage.save"
+ * or "query.find", and counters after what they count, such as "storage.bytes-written".
+ * Recording only touches lock-free counters, so the metrics can stay enabled permanently.
+ */
+public final class Metrics implements MetricsMXBean {
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the registry.
+     *
+     * @return the registry
+     */
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the current time, to be passed to time once the operation is done.
+     *
+     * @return the current value of System.nanoTime
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since start under the given timer.
+     *
+     * @param name  the timer name
+     * @param start the value returned by start
+     */
+    public static void time(String name, long start) {
+        INSTANCE.timer(name).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Adds to the given counter.
+     *
+     * @param name  the counter name
+     * @param delta the amount to add
+     */
+    public static void count(String name, long delta) {
+        INSTANCE.counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Returns the histogram of the given timer, creating it if needed.
+     *
+     * @param name the timer name
+     * @return the histogram
+     */
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers the registry with the platform MBean server. Failing to register
+     * only disables JMX access; metrics are still recorded.
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.erii:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException | SecurityException e) {
+            System.out.println("Metrics are not available over JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return summarize(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getP50Micros() {
+        return summarize(histogram -> histogram.getPercentileNanos(50) / 1000);
+    }
+
+    @Override
+    public Map<String, Long> getP99Micros() {
+        return summarize(histogram -> histogram.getPercentileNanos(99) / 1000);
+    }
+
+    @Override
+    public Map<String, Long> getMaxMicros() {
+        return summarize(histogram -> histogram.getMaxNanos() / 1000);
+    }
+
+    @Override
+    public void reset() {
+        timers.values().forEach(LatencyHistogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * Returns a table of all timers and counters for display.
+     *
+     * @return the formatted report
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-28s %8s %10s %10s %10s%n", "Timer", "count", "p50 (us)", "p99 (us)", "max (us)"));
+        new TreeMap<>(timers).forEach((name, histogram) -> report.append(String.format("%-28s %8d %10d %10d %10d%n",
+                name, histogram.getCount(), histogram.getPercentileNanos(50) / 1000,
+                histogram.getPercentileNanos(99) / 1000, histogram.getMaxNanos() / 1000)));
+        report.append(String.format("%n%-28s %12s%n", "Counter", "value"));
+        getCounters().forEach((name, value) -> report.append(String.format("%-28s %12d%n", name, value)));
+        LatencyHistogram load = timers.get("storage.load");
+        LongAdder parsed = counters.get("storage.records-parsed");
+        if (load != null && parsed != null && load.getTotalNanos() > 0) {
+            report.append(String.format("%-28s %12d%n", "storage.records-parsed/s",
+                    parsed.sum() * 1_000_000_000L / load.getTotalNanos()));
+        }
+        return report.toString();
+    }
+
+    private Map<String, Long> summarize(ToLongFunction<LatencyHistogram> statistic) {
+        Map<String, Long> values = new TreeMap<>();
+        timers.forEach((name, histogram) -> values.put(name, statistic.applyAsLong(histogram)));
+        return values;
+    }
+}
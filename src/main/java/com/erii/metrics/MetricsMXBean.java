@@ -0,0 +1,50 @@
+package com.erii.metrics;
+
+import java.util.Map;
+
+/**
+ * The MetricsMXBean interface exposes the recorded metrics over JMX
+ * under the name com.erii:type=Metrics.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Returns the value of every counter.
+     *
+     * @return the counters by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns how often each timed operation ran.
+     *
+     * @return the number of runs by timer name
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Returns the median duration of each timed operation.
+     *
+     * @return the median in microseconds by timer name
+     */
+    Map<String, Long> getP50Micros();
+
+    /**
+     * Returns the 99th percentile duration of each timed operation.
+     *
+     * @return the 99th percentile in microseconds by timer name
+     */
+    Map<String, Long> getP99Micros();
+
+    /**
+     * Returns the longest duration of each timed operation.
+     *
+     * @return the maximum in microseconds by timer name
+     */
+    Map<String, Long> getMaxMicros();
+
+    /**
+     * Discards all recorded metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,281 @@
+package com.erii.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.erii.Main;
+import com.erii.data.UserStore;
+import com.erii.data.UserStores;
+import com.erii.metrics.LatencyHistogram;
+import com.erii.metrics.Metrics;
+import com.erii.user.UserDetails;
+import com.erii.util.LineReader;
+
+/**
+ * The ReplayHarness class replays a workload of typed commands through the real control panel,
+ * task manager and storage, in this process and against a data directory of its own, and
+ * reports how fast the commands ran.
+ * <p>
+ * The workload is generated, or read from a file of typed input with --input. The program
+ * starts as Main does, with a profile whose user is already registered, and the console
+ * output is discarded unless --transcript or --expect is given. The report gives the commands
+ * run per second, the p50 and p99 latency of each command type as timed by the control panel,
+ * the bytes written to storage and the bytes allocated by the replaying thread. With --warmup,
+ * a generated workload is replayed first in another directory and its metrics are dropped, so
+ * the measured run starts with compiled code.
+ * <p>
+ * With --expect, the console output is compared with a file of expected output, and the
+ * harness exits with status 1 if they differ; this is the golden output check of
+ * text-ui-test.
+ */
+public class ReplayHarness {
+    private static final int DEFAULT_COMMANDS = 10000;
+    private static final String USER_NAME = "SIYI LIU";
+    private static final String USAGE = "Usage: ReplayHarness [--commands N] [--seed S] [--warmup N] [--input FILE]"
+            + " [--save FILE] [--data DIR] [--transcript FILE] [--expect FILE]";
+
+    private int commands = DEFAULT_COMMANDS;
+    private long seed = 1;
+    private int warmup;
+    private Path inputFile;
+    private Path saveFile;
+    private Path dataDirectory;
+    private Path transcriptFile;
+    private Path expectedFile;
+
+    /**
+     * The Run class is what one replay measured.
+     */
+    private static final class Run {
+        private long nanos;
+        private long allocatedBytes;
+        private long directoryBytes;
+        private byte[] console;
+    }
+
+    public static void main(String[] args) {
+        ReplayHarness harness = new ReplayHarness();
+        try {
+            harness.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            System.exit(harness.replay() ? 0 : 1);
+        } catch (IOException e) {
+            System.out.println("An error occurred while replaying the workload: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i] + ".");
+            }
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "--commands":
+                        commands = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(value);
+                        break;
+                    case "--input":
+                        inputFile = Paths.get(value);
+                        break;
+                    case "--save":
+                        saveFile = Paths.get(value);
+                        break;
+                    case "--data":
+                        dataDirectory = Paths.get(value);
+                        break;
+                    case "--transcript":
+                        transcriptFile = Paths.get(value);
+                        break;
+                    case "--expect":
+                        expectedFile = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number for " + args[i] + ": " + value + ".");
+            }
+        }
+        if (commands < 0 || warmup < 0) {
+            throw new IllegalArgumentException("The number of commands must not be negative.");
+        }
+    }
+
+    /**
+     * Replays the workload and prints the report.
+     *
+     * @return false if the output did not match the expected output
+     * @throws IOException if a workload, data directory or output file cannot be used
+     */
+    private boolean replay() throws IOException {
+        LocalDate today = LocalDate.now();
+        Workload workload = inputFile != null ? Workload.read(inputFile) : Workload.generate(commands, seed, today);
+        if (saveFile != null) {
+            workload.write(saveFile);
+        }
+        if (warmup > 0) {
+            run(Workload.generate(warmup, seed + 1, today), null, false);
+            Metrics.get().reset();
+        }
+        boolean isCaptured = transcriptFile != null || expectedFile != null;
+        Run run = run(workload, dataDirectory, isCaptured);
+        report(run);
+        if (transcriptFile != null) {
+            Files.write(transcriptFile, run.console);
+        }
+        return expectedFile == null || matches(run.console, expectedFile);
+    }
+
+    /**
+     * Replays a workload against a data directory, or a temporary one that is deleted afterwards.
+     */
+    private static Run run(Workload workload, Path directory, boolean isCaptured) throws IOException {
+        Path data = directory != null ? directory : Files.createTempDirectory("erii-replay");
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        OutputStream sink = isCaptured ? console : OutputStream.nullOutputStream();
+        Run run = new Run();
+        try {
+            UserStores stores = new UserStores(data.toString(), Integer.getInteger("erii.users.open", 4),
+                    Main::createRepository, Main::createTaskManager);
+            // Opening and registering print nothing the replay should be judged on
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            UserStore store = stores.open(UserStores.DEFAULT_USER);
+            register(store);
+            System.setOut(new PrintStream(sink, false, StandardCharsets.UTF_8));
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            Main.run(stores, store, new LineReader(workload.toInputStream()));
+            // Writes back the profiles if the workload ended without the exit command
+            stores.closeAll();
+            run.nanos = System.nanoTime() - start;
+            run.allocatedBytes = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+            System.out.flush();
+            run.directoryBytes = sizeOf(data);
+        } finally {
+            System.setOut(stdout);
+            if (directory == null) {
+                delete(data);
+            }
+        }
+        run.console = console.toByteArray();
+        return run;
+    }
+
+    /**
+     * Registers the user of a new profile, so the replay does not start with registration.
+     */
+    private static void register(UserStore store) {
+        UserDetails userDetails = store.getUserDetails();
+        if (userDetails.getUserName() == null || userDetails.getUserName().isEmpty()) {
+            userDetails.setUserName(USER_NAME);
+            userDetails.setUserBirthday("01/01/2000");
+            userDetails.setUserGender("Female");
+            store.getStorage().saveUserDetails(userDetails);
+        }
+    }
+
+    private static void report(Run run) {
+        Map<String, Long> counts = Metrics.get().getCounts();
+        List<String> commandTimers = counts.keySet().stream()
+                .filter(name -> name.startsWith("command.") && counts.get(name) > 0)
+                .collect(Collectors.toList());
+        long commandCount = commandTimers.stream().mapToLong(counts::get).sum();
+        double seconds = run.nanos / 1e9;
+        System.out.printf("Replayed %d commands in %.3f s: %.0f commands/s%n", commandCount, seconds,
+                commandCount / Math.max(seconds, 1e-9));
+        System.out.printf("%n%-20s %8s %10s %10s %10s%n", "Command", "count", "p50 (us)", "p99 (us)", "max (us)");
+        for (String name : commandTimers) {
+            LatencyHistogram histogram = Metrics.get().timer(name);
+            System.out.printf("%-20s %8d %10d %10d %10d%n", name.substring("command.".length()),
+                    histogram.getCount(), histogram.getPercentileNanos(50) / 1000,
+                    histogram.getPercentileNanos(99) / 1000, histogram.getMaxNanos() / 1000);
+        }
+        long written = Metrics.get().getCounters().getOrDefault("storage.bytes-written", 0L);
+        System.out.printf("%nBytes written: %d (%.1f KB per command), data directory %d bytes%n", written,
+                written / 1024.0 / Math.max(commandCount, 1), run.directoryBytes);
+        if (run.allocatedBytes >= 0) {
+            System.out.printf("Allocated: %.1f MB, %.1f MB/s, %.1f KB per command%n",
+                    run.allocatedBytes / 1048576.0, run.allocatedBytes / 1048576.0 / Math.max(seconds, 1e-9),
+                    run.allocatedBytes / 1024.0 / Math.max(commandCount, 1));
+        } else {
+            System.out.println("Allocated: not measured by this JVM");
+        }
+    }
+
+    /**
+     * Compares console output with the expected output, ignoring the kind of line endings.
+     */
+    private static boolean matches(byte[] console, Path expectedFile) throws IOException {
+        String[] actual = new String(console, StandardCharsets.UTF_8).replace("\r\n", "\n").split("\n", -1);
+        String[] expected = new String(Files.readAllBytes(expectedFile), StandardCharsets.UTF_8)
+                .replace("\r\n", "\n").split("\n", -1);
+        for (int i = 0; i < Math.max(actual.length, expected.length); i++) {
+            String actualLine = i < actual.length ? actual[i] : "<end of output>";
+            String expectedLine = i < expected.length ? expected[i] : "<end of output>";
+            if (!actualLine.equals(expectedLine)) {
+                System.out.println("Output differs from " + expectedFile + " at line " + (i + 1) + ":");
+                System.out.println("  expected: " + expectedLine);
+                System.out.println("  actual:   " + actualLine);
+                return false;
+            }
+        }
+        System.out.println("Output matches " + expectedFile + ".");
+        return true;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled()) {
+                return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static long sizeOf(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+}
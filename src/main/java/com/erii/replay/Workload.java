@@ -0,0 +1,177 @@
+package com.erii.replay;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The Workload class is a script of control panel input: each menu choice followed by the
+ * lines the command asks for, exactly as a user would type them. Any file of typed input,
+ * such as one piped to the program, is a recorded workload that can be replayed.
+ * <p>
+ * Generated workloads mix the commands in the proportions of everyday use: mostly adds
+ * and searches, some marks, deletes and date queries, and an occasional full listing. Marks
+ * and deletes only name task numbers that exist at that point of the script, and date
+ * queries often name dates that tasks were added for, so they find something.
+ */
+public class Workload {
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final String[] PRIORITIES = {"SS", "S", "A", "B", "C", "D"};
+    private static final String[] VERBS = {"submit", "review", "write", "call", "buy", "fix", "plan", "prepare",
+        "read", "clean", "book", "update", "email", "check", "finish", "study"};
+    private static final String[] NOUNS = {"report", "slides", "groceries", "dentist", "budget", "essay", "code",
+        "meeting notes", "flight", "room", "invoice", "lecture", "bike", "thesis", "proposal", "taxes", "garden",
+        "library books", "lab", "presentation"};
+    private static final String[] QUALIFIERS = {"for the team", "before lunch", "with Alice", "for class",
+        "at home", "for mum", "again", "tonight", "for the club", "on campus"};
+
+    private final List<String> lines;
+
+    private Workload(List<String> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Generates a workload of the given number of commands, followed by the exit command.
+     * Deadlines and events are dated in the three months after the given day.
+     *
+     * @param commands the number of commands, not counting the exit command
+     * @param seed     the seed of the random choices, so a workload can be generated again
+     * @param today    the day the workload will be replayed on
+     * @return the workload
+     */
+    public static Workload generate(int commands, long seed, LocalDate today) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(commands * 2 + 1);
+        List<LocalDateTime> deadlines = new ArrayList<>();
+        List<LocalDate> eventDays = new ArrayList<>();
+        int taskCount = 0;
+        for (int i = 0; i < commands; i++) {
+            int kind = random.nextInt(100);
+            if (taskCount == 0 && kind >= 46) {
+                // Nothing to mark, delete or search for yet
+                kind = random.nextInt(46);
+            }
+            if (kind < 22) {
+                lines.add("2");
+                lines.add(description(random) + " /" + priority(random));
+                taskCount++;
+            } else if (kind < 36) {
+                LocalDateTime by = today.plusDays(1 + random.nextInt(90)).atTime(8 + random.nextInt(12),
+                        random.nextBoolean() ? 0 : 30);
+                deadlines.add(by);
+                lines.add("3");
+                lines.add(description(random) + " /by " + by.format(DATE_TIME) + " /" + priority(random));
+                taskCount++;
+            } else if (kind < 46) {
+                LocalDate start = today.plusDays(1 + random.nextInt(90));
+                eventDays.add(start);
+                lines.add("4");
+                lines.add(description(random) + " /from " + start.format(DATE) + " /to "
+                        + start.plusDays(random.nextInt(4)).format(DATE) + " /" + priority(random));
+                taskCount++;
+            } else if (kind < 58) {
+                lines.add("5");
+                lines.add(Integer.toString(1 + random.nextInt(taskCount)));
+            } else if (kind < 66) {
+                lines.add("6");
+                lines.add(Integer.toString(1 + random.nextInt(taskCount)));
+                taskCount--;
+            } else if (kind < 82) {
+                lines.add("8");
+                lines.add(random.nextBoolean() ? pick(random, VERBS) : pick(random, NOUNS));
+            } else if (kind < 96) {
+                lines.add("7");
+                addDateQuery(lines, random, today, deadlines, eventDays);
+            } else {
+                lines.add("1");
+            }
+        }
+        lines.add("X");
+        return new Workload(lines);
+    }
+
+    /**
+     * Adds a deadline, event or agenda query, usually for a date a task was added for.
+     */
+    private static void addDateQuery(List<String> lines, Random random, LocalDate today,
+            List<LocalDateTime> deadlines, List<LocalDate> eventDays) {
+        LocalDate day = today.plusDays(1 + random.nextInt(90));
+        int choice = random.nextInt(3);
+        if (choice == 0) {
+            LocalDateTime at = deadlines.isEmpty() || random.nextInt(4) == 0
+                    ? day.atTime(12, 0) : deadlines.get(random.nextInt(deadlines.size()));
+            lines.add("1");
+            lines.add(at.format(DATE_TIME));
+        } else if (choice == 1) {
+            if (!eventDays.isEmpty() && random.nextInt(4) != 0) {
+                day = eventDays.get(random.nextInt(eventDays.size()));
+            }
+            lines.add("2");
+            lines.add(day.format(DATE));
+        } else {
+            lines.add("3");
+            lines.add(day.format(DATE) + " " + day.plusDays(6).format(DATE));
+        }
+    }
+
+    private static String description(Random random) {
+        String description = pick(random, VERBS) + " " + pick(random, NOUNS);
+        if (random.nextInt(3) == 0) {
+            description += " " + pick(random, QUALIFIERS);
+        }
+        return description;
+    }
+
+    private static String priority(Random random) {
+        return pick(random, PRIORITIES);
+    }
+
+    private static String pick(Random random, String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+
+    /**
+     * Reads a workload from a file of typed input, one line per line typed.
+     *
+     * @param file the file
+     * @return the workload
+     * @throws IOException if the file cannot be read
+     */
+    public static Workload read(Path file) throws IOException {
+        return new Workload(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the workload to a file of typed input, so it can be replayed or piped to the program.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the workload as the bytes a user would type.
+     *
+     * @return a stream of the lines of the workload
+     */
+    public InputStream toInputStream() {
+        StringBuilder input = new StringBuilder();
+        for (String line : lines) {
+            input.append(line).append('\n');
+        }
+        return new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,480 @@
+package com.erii.server;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.data.ChangePersister;
+import com.erii.data.TaskExporter;
+import com.erii.data.TaskImporter;
+import com.erii.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The TaskServer class serves a task list over HTTP with JSON bodies, using the JDK's built-in server.
+ * <p>
+ * Endpoints, all under /tasks:
+ * <ul>
+ *     <li>GET /tasks?offset=&amp;limit= lists a page of tasks</li>
+ *     <li>POST /tasks adds a task from a JSON object in the export format</li>
+ *     <li>GET /tasks/{id} returns one task</li>
+ *     <li>POST /tasks/{id}/done marks a task as done</li>
+ *     <li>DELETE /tasks/{id} deletes a task</li>
+ *     <li>GET /tasks/search?q= finds tasks by keyword, or allowing typos with mode=fuzzy</li>
+ *     <li>GET /tasks/on?date= or ?datetime= lists events on a date or deadlines at a time</li>
+ *     <li>GET /tasks/on?from=&amp;to= lists the deadlines and events of a range of dates</li>
+ *     <li>GET /tasks/agenda?from=&amp;to= streams the deadlines and events of a range of dates, day by day</li>
+ * </ul>
+ * Every GET response carries an ETag built from the version of the task list, and a request
+ * whose If-None-Match matches the current version is answered with 304 without running the query.
+ * The version starts again from zero when the program restarts, so the ETag also names the run
+ * of the program it was given by, and a tag from an earlier run never matches.
+ */
+public class TaskServer {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 1000;
+    private static final int BACKLOG = 1024;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    // Tells the versions of this run of the program from those of earlier runs
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36)
+            + Integer.toString(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE), 36);
+
+    private final TaskManager taskManager;
+    private final ChangePersister persister;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Object writeLock = new Object();
+
+    /**
+     * Constructs a TaskServer for a task list and the persister that saves it.
+     *
+     * @param taskManager the task list to serve
+     * @param persister   the persister that changes are written through
+     * @param address     the address to listen on
+     * @param threads     the number of request threads when virtual threads are not available
+     * @throws IOException if the address cannot be bound
+     */
+    public TaskServer(TaskManager taskManager, ChangePersister persister, InetSocketAddress address, int threads)
+            throws IOException {
+        // The built-in server writes headers and body separately, which Nagle's algorithm
+        // holds back for a delayed ACK on every keep-alive request unless it is turned off
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+        this.taskManager = taskManager;
+        this.persister = persister;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.executor = createExecutor(threads);
+        server.setExecutor(executor);
+        server.createContext("/tasks", this::handle);
+    }
+
+    /**
+     * Returns the default number of request threads, twice the number of processors.
+     *
+     * @return the default number of request threads
+     */
+    public static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * Returns the address the server is listening on.
+     *
+     * @return the address of the server
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to a second for requests in progress to finish.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates the executor that runs request handlers: one virtual thread per request when the
+     * runtime has them, and a fixed pool of platform threads otherwise.
+     *
+     * @param threads the size of the fixed pool
+     * @return the request executor
+     */
+    private static ExecutorService createExecutor(int threads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = Metrics.start();
+        String route = "unknown";
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (path.length == 1 && method.equals("GET")) {
+                route = "list";
+                listTasks(exchange, query);
+            } else if (path.length == 1 && method.equals("POST")) {
+                route = "add";
+                addTask(exchange);
+            } else if (path.length == 2 && path[1].equals("search") && method.equals("GET")) {
+                route = "search";
+                searchTasks(exchange, query);
+            } else if (path.length == 2 && path[1].equals("on") && method.equals("GET")) {
+                route = "on";
+                listTasksOn(exchange, query);
+            } else if (path.length == 2 && path[1].equals("agenda") && method.equals("GET")) {
+                route = "agenda";
+                streamAgenda(exchange, query);
+            } else if (path.length == 2 && method.equals("GET")) {
+                route = "get";
+                getTask(exchange, parseId(path[1]));
+            } else if (path.length == 2 && method.equals("DELETE")) {
+                route = "delete";
+                deleteTask(exchange, parseId(path[1]));
+            } else if (path.length == 3 && path[2].equals("done") && method.equals("POST")) {
+                route = "mark";
+                markTaskAsDone(exchange, parseId(path[1]));
+            } else {
+                sendError(exchange, 404, "No such endpoint: " + method + " " + exchange.getRequestURI().getPath());
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, "An error occurred while handling the request: " + e.getMessage());
+        } finally {
+            exchange.close();
+            Metrics.time("http." + route, start);
+        }
+    }
+
+    private void listTasks(HttpExchange exchange, Map<String, String> query) throws IOException {
+        int offset = parseInt(query, "offset", 0);
+        int limit = parseLimit(query);
+        if (isNotModified(exchange, taskManager.getVersion())) {
+            return;
+        }
+        TaskManager.Snapshot snapshot = taskManager.getSnapshot();
+        sendPage(exchange, snapshot.getVersion(), snapshot.getTasks(), offset, limit);
+    }
+
+    private void searchTasks(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String keyword = query.get("q");
+        if (keyword == null) {
+            throw new IllegalArgumentException("Missing query parameter 'q'.");
+        }
+        int offset = parseInt(query, "offset", 0);
+        int limit = parseLimit(query);
+        long version = taskManager.getVersion();
+        if (isNotModified(exchange, version)) {
+            return;
+        }
+        List<Task> found = "fuzzy".equals(query.get("mode"))
+                ? taskManager.fuzzySearchTasks(keyword)
+                : taskManager.searchTasks(keyword);
+        sendPage(exchange, version, found, offset, limit);
+    }
+
+    private void listTasksOn(HttpExchange exchange, Map<String, String> query) throws IOException {
+        int offset = parseInt(query, "offset", 0);
+        int limit = parseLimit(query);
+        long version = taskManager.getVersion();
+        if (isNotModified(exchange, version)) {
+            return;
+        }
+        List<Task> found;
+        if (query.containsKey("date")) {
+            found = taskManager.getEventsOn(LocalDate.parse(query.get("date")));
+        } else if (query.containsKey("datetime")) {
+            found = taskManager.getDeadlinesAt(LocalDateTime.parse(query.get("datetime")));
+        } else if (query.containsKey("from") || query.containsKey("to")) {
+            LocalDate[] range = parseRange(query);
+            found = taskManager.getTasksBetween(range[0], range[1]);
+        } else {
+            throw new IllegalArgumentException("Missing query parameter 'date', 'datetime' or 'from' and 'to'.");
+        }
+        sendPage(exchange, version, found, offset, limit);
+    }
+
+    /**
+     * Streams the agenda of a range of dates as one JSON object, writing each day
+     * as soon as its tasks are known.
+     */
+    private void streamAgenda(HttpExchange exchange, Map<String, String> query) throws IOException {
+        LocalDate[] range = parseRange(query);
+        long version = taskManager.getVersion();
+        if (isNotModified(exchange, version)) {
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("ETag", etag(version));
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                StandardCharsets.UTF_8))) {
+            out.write("{\"version\":" + version + ",\"from\":\"" + range[0] + "\",\"to\":\"" + range[1]
+                    + "\",\"days\":[");
+            StringBuilder day = new StringBuilder(256);
+            boolean[] isFirst = {true};
+            try {
+                taskManager.forEachDayBetween(range[0], range[1], (date, dayTasks) -> {
+                    day.setLength(0);
+                    day.append(isFirst[0] ? "" : ",").append("{\"date\":\"").append(date).append("\",\"tasks\":[");
+                    for (int i = 0; i < dayTasks.size(); i++) {
+                        if (i > 0) {
+                            day.append(',');
+                        }
+                        appendTask(day, dayTasks.get(i));
+                    }
+                    day.append("]}");
+                    isFirst[0] = false;
+                    try {
+                        out.append(day);
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.write("]}");
+        }
+    }
+
+    private static LocalDate[] parseRange(Map<String, String> query) {
+        if (!query.containsKey("from") || !query.containsKey("to")) {
+            throw new IllegalArgumentException("Missing query parameter 'from' or 'to'.");
+        }
+        LocalDate from = LocalDate.parse(query.get("from"));
+        LocalDate to = LocalDate.parse(query.get("to"));
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("'to' must not be before 'from'.");
+        }
+        return new LocalDate[] {from, to};
+    }
+
+    private void getTask(HttpExchange exchange, int id) throws IOException {
+        long version = taskManager.getVersion();
+        if (isNotModified(exchange, version)) {
+            return;
+        }
+        Task task = taskManager.findTask(id);
+        if (task == null) {
+            sendError(exchange, 404, "No task with id " + id + ".");
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag(version));
+        sendTask(exchange, 200, task);
+    }
+
+    private void addTask(HttpExchange exchange) throws IOException {
+        Task task;
+        try {
+            task = TaskImporter.parseJson(readBody(exchange), taskManager);
+        } catch (IllegalArgumentException | DateTimeParseException | NullPointerException
+                | IndexOutOfBoundsException e) {
+            task = null;
+        }
+        if (task == null || task.getDescription() == null || task.getDescription().isEmpty()) {
+            sendError(exchange, 400, "Expected a task object with type, priority and description.");
+            return;
+        }
+        Task stored;
+        synchronized (writeLock) {
+            stored = taskManager.createTask(task);
+            persister.persist();
+        }
+        sendTask(exchange, stored == task ? 201 : 200, stored);
+    }
+
+    private void markTaskAsDone(HttpExchange exchange, int id) throws IOException {
+        Task task;
+        synchronized (writeLock) {
+            task = taskManager.completeTask(id);
+            persister.persist();
+        }
+        if (task == null) {
+            sendError(exchange, 404, "No task with id " + id + " that can be marked as done.");
+            return;
+        }
+        sendTask(exchange, 200, task);
+    }
+
+    private void deleteTask(HttpExchange exchange, int id) throws IOException {
+        Task task;
+        synchronized (writeLock) {
+            task = taskManager.removeTask(id);
+            persister.persist();
+        }
+        if (task == null) {
+            sendError(exchange, 404, "No task with id " + id + ".");
+            return;
+        }
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    /**
+     * Answers a GET request with 304 if its If-None-Match header names the current version.
+     *
+     * @param exchange the request
+     * @param version  the current version of the task list
+     * @return true if the response was sent
+     * @throws IOException if the response cannot be sent
+     */
+    private static boolean isNotModified(HttpExchange exchange, long version) throws IOException {
+        String tag = etag(version);
+        String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (match == null || !(match.equals(tag) || match.equals("*"))) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("ETag", tag);
+        exchange.sendResponseHeaders(304, -1);
+        return true;
+    }
+
+    private static void sendPage(HttpExchange exchange, long version, List<Task> tasks, int offset, int limit)
+            throws IOException {
+        int from = Math.min(offset, tasks.size());
+        int to = Math.min(tasks.size(), from + limit);
+        StringBuilder body = new StringBuilder(64 + (to - from) * 128);
+        body.append("{\"version\":").append(version)
+                .append(",\"total\":").append(tasks.size())
+                .append(",\"offset\":").append(offset)
+                .append(",\"limit\":").append(limit)
+                .append(",\"tasks\":[");
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                body.append(',');
+            }
+            appendTask(body, tasks.get(i));
+        }
+        body.append("]}");
+        exchange.getResponseHeaders().set("ETag", etag(version));
+        send(exchange, 200, body);
+    }
+
+    private static void sendTask(HttpExchange exchange, int status, Task task) throws IOException {
+        StringBuilder body = new StringBuilder(160);
+        appendTask(body, task);
+        send(exchange, status, body);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder body = new StringBuilder("{\"error\":");
+        TaskExporter.appendJsonString(body, message == null ? "" : message);
+        body.append('}');
+        send(exchange, status, body);
+    }
+
+    private static void appendTask(StringBuilder body, Task task) {
+        body.append("{\"id\":").append(task.getId()).append(',');
+        TaskExporter.appendJsonFields(body, task);
+        body.append('}');
+    }
+
+    private static void send(HttpExchange exchange, int status, CharSequence body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String etag(long version) {
+        return "\"" + EPOCH + "-" + version + "\"";
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is too large.");
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static int parseId(String segment) {
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid task id: " + segment);
+        }
+    }
+
+    private static int parseInt(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0) {
+                throw new IllegalArgumentException("Query parameter '" + name + "' must not be negative.");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Query parameter '" + name + "' must be a number.");
+        }
+    }
+
+    private static int parseLimit(Map<String, String> query) {
+        return Math.min(parseInt(query, "limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+    }
+}
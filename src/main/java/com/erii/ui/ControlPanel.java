@@ -4,14 +4,30 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import com.erii.user.UserDetails;
+import com.erii.core.TaskFilter;
 import com.erii.core.TaskManager;
+import com.erii.data.ChangePersister;
 import com.erii.data.DataStorage;
+import com.erii.data.ExportFormat;
+import com.erii.data.TaskExporter;
+import com.erii.data.TaskImporter;
+import com.erii.data.UserStore;
+import com.erii.data.UserStores;
 import com.erii.util.DateValidator;
 import com.erii.util.DateTimeValidator;
+import com.erii.util.LineReader;
 import com.erii.exception.DateTimeNotAfterCurrentTimeException;
+import com.erii.metrics.Metrics;
 
 /**
  * The ControlPanel class represents the user interface control panel for managing tasks.
@@ -21,7 +37,11 @@ import com.erii.exception.DateTimeNotAfterCurrentTimeException;
 public class ControlPanel {
     private TaskManager taskManager;
     private DataStorage storage;
+    private ChangePersister persister;
     private UserDetails userDetails;
+    private UserStores stores;
+    private final LineReader input;
+    private long inputWaitNanos;
 
     /**
      * Constructs a ControlPanel object with the specified task manager, data storage, and user details.
@@ -31,74 +51,246 @@ public class ControlPanel {
      * @param userDetails the user details to be used
      */
     public ControlPanel(TaskManager taskManager, DataStorage storage, UserDetails userDetails) {
+        this(taskManager, storage, new ChangePersister(taskManager, storage), userDetails, LineReader.standardInput());
+    }
+
+    private ControlPanel(TaskManager taskManager, DataStorage storage, ChangePersister persister,
+            UserDetails userDetails, LineReader input) {
         this.taskManager = taskManager;
         this.storage = storage;
+        this.persister = persister;
         this.userDetails = userDetails;
+        this.input = input;
+        userDetails.setReader(input);
+    }
+
+    /**
+     * Constructs a ControlPanel object that starts with the given user store
+     * and can switch to the other profiles of the given user stores.
+     *
+     * @param stores the user stores to switch between
+     * @param store  the store of the current user
+     */
+    public ControlPanel(UserStores stores, UserStore store) {
+        this(stores, store, LineReader.standardInput());
+    }
+
+    /**
+     * Constructs a ControlPanel object that starts with the given user store, can switch to
+     * the other profiles of the given user stores, and reads its commands from the given reader.
+     *
+     * @param stores the user stores to switch between
+     * @param store  the store of the current user
+     * @param input  the reader of the commands
+     */
+    public ControlPanel(UserStores stores, UserStore store, LineReader input) {
+        this(store.getTaskManager(), store.getStorage(), store.getPersister(), store.getUserDetails(), input);
+        this.stores = stores;
     }
 
     /**
      * Starts the control panel and handles user input.
      */
     public void start() {
-        try (Scanner scanner = new Scanner(System.in)) {
-            menu();
+        menu();
 
-            while (scanner.hasNextLine()) {
-                String choice = scanner.nextLine().trim();
-
-                switch (choice) {
-                    case "1":
-                        listTasks();
-                        break;
-                    case "2":
-                        System.out.println("\nPlease enter the task description and priority (e.g., slain a dragon /S):");
-                        String inputAddTask = scanner.nextLine().trim();
-                        addTodoTask(inputAddTask);
-                        break;
-                    case "3":
-                        System.out.println("\nPlease enter the deadline task description, deadline date and priority (e.g., submit report /by 2021-09-30 18:30 /SS):");
-                        String inputAddDeadline = scanner.nextLine().trim();
-                        addDeadlineTask(inputAddDeadline);
-                        break;
-                    case "4":
-                        System.out.println("\nPlease enter the event description, start date, end date and priority (e.g., project meeting /from 2021-09-30 /to 2021-10-01 /S):");
-                        String inputAddEvent = scanner.nextLine().trim();
-                        addEventTask(inputAddEvent);
-                        break;
-                    case "5":
-                        System.out.println("\nPlease enter the task number to mark as done:");
-                        String inputMark = scanner.nextLine().trim();
-                        markTaskAsDone(inputMark);
-                        break;
-                    case "6":
-                        System.out.println("\nChoose the task you want to delete: ");
-                        String inputDelete = scanner.nextLine().trim();
-                        deleteTask(inputDelete);
-                        break;
-                    case "7": 
-                        searchByDate(scanner);
-                        break;
-                    case "8": 
-                        System.out.println("\nEnter a keyword to search for tasks:");
-                        String keyword = scanner.nextLine().trim();
-                        taskManager.findTasks(keyword);
-                        break;
-                    case "X":
-                        System.out.println("\nSaving changes...");
-                        System.out.println("----------------------------------");
-                        storage.saveUserDetails(userDetails);
-                        System.out.println("\nChanges saved. Exiting.");
-                        System.out.println("----------------------------------");
-                        System.out.println("\nThank you for using Erii. さよなら!");
-                        scanner.close();
-                        return;
-                    default:
-                        System.out.println("\nUnknown command. Please try again.");
-                        break;
-                }
+        String line;
+        while ((line = input.readLine()) != null) {
+            String choice = line.trim();
+            long start = Metrics.start();
+            inputWaitNanos = 0;
 
-                menu();
+            switch (choice) {
+                case "1":
+                    listTasks();
+                    break;
+                case "2":
+                    System.out.println("\nPlease enter the task description and priority (e.g., slain a dragon /S):");
+                    String inputAddTask = readLine();
+                    addTodoTask(inputAddTask);
+                    break;
+                case "3":
+                    System.out.println("\nPlease enter the deadline task description, deadline date and priority (e.g., submit report /by 2021-09-30 18:30 /SS):");
+                    String inputAddDeadline = readLine();
+                    addDeadlineTask(inputAddDeadline);
+                    break;
+                case "4":
+                    System.out.println("\nPlease enter the event description, start date, end date and priority (e.g., project meeting /from 2021-09-30 /to 2021-10-01 /S):");
+                    String inputAddEvent = readLine();
+                    addEventTask(inputAddEvent);
+                    break;
+                case "5":
+                    System.out.println("\nPlease enter the task number to mark as done:");
+                    String inputMark = readLine();
+                    markTaskAsDone(inputMark);
+                    break;
+                case "6":
+                    System.out.println("\nChoose the task you want to delete: ");
+                    String inputDelete = readLine();
+                    deleteTask(inputDelete);
+                    break;
+                case "7": 
+                    searchByDate();
+                    break;
+                case "8": 
+                    System.out.println("\nEnter a keyword to search for tasks:");
+                    String keyword = readLine();
+                    taskManager.findTasks(keyword);
+                    break;
+                case "F":
+                    System.out.println("\nEnter the words to search for; small typos are allowed:");
+                    taskManager.fuzzyFindTasks(readLine());
+                    break;
+                case "T":
+                    System.out.println("\nPlease enter the task number and its tags (e.g., 3 #ops #urgent):");
+                    tagTask(readLine());
+                    break;
+                case "G":
+                    System.out.println("\nPlease enter a filter (e.g., tag:ops AND priority<=S AND NOT done):");
+                    filterTasks(readLine());
+                    break;
+                case "D":
+                    System.out.println("\nPlease enter the task number and the number of the task it waits for"
+                            + " (e.g., 3 1), or remove followed by both numbers to stop it waiting:");
+                    changeDependency(readLine());
+                    break;
+                case "N":
+                    taskManager.listReadyTasks();
+                    break;
+                case "Q":
+                    System.out.println("\nPlease enter a query (e.g., priority<=S NOT done date>=2021-09-01 order by date limit 5),"
+                            + " or explain followed by a query to see how it runs:");
+                    queryTasks(readLine());
+                    break;
+                case "A":
+                    System.out.println("\nPlease enter a query for the archive (e.g., text:report date<2021-01-01),"
+                            + " or now to archive completed and past tasks now:");
+                    searchArchive(readLine());
+                    break;
+                case "U":
+                    if (taskManager.undo()) {
+                        saveChanges();
+                    }
+                    break;
+                case "R":
+                    if (taskManager.redo()) {
+                        saveChanges();
+                    }
+                    break;
+                case "S":
+                    switchUser();
+                    break;
+                case "E":
+                    System.out.println("\nPlease enter the file to export to (.jsonl for JSON Lines, .csv for CSV):");
+                    exportTasks(readLine());
+                    break;
+                case "I":
+                    System.out.println("\nPlease enter the file to import from (.jsonl for JSON Lines, .csv for CSV):");
+                    importTasks(readLine());
+                    break;
+                case "Y":
+                case "summary":
+                    showSummary();
+                    break;
+                case "M":
+                case "stats":
+                    System.out.println("\nPerformance statistics:");
+                    System.out.print(Metrics.get().report());
+                    System.out.println("____________________________________________________________");
+                    break;
+                case "X":
+                    System.out.println("\nSaving changes...");
+                    System.out.println("----------------------------------");
+                    storage.saveUserDetails(userDetails);
+                    if (stores != null) {
+                        stores.closeAll();
+                    } else {
+                        persister.close();
+                        storage.close();
+                    }
+                    System.out.println("\nChanges saved. Exiting.");
+                    System.out.println("----------------------------------");
+                    System.out.println("\nThank you for using Erii. さよなら!");
+                    return;
+                default:
+                    System.out.println("\nUnknown command. Please try again.");
+                    break;
             }
+            Metrics.get().timer("command." + commandName(choice)).record(System.nanoTime() - start - inputWaitNanos);
+
+            menu();
+        }
+    }
+
+    /**
+     * Reads the next line of input for the current command. The time spent waiting for
+     * the line is excluded from the command's latency.
+     *
+     * @return the trimmed line
+     */
+    private String readLine() {
+        long start = System.nanoTime();
+        String line = input.nextLine().trim();
+        inputWaitNanos += System.nanoTime() - start;
+        return line;
+    }
+
+    /**
+     * Returns the name a menu choice is timed under.
+     *
+     * @param choice the menu choice
+     * @return the command name
+     */
+    private static String commandName(String choice) {
+        switch (choice) {
+            case "1":
+                return "list";
+            case "2":
+                return "add-todo";
+            case "3":
+                return "add-deadline";
+            case "4":
+                return "add-event";
+            case "5":
+                return "mark";
+            case "6":
+                return "delete";
+            case "7":
+                return "date-search";
+            case "8":
+                return "find";
+            case "F":
+                return "fuzzy-find";
+            case "T":
+                return "tag";
+            case "G":
+                return "filter";
+            case "D":
+                return "depend";
+            case "N":
+                return "ready";
+            case "Q":
+                return "query";
+            case "A":
+                return "archive";
+            case "U":
+                return "undo";
+            case "R":
+                return "redo";
+            case "S":
+                return "switch-user";
+            case "E":
+                return "export";
+            case "I":
+                return "import";
+            case "Y":
+            case "summary":
+                return "summary";
+            case "M":
+            case "stats":
+                return "stats";
+            default:
+                return "unknown";
         }
     }
 
@@ -115,10 +307,41 @@ public class ControlPanel {
         System.out.println("6. Delete a task");
         System.out.println("7. List tasks on a specific date");
         System.out.println("8. Search for a task by keyword");
+        System.out.println("F. Fuzzy search for a task, allowing typos");
+        System.out.println("T. Tag a task");
+        System.out.println("G. Filter tasks by tags, priority, type and status");
+        System.out.println("Q. Query tasks, or explain how a query runs");
+        System.out.println("D. Make a task wait for another task");
+        System.out.println("N. List the tasks you can start now");
+        System.out.println("A. Search the archive of completed and past tasks");
+        System.out.println("U. Undo the last change");
+        System.out.println("R. Redo the last undone change");
+        System.out.println("S. Switch user");
+        System.out.println("E. Export tasks to JSON Lines or CSV");
+        System.out.println("I. Import tasks from JSON Lines or CSV");
+        System.out.println("Y. Show a summary of your tasks");
+        System.out.println("M. Show performance statistics");
         System.out.println("X. Exit");
         System.out.print("Enter the symbol corresponding to your choice: \n");
     }
 
+    /**
+     * Saves the task changes made by the last command, and the undo history if it is persisted.
+     */
+    private void saveChanges() {
+        persister.persist();
+        saveHistory();
+    }
+
+    /**
+     * Saves the undo history if it is persisted.
+     */
+    private void saveHistory() {
+        if (taskManager.getHistory().isPersistent()) {
+            storage.saveHistory(taskManager);
+        }
+    }
+
     /**
      * Lists all tasks.
      */
@@ -138,6 +361,9 @@ public class ControlPanel {
             return;
         }
         String description = parts[0];
+        if (!isValidDescription(description)) {
+            return;
+        }
         TaskManager.Priority priority;
         try {
             priority = TaskManager.Priority.valueOf(parts[1].trim().toUpperCase());
@@ -145,8 +371,25 @@ public class ControlPanel {
             System.out.println("\nInvalid priority. Please enter a valid priority value (SS, S, A, B, C, D, E).");
             return;
         }
-        taskManager.addTask(taskManager.new Todo("Todo", description, priority));
-        storage.saveTasks(taskManager.getAllTasks());
+        TaskManager.Todo todo = taskManager.new Todo("Todo", description, priority);
+        taskManager.addTask(todo);
+        saveChanges();
+    }
+
+    /**
+     * Checks that a description can be saved, and tells the user if it cannot.
+     *
+     * @param description the description of a new task
+     * @return true if the description can be saved
+     */
+    private boolean isValidDescription(String description) {
+        try {
+            TaskManager.validateDescription(description);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println("\nInvalid description: " + e.getMessage());
+            return false;
+        }
     }
 
     /**
@@ -161,6 +404,9 @@ public class ControlPanel {
             return;
         }
         String description = parts[0];
+        if (!isValidDescription(description)) {
+            return;
+        }
         String dateTimeString = parts[1]; 
         LocalDateTime by;
         try {
@@ -179,8 +425,9 @@ public class ControlPanel {
         TaskManager.Priority priority;
         try {
             priority = TaskManager.Priority.valueOf(parts[2].trim().toUpperCase());
-            taskManager.addTask(taskManager.new Deadline("Deadline", description, by, priority));
-            storage.saveTasks(taskManager.getAllTasks());
+            TaskManager.Deadline deadline = taskManager.new Deadline("Deadline", description, by, priority);
+            taskManager.addTask(deadline);
+            saveChanges();
         } catch (IllegalArgumentException e) {
             System.out.println("\nInvalid priority. Please enter a valid priority value (SS, S, A, B, C, D, E).");
             return;
@@ -199,6 +446,9 @@ public class ControlPanel {
             return;
         }
         String description = parts[0];
+        if (!isValidDescription(description)) {
+            return;
+        }
         String startDateString = parts[1];
         String endDateString = parts[2];
         TaskManager.Priority priority;
@@ -212,8 +462,9 @@ public class ControlPanel {
                 throw new DateTimeNotAfterCurrentTimeException("\nThe end date must be after the start date.");
             }
             priority = TaskManager.Priority.valueOf(parts[3].trim().toUpperCase());
-            taskManager.addTask(taskManager.new Event("Event", description, startDate, endDate, priority));
-            storage.saveTasks(taskManager.getAllTasks());
+            TaskManager.Event event = taskManager.new Event("Event", description, startDate, endDate, priority);
+            taskManager.addTask(event);
+            saveChanges();
         } catch (DateTimeParseException e) {
             System.out.println("\nInvalid date format. Please enter the date in yyyy-MM-dd format.");
             return;
@@ -241,12 +492,134 @@ public class ControlPanel {
                 return;
             }
             taskManager.markTaskAsDone(taskNumber);
-            storage.saveTasks(taskManager.getAllTasks());
+            saveChanges();
+        } catch (NumberFormatException e) {
+            System.out.println("\nPlease enter a valid task number.");
+        }
+    }
+
+    /**
+     * Replaces the tags of a task with the given input.
+     *
+     * @param input the input string containing the task number followed by the tags
+     */
+    private void tagTask(String input) {
+        String[] parts = input.split("\\s+", 2);
+        try {
+            int taskNumber = Integer.parseInt(parts[0]) - 1;
+            if (taskNumber < 0 || taskNumber >= taskManager.listSize()) {
+                System.out.println("\nTask number is out of range. Please enter a valid task number.");
+                System.out.println("\nCurrent number of tasks: " + taskManager.listSize());
+                return;
+            }
+            taskManager.tagTask(taskNumber, TaskManager.parseTags(parts.length > 1 ? parts[1] : ""));
+            saveChanges();
         } catch (NumberFormatException e) {
             System.out.println("\nPlease enter a valid task number.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("\nInvalid tag: " + e.getMessage());
         }
     }
 
+    /**
+     * Lists the tasks selected by a filter expression.
+     *
+     * @param expression the filter expression
+     */
+    private void filterTasks(String expression) {
+        try {
+            taskManager.listFilteredTasks(expression);
+        } catch (IllegalArgumentException e) {
+            System.out.println("\nInvalid filter: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds or removes a dependency with the given input.
+     *
+     * @param input the number of the task that waits and of the task it waits for,
+     *              after "remove" to remove the dependency
+     */
+    private void changeDependency(String input) {
+        String[] parts = input.split("\\s+");
+        boolean isRemoving = parts[0].equalsIgnoreCase("remove");
+        try {
+            if (parts.length != (isRemoving ? 3 : 2)) {
+                throw new NumberFormatException();
+            }
+            int taskNumber = Integer.parseInt(parts[isRemoving ? 1 : 0]) - 1;
+            int blockerNumber = Integer.parseInt(parts[isRemoving ? 2 : 1]) - 1;
+            if (taskNumber < 0 || taskNumber >= taskManager.listSize()
+                    || blockerNumber < 0 || blockerNumber >= taskManager.listSize()) {
+                System.out.println("\nTask number is out of range. Please enter a valid task number.");
+                System.out.println("\nCurrent number of tasks: " + taskManager.listSize());
+                return;
+            }
+            if (isRemoving) {
+                taskManager.removeDependency(taskNumber, blockerNumber);
+            } else {
+                taskManager.addDependency(taskNumber, blockerNumber);
+            }
+            saveChanges();
+        } catch (NumberFormatException e) {
+            System.out.println("\nPlease enter two valid task numbers.");
+        }
+    }
+
+    /**
+     * Runs a query, or explains how it runs if it starts with "explain".
+     *
+     * @param input the query
+     */
+    private void queryTasks(String input) {
+        queryTasks(taskManager, input);
+    }
+
+    /**
+     * Runs a query against a task manager, or explains how it runs if it starts with "explain".
+     *
+     * @param tasks the task manager to query
+     * @param input the query
+     */
+    private void queryTasks(TaskManager tasks, String input) {
+        try {
+            if (input.regionMatches(true, 0, "explain", 0, 7)
+                    && (input.length() == 7 || Character.isWhitespace(input.charAt(7)))) {
+                tasks.explainQuery(input.substring(7));
+            } else {
+                tasks.listQuery(input);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("\nInvalid query: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a query against the archived tasks, or archives the tasks selected by the
+     * archive policy if the input is "now".
+     *
+     * @param input the query, or "now"
+     */
+    private void searchArchive(String input) {
+        if (!input.equalsIgnoreCase("now")) {
+            queryTasks(storage.getArchive().getTaskManager(), input);
+            return;
+        }
+        if (taskManager.getArchivePolicy() == null) {
+            System.out.println("\nArchiving is turned off.");
+            return;
+        }
+        int archived = taskManager.archiveTasks(LocalDate.now(), storage.getArchive()::append).size();
+        if (archived == 0) {
+            System.out.println("\nNo tasks are ready to be archived.");
+            return;
+        }
+        saveChanges();
+        System.out.println("\nMoved " + archived + " completed and past tasks to the archive.");
+        System.out.println("\nNow you have " + taskManager.listSize() + " tasks in the list.");
+        System.out.println("____________________________________________________________");
+    }
+
     /**
      * Deletes a task with the given input.
      *
@@ -261,24 +634,129 @@ public class ControlPanel {
                 return;
             }
             taskManager.deleteTask(taskNumber);
-            storage.saveTasks(taskManager.getAllTasks());
+            saveChanges();
         } catch (NumberFormatException e) {
             System.out.println("\nPlease enter a valid task number.");
         }
     }
 
+    /**
+     * Shows how many tasks there are of each type and priority, how many are overdue,
+     * and how many are due in each of the next four weeks.
+     */
+    private void showSummary() {
+        Map<String, Integer> byType = taskManager.countTasks(new TaskFilter(), TaskManager.GroupBy.TYPE);
+        Map<String, Integer> doneByType = taskManager.countTasks(new TaskFilter().done(true), TaskManager.GroupBy.TYPE);
+        List<String> types = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : byType.entrySet()) {
+            types.add(entry.getKey() + " " + entry.getValue() + " (" + doneByType.get(entry.getKey()) + " done)");
+            total += entry.getValue();
+        }
+        List<String> priorities = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry
+                : taskManager.countTasks(new TaskFilter().done(false), TaskManager.GroupBy.PRIORITY).entrySet()) {
+            priorities.add(entry.getKey() + " " + entry.getValue());
+        }
+        LocalDateTime now = LocalDateTime.now();
+        int overdue = taskManager.countTasks(new TaskFilter().overdueAt(now));
+        double overdueRatio = taskManager.getOverdueRatio(new TaskFilter(), now);
+        List<String> weeks = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : taskManager.countTasks(new TaskFilter().done(false)
+                .dueBetween(now.toLocalDate(), now.toLocalDate().plusWeeks(4)), TaskManager.GroupBy.WEEK).entrySet()) {
+            weeks.add(entry.getKey() + " " + entry.getValue());
+        }
+
+        System.out.println("\nSummary of your " + total + " tasks:");
+        System.out.println("By type: " + String.join(", ", types));
+        System.out.println("Not done, by priority: " + String.join(", ", priorities));
+        System.out.println("Overdue: " + overdue + " (" + Math.round(overdueRatio * 100)
+                + "% of the deadlines and events not done)");
+        System.out.println("Due in the next four weeks, by week: "
+                + (weeks.isEmpty() ? "nothing" : String.join(", ", weeks)));
+        System.out.println("____________________________________________________________");
+    }
+
+    /**
+     * Exports all tasks to a file, in the format given by its extension.
+     *
+     * @param fileName the file to export to
+     */
+    private void exportTasks(String fileName) {
+        ExportFormat format = ExportFormat.fromFileName(fileName);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // The shared journal may change the list while the file is written, so a snapshot is exported
+            long count = new TaskExporter().export(taskManager.getSnapshot().getTasks(), format, channel);
+            System.out.println("\nExported " + count + " tasks to " + fileName + ".");
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("\nAn error occurred while exporting tasks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Imports tasks from a file, in the format given by its extension.
+     * The imported tasks are added as one change that can be undone in a single step.
+     *
+     * @param fileName the file to import from
+     */
+    private void importTasks(String fileName) {
+        ExportFormat format = ExportFormat.fromFileName(fileName);
+        List<TaskManager.Task> imported = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            new TaskImporter().importTasks(channel, format, taskManager, imported::add);
+        } catch (IOException | InvalidPathException e) {
+            System.out.println("\nAn error occurred while importing tasks: " + e.getMessage());
+            return;
+        }
+        if (imported.isEmpty()) {
+            System.out.println("\nNo tasks were imported.");
+            return;
+        }
+        taskManager.addTasks(imported);
+        saveChanges();
+    }
+
+    /**
+     * Switches to the task store of another user profile.
+     * Only the chosen user's data is loaded, and only the first time it is used.
+     */
+    private void switchUser() {
+        if (stores == null) {
+            System.out.println("\nSwitching users is not available.");
+            return;
+        }
+        System.out.println("\nPlease enter the name of the user to switch to (leave empty for the default user):");
+        String name = readLine();
+        storage.saveUserDetails(userDetails);
+        UserStore store = stores.open(name);
+        taskManager = store.getTaskManager();
+        storage = store.getStorage();
+        persister = store.getPersister();
+        userDetails = store.getUserDetails();
+        userDetails.setReader(input);
+        if (userDetails.getUserName().isEmpty()) {
+            userDetails.setUserName(name);
+            storage.saveUserDetails(userDetails);
+        }
+        String displayName = userDetails.getUserName().isEmpty() ? "the default user" : userDetails.getUserName();
+        System.out.println("\nSwitched to " + displayName + ".");
+        taskManager.listTasks();
+    }
+
     /**
      * Lists tasks on a specific date.
      *
      * @param date the date to list tasks on
      */
-    private void searchByDate(Scanner scanner) {
+    private void searchByDate() {
 
         System.out.println("\nPlease select the type of task to search:");
         System.out.println("1. Deadline Task");
         System.out.println("2. Event Task");
-        System.out.print("Your choice (1/2): ");
-        String choice = scanner.nextLine().trim();
+        System.out.println("3. All deadline and event tasks in a date range, day by day");
+        System.out.print("Your choice (1/2/3): ");
+        String choice = readLine();
 
         switch (choice) {
             case "1": // Deadline task
@@ -289,18 +767,36 @@ public class ControlPanel {
                 System.out.println("\nPlease enter the date in yyyy-MM-dd format to list event tasks.");
                 System.out.println("For example, 2021-09-30.");
                 break;
+            case "3": // Agenda
+                System.out.println("\nPlease enter the first and last date in yyyy-MM-dd format to list the agenda.");
+                System.out.println("For example, 2021-09-27 2021-10-03.");
+                break;
             default:
-                System.out.println("\nInvalid choice. Please enter 1 or 2.");
+                System.out.println("\nInvalid choice. Please enter 1, 2 or 3.");
                 return;
         }
 
-        String dateString = scanner.nextLine().trim();
+        String dateString = readLine();
 
         try {
             if ("1".equals(choice)) {
                 LocalDateTime date = LocalDateTime.parse(dateString, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
                 taskManager.listTasksOn(date);
                 return;
+            } else if ("3".equals(choice)) {
+                String[] dates = dateString.split("\\s+");
+                if (dates.length != 2) {
+                    System.out.println("\nPlease enter exactly two dates separated by a space.");
+                    return;
+                }
+                LocalDate from = LocalDate.parse(dates[0], DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+                LocalDate to = LocalDate.parse(dates[1], DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+                if (to.isBefore(from)) {
+                    System.out.println("\nThe last date must not be before the first date.");
+                    return;
+                }
+                taskManager.listAgenda(from, to);
+                return;
             } else {
                 LocalDate date = LocalDate.parse(dateString, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
                 taskManager.listTasksOn(date); 
@@ -1,9 +1,10 @@
 package com.erii.user;
 
-import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.erii.util.LineReader;
+
 
 /**
  * The UserDetails class represents the details of a user.
@@ -13,7 +14,7 @@ public class UserDetails {
     private String userName = "";
     private String userBirthday = "";
     private String userGender = "";
-    private Scanner scanner = new Scanner(System.in);
+    private LineReader reader = LineReader.standardInput();
 
     /**
      * Constructs a new UserDetails instance.
@@ -22,6 +23,15 @@ public class UserDetails {
         // Constructor to initialize the UserDetails instance
     }
 
+    /**
+     * Sets the reader the input methods read from, which is standard input until it is set.
+     * 
+     * @param reader the reader of the user's input
+     */
+    public void setReader(LineReader reader) {
+        this.reader = reader;
+    }
+
     /**
      * Sets the user name.
      * 
@@ -84,7 +94,7 @@ public class UserDetails {
         String name;
 
         while (true) {
-            name = scanner.nextLine().trim();
+            name = reader.nextLine().trim();
             if (name.split("\\s+").length >= 2) {
                 this.userName = name;
                 break;
@@ -103,7 +113,7 @@ public class UserDetails {
         Pattern datePattern = Pattern.compile("^\\d{2}/\\d{2}/\\d{4}$");
 
         while (true) {
-            birthday = scanner.nextLine().trim();
+            birthday = reader.nextLine().trim();
             Matcher matcher = datePattern.matcher(birthday);
             if (matcher.matches()) {
                 this.userBirthday = birthday;
@@ -125,7 +135,7 @@ public class UserDetails {
         String gender = "";
 
         while (true) {
-            String input = scanner.nextLine().trim();
+            String input = reader.nextLine().trim();
             switch (input) {
                 case "1":
                     gender = "Male";
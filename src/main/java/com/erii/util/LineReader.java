@@ -0,0 +1,137 @@
+package com.erii.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * The LineReader class reads lines of input through one large buffer.
+ * <p>
+ * Every prompt reads standard input through the same reader, so no prompt can buffer ahead
+ * and take the lines meant for another, as separate Scanners on System.in do when input is
+ * piped. Lines are found by scanning the buffer for newline bytes and are decoded as UTF-8
+ * straight from it, without regular expressions; only the start of a line that runs past the
+ * end of the buffer is moved, to the front of the buffer, before more input is read.
+ */
+public class LineReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static LineReader standardInput;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean isEnded;
+
+    /**
+     * Constructs a LineReader that reads from a stream.
+     *
+     * @param in the stream to read from
+     */
+    public LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Constructs a LineReader that reads from a channel.
+     *
+     * @param channel the channel to read from
+     */
+    public LineReader(ReadableByteChannel channel) {
+        this(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Returns the reader of standard input shared by all prompts.
+     *
+     * @return the reader of standard input
+     */
+    public static synchronized LineReader standardInput() {
+        if (standardInput == null) {
+            standardInput = new LineReader(System.in);
+        }
+        return standardInput;
+    }
+
+    /**
+     * Reads the next line, without its line terminator.
+     *
+     * @return the line, or null at the end of the input
+     * @throws UncheckedIOException if the input cannot be read
+     */
+    public synchronized String readLine() {
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    String line = decode(position, i);
+                    position = i + 1;
+                    return line;
+                }
+            }
+            if (isEnded) {
+                if (position == limit) {
+                    return null;
+                }
+                String line = decode(position, limit);
+                position = limit;
+                return line;
+            }
+            scanned = limit - position;
+            fill();
+        }
+    }
+
+    /**
+     * Reads the next line, without its line terminator.
+     *
+     * @return the line
+     * @throws NoSuchElementException if the input has ended
+     * @throws UncheckedIOException   if the input cannot be read
+     */
+    public String nextLine() {
+        String line = readLine();
+        if (line == null) {
+            throw new NoSuchElementException("No line found");
+        }
+        return line;
+    }
+
+    private String decode(int from, int to) {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, growing it if they fill it,
+     * and reads more input after them.
+     */
+    private void fill() {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+        try {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                isEnded = true;
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
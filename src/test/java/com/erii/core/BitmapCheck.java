@@ -0,0 +1,303 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.replay.Checks;
+
+/**
+ * The BitmapCheck class checks the id bitmaps against a TreeSet, with sets both sparse and dense
+ * enough to move between array and bitmap containers. It then checks filter expressions, answered
+ * from the bitmap indexes of a task list, against the same conditions tested on every task. The
+ * list is changed between filters by adds, removes, marks, tags and undos.
+ */
+public final class BitmapCheck {
+    private static final int SET_ROUNDS = 60;
+    private static final int FILTER_ROUNDS = 400;
+    private static final String[] TAGS = {"ops", "home", "work"};
+    private static final String[] OPERATORS = {"<=", ">=", "<", ">", "=", ":"};
+    private static final TaskManager.Priority[] PRIORITIES = TaskManager.Priority.values();
+
+    private BitmapCheck() {
+    }
+
+    /**
+     * The Filter class is a filter expression and the condition it stands for.
+     */
+    private static final class Filter {
+        private final String expression;
+        private final Predicate<Task> condition;
+
+        private Filter(String expression, Predicate<Task> condition) {
+            this.expression = expression;
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     */
+    public static void run(Checks checks) {
+        Random random = new Random(41);
+        for (int round = 0; round < SET_ROUNDS; round++) {
+            checkSets(checks, random, round);
+        }
+        checkFilters(checks, random);
+    }
+
+    private static void checkSets(Checks checks, Random random, int round) {
+        IdBitmap a = new IdBitmap();
+        IdBitmap b = new IdBitmap();
+        TreeSet<Integer> modelA = new TreeSet<>();
+        TreeSet<Integer> modelB = new TreeSet<>();
+        // Enough ids in one container to pass ARRAY_MAX, then enough removes to fall back under it
+        int adds = random.nextInt(3 * IdBitmap.ARRAY_MAX);
+        for (int i = 0; i < adds; i++) {
+            int id = randomId(random);
+            a.add(id);
+            modelA.add(id);
+            id = randomId(random);
+            b.add(id);
+            modelB.add(id);
+        }
+        int removes = random.nextInt(adds + 1);
+        for (int i = 0; i < removes; i++) {
+            Integer present = modelA.ceiling(randomId(random));
+            int id = random.nextBoolean() && present != null ? present : randomId(random);
+            a.remove(id);
+            modelA.remove(id);
+        }
+        checkSet(checks, a, modelA, "round " + round + ": a");
+        checkSet(checks, b, modelB, "round " + round + ": b");
+
+        TreeSet<Integer> and = new TreeSet<>(modelA);
+        and.retainAll(modelB);
+        TreeSet<Integer> or = new TreeSet<>(modelA);
+        or.addAll(modelB);
+        TreeSet<Integer> andNot = new TreeSet<>(modelA);
+        andNot.removeAll(modelB);
+        checkSet(checks, IdBitmap.and(a, b), and, "round " + round + ": a AND b");
+        checkSet(checks, IdBitmap.or(a, b), or, "round " + round + ": a OR b");
+        checkSet(checks, IdBitmap.andNot(a, b), andNot, "round " + round + ": a AND NOT b");
+        checkSet(checks, IdBitmap.and(a, a), modelA, "round " + round + ": a AND a");
+        checkSet(checks, IdBitmap.andNot(a, a), new TreeSet<>(), "round " + round + ": a AND NOT a");
+
+        IdBitmap copy = a.copy();
+        int extra = randomId(random);
+        copy.add(extra);
+        checks.equal(modelA.contains(extra), a.contains(extra), "round " + round + ": a changed with its copy");
+        for (int id : new ArrayList<>(modelA)) {
+            copy.remove(id);
+        }
+        checkSet(checks, a, modelA, "round " + round + ": a after its copy was emptied");
+        TreeSet<Integer> rest = new TreeSet<>();
+        if (!modelA.contains(extra)) {
+            rest.add(extra);
+        }
+        checkSet(checks, copy, rest, "round " + round + ": emptied copy");
+
+        // The consumer stops the walk at the limit-th id, or at the first if the limit is 0
+        List<Integer> visited = new ArrayList<>();
+        int limit = random.nextInt(modelA.size() + 1);
+        boolean isFinished = a.forEachWhile(id -> {
+            visited.add(id);
+            return visited.size() < limit;
+        });
+        List<Integer> expected = new ArrayList<>(modelA).subList(0, modelA.isEmpty() ? 0 : Math.max(limit, 1));
+        checks.equal(expected, visited, "round " + round + ": ids visited until the consumer stopped");
+        checks.equal(modelA.isEmpty(), isFinished, "round " + round + ": whether the walk finished");
+    }
+
+    private static void checkSet(Checks checks, IdBitmap bitmap, TreeSet<Integer> model, String what) {
+        List<Integer> ids = new ArrayList<>();
+        bitmap.forEach(ids::add);
+        checks.that(ids.equals(new ArrayList<>(model)), what + ": " + ids.size() + " ids, " + model.size()
+                + " expected, or not the same ids in increasing order");
+        checks.equal(model.size(), bitmap.cardinality(), what + ": cardinality");
+        checks.equal(model.isEmpty(), bitmap.isEmpty(), what + ": whether it is empty");
+        Random random = new Random(model.size());
+        for (int i = 0; i < 50; i++) {
+            int id = randomId(random);
+            checks.equal(model.contains(id), bitmap.contains(id), what + ": contains " + id);
+            Integer next = model.ceiling(id);
+            checks.equal(next == null ? -1 : next, bitmap.nextId(id), what + ": next id from " + id);
+        }
+    }
+
+    /**
+     * Returns an id mostly from the first container, so it fills up, and otherwise from anywhere.
+     */
+    private static int randomId(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(Integer.MAX_VALUE);
+            case 1:
+                return (random.nextInt(4) << 16) + random.nextInt(200);
+            default:
+                return random.nextInt(1 << 14);
+        }
+    }
+
+    private static void checkFilters(Checks checks, Random random) {
+        TaskManager taskManager = new TaskManager();
+        for (int i = 0; i < 300; i++) {
+            taskManager.addTask(newTask(taskManager, random, i));
+        }
+        for (int round = 0; round < FILTER_ROUNDS; round++) {
+            change(taskManager, random, round);
+            Filter filter = randomFilter(random, 3);
+            List<Task> expected = new ArrayList<>();
+            for (Task task : taskManager.getAllTasks()) {
+                if (filter.condition.test(task)) {
+                    expected.add(task);
+                }
+            }
+            expected.sort((x, y) -> Integer.compare(x.getId(), y.getId()));
+            checks.equal(ids(expected), ids(taskManager.filterTasks(filter.expression)),
+                    "tasks selected by " + filter.expression);
+        }
+        boolean isRejected = false;
+        try {
+            taskManager.filterTasks("(done OR #ops");
+        } catch (IllegalArgumentException e) {
+            isRejected = true;
+        }
+        checks.that(isRejected, "a filter with a missing ')' was accepted");
+    }
+
+    private static void change(TaskManager taskManager, Random random, int round) {
+        int size = taskManager.listSize();
+        int index = random.nextInt(size);
+        switch (random.nextInt(6)) {
+            case 0:
+                taskManager.addTask(newTask(taskManager, random, round));
+                break;
+            case 1:
+                taskManager.removeTask(taskManager.getTask(index).getId());
+                break;
+            case 2:
+                taskManager.markTaskAsDone(index);
+                break;
+            case 3:
+                taskManager.tagTask(index, randomTags(random));
+                break;
+            case 4:
+                taskManager.undo();
+                break;
+            default:
+                taskManager.redo();
+                break;
+        }
+    }
+
+    private static Task newTask(TaskManager taskManager, Random random, int i) {
+        TaskManager.Priority priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+        TaskManager.Todo task;
+        switch (random.nextInt(3)) {
+            case 0:
+                task = taskManager.new Todo("Todo", "task " + i, priority);
+                break;
+            case 1:
+                task = taskManager.new Deadline("Deadline", "task " + i, LocalDateTime.of(2030, 1, 1, 9, 0), priority);
+                break;
+            default:
+                task = taskManager.new Event("Event", "task " + i, LocalDate.of(2030, 1, 1), LocalDate.of(2030, 1, 2),
+                        priority);
+                break;
+        }
+        task.setDone(random.nextInt(3) == 0);
+        task.setTags(randomTags(random));
+        return task;
+    }
+
+    private static List<String> randomTags(Random random) {
+        List<String> tags = new ArrayList<>();
+        for (String tag : TAGS) {
+            if (random.nextInt(3) == 0) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Returns a random filter; operands that are not conditions are put in parentheses, so the
+     * condition does not depend on the precedence of the operators.
+     */
+    private static Filter randomFilter(Random random, int depth) {
+        int kind = depth == 0 ? 0 : random.nextInt(5);
+        if (kind == 0) {
+            return randomCondition(random);
+        }
+        Filter left = randomFilter(random, depth - 1);
+        if (kind == 1) {
+            return new Filter("NOT " + operand(left, depth), left.condition.negate());
+        }
+        Filter right = randomFilter(random, depth - 1);
+        String l = operand(left, depth);
+        String r = operand(right, depth);
+        if (kind == 2) {
+            return new Filter(l + " OR " + r, left.condition.or(right.condition));
+        }
+        return new Filter(l + (kind == 3 ? " AND " : " ") + r, left.condition.and(right.condition));
+    }
+
+    private static String operand(Filter filter, int depth) {
+        return depth > 1 ? "(" + filter.expression + ")" : filter.expression;
+    }
+
+    private static Filter randomCondition(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new Filter(random.nextBoolean() ? "done" : "DONE",
+                        task -> ((TaskManager.Todo) task).isDone());
+            case 1:
+                String tag = TAGS[random.nextInt(TAGS.length)];
+                return new Filter(random.nextBoolean() ? "#" + tag : "tag:" + tag.toUpperCase(),
+                        task -> task.getTags().contains(tag));
+            case 2:
+                int type = random.nextInt(BitmapIndex.TYPES.length);
+                return new Filter("type:" + BitmapIndex.TYPES[type], task -> typeOf(task) == type);
+            default:
+                String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+                TaskManager.Priority priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+                return new Filter("priority" + operator + priority.name().toLowerCase(),
+                        task -> compares(operator, Integer.compare(task.getPriority().ordinal(), priority.ordinal())));
+        }
+    }
+
+    private static boolean compares(String operator, int order) {
+        switch (operator) {
+            case "<=":
+                return order <= 0;
+            case ">=":
+                return order >= 0;
+            case "<":
+                return order < 0;
+            case ">":
+                return order > 0;
+            default:
+                return order == 0;
+        }
+    }
+
+    private static int typeOf(Task task) {
+        return task instanceof TaskManager.Deadline ? 1 : task instanceof TaskManager.Event ? 2 : 0;
+    }
+
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
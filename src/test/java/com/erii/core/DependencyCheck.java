@@ -0,0 +1,287 @@
+package com.erii.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.data.DataStorage;
+import com.erii.data.TextTaskRepository;
+import com.erii.replay.Checks;
+
+/**
+ * The DependencyCheck class checks the dependencies between tasks against a map from each task to
+ * the tasks it waits for. Random dependencies are added and removed, with cycles among them, while
+ * tasks are added, deleted and done and changes are undone and redone; after each step the
+ * dependencies, the ready tasks and the blockers of a task are compared with the map. The
+ * dependencies are also saved with the tasks in another order, and loaded again by id.
+ */
+public final class DependencyCheck {
+    private static final int STEPS = 1500;
+    private static final int SAVE_EVERY = 300;
+    private static final TaskManager.Priority[] PRIORITIES = TaskManager.Priority.values();
+
+    private DependencyCheck() {
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     * @throws IOException if the data directory cannot be written or read
+     */
+    public static void run(Checks checks) throws IOException {
+        Random random = new Random(43);
+        Path directory = checks.newDirectory();
+        DataStorage storage = new DataStorage(directory.toString(),
+                new TextTaskRepository(directory.resolve("tasks.txt").toString(), false));
+        // Deep enough that no change falls out of the history, so each undo count has one state
+        TaskManager taskManager = new TaskManager(STEPS + 100);
+        for (int i = 0; i < 40; i++) {
+            taskManager.addTask(newTask(taskManager, random, i));
+        }
+        taskManager.getHistory().clear();
+        List<Map<Integer, Set<Integer>>> states = new ArrayList<>();
+        states.add(new HashMap<>());
+        Map<Integer, Set<Integer>> model = new HashMap<>();
+        int rejected = 0;
+        for (int step = 1; step <= STEPS; step++) {
+            int undoCount = taskManager.getHistory().getUndoCount();
+            Map<Integer, Set<Integer>> next = copy(model);
+            int kind = random.nextInt(20);
+            String what;
+            if (kind < 8) {
+                // Mostly among the first tasks, so that paths and cycles between them are common
+                int size = taskManager.listSize();
+                int taskIndex = random.nextInt(Math.min(size, random.nextBoolean() ? 8 : size));
+                int blockerIndex = random.nextInt(Math.min(size, random.nextBoolean() ? 8 : size));
+                int id = taskManager.getTask(taskIndex).getId();
+                int blockerId = taskManager.getTask(blockerIndex).getId();
+                what = "step " + step + ": " + id + " waits for " + blockerId;
+                taskManager.addDependency(taskIndex, blockerIndex);
+                if (id == blockerId || reaches(model, blockerId, id)) {
+                    rejected++;
+                } else {
+                    next.computeIfAbsent(id, key -> new HashSet<>()).add(blockerId);
+                }
+            } else if (kind < 10) {
+                int taskIndex = random.nextInt(taskManager.listSize());
+                int id = taskManager.getTask(taskIndex).getId();
+                List<Integer> blockers = new ArrayList<>(model.getOrDefault(id, Set.of()));
+                int blockerId = blockers.isEmpty() ? id : blockers.get(random.nextInt(blockers.size()));
+                what = "step " + step + ": " + id + " stops waiting for " + blockerId;
+                int blockerIndex = taskManager.getAllTasks().indexOf(taskManager.findTask(blockerId));
+                taskManager.removeDependency(taskIndex, blockerIndex);
+                remove(next, id, blockerId);
+            } else if (kind < 12) {
+                int taskIndex = random.nextInt(taskManager.listSize());
+                what = "step " + step + ": task " + taskManager.getTask(taskIndex).getId() + " done";
+                taskManager.markTaskAsDone(taskIndex);
+            } else if (kind < 13) {
+                Task task = taskManager.getTask(random.nextInt(taskManager.listSize()));
+                what = "step " + step + ": task " + task.getId() + " deleted";
+                taskManager.removeTask(task.getId());
+                next.remove(task.getId());
+                for (Set<Integer> blockers : next.values()) {
+                    blockers.remove(task.getId());
+                }
+            } else if (kind < 14) {
+                what = "step " + step + ": task added";
+                taskManager.addTask(newTask(taskManager, random, step));
+            } else if (kind < 17) {
+                what = "step " + step + ": undo";
+                if (taskManager.undo()) {
+                    next = copy(states.get(taskManager.getHistory().getUndoCount()));
+                }
+            } else {
+                what = "step " + step + ": redo";
+                if (taskManager.redo()) {
+                    next = copy(states.get(taskManager.getHistory().getUndoCount()));
+                }
+            }
+            next.values().removeIf(Set::isEmpty);
+            int recorded = taskManager.getHistory().getUndoCount();
+            if (kind < 14 && recorded > undoCount) {
+                states.subList(recorded, states.size()).clear();
+                states.add(copy(next));
+            }
+            model = next;
+            checkGraph(checks, taskManager, model, what);
+            if (step % SAVE_EVERY == 0) {
+                checkReload(checks, storage, taskManager, model, random, "step " + step);
+            }
+        }
+        checks.that(rejected > 50, "only " + rejected + " dependencies were rejected; the checks need cycles");
+        checks.that(model.size() > 5, "only " + model.size() + " tasks wait for others at the end");
+        checkDamagedFile(checks, storage, directory, taskManager, model);
+        storage.close();
+    }
+
+    /**
+     * Compares the dependencies, the ready tasks and the blockers of one task with the model.
+     */
+    private static void checkGraph(Checks checks, TaskManager taskManager, Map<Integer, Set<Integer>> model,
+            String what) {
+        checks.equal(pairs(model), pairs(taskManager.getDependencies()), what + ": dependencies");
+        int count = 0;
+        for (Set<Integer> blockers : model.values()) {
+            count += blockers.size();
+        }
+        checks.equal(count, taskManager.getDependencyCount(), what + ": number of dependencies");
+        checks.equal(ready(taskManager.getAllTasks(), model), ids(taskManager.getReadyTasks()), what + ": ready tasks");
+        int index = new Random(count).nextInt(taskManager.listSize());
+        int id = taskManager.getTask(index).getId();
+        checks.equal(new TreeSet<>(model.getOrDefault(id, Set.of())),
+                new TreeSet<>(ids(taskManager.getBlockers(index))), what + ": blockers of task " + id);
+    }
+
+    /**
+     * Saves the tasks in a new order with their dependencies, and checks the dependencies loaded
+     * with them, which refer to tasks by id rather than by position.
+     */
+    private static void checkReload(Checks checks, DataStorage storage, TaskManager taskManager,
+            Map<Integer, Set<Integer>> model, Random random, String what) {
+        List<Task> shuffled = new ArrayList<>(taskManager.getAllTasks());
+        Collections.shuffle(shuffled, random);
+        storage.saveTasks(shuffled);
+        storage.saveDependencies(taskManager);
+        TaskManager loaded = load(storage);
+        checks.equal(pairs(model), pairs(loaded.getDependencies()), what + ": loaded dependencies");
+        checks.equal(ready(loaded.getAllTasks(), model), ids(loaded.getReadyTasks()), what + ": loaded ready tasks");
+    }
+
+    /**
+     * Checks that a file without its header loads no dependencies, and that a dependency on a
+     * task that does not exist, or one closing a cycle, is skipped while the others load.
+     */
+    private static void checkDamagedFile(Checks checks, DataStorage storage, Path directory,
+            TaskManager taskManager, Map<Integer, Set<Integer>> model) throws IOException {
+        storage.saveTasks(taskManager.getAllTasks());
+        storage.saveDependencies(taskManager);
+        Path file = directory.resolve("dependencies.txt");
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+        List<String> extra = new ArrayList<>(lines);
+        extra.add("999999|" + lines.get(1).split("\\|")[0]);
+        String[] first = lines.get(1).split("\\|");
+        extra.add(first[1] + "|" + first[0]);
+        Files.write(file, extra, StandardCharsets.UTF_8);
+        checks.equal(pairs(model), pairs(load(storage).getDependencies()),
+                "dependencies loaded beside one on a missing task and one closing a cycle");
+
+        Files.write(file, lines.subList(1, lines.size()), StandardCharsets.UTF_8);
+        checks.equal(0, load(storage).getDependencyCount(), "dependencies loaded from a file without its header");
+    }
+
+    private static TaskManager load(DataStorage storage) {
+        TaskManager loaded = new TaskManager();
+        for (Task task : storage.loadTasks(loaded)) {
+            loaded.loadTask(task);
+        }
+        storage.loadDependencies(loaded);
+        return loaded;
+    }
+
+    /**
+     * Returns whether a task waits for another, directly or through other tasks.
+     */
+    private static boolean reaches(Map<Integer, Set<Integer>> model, int from, int to) {
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(from);
+        while (!pending.isEmpty()) {
+            int id = pending.pop();
+            if (id == to) {
+                return true;
+            }
+            if (seen.add(id)) {
+                pending.addAll(model.getOrDefault(id, Set.of()));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ids of the tasks that are not done and wait for no task that is not done,
+     * in id order.
+     */
+    private static List<Integer> ready(List<Task> tasks, Map<Integer, Set<Integer>> model) {
+        Set<Integer> open = new HashSet<>();
+        for (Task task : tasks) {
+            if (!((TaskManager.Todo) task).isDone()) {
+                open.add(task.getId());
+            }
+        }
+        List<Integer> ready = new ArrayList<>();
+        for (int id : new TreeSet<>(open)) {
+            boolean isWaiting = false;
+            for (int blocker : model.getOrDefault(id, Set.of())) {
+                isWaiting |= open.contains(blocker);
+            }
+            if (!isWaiting) {
+                ready.add(id);
+            }
+        }
+        return ready;
+    }
+
+    private static Set<String> pairs(Map<Integer, Set<Integer>> model) {
+        Set<String> pairs = new TreeSet<>();
+        for (Map.Entry<Integer, Set<Integer>> entry : model.entrySet()) {
+            for (int blocker : entry.getValue()) {
+                pairs.add(entry.getKey() + " waits for " + blocker);
+            }
+        }
+        return pairs;
+    }
+
+    private static Set<String> pairs(List<int[]> dependencies) {
+        Set<String> pairs = new TreeSet<>();
+        for (int[] dependency : dependencies) {
+            pairs.add(dependency[0] + " waits for " + dependency[1]);
+        }
+        return pairs;
+    }
+
+    private static void remove(Map<Integer, Set<Integer>> model, int id, int blockerId) {
+        Set<Integer> blockers = model.get(id);
+        if (blockers != null) {
+            blockers.remove(blockerId);
+        }
+    }
+
+    private static Map<Integer, Set<Integer>> copy(Map<Integer, Set<Integer>> model) {
+        Map<Integer, Set<Integer>> copy = new HashMap<>();
+        for (Map.Entry<Integer, Set<Integer>> entry : model.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static Task newTask(TaskManager taskManager, Random random, int i) {
+        TaskManager.Priority priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+        TaskManager.Todo task = taskManager.new Todo("Todo", "task " + i, priority);
+        task.setDone(random.nextInt(5) == 0);
+        return task;
+    }
+
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,331 @@
+package com.erii.core;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.erii.core.TaskManager.Task;
+import com.erii.replay.Checks;
+
+/**
+ * The QueryCheck class checks the results of random queries against the same conditions tested on
+ * every task, sorted and cut to the limit independently of the query planner. Queries mix tag,
+ * type, priority and status conditions with date ranges, text, orders and limits, so that each
+ * access path is chosen, and the list is changed between queries by adds, removes, marks, tags
+ * and undos.
+ */
+public final class QueryCheck {
+    private static final int ROUNDS = 600;
+    private static final String[] TAGS = {"ops", "home", "rare"};
+    private static final String[] WORDS = {"report", "Review", "call", "budget", "plan"};
+    private static final String[] ORDERS = {"priority", "date", "type", "description", "id"};
+    private static final TaskManager.Priority[] PRIORITIES = TaskManager.Priority.values();
+    private static final LocalDate FIRST = LocalDate.of(2030, 1, 1);
+    private static final int DAYS = 90;
+
+    private QueryCheck() {
+    }
+
+    /**
+     * The Condition class is a part of a query and the condition it stands for. Date conditions
+     * instead narrow the range of days shared by all of them.
+     */
+    private static final class Condition {
+        private final String text;
+        private final Predicate<Task> test;
+        private final LocalDate from;
+        private final LocalDate to;
+
+        private Condition(String text, Predicate<Task> test) {
+            this(text, test, LocalDate.MIN, LocalDate.MAX);
+        }
+
+        private Condition(String text, Predicate<Task> test, LocalDate from, LocalDate to) {
+            this.text = text;
+            this.test = test;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     */
+    public static void run(Checks checks) {
+        Random random = new Random(42);
+        TaskManager taskManager = new TaskManager();
+        for (int i = 0; i < 500; i++) {
+            taskManager.addTask(newTask(taskManager, random, i));
+        }
+        Set<QueryPlan.AccessPath> paths = EnumSet.noneOf(QueryPlan.AccessPath.class);
+        for (int round = 0; round < ROUNDS; round++) {
+            change(taskManager, random, round);
+            List<Condition> conditions = new ArrayList<>();
+            int count = random.nextInt(4);
+            for (int i = 0; i < count; i++) {
+                conditions.add(randomCondition(random));
+            }
+            StringBuilder text = new StringBuilder();
+            Predicate<Task> test = task -> true;
+            LocalDate from = LocalDate.MIN;
+            LocalDate to = LocalDate.MAX;
+            boolean hasDates = false;
+            for (Condition condition : conditions) {
+                text.append(condition.text).append(' ');
+                test = test.and(condition.test);
+                hasDates |= condition.from != LocalDate.MIN || condition.to != LocalDate.MAX;
+                from = condition.from.isAfter(from) ? condition.from : from;
+                to = condition.to.isBefore(to) ? condition.to : to;
+            }
+            if (hasDates) {
+                LocalDate first = from;
+                LocalDate last = to;
+                test = test.and(task -> isDated(task, first, last));
+            }
+            String order = random.nextInt(3) == 0 ? null : ORDERS[random.nextInt(ORDERS.length)];
+            boolean isDescending = order != null && random.nextBoolean();
+            if (order != null) {
+                text.append("order by ").append(order).append(isDescending ? " desc " : " asc ");
+            }
+            int limit = random.nextBoolean() ? -1 : random.nextInt(12);
+            if (limit >= 0) {
+                text.append("limit ").append(limit);
+            }
+            String query = text.toString().trim();
+
+            List<Task> expected = new ArrayList<>();
+            for (Task task : taskManager.getAllTasks()) {
+                if (test.test(task)) {
+                    expected.add(task);
+                }
+            }
+            expected.sort(order == null ? Comparator.comparingInt(Task::getId) : comparator(order, isDescending));
+            List<Task> actual = new ArrayList<>();
+            QueryPlan plan = taskManager.query(query, actual::add);
+            paths.add(plan.getAccessPath());
+            String what = "results of " + query + " (" + plan.getAccessPath() + ")";
+            if (order != null) {
+                checks.equal(ids(cut(expected, limit)), ids(actual), what);
+            } else if (limit < 0) {
+                actual.sort(Comparator.comparingInt(Task::getId));
+                checks.equal(ids(expected), ids(actual), what);
+            } else {
+                // Without an order any of the matching tasks may fill the limit
+                Set<Integer> distinct = new HashSet<>(ids(actual));
+                checks.that(actual.size() == Math.min(limit, expected.size()) && distinct.size() == actual.size()
+                        && ids(expected).containsAll(distinct), what + ": " + ids(actual) + " from " + ids(expected));
+            }
+            checks.equal(actual.size(), plan.getRowsReturned(), "rows returned by " + query);
+        }
+        checks.equal(EnumSet.allOf(QueryPlan.AccessPath.class), paths, "access paths chosen");
+
+        for (String bad : new String[]{"order by foo", "limit x", "NOT date:2030-01-01", "limit 3 done",
+                "text:\"abc", "date>=2030-13-01", "prio<=S"}) {
+            boolean isRejected = false;
+            try {
+                taskManager.query(bad, task -> { });
+            } catch (IllegalArgumentException e) {
+                isRejected = true;
+            }
+            checks.that(isRejected, "the query " + bad + " was accepted");
+        }
+    }
+
+    private static Condition randomCondition(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+                boolean isDone = random.nextBoolean();
+                return new Condition(isDone ? "done" : "NOT done", task -> isDone(task) == isDone);
+            case 1:
+                String tag = TAGS[random.nextInt(TAGS.length)];
+                return new Condition("#" + tag, task -> task.getTags().contains(tag));
+            case 2:
+                int type = random.nextInt(BitmapIndex.TYPES.length);
+                return new Condition("type:" + BitmapIndex.TYPES[type], task -> typeOf(task) == type);
+            case 3:
+                TaskManager.Priority priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+                return new Condition("priority<=" + priority.name(),
+                        task -> task.getPriority().compareTo(priority) <= 0);
+            case 4:
+                String other = TAGS[random.nextInt(TAGS.length)];
+                return new Condition("(#" + other + " OR done)",
+                        task -> task.getTags().contains(other) || isDone(task));
+            case 5:
+                String word = WORDS[random.nextInt(WORDS.length)];
+                String typed = random.nextBoolean() ? word.toUpperCase() : word.toLowerCase();
+                return new Condition("text:" + typed,
+                        task -> task.getDescription().toLowerCase().contains(word.toLowerCase()));
+            default:
+                return randomDates(random);
+        }
+    }
+
+    /**
+     * Returns a date condition, or a pair of them, mostly a few days wide so the date index pays.
+     * Every description contains "task", so the text condition paired with one only adds a check.
+     */
+    private static Condition randomDates(Random random) {
+        LocalDate from = FIRST.plusDays(random.nextInt(DAYS) - 5);
+        LocalDate to = from.plusDays(random.nextInt(random.nextInt(4) == 0 ? DAYS : 4));
+        switch (random.nextInt(5)) {
+            case 0:
+                return new Condition("date:" + from, task -> true, from, from);
+            case 1:
+                return new Condition("date>" + from, task -> true, from.plusDays(1), LocalDate.MAX);
+            case 2:
+                return new Condition("date<" + to, task -> true, LocalDate.MIN, to.minusDays(1));
+            case 3:
+                return new Condition("date>=" + from + " date<=" + to, task -> true, from, to);
+            default:
+                return new Condition("date=" + from + " text:task", task -> true, from, from);
+        }
+    }
+
+    private static boolean isDated(Task task, LocalDate from, LocalDate to) {
+        LocalDate first;
+        LocalDate last;
+        if (task instanceof TaskManager.Deadline) {
+            first = ((TaskManager.Deadline) task).getBy().toLocalDate();
+            last = first;
+        } else if (task instanceof TaskManager.Event) {
+            first = ((TaskManager.Event) task).getStart();
+            last = ((TaskManager.Event) task).getEnd();
+        } else {
+            return false;
+        }
+        // Date conditions that contradict each other leave no days, which no event spans
+        return !to.isBefore(from) && !first.isAfter(to) && !last.isBefore(from);
+    }
+
+    /**
+     * Returns the order of the results: the field, ascending or descending, with undated tasks last
+     * when ordering by date, and then the task id.
+     */
+    private static Comparator<Task> comparator(String order, boolean isDescending) {
+        Comparator<Task> field;
+        switch (order) {
+            case "priority":
+                field = Comparator.comparingInt(task -> task.getPriority().ordinal());
+                break;
+            case "date":
+                Comparator<LocalDateTime> dates = isDescending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+                return Comparator.comparing(QueryCheck::dateOf, Comparator.nullsLast(dates))
+                        .thenComparingInt(Task::getId);
+            case "type":
+                field = Comparator.comparingInt(QueryCheck::typeOf);
+                break;
+            case "description":
+                field = Comparator.comparing(task -> task.getDescription().toLowerCase());
+                break;
+            default:
+                field = Comparator.comparingInt(Task::getId);
+                break;
+        }
+        return (isDescending ? field.reversed() : field).thenComparingInt(Task::getId);
+    }
+
+    private static LocalDateTime dateOf(Task task) {
+        if (task instanceof TaskManager.Deadline) {
+            return ((TaskManager.Deadline) task).getBy();
+        } else if (task instanceof TaskManager.Event) {
+            return ((TaskManager.Event) task).getStart().atStartOfDay();
+        }
+        return null;
+    }
+
+    private static void change(TaskManager taskManager, Random random, int round) {
+        int index = random.nextInt(taskManager.listSize());
+        switch (random.nextInt(6)) {
+            case 0:
+                taskManager.addTask(newTask(taskManager, random, round));
+                break;
+            case 1:
+                taskManager.removeTask(taskManager.getTask(index).getId());
+                break;
+            case 2:
+                taskManager.markTaskAsDone(index);
+                break;
+            case 3:
+                taskManager.tagTask(index, randomTags(random));
+                break;
+            case 4:
+                taskManager.undo();
+                break;
+            default:
+                taskManager.redo();
+                break;
+        }
+    }
+
+    /**
+     * Returns a task dated within the first days of 2030, with deadlines often sharing a due time
+     * and descriptions often differing only in case, so that ties in the order are common.
+     */
+    private static Task newTask(TaskManager taskManager, Random random, int i) {
+        TaskManager.Priority priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+        String description = WORDS[random.nextInt(WORDS.length)] + " task " + random.nextInt(i / 4 + 1);
+        if (random.nextBoolean()) {
+            description = description.toUpperCase();
+        }
+        LocalDate day = FIRST.plusDays(random.nextInt(DAYS));
+        TaskManager.Todo task;
+        switch (random.nextInt(3)) {
+            case 0:
+                task = taskManager.new Todo("Todo", description, priority);
+                break;
+            case 1:
+                task = taskManager.new Deadline("Deadline", description,
+                        day.atTime(random.nextBoolean() ? 0 : 9 + random.nextInt(3), 0), priority);
+                break;
+            default:
+                task = taskManager.new Event("Event", description, day, day.plusDays(random.nextInt(6)), priority);
+                break;
+        }
+        task.setDone(random.nextInt(3) == 0);
+        task.setTags(randomTags(random));
+        return task;
+    }
+
+    private static List<String> randomTags(Random random) {
+        List<String> tags = new ArrayList<>();
+        if (random.nextInt(3) == 0) {
+            tags.add("ops");
+        }
+        if (random.nextInt(3) == 0) {
+            tags.add("home");
+        }
+        if (random.nextInt(50) == 0) {
+            tags.add("rare");
+        }
+        return tags;
+    }
+
+    private static boolean isDone(Task task) {
+        return ((TaskManager.Todo) task).isDone();
+    }
+
+    private static int typeOf(Task task) {
+        return task instanceof TaskManager.Deadline ? 1 : task instanceof TaskManager.Event ? 2 : 0;
+    }
+
+    private static List<Task> cut(List<Task> tasks, int limit) {
+        return limit < 0 ? tasks : tasks.subList(0, Math.min(limit, tasks.size()));
+    }
+
+    private static List<Integer> ids(List<Task> tasks) {
+        List<Integer> ids = new ArrayList<>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
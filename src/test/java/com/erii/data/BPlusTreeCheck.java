@@ -0,0 +1,129 @@
+package com.erii.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.erii.replay.Checks;
+
+/**
+ * The BPlusTreeCheck class checks two B+trees sharing a page file against a TreeMap each.
+ * Random puts, removes, gets and range scans are applied to both, with more pages than the
+ * page cache holds, and the page file is closed and opened again along the way.
+ */
+public final class BPlusTreeCheck {
+    private static final int OPERATIONS = 30000;
+    private static final int REOPEN_EVERY = 7000;
+    private static final long KEY_RANGE = 40000;
+
+    private BPlusTreeCheck() {
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     * @throws IOException if the page file cannot be written or read
+     */
+    public static void run(Checks checks) throws IOException {
+        Path path = checks.newDirectory().resolve("tasks.db");
+        Random random = new Random(29);
+        List<TreeMap<Long, byte[]>> models = List.of(new TreeMap<>(), new TreeMap<>());
+        PageFile file = new PageFile(path);
+        List<BPlusTree> trees = open(file);
+        for (int operation = 1; operation <= OPERATIONS; operation++) {
+            int slot = random.nextInt(2);
+            BPlusTree tree = trees.get(slot);
+            TreeMap<Long, byte[]> model = models.get(slot);
+            long key = randomKey(random);
+            int kind = random.nextInt(20);
+            if (kind < 12) {
+                byte[] value = randomValue(random, key);
+                tree.put(key, value);
+                model.put(key, value);
+            } else if (kind < 17) {
+                checks.equal(model.remove(key) != null, tree.remove(key), "remove of key " + key);
+            } else if (kind < 19) {
+                checks.that(Arrays.equals(model.get(key), tree.get(key)), "value of key " + key);
+            } else {
+                long from = randomKey(random);
+                long to = from + Math.min(random.nextInt(2000), Long.MAX_VALUE - from);
+                checkScan(checks, tree, model.subMap(from, true, to, true), from, to);
+            }
+            if (operation % REOPEN_EVERY == 0) {
+                file.close();
+                file = new PageFile(path);
+                trees = open(file);
+                for (int i = 0; i < 2; i++) {
+                    checkScan(checks, trees.get(i), models.get(i), Long.MIN_VALUE, Long.MAX_VALUE);
+                }
+            }
+        }
+        for (int i = 0; i < 2; i++) {
+            checkScan(checks, trees.get(i), models.get(i), Long.MIN_VALUE, Long.MAX_VALUE);
+            checks.that(models.get(i).size() > 2000, "tree " + i + " holds only " + models.get(i).size() + " keys");
+        }
+
+        boolean isRejected = false;
+        try {
+            trees.get(0).put(1, new byte[BPlusTree.MAX_VALUE_SIZE + 1]);
+        } catch (IllegalArgumentException e) {
+            isRejected = true;
+        }
+        checks.that(isRejected, "a value over the size limit was stored");
+        file.close();
+    }
+
+    private static List<BPlusTree> open(PageFile file) {
+        return List.of(new BPlusTree(file, 0), new BPlusTree(file, 1));
+    }
+
+    /**
+     * Checks that a scan of the tree visits the entries of the model, in key order.
+     */
+    private static void checkScan(Checks checks, BPlusTree tree, NavigableMap<Long, byte[]> model, long from,
+            long to) {
+        List<Long> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        tree.scan(from, to, (key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
+        boolean isSame = keys.equals(new ArrayList<>(model.keySet()));
+        int i = 0;
+        for (byte[] value : model.values()) {
+            if (!isSame) {
+                break;
+            }
+            isSame = Arrays.equals(value, values.get(i++));
+        }
+        checks.that(isSame, "scan from " + from + " to " + to + ": " + keys.size() + " entries, "
+                + model.size() + " expected, or different keys or values");
+    }
+
+    private static long randomKey(Random random) {
+        switch (random.nextInt(50)) {
+            case 0:
+                return Long.MIN_VALUE + random.nextInt(3);
+            case 1:
+                return Long.MAX_VALUE - random.nextInt(3);
+            default:
+                return random.nextLong() % KEY_RANGE;
+        }
+    }
+
+    private static byte[] randomValue(Random random, long key) {
+        int length = random.nextInt(30) == 0 ? BPlusTree.MAX_VALUE_SIZE - random.nextInt(3) : random.nextInt(200);
+        byte[] value = new byte[length];
+        random.nextBytes(value);
+        if (length > 0) {
+            value[0] = (byte) key;
+        }
+        return value;
+    }
+}
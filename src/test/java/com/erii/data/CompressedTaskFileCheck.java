@@ -0,0 +1,173 @@
+package com.erii.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.erii.replay.Checks;
+
+/**
+ * The CompressedTaskFileCheck class checks that lines written to a block-compressed task file
+ * read back the same, with and without the block index, and that a truncated or corrupted file
+ * reads back the blocks before the damage and reports the rest as corrupted, whatever the
+ * damaged lengths claim.
+ */
+public final class CompressedTaskFileCheck {
+    private static final int LINES = 4000;
+
+    private CompressedTaskFileCheck() {
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     * @throws IOException if a file cannot be written or read
+     */
+    public static void run(Checks checks) throws IOException {
+        Path directory = checks.newDirectory();
+        Random random = new Random(28);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+            lines.add(randomLine(random, i));
+        }
+        byte[] file = write(lines);
+        Path path = directory.resolve("tasks.txt");
+
+        Files.write(path, write(new ArrayList<>()));
+        CompressedTaskFile.Result<List<String>> empty = CompressedTaskFile.read(path, block -> block);
+        checks.that(CompressedTaskFile.isCompressed(path), "an empty file has no compressed header");
+        checks.that(!empty.isCorrupted && empty.blocks.isEmpty(), "an empty file reads back blocks or as corrupted");
+
+        Files.write(path, file);
+        CompressedTaskFile.Result<List<String>> whole = CompressedTaskFile.read(path, block -> block);
+        checks.that(!whole.isCorrupted, "an intact file reads as corrupted");
+        checks.equal(lines, concat(whole.blocks), "lines read through the block index");
+        List<Integer> offsets = blockOffsets(file);
+        checks.equal(offsets.size(), whole.blocks.size(), "number of blocks");
+        checks.that(offsets.size() > 2, "the lines fit in " + offsets.size() + " blocks; the checks need three");
+
+        // Without its last byte the index is gone, and the blocks are streamed up to the end marker
+        Files.write(path, Arrays.copyOf(file, file.length - 1));
+        CompressedTaskFile.Result<List<String>> streamed = CompressedTaskFile.read(path, block -> block);
+        checks.that(!streamed.isCorrupted, "a file without its index reads as corrupted");
+        checks.equal(lines, concat(streamed.blocks), "lines streamed without the block index");
+
+        byte[] badIndex = file.clone();
+        ByteBuffer.wrap(badIndex).putInt(indexOffset(file), Integer.MAX_VALUE);
+        Files.write(path, badIndex);
+        checks.equal(lines, concat(CompressedTaskFile.read(path, block -> block).blocks),
+                "lines read with a damaged block count in the index");
+
+        for (int block = 0; block < offsets.size(); block++) {
+            int offset = offsets.get(block);
+            List<String> before = concat(whole.blocks.subList(0, block));
+
+            Files.write(path, Arrays.copyOf(file, offset + 12 + random.nextInt(blockLength(file, offset))));
+            expectDamage(checks, path, before, "file truncated in block " + block);
+
+            byte[] flipped = file.clone();
+            flipped[offset + 12 + random.nextInt(blockLength(file, offset))] ^= 1 << random.nextInt(8);
+            expectDamage(checks, path, flipped, before, "flipped bit in block " + block);
+
+            // A deflated block ends itself, so only a compressed length that is too short or
+            // over the bound of a block is certain to be found
+            int[][] lengths = {{-2, Integer.MAX_VALUE, 256 * 1024 + 1, 400 * 1024},
+                    {-2, Integer.MAX_VALUE, 400 * 1024, blockLength(file, offset) / 2}};
+            for (int field = 0; field < 2; field++) {
+                for (int length : lengths[field]) {
+                    byte[] damaged = file.clone();
+                    ByteBuffer.wrap(damaged).putInt(offset + field * 4, length);
+                    expectDamage(checks, path, damaged, before,
+                            (field == 0 ? "raw" : "compressed") + " length " + length + " in block " + block);
+                }
+            }
+        }
+
+        CompressedTaskFile.Writer writer = new CompressedTaskFile.Writer(new ByteArrayOutputStream());
+        char[] tooLong = new char[256 * 1024];
+        Arrays.fill(tooLong, 'x');
+        boolean isRejected = false;
+        try {
+            writer.writeLine(new String(tooLong));
+        } catch (IOException e) {
+            isRejected = true;
+        }
+        checks.that(isRejected, "a line longer than a block was written");
+    }
+
+    /**
+     * Checks a damaged file both through its block index and streamed without it.
+     */
+    private static void expectDamage(Checks checks, Path path, byte[] damaged, List<String> before, String what)
+            throws IOException {
+        Files.write(path, damaged);
+        expectDamage(checks, path, before, what + ", through the index");
+        Files.write(path, Arrays.copyOf(damaged, damaged.length - 1));
+        expectDamage(checks, path, before, what + ", streamed");
+    }
+
+    private static void expectDamage(Checks checks, Path path, List<String> before, String what)
+            throws IOException {
+        CompressedTaskFile.Result<List<String>> result = CompressedTaskFile.read(path, block -> block);
+        checks.that(result.isCorrupted, what + ": not reported as corrupted");
+        checks.equal(before.size(), concat(result.blocks).size(), what + ": lines read before the damage");
+        checks.that(before.equals(concat(result.blocks)), what + ": the lines before the damage differ");
+    }
+
+    private static byte[] write(List<String> lines) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedTaskFile.Writer writer = new CompressedTaskFile.Writer(out);
+        for (String line : lines) {
+            writer.writeLine(line);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the offsets of the blocks of a file, found by walking their headers.
+     */
+    private static List<Integer> blockOffsets(byte[] file) {
+        List<Integer> offsets = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int offset = CompressedTaskFile.MAGIC.length;
+        while (buffer.getInt(offset) != -1) {
+            offsets.add(offset);
+            offset += 12 + blockLength(file, offset);
+        }
+        return offsets;
+    }
+
+    private static int blockLength(byte[] file, int offset) {
+        return ByteBuffer.wrap(file).getInt(offset + 4);
+    }
+
+    private static int indexOffset(byte[] file) {
+        return (int) ByteBuffer.wrap(file).getLong(file.length - 12);
+    }
+
+    private static String randomLine(Random random, int i) {
+        StringBuilder line = new StringBuilder().append(i).append("|T|0|A|");
+        int length = random.nextInt(random.nextInt(10) == 0 ? 2000 : 200);
+        for (int c = 0; c < length; c++) {
+            int kind = random.nextInt(20);
+            line.append(kind == 0 ? 'é' : kind == 1 ? '任' : (char) ('a' + random.nextInt(26)));
+        }
+        return line.toString();
+    }
+
+    private static List<String> concat(List<List<String>> blocks) {
+        List<String> lines = new ArrayList<>();
+        for (List<String> block : blocks) {
+            lines.addAll(block);
+        }
+        return lines;
+    }
+}
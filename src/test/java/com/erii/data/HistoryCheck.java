@@ -0,0 +1,208 @@
+package com.erii.data;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.replay.Checks;
+
+/**
+ * The HistoryCheck class checks that the undo/redo history survives being saved and loaded:
+ * every change made before the save is undone and redone on the loaded tasks, ending each step
+ * on the tasks as they were at that point. It also checks that a history saved for other tasks
+ * is dropped, and that changes are undone by task id after another process reordered the list.
+ */
+public final class HistoryCheck {
+    private static final int ROUNDS = 40;
+    private static final int CHANGES = 15;
+    private static final TaskManager.Priority[] PRIORITIES = TaskManager.Priority.values();
+
+    private HistoryCheck() {
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     * @throws IOException if a data directory cannot be created
+     */
+    public static void run(Checks checks) throws IOException {
+        Random random = new Random(26);
+        for (int round = 0; round < ROUNDS; round++) {
+            checkReloadedHistory(checks, random, round);
+        }
+        checkMismatchedHistory(checks);
+        checkUndoAfterExternalReorder(checks);
+    }
+
+    private static void checkReloadedHistory(Checks checks, Random random, int round) throws IOException {
+        Path directory = checks.newDirectory();
+        DataStorage storage = new DataStorage(directory.toString(),
+                new TextTaskRepository(directory.resolve("tasks.txt").toString(), false));
+        TaskManager taskManager = new TaskManager();
+        for (int i = 0; i < 6; i++) {
+            taskManager.addTask(newTask(taskManager, random, "first " + i));
+        }
+        taskManager.getHistory().clear();
+        taskManager.getHistory().setPersistent(true);
+
+        List<String> states = new ArrayList<>();
+        states.add(state(taskManager));
+        for (int i = 0; i < CHANGES; i++) {
+            int undoCount = taskManager.getHistory().getUndoCount();
+            change(taskManager, random, "change " + i);
+            if (taskManager.getHistory().getUndoCount() > undoCount) {
+                states.add(state(taskManager));
+            } else {
+                checks.equal(states.get(states.size() - 1), state(taskManager),
+                        "round " + round + ": tasks after a change that recorded nothing");
+            }
+        }
+        storage.saveTasks(taskManager.getAllTasks());
+        storage.saveDependencies(taskManager);
+        storage.saveHistory(taskManager);
+
+        TaskManager loaded = new TaskManager();
+        for (Task task : storage.loadTasks(loaded)) {
+            loaded.loadTask(task);
+        }
+        storage.loadDependencies(loaded);
+        storage.loadHistory(loaded);
+        checks.equal(states.get(states.size() - 1), state(loaded), "round " + round + ": loaded tasks");
+        checks.equal(states.size() - 1, loaded.getHistory().getUndoCount(), "round " + round + ": loaded undo count");
+
+        for (int i = states.size() - 2; i >= 0; i--) {
+            checks.that(loaded.undo(), "round " + round + ": undo to state " + i + " failed");
+            checks.equal(states.get(i), state(loaded), "round " + round + ": tasks after undoing to state " + i);
+        }
+        checks.that(!loaded.undo(), "round " + round + ": undo past the loaded history succeeded");
+        for (int i = 1; i < states.size(); i++) {
+            checks.that(loaded.redo(), "round " + round + ": redo to state " + i + " failed");
+            checks.equal(states.get(i), state(loaded), "round " + round + ": tasks after redoing to state " + i);
+        }
+        storage.close();
+    }
+
+    private static void checkMismatchedHistory(Checks checks) throws IOException {
+        Path directory = checks.newDirectory();
+        DataStorage storage = new DataStorage(directory.toString(),
+                new TextTaskRepository(directory.resolve("tasks.txt").toString(), false));
+        TaskManager taskManager = new TaskManager();
+        taskManager.getHistory().setPersistent(true);
+        for (int i = 0; i < 3; i++) {
+            taskManager.addTask(taskManager.new Todo("Todo", "task " + i, TaskManager.Priority.A));
+        }
+        storage.saveTasks(taskManager.getAllTasks());
+        storage.saveHistory(taskManager);
+        // The tasks are saved again without the history, as after a crash between the two saves
+        taskManager.removeTask(taskManager.getTask(0).getId());
+        storage.saveTasks(taskManager.getAllTasks());
+
+        TaskManager loaded = new TaskManager();
+        for (Task task : storage.loadTasks(loaded)) {
+            loaded.loadTask(task);
+        }
+        storage.loadHistory(loaded);
+        checks.equal(0, loaded.getHistory().getUndoCount(), "undo count of a history saved for other tasks");
+        storage.close();
+    }
+
+    private static void checkUndoAfterExternalReorder(Checks checks) {
+        TaskManager taskManager = new TaskManager();
+        for (int i = 0; i < 4; i++) {
+            taskManager.addTask(taskManager.new Todo("Todo", "task " + i, TaskManager.Priority.A));
+        }
+        int doneId = taskManager.getTask(1).getId();
+        taskManager.markTaskAsDone(1);
+        int[] reversed = new int[4];
+        for (int i = 0; i < 4; i++) {
+            reversed[i] = taskManager.getTask(3 - i).getId();
+        }
+        taskManager.reorderExternal(reversed);
+        String reorderedIds = ids(taskManager);
+
+        checks.that(taskManager.undo(), "undo after an external reorder failed");
+        checks.that(!((TaskManager.Todo) taskManager.findTask(doneId)).isDone(),
+                "undo after an external reorder did not reopen the task it marked done");
+        checks.equal(reorderedIds, ids(taskManager), "order after undoing past an external reorder");
+
+        taskManager.redo();
+        taskManager.removeExternalTask(doneId);
+        checks.that(!taskManager.undo(), "undo of a change to a task removed by another process succeeded");
+        checks.equal(0, taskManager.getHistory().getUndoCount(), "undo count after an undo that could not apply");
+        checks.equal(3, taskManager.listSize(), "tasks after an undo that could not apply");
+    }
+
+    private static void change(TaskManager taskManager, Random random, String description) {
+        int size = taskManager.listSize();
+        int index = size == 0 ? 0 : random.nextInt(size);
+        switch (size == 0 ? 0 : random.nextInt(7)) {
+            case 0:
+                taskManager.addTask(newTask(taskManager, random, description));
+                break;
+            case 1:
+                taskManager.markTaskAsDone(index);
+                break;
+            case 2:
+                taskManager.tagTask(index, random.nextBoolean() ? List.of("ops") : List.of("home", "ops"));
+                break;
+            case 3:
+                taskManager.removeTask(taskManager.getTask(index).getId());
+                break;
+            case 4:
+                taskManager.sortListByPriority();
+                break;
+            case 5:
+                taskManager.sortListByType();
+                break;
+            default:
+                taskManager.addDependency(index, random.nextInt(size));
+                break;
+        }
+    }
+
+    private static Task newTask(TaskManager taskManager, Random random, String description) {
+        TaskManager.Priority priority = PRIORITIES[random.nextInt(PRIORITIES.length)];
+        switch (random.nextInt(3)) {
+            case 0:
+                return taskManager.new Todo("Todo", description, priority);
+            case 1:
+                return taskManager.new Deadline("Deadline", description,
+                        LocalDateTime.of(2030, 1, 1, 9, 0).plusHours(random.nextInt(1000)), priority);
+            default:
+                LocalDate start = LocalDate.of(2030, 1, 1).plusDays(random.nextInt(100));
+                return taskManager.new Event("Event", description, start, start.plusDays(random.nextInt(5) + 1),
+                        priority);
+        }
+    }
+
+    /**
+     * Describes the tasks in order with everything a change can alter, and the dependencies.
+     */
+    private static String state(TaskManager taskManager) {
+        StringBuilder state = new StringBuilder();
+        for (Task task : taskManager.getAllTasks()) {
+            state.append(task.getId()).append(' ').append(task).append(' ').append(task.getTags()).append('\n');
+        }
+        List<String> dependencies = new ArrayList<>();
+        for (int[] dependency : taskManager.getDependencies()) {
+            dependencies.add(dependency[0] + "<" + dependency[1]);
+        }
+        dependencies.sort(null);
+        return state.append(dependencies).toString();
+    }
+
+    private static String ids(TaskManager taskManager) {
+        StringBuilder ids = new StringBuilder();
+        for (Task task : taskManager.getAllTasks()) {
+            ids.append(task.getId()).append(' ');
+        }
+        return ids.toString();
+    }
+}
@@ -0,0 +1,264 @@
+package com.erii.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.replay.Checks;
+
+/**
+ * The JournalCheck class checks that two processes sharing a profile through the journal end
+ * up with the same tasks. This process starts a second Java process on the same directory, and
+ * both add, mark, tag and delete tasks of their own and save after every change, at the same
+ * time. Each then has to hold the tasks of both, with ids that were never given out twice, as
+ * does a third process opening the profile afterwards. Conflicting changes to the same task
+ * are made in turn: the change saved last wins, and a deleted task stays deleted.
+ * <p>
+ * The second process runs the main method of this class.
+ */
+public final class JournalCheck {
+    private static final int CHANGES = 300;
+    private static final String READY = "ready";
+    private static final String STATE = "state";
+
+    private JournalCheck() {
+    }
+
+    /**
+     * The Window class is one process's view of the shared profile, opened as a user store
+     * opens it, except that the journal is not watched, so the changes of the other process
+     * are picked up when this one saves.
+     */
+    private static final class Window {
+        private final TaskManager taskManager = new TaskManager();
+        private final DataStorage storage;
+        private final SharedJournal journal;
+        private final ChangePersister persister;
+
+        private Window(Path directory) throws IOException {
+            storage = new DataStorage(directory.toString(),
+                    new TextTaskRepository(directory.resolve("tasks.txt").toString(), false));
+            journal = new SharedJournal(directory.toString());
+            journal.open(taskManager, storage, () -> {
+                for (Task task : storage.loadTasks(taskManager)) {
+                    taskManager.loadTask(task);
+                }
+            });
+            persister = new ChangePersister(taskManager, storage, journal);
+        }
+
+        private Task find(String description) {
+            for (Task task : taskManager.getAllTasks()) {
+                if (task.getDescription().equals(description)) {
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        private int indexOf(String description) {
+            return taskManager.getAllTasks().indexOf(find(description));
+        }
+
+        private void close() {
+            persister.close();
+            journal.close();
+            storage.close();
+        }
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     * @throws Exception if the other process cannot be run or the profile cannot be written or read
+     */
+    public static void run(Checks checks) throws Exception {
+        Path directory = checks.newDirectory();
+        Window window = new Window(directory);
+
+        List<String> output = new ArrayList<>();
+        Map<String, String> theirs = new TreeMap<>();
+        Process other = start(directory, "work");
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null && !line.equals(READY)) {
+                output.add(line);
+                line = reader.readLine();
+            }
+            Map<String, String> expected = work(window, "this", new Random(45));
+            // The other process saved while this one worked, so its tasks were picked up on the way
+            boolean isOverlapped = false;
+            for (Task task : window.taskManager.getAllTasks()) {
+                isOverlapped |= task.getDescription().startsWith("that ");
+            }
+            checks.that(isOverlapped, "no task of the other process was picked up while this one worked");
+            boolean isState = false;
+            for (line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (isState) {
+                    String[] fields = line.split("=", 2);
+                    theirs.put(fields[0], fields[1]);
+                } else if (line.equals(STATE)) {
+                    isState = true;
+                } else {
+                    output.add(line);
+                }
+            }
+            checks.equal(0, other.waitFor(), "exit status of the other process, which wrote " + output);
+            window.persister.persist();
+            expected.putAll(theirs);
+            checks.that(!theirs.isEmpty(), "the other process reported no tasks");
+            checks.equal(expected, state(window.taskManager), "tasks here after both processes saved");
+        }
+        checkIds(checks, window.taskManager, "tasks here");
+
+        Window third = new Window(directory);
+        checks.equal(state(window.taskManager), state(third.taskManager), "tasks of a process opening the profile");
+        checks.equal(descriptions(window.taskManager), descriptions(third.taskManager),
+                "order of the tasks of a process opening the profile");
+        third.close();
+
+        checkConflicts(checks, directory, window);
+        window.close();
+    }
+
+    /**
+     * Changes two tasks here without saving, lets the other process change one and delete the
+     * other and save, and then saves here.
+     */
+    private static void checkConflicts(Checks checks, Path directory, Window window) throws Exception {
+        Task kept = window.taskManager.getTask(0);
+        Task deleted = window.taskManager.getTask(1);
+        window.taskManager.tagTask(0, List.of("mine"));
+        window.taskManager.tagTask(1, List.of("mine"));
+        Process other = start(directory, "conflict", kept.getDescription(), deleted.getDescription());
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                output.add(line);
+            }
+        }
+        checks.equal(0, other.waitFor(), "exit status of the conflicting process, which wrote " + output);
+        window.persister.persist();
+        Task mine = window.find(kept.getDescription());
+        checks.equal(List.of("mine"), mine == null ? null : mine.getTags(), "tags of a task changed in both");
+        checks.that(window.find(deleted.getDescription()) == null, "a task deleted there is still here");
+
+        Window third = new Window(directory);
+        checks.equal(state(window.taskManager), state(third.taskManager), "tasks opened after the conflicts");
+        third.close();
+    }
+
+    /**
+     * Runs the other process: with "work", it makes its share of the changes once the profile
+     * is open and reports the tasks it expects; with "conflict", it changes the tags of one task
+     * and deletes another, named by their descriptions.
+     *
+     * @param args the profile directory, the mode and the descriptions of the tasks in conflict
+     * @throws IOException if the profile cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Window window = new Window(Paths.get(args[0]));
+        if (args[1].equals("work")) {
+            out.println(READY);
+            out.flush();
+            Map<String, String> expected = work(window, "that", new Random(450));
+            out.println(STATE);
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                out.println(entry.getKey() + "=" + entry.getValue());
+            }
+        } else {
+            window.taskManager.tagTask(window.indexOf(args[2]), List.of("theirs"));
+            window.persister.persist();
+            window.taskManager.removeTask(window.find(args[3]).getId());
+            window.persister.persist();
+        }
+        window.close();
+        out.flush();
+    }
+
+    private static Process start(Path directory, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), JournalCheck.class.getName(), directory.toString()));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    /**
+     * Adds, marks, tags and deletes tasks named after the process, saving after each change,
+     * and returns the state each of its remaining tasks should have.
+     */
+    private static Map<String, String> work(Window window, String name, Random random) {
+        TaskManager taskManager = window.taskManager;
+        List<String> own = new ArrayList<>();
+        for (int i = 0; i < CHANGES; i++) {
+            int kind = own.isEmpty() ? 0 : random.nextInt(10);
+            String description = own.isEmpty() ? null : own.get(random.nextInt(own.size()));
+            if (kind < 5) {
+                description = name + " " + i;
+                taskManager.addTask(taskManager.new Todo("Todo", description, TaskManager.Priority.A));
+                own.add(description);
+            } else if (kind < 7) {
+                taskManager.markTaskAsDone(window.indexOf(description));
+            } else if (kind < 9) {
+                taskManager.tagTask(window.indexOf(description), List.of(name + i));
+            } else {
+                taskManager.removeTask(window.find(description).getId());
+                own.remove(description);
+            }
+            window.persister.persist();
+        }
+        Map<String, String> expected = new TreeMap<>();
+        for (String description : own) {
+            expected.put(description, describe(window.find(description)));
+        }
+        return expected;
+    }
+
+    private static Map<String, String> state(TaskManager taskManager) {
+        Map<String, String> state = new TreeMap<>();
+        for (Task task : taskManager.getAllTasks()) {
+            state.put(task.getDescription(), describe(task));
+        }
+        return state;
+    }
+
+    private static String describe(Task task) {
+        return (((TaskManager.Todo) task).isDone() ? "done " : "open ") + task.getTags();
+    }
+
+    private static List<String> descriptions(TaskManager taskManager) {
+        List<String> descriptions = new ArrayList<>();
+        for (Task task : taskManager.getAllTasks()) {
+            descriptions.add(task.getDescription());
+        }
+        return descriptions;
+    }
+
+    private static void checkIds(Checks checks, TaskManager taskManager, String what) {
+        Set<Integer> ids = new HashSet<>();
+        for (Task task : taskManager.getAllTasks()) {
+            ids.add(task.getId());
+        }
+        checks.equal(taskManager.listSize(), ids.size(), what + ": tasks with distinct ids");
+    }
+}
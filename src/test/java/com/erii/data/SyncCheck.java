@@ -0,0 +1,282 @@
+package com.erii.data;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.erii.core.TaskManager;
+import com.erii.core.TaskManager.Task;
+import com.erii.replay.Checks;
+
+/**
+ * The SyncCheck class checks the Merkle trees over task id ranges and the syncs built on them.
+ * Two trees over random leaf hashes must differ in exactly the nodes above the leaves that
+ * differ. Two data directories are then changed at random, each in tasks of its own and with
+ * new tasks that take the same ids on both sides, and synced after every round; both must then
+ * hold the same tasks under the same ids, as a model of all the changes says. A task changed on
+ * both sides must end up as changed later, and a directory that lost its sync files must still
+ * take the changes of the other.
+ */
+public final class SyncCheck {
+    private static final int TREE_ROUNDS = 200;
+    private static final int SYNC_ROUNDS = 12;
+
+    private SyncCheck() {
+    }
+
+    /**
+     * The Copy class is one of the two data directories, open with its tasks loaded.
+     */
+    private static final class Copy {
+        private final DataStorage storage;
+        private final TaskManager taskManager = new TaskManager();
+
+        private Copy(Path directory) {
+            storage = storage(directory);
+            for (Task task : storage.loadTasks(taskManager)) {
+                taskManager.loadTask(task);
+            }
+        }
+
+        private Task find(String description) {
+            for (Task task : taskManager.getAllTasks()) {
+                if (task.getDescription().equals(description)) {
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @param checks the results of the checks
+     * @throws Exception if a directory cannot be written or read, or the wait for the clock is interrupted
+     */
+    public static void run(Checks checks) throws Exception {
+        Random random = new Random(46);
+        for (int round = 0; round < TREE_ROUNDS; round++) {
+            checkTrees(checks, random, round);
+        }
+        for (int maxId : new int[] {0, 1, 31, 32, 33, 63, 64, 65, 1000, 4096, random.nextInt(100000)}) {
+            int leaves = MerkleTree.leavesFor(maxId);
+            checks.that(Integer.bitCount(leaves) == 1 && (long) leaves * MerkleTree.LEAF_IDS > maxId
+                    && (leaves == 1 || leaves / 2 * MerkleTree.LEAF_IDS <= maxId),
+                    leaves + " leaves for ids up to " + maxId + " is not the smallest power of two covering them");
+        }
+        checkSyncs(checks, random, checks.newDirectory(), checks.newDirectory());
+    }
+
+    /**
+     * Builds two trees over leaf hashes that differ in a few leaves, and checks that exactly the
+     * nodes above those leaves have different hashes.
+     */
+    private static void checkTrees(Checks checks, Random random, int round) {
+        int leaves = 1 << random.nextInt(9);
+        Map<Integer, Long> hashes = new HashMap<>();
+        for (int leaf = 0; leaf < leaves; leaf++) {
+            if (random.nextInt(3) > 0) {
+                hashes.put(leaf, random.nextLong());
+            }
+        }
+        Map<Integer, Long> changed = new HashMap<>(hashes);
+        Set<Integer> differing = new HashSet<>();
+        int changes = random.nextInt(4);
+        for (int i = 0; i < changes; i++) {
+            int leaf = random.nextInt(leaves);
+            long hash = random.nextInt(4) == 0 ? 0 : random.nextLong();
+            changed.put(leaf, hash);
+            if (hashes.getOrDefault(leaf, 0L) != hash) {
+                differing.add(leaf);
+            } else {
+                differing.remove(leaf);
+            }
+        }
+        MerkleTree tree = new MerkleTree(hashes, leaves);
+        MerkleTree other = new MerkleTree(changed, leaves);
+        int wrong = 0;
+        for (int node = 1; node < 2 * leaves; node++) {
+            boolean isAbove = false;
+            int first = node;
+            int last = node;
+            while (first < leaves) {
+                first = 2 * first;
+                last = 2 * last + 1;
+            }
+            for (int leaf = first - leaves; leaf <= last - leaves; leaf++) {
+                isAbove |= differing.contains(leaf);
+            }
+            if (isAbove == (tree.hash(node) == other.hash(node))) {
+                wrong++;
+            }
+        }
+        checks.equal(0, wrong, "round " + round + ": nodes of " + leaves + " leaves whose hashes differ when no leaf"
+                + " below them does, or the other way round, with leaves " + differing + " changed");
+    }
+
+    private static void checkSyncs(Checks checks, Random random, Path a, Path b) throws Exception {
+        Map<String, String> model = new TreeMap<>();
+        Copy first = new Copy(a);
+        for (int i = 0; i < 300; i++) {
+            TaskManager taskManager = first.taskManager;
+            taskManager.addTask(taskManager.new Todo("Todo", "first " + i, TaskManager.Priority.A));
+            model.put("first " + i, describe(taskManager.getTask(i)));
+        }
+        first.storage.saveTasks(first.taskManager.getAllTasks());
+        first.storage.close();
+        sync(checks, a, b, model, "first sync");
+
+        int renumbered = 0;
+        for (int round = 0; round < SYNC_ROUNDS; round++) {
+            Copy left = new Copy(a);
+            Copy right = new Copy(b);
+            // Each side changes the tasks of one parity, so no task is changed on both
+            change(left, "left", 0, random, round, model);
+            change(right, "right", 1, random, round, model);
+            left.storage.close();
+            right.storage.close();
+            renumbered += sync(checks, a, b, model, "round " + round).renumbered;
+        }
+        checks.that(renumbered > 0, "no task added on both sides with the same id was renumbered");
+
+        TaskSync.Result result = sync(checks, a, b, model, "sync without changes");
+        checks.that(result.hashesCompared == 1 && result.sent == 0 && result.received == 0,
+                "a sync without changes compared " + result.hashesCompared + " hashes and copied "
+                + (result.sent + result.received) + " tasks");
+
+        checkLaterChangeWins(checks, a, b, model);
+
+        Files.delete(a.resolve(TaskVersions.FILE_NAME));
+        Files.deleteIfExists(a.resolve(TaskVersions.CHANGES_FILE_NAME));
+        Copy right = new Copy(b);
+        change(right, "right", 1, random, SYNC_ROUNDS, model);
+        right.storage.close();
+        sync(checks, a, b, model, "sync after the sync files of a directory were lost");
+    }
+
+    /**
+     * Tags the same task on both sides, the right side first, and checks that the left side's
+     * tags win.
+     */
+    private static void checkLaterChangeWins(Checks checks, Path a, Path b, Map<String, String> model)
+            throws Exception {
+        Copy right = new Copy(b);
+        Task task = right.taskManager.getTask(0);
+        right.taskManager.tagTask(0, List.of("earlier"));
+        right.storage.saveTask(right.taskManager::getAllTasks, task);
+        right.storage.close();
+        // The versions are timed to the millisecond
+        Thread.sleep(20);
+        Copy left = new Copy(a);
+        Task same = left.find(task.getDescription());
+        left.taskManager.tagTask(left.taskManager.getAllTasks().indexOf(same), List.of("later"));
+        left.storage.saveTask(left.taskManager::getAllTasks, same);
+        left.storage.close();
+        model.put(same.getDescription(), describe(same));
+        TaskSync.Result result = sync(checks, a, b, model, "sync of a task changed on both sides");
+        checks.equal(1, result.conflicts, "conflicts of a task changed on both sides");
+    }
+
+    /**
+     * Marks, tags, deletes and adds tasks in a directory and saves them, task by task or all at
+     * once, recording the changes in the model.
+     */
+    private static void change(Copy copy, String name, int parity, Random random, int round,
+            Map<String, String> model) {
+        TaskManager taskManager = copy.taskManager;
+        boolean isSavedByTask = random.nextBoolean();
+        int changes = 1 + random.nextInt(8);
+        for (int i = 0; i < changes; i++) {
+            List<Task> own = new ArrayList<>();
+            for (Task task : taskManager.getAllTasks()) {
+                if (task.getId() % 2 == parity) {
+                    own.add(task);
+                }
+            }
+            Task task = own.get(random.nextInt(own.size()));
+            int index = taskManager.getAllTasks().indexOf(task);
+            switch (random.nextInt(4)) {
+                case 0:
+                    taskManager.markTaskAsDone(index);
+                    break;
+                case 1:
+                    taskManager.tagTask(index, List.of(name + round));
+                    break;
+                case 2:
+                    taskManager.removeTask(task.getId());
+                    model.remove(task.getDescription());
+                    if (isSavedByTask) {
+                        copy.storage.deleteTask(taskManager::getAllTasks, task);
+                    }
+                    continue;
+                default:
+                    // Both sides give their new tasks the same ids, which the sync has to tell apart
+                    task = taskManager.new Todo("Todo", name + " " + round + " " + i, TaskManager.Priority.B);
+                    taskManager.addTask(task);
+                    break;
+            }
+            model.put(task.getDescription(), describe(task));
+            if (isSavedByTask) {
+                copy.storage.saveTask(taskManager::getAllTasks, task);
+            }
+        }
+        if (!isSavedByTask) {
+            copy.storage.saveTasks(taskManager.getAllTasks());
+        }
+    }
+
+    /**
+     * Syncs the two directories and checks that both then hold the tasks of the model, each task
+     * under the same id on both sides.
+     */
+    private static TaskSync.Result sync(Checks checks, Path a, Path b, Map<String, String> model, String what) {
+        DataStorage left = storage(a);
+        DataStorage right = storage(b);
+        TaskSync.Result result = new TaskSync(left, right).sync();
+        left.close();
+        right.close();
+        Copy leftCopy = new Copy(a);
+        Copy rightCopy = new Copy(b);
+        checks.equal(model, state(leftCopy.taskManager), what + ": tasks of the first directory");
+        checks.equal(model, state(rightCopy.taskManager), what + ": tasks of the second directory");
+        checks.equal(ids(leftCopy.taskManager), ids(rightCopy.taskManager), what + ": ids of the tasks");
+        checks.equal(leftCopy.taskManager.listSize(), new HashSet<>(ids(leftCopy.taskManager).values()).size(),
+                what + ": tasks with distinct ids");
+        leftCopy.storage.close();
+        rightCopy.storage.close();
+        return result;
+    }
+
+    private static DataStorage storage(Path directory) {
+        return new DataStorage(directory.toString(),
+                new TextTaskRepository(directory.resolve(DataStorage.TASKS_FILE_NAME).toString(), false));
+    }
+
+    private static Map<String, String> state(TaskManager taskManager) {
+        Map<String, String> state = new TreeMap<>();
+        for (Task task : taskManager.getAllTasks()) {
+            state.put(task.getDescription(), describe(task));
+        }
+        return state;
+    }
+
+    private static Map<String, Integer> ids(TaskManager taskManager) {
+        Map<String, Integer> ids = new TreeMap<>();
+        for (Task task : taskManager.getAllTasks()) {
+            ids.put(task.getDescription(), task.getId());
+        }
+        return ids;
+    }
+
+    private static String describe(Task task) {
+        return (((TaskManager.Todo) task).isDone() ? "done " : "open ") + task.getTags();
+    }
+}
@@ -0,0 +1,123 @@
+package com.erii.replay;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.erii.core.BitmapCheck;
+import com.erii.core.DependencyCheck;
+import com.erii.core.QueryCheck;
+import com.erii.data.BPlusTreeCheck;
+import com.erii.data.CompressedTaskFileCheck;
+import com.erii.data.HistoryCheck;
+import com.erii.data.JournalCheck;
+import com.erii.data.SyncCheck;
+
+/**
+ * The CheckHarness class runs the focused checks of the storage formats and data structures,
+ * each against a simple model of what it should do, without any test framework.
+ * <p>
+ * Every area runs in a temporary directory of its own with the console output of the program
+ * discarded, and is reported with the number of checks that passed or the messages of those
+ * that failed. Areas can be chosen by name; by default all of them run. The harness exits with
+ * status 1 if any check failed; this is the check step of text-ui-test.
+ */
+public class CheckHarness {
+    private static final int MAX_FAILURES_SHOWN = 10;
+    private static final Map<String, Area> AREAS = new LinkedHashMap<>();
+
+    static {
+        AREAS.put("history", HistoryCheck::run);
+        AREAS.put("compressed", CompressedTaskFileCheck::run);
+        AREAS.put("bplustree", BPlusTreeCheck::run);
+        AREAS.put("bitmap", BitmapCheck::run);
+        AREAS.put("query", QueryCheck::run);
+        AREAS.put("dependencies", DependencyCheck::run);
+        AREAS.put("journal", JournalCheck::run);
+        AREAS.put("sync", SyncCheck::run);
+    }
+
+    /**
+     * The Area interface is the checks of one part of the program.
+     */
+    @FunctionalInterface
+    public interface Area {
+        /**
+         * Runs the checks.
+         *
+         * @param checks the results of the checks
+         * @throws Exception if a check cannot be run
+         */
+        void run(Checks checks) throws Exception;
+    }
+
+    public static void main(String[] args) {
+        List<String> names = args.length > 0 ? Arrays.asList(args) : List.copyOf(AREAS.keySet());
+        for (String name : names) {
+            if (!AREAS.containsKey(name)) {
+                System.out.println("Unknown check " + name + ". Checks: " + String.join(", ", AREAS.keySet()));
+                System.exit(2);
+            }
+        }
+        try {
+            System.exit(runAll(names) ? 0 : 1);
+        } catch (IOException e) {
+            System.out.println("An error occurred while running the checks: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static boolean runAll(List<String> names) throws IOException {
+        PrintStream stdout = System.out;
+        int failed = 0;
+        for (String name : names) {
+            Path directory = Files.createTempDirectory("erii-check-" + name);
+            Checks checks = new Checks(directory);
+            long start = System.nanoTime();
+            try {
+                // The program reports to the console; only the results of the checks are shown
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                AREAS.get(name).run(checks);
+            } catch (Exception e) {
+                checks.failed(e);
+            } finally {
+                System.setOut(stdout);
+                delete(directory);
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            if (checks.getFailures().isEmpty()) {
+                System.out.printf("PASS %-12s %5d checks %6d ms%n", name, checks.getPassed(), millis);
+            } else {
+                failed++;
+                System.out.printf("FAIL %-12s %5d checks passed, %d failed%n", name, checks.getPassed(),
+                        checks.getFailures().size());
+                List<String> failures = checks.getFailures();
+                for (String failure : failures.subList(0, Math.min(failures.size(), MAX_FAILURES_SHOWN))) {
+                    System.out.println("     " + failure);
+                }
+                if (failures.size() > MAX_FAILURES_SHOWN) {
+                    System.out.println("     and " + (failures.size() - MAX_FAILURES_SHOWN) + " more");
+                }
+            }
+        }
+        System.out.println(failed == 0 ? "All checks passed." : failed + " of " + names.size() + " areas failed.");
+        return failed == 0;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+}
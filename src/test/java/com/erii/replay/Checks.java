@@ -0,0 +1,90 @@
+package com.erii.replay;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The Checks class collects the results of the checks of one area, so that a failing check is
+ * reported with its message and the remaining checks still run.
+ */
+public final class Checks {
+    private final Path directory;
+    private final List<String> failures = new ArrayList<>();
+    private int passed;
+    private int directories;
+
+    /**
+     * Constructs a Checks for an area whose files are kept in the given directory.
+     *
+     * @param directory the directory the area may create files in
+     */
+    Checks(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Checks that a condition holds.
+     *
+     * @param condition the condition
+     * @param message   what is wrong if it does not hold
+     */
+    public void that(boolean condition, String message) {
+        if (condition) {
+            passed++;
+        } else {
+            failures.add(message);
+        }
+    }
+
+    /**
+     * Checks that a value equals the expected value.
+     *
+     * @param expected the expected value
+     * @param actual   the actual value
+     * @param what     what the value is
+     */
+    public void equal(Object expected, Object actual, String what) {
+        that(Objects.equals(expected, actual), what + ": expected " + expected + " but was " + actual);
+    }
+
+    /**
+     * Returns a new empty directory for the files of a check. It is deleted after the area ran.
+     *
+     * @return the directory
+     * @throws IOException if the directory cannot be created
+     */
+    public Path newDirectory() throws IOException {
+        return Files.createDirectories(directory.resolve(Integer.toString(++directories)));
+    }
+
+    /**
+     * Returns the number of checks that passed.
+     *
+     * @return the number of passed checks
+     */
+    int getPassed() {
+        return passed;
+    }
+
+    /**
+     * Returns the messages of the checks that failed.
+     *
+     * @return the failure messages
+     */
+    List<String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Records a check that failed by throwing.
+     *
+     * @param e the exception
+     */
+    void failed(Exception e) {
+        failures.add("threw " + e);
+    }
+}
@@ -1,5 +1,9 @@
 @ECHO OFF
 
+REM Usage: runtest                replays input.txt and compares the output with EXPECTED.TXT
+REM        runtest --replay ...   replays a generated workload and reports its throughput and latency
+REM        runtest --checks ...   runs the checks of src\test\java only, optionally of the named areas
+
 REM create bin directory if it doesn't exist
 if not exist ..\bin mkdir ..\bin
 
@@ -7,15 +11,32 @@ REM delete output from previous run
 if exist ACTUAL.TXT del ACTUAL.TXT
 
 REM compile the code into the bin folder
-javac  -cp ..\src\main\java -Xlint:none -d ..\bin ..\src\main\java\*.java
+dir /s /b ..\src\main\java\*.java ..\src\test\java\*.java > sources.txt
+javac -encoding UTF-8 -Xlint:none -d ..\bin @sources.txt
 IF ERRORLEVEL 1 (
+    del sources.txt
     echo ********** BUILD FAILURE **********
     exit /b 1
 )
+del sources.txt
 REM no error here, errorlevel == 0
 
-REM run the program, feed commands from input.txt file and redirect the output to the ACTUAL.TXT
-java -classpath ..\bin Duke < input.txt > ACTUAL.TXT
+if "%1"=="--replay" (
+    java -classpath ..\bin com.erii.replay.ReplayHarness %2 %3 %4 %5 %6 %7 %8 %9
+    exit /b
+)
+
+if "%1"=="--checks" (
+    java -Xmx256m -classpath ..\bin com.erii.replay.CheckHarness %2 %3 %4 %5 %6 %7 %8 %9
+    exit /b
+)
+
+REM replay the commands in input.txt against an empty data directory and save the output to ACTUAL.TXT
+java -classpath ..\bin com.erii.replay.ReplayHarness --input input.txt --transcript ACTUAL.TXT
 
 REM compare the output to the expected output
 FC ACTUAL.TXT EXPECTED.TXT
+IF ERRORLEVEL 1 exit /b 1
+
+REM run the checks of the storage formats and data structures
+java -Xmx256m -classpath ..\bin com.erii.replay.CheckHarness
@@ -1,5 +1,12 @@
 #!/usr/bin/env bash
 
+# Usage: ./runtest.sh             replays input.txt and compares the output with EXPECTED.TXT
+#        ./runtest.sh --replay    replays a generated workload and reports its throughput and latency;
+#                                 any further options are passed to the replay harness, for example
+#                                 ./runtest.sh --replay --commands 20000 --warmup 5000
+#        ./runtest.sh --checks    runs the checks of src/test/java only; any further options name the
+#                                 areas to check, for example ./runtest.sh --checks history
+
 # create bin directory if it doesn't exist
 if [ ! -d "../bin" ]
 then
@@ -13,26 +20,49 @@ then
 fi
 
 # compile the code into the bin folder, terminates if error occurred
-if ! javac -cp ../src/main/java -Xlint:none -d ../bin ../src/main/java/*.java
+if ! javac -encoding UTF-8 -Xlint:none -d ../bin $(find ../src/main/java ../src/test/java -name "*.java")
 then
     echo "********** BUILD FAILURE **********"
     exit 1
 fi
 
-# run the program, feed commands from input.txt file and redirect the output to the ACTUAL.TXT
-java -classpath ../bin Duke < input.txt > ACTUAL.TXT
+if [ "$1" == "--replay" ]
+then
+    shift
+    java -classpath ../bin com.erii.replay.ReplayHarness "$@"
+    exit $?
+fi
+
+if [ "$1" == "--checks" ]
+then
+    shift
+    java -Xmx256m -classpath ../bin com.erii.replay.CheckHarness "$@"
+    exit $?
+fi
+
+# replay the commands in input.txt against an empty data directory and save the output to ACTUAL.TXT
+if ! java -classpath ../bin com.erii.replay.ReplayHarness --input input.txt --transcript ACTUAL.TXT
+then
+    echo "********** REPLAY FAILURE **********"
+    exit 1
+fi
 
 # convert to UNIX format
 cp EXPECTED.TXT EXPECTED-UNIX.TXT
 dos2unix ACTUAL.TXT EXPECTED-UNIX.TXT
 
 # compare the output to the expected output
-diff ACTUAL.TXT EXPECTED-UNIX.TXT
-if [ $? -eq 0 ]
+if ! diff ACTUAL.TXT EXPECTED-UNIX.TXT
+then
+    echo "Test result: FAILED"
+    exit 1
+fi
+
+# run the checks of the storage formats and data structures
+if ! java -Xmx256m -classpath ../bin com.erii.replay.CheckHarness
 then
-    echo "Test result: PASSED"
-    exit 0
-else
     echo "Test result: FAILED"
     exit 1
-fi
\ No newline at end of file
+fi
+echo "Test result: PASSED"
+exit 0